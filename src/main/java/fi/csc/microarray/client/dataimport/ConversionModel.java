@@ -15,6 +15,11 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
@@ -51,6 +56,16 @@ public class ConversionModel implements ConversionModelChangeSupport {
 	private static final Logger logger = Logger.getLogger(ConversionModel.class);
 
 	private static final String SAMPLE_START = "chip.";
+	
+	/**
+	 * Size of the parts of the file which are converted in parallel when writing the file
+	 */
+	private static final long CHUNK_SIZE = 4 * 1024 * 1024;
+	
+	/**
+	 * Number of lines to read at once when counting columns
+	 */
+	private static final int CHUNK_LINES = 16 * 1024;
 
 	/**
 	 * Column delimiter
@@ -111,7 +126,7 @@ public class ConversionModel implements ConversionModelChangeSupport {
 	/**
 	 * Chopped data. Notice that the first column is a line number column
 	 */
-	private Object[][] choppedDataMatrix;
+	private PreviewRows previewRows;
 
 	/**
 	 * Import screen
@@ -288,10 +303,12 @@ public class ConversionModel implements ConversionModelChangeSupport {
 	 * reads the line count of the file and tries to guess the delimiter of the
 	 * file.
 	 * 
-	 * The file is read line by line from the start to the end or just a limited
-	 * amount of rows and columns. When a single line is read it is splitted and
-	 * the row number column is added. Finally the chopped data is returned and
-	 * saved to <code>choppedDataMatrix</code> field.
+	 * When the whole file is shown, the rows are not read here. The analysis 
+	 * creates an index of the lines and the table reads the rows it shows 
+	 * with the help of it. Otherwise the file is read line by line from the 
+	 * start until the row limit is reached. When a single line is read it is 
+	 * splitted and the row number column is added. Finally the chopped data is 
+	 * returned and saved to <code>previewRows</code> field.
 	 * 
 	 * The method uses also <code>ProgressInformator</code> which is an
 	 * interface to a informator class to inform the user of the process state.
@@ -304,7 +321,7 @@ public class ConversionModel implements ConversionModelChangeSupport {
 	 * @throws IOException
 	 * 
 	 */
-	public Object[][] chopData(boolean ignoreHeadersAndFooters, ProgressInformator informator) throws IOException {
+	public PreviewRows chopData(boolean ignoreHeadersAndFooters, ProgressInformator informator) throws IOException {
 
 		// Cannot read file and chop data if no input file is set
 		if (inputFile == null) {
@@ -328,88 +345,64 @@ public class ConversionModel implements ConversionModelChangeSupport {
 		// Gets start time (debugging)
 		long chopStarted = System.currentTimeMillis();
 
-		// LinkedList to store the splitted lines.
-		List<Object[]> dataMatrix = new LinkedList<Object[]>();
+		LineIndex index = analyser.getLineIndex();
+
+		if (!ignoreHeadersAndFooters && rowLimit >= index.getLineCount()) {
+			
+			// All lines are shown, so the rows are read only when the table needs them 
+			int columns = countColumns(index, informator);
+			if (index.getLineCount() > 0) {
+				// Plus 1 for the row number column
+				this.maxColumnsInRow = columns + 1;
+			}
+			this.previewRows = new PreviewRows.Indexed(index, index.getLineCount(), delim.toString(), columnLimit);
+
+			// Update the titles for the current delimiter
+			if (columnTitleLine >= 0 && columnTitleLine < index.getLineCount()) {
+				this.setColumnTitles(index.readLines(columnTitleLine, 1).get(0).split(delim.toString()));
+			}
+			
+		} else {
+			this.previewRows = new PreviewRows.Loaded(readRows(ignoreHeadersAndFooters, informator));
+		}
+
+		long chopTime = System.currentTimeMillis() - chopStarted;
+
+		logger.debug("Chop time: " + chopTime);
+
+		return this.previewRows;
+	}
+
+	/**
+	 * Reads the lines until the row limit is reached.
+	 * 
+	 * @param ignoreHeadersAndFooters
+	 * @param informator
+	 * @return rows
+	 * @throws IOException
+	 */
+	private List<Object[]> readRows(boolean ignoreHeadersAndFooters, ProgressInformator informator) throws IOException {
+
+		// List to store the splitted lines.
+		List<Object[]> dataMatrix = new ArrayList<Object[]>();
 
 		// Gets lines from file and split them on delimeter
 		String[] splittedLine;
-		Object[] dataLine;
-		StringBuffer token;
-		Double tokenAsDouble;
 
 		informator.setMessage("Reading and parsing data from file");
 
-		boolean isLimited = false;
-
 		// Initialize buffered reader
 		initializeReader();
 		try {
 			while ((splittedLine = nextLine(ignoreHeadersAndFooters, false)) != null && !Thread.interrupted()) {
-				isLimited = false;
-
-				// Sets the length of the line. The length is depending on
-				// columnLimit
-				int dataLineLenghtLimit;
-				if (splittedLine.length >= columnLimit) {
-					// Limit the length
-					dataLineLenghtLimit = columnLimit;
-					isLimited = true;
-				} else {
-					// No need to limit the lenght. Plus 1 for the row number
-					// column
-					dataLineLenghtLimit = splittedLine.length + 1;
-				}
 
 				// Count the actual column count
 				if (splittedLine.length + 1 > this.maxColumnsInRow) {
 					this.maxColumnsInRow = splittedLine.length + 1;
 				}
 
-				// Read the splitted line and store the information to dataLine
-				// array
-				dataLine = new Object[dataLineLenghtLimit];
-
-				// Row number
-				dataLine[0] = lineNumber;
-
-				// Start from 1 because of the first column (row number)
-				// Respect the column limit
-				for (int j = 1; j < dataLineLenghtLimit; j++) {
-
-					token = new StringBuffer(splittedLine[j - 1]);
-
-					// Count the maximum column count in the file.
-					// Plus one because we want to store the count, not the
-					// index
-					if (j + 1 > this.maxColumnsInRow) {
-						this.maxColumnsInRow = j + 1;
-
-						// If the maxColumnsInRow is changed and titles are the
-						// default titles,
-						// the change of column count affect also to column
-						// titles.
-						if (columnTitles == null && this.maxColumnsInRow == getLimitedColumnCount()) {
-							this.fireColumnTitlesChangeEvent(new ColumnTitlesChangedEvent(this, getDefaultColumnTitles()));
-						}
-					}
-
-					// To have visual sign of limitation
-					if (isLimited && j == dataLineLenghtLimit - 1) {
-						dataLine[j] = "...";
-					} else {
-
-						// Saves token to dataMatrix as Double or String
-						try {
-							tokenAsDouble = new Double(token.toString());
-							dataLine[j] = tokenAsDouble;
-						} catch (NumberFormatException nfe2) {
-							dataLine[j] = token.toString();
-						}
-					}
-				}
-
 				// Add the line to the matrix
-				dataMatrix.add(dataLine);
+				dataMatrix.add(PreviewRows.parseRow(splittedLine, lineNumber, columnLimit));
 
 				// Inform the informator is needed
 				if (lineNumber % getInformationInterval() == 0) {
@@ -420,15 +413,34 @@ public class ConversionModel implements ConversionModelChangeSupport {
 			// The buf.readline method may throw ClosedByInterruptException
 			buf.close();
 		}
+		
+		return dataMatrix;
+	}
 
-		long chopTime = System.currentTimeMillis() - chopStarted;
-
-		logger.debug("Chop time: " + chopTime);
-
-		// Save the data to memory
-		this.choppedDataMatrix = dataMatrix.toArray(new Object[0][]);
-
-		return this.choppedDataMatrix;
+	/**
+	 * Gets the biggest column count on the file. The analyser has counted the columns 
+	 * for the predefined delimiters. For custom delimiters the lines are splitted here. 
+	 * 
+	 * @param index
+	 * @param informator
+	 * @return column count without the row number column
+	 * @throws IOException
+	 */
+	private int countColumns(LineIndex index, ProgressInformator informator) throws IOException {
+		
+		int columns = analyser.getColumnCount(delim);
+		if (columns >= 0) {
+			return columns;
+		}
+		
+		columns = 0;
+		for (int line = 0; line < index.getLineCount() && !Thread.interrupted(); line += CHUNK_LINES) {
+			for (String nextLine : index.readLines(line, CHUNK_LINES)) {
+				columns = Math.max(columns, nextLine.split(delim.toString()).length);
+			}
+			informator.setValue(line);
+		}
+		return columns;
 	}
 
 	/**
@@ -553,7 +565,8 @@ public class ConversionModel implements ConversionModelChangeSupport {
 	/**
 	 * Writes data to file. The file writing is done by reading the file line by
 	 * line and then using conversion models and column managers setting the
-	 * file is chopped and then written to file.
+	 * file is chopped and then written to file. Parts of the file are chopped 
+	 * in parallel.
 	 * 
 	 * @throws FileNotFoundException
 	 * @throws IOException
@@ -563,10 +576,8 @@ public class ConversionModel implements ConversionModelChangeSupport {
 		// Creates output files (only one if data is normalised)
 		createOutputFiles(screen.getColumnTypeManager().getChipCount());
 
-		// Initialises file reader
-		initializeReader();
-		
-		
+		// Index of the lines for reading the file in parts
+		LineIndex index = getLineIndex();
 		
 		// Creates writer for each chip (file)
 		List<PrintWriter> outputWriters = new ArrayList<PrintWriter>();
@@ -577,10 +588,13 @@ public class ConversionModel implements ConversionModelChangeSupport {
 
 		// Initialize informator
 		informator.setMinimunValue(0);
-		informator.setMaximumValue(linesOnFile);
+		informator.setMaximumValue(index.getLineCount());
 
 		String OUTPUT_DELIM = "\t";
 
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		
 		try {
 
 			// Gets columns
@@ -669,12 +683,102 @@ public class ConversionModel implements ConversionModelChangeSupport {
 
 			/*
 			 * Column titles are now written to each file, so let's write
-			 * the actual data
+			 * the actual data. The file is converted in parts in several 
+			 * threads and the parts are written in the original order.
 			 */
+			List<Integer> chunkStarts = index.getChunkStarts(CHUNK_SIZE);
+			LinkedList<Future<String[]>> convertedChunks = new LinkedList<Future<String[]>>();
+			int writtenChunks = 0;
 
-			// Read the file line by line
-			String[] splittedLine;
-			while ((splittedLine = nextLine(true, true)) != null) {
+			for (int chunk = 0; chunk < chunkStarts.size() || !convertedChunks.isEmpty(); ) {
+				
+				if (Thread.interrupted()) {
+					break;
+				}
+
+				// Convert the next part, unless too many parts are waiting
+				if (chunk < chunkStarts.size() && convertedChunks.size() < threads * 2) {
+					int firstLine = chunkStarts.get(chunk);
+					int endLine = chunk + 1 < chunkStarts.size() ? chunkStarts.get(chunk + 1) : index.getLineCount();
+					convertedChunks.add(executor.submit(new ConvertChunk(index, firstLine, endLine - firstLine, columns, isFirst.length, outputWriters.size())));
+					chunk++;
+					continue;
+				}
+
+				// Write the oldest part
+				String[] converted = convertedChunks.removeFirst().get();
+				for (int i = 0; i < outputWriters.size(); i++) {
+					outputWriters.get(i).print(converted[i]);
+				}
+				
+				writtenChunks++;
+				informator.setValue(writtenChunks < chunkStarts.size() ? chunkStarts.get(writtenChunks) : index.getLineCount());
+			}
+			
+		} catch (InterruptedException ie) {
+			// Do nothing
+
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof ClosedByInterruptException) {
+				// Do nothing
+			} else if (ee.getCause() instanceof Exception) {
+				application.reportException((Exception) ee.getCause());
+			} else {
+				application.reportException(ee);
+			}
+		} catch (Exception e) {
+			application.reportException(e);
+		} finally {
+			executor.shutdownNow();
+			for (PrintWriter output : outputWriters) {
+				if (output != null) {
+					output.close();
+				}
+			}
+			previewRows = null;
+			informator.setValue(0);
+		}
+	}
+
+
+	/**
+	 * Converts a part of the input file for each output file.
+	 */
+	private class ConvertChunk implements Callable<String[]> {
+
+		private LineIndex index;
+		private int firstLine;
+		private int lineCount;
+		private List<DataColumn> columns;
+		private int chipCount;
+		private int outputCount;
+
+		public ConvertChunk(LineIndex index, int firstLine, int lineCount, List<DataColumn> columns, int chipCount, int outputCount) {
+			this.index = index;
+			this.firstLine = firstLine;
+			this.lineCount = lineCount;
+			this.columns = columns;
+			this.chipCount = chipCount;
+			this.outputCount = outputCount;
+		}
+
+		public String[] call() throws IOException {
+
+			StringBuilder[] outputs = new StringBuilder[outputCount];
+			for (int i = 0; i < outputs.length; i++) {
+				outputs[i] = new StringBuilder();
+			}
+			boolean[] isFirst = new boolean[chipCount];
+
+			List<String> lines = index.readLines(firstLine, lineCount);
+			for (int line = 0; line < lines.size(); line++) {
+
+				// Skip headers, footers and the title line
+				if (!isDataLine(firstLine + line)) {
+					continue;
+				}
+
+				String[] splittedLine = lines.get(line).split(delim.toString());
 
 				// Column number of the current line
 				int columnNumber = 0;
@@ -706,19 +810,19 @@ public class ConversionModel implements ConversionModelChangeSupport {
 					if (type.equals(ColumnType.ANNOTATION_LABEL) || 
 							type.equals(ColumnType.IDENTIFIER_LABEL)) {
 
-						for (int chip = 0; chip < outputWriters.size(); chip++) {
+						for (int chip = 0; chip < outputs.length; chip++) {
 							writeSplittedLineToChipFile(chip, columnNumber, isFirst, splittedLine, 
-									outputWriters.get(chip), type);
+									outputs[chip], type);
 						}
 					} else {
 						if(isNormalised){							
 							writeSplittedLineToChipFile(column.getChipNumber() - 1, columnNumber, 
 									isFirst, splittedLine, 
-									outputWriters.get(0), type);
+									outputs[0], type);
 						} else {
 							writeSplittedLineToChipFile(column.getChipNumber() - 1, columnNumber, 
 									isFirst, splittedLine, 
-									outputWriters.get(column.getChipNumber() - 1), type);
+									outputs[column.getChipNumber() - 1], type);
 						}
 					}
 
@@ -726,31 +830,53 @@ public class ConversionModel implements ConversionModelChangeSupport {
 				}
 
 				// Add new line
-				for (PrintWriter output : outputWriters) {
-					output.print("\n");
-				}
-
-				if (lineNumber % getInformationInterval() == 0) {
-					informator.setValue(lineNumber);
+				for (StringBuilder output : outputs) {
+					output.append("\n");
 				}
 			}
-		} catch (ClosedByInterruptException cbie) {
-			// Do nothing
 
-		} catch (Exception e) {
-			application.reportException(e);
-		} finally {
-			for (PrintWriter output : outputWriters) {
-				if (output != null) {
-					output.close();
-				}
+			String[] converted = new String[outputs.length];
+			for (int i = 0; i < outputs.length; i++) {
+				converted[i] = outputs[i].toString();
 			}
-			buf.close();
-			choppedDataMatrix = null;
-			informator.setValue(0);
+			return converted;
+		}
+	}
+
+	/**
+	 * Tells if the line contains data. Header, footer and column title lines 
+	 * are skipped like in <code>nextLine</code>.
+	 * 
+	 * @param lineNumber
+	 * @return false for header, footer and title lines
+	 */
+	private boolean isDataLine(int lineNumber) {
+		if (lineNumber == columnTitleLine) {
+			return false;
+		} else if (headerEnd > -1 && lineNumber <= headerEnd) {
+			return false;
+		} else if (footerStart > -1 && lineNumber >= footerStart) {
+			return false;
 		}
+		return true;
 	}
 
+	/**
+	 * Gets the index of the input file lines. The file is analysed again if the 
+	 * input file has changed without updating the table, but the delimiter 
+	 * and other settings are kept.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private LineIndex getLineIndex() throws IOException {
+		if (analyser != null && analyser.isSameFileAs(inputFile) && analyser.isAnalysed()) {
+			return analyser.getLineIndex();
+		}
+		FileAnalyser fileAnalyser = new FileAnalyser(inputFile);
+		fileAnalyser.startAnalysing();
+		return fileAnalyser.getLineIndex();
+	}
 
 	private List<DataColumn> columnsFilterByType(List<DataColumn> columns,
 			ColumnType type) {
@@ -874,12 +1000,13 @@ public class ConversionModel implements ConversionModelChangeSupport {
 			logger.debug("Column titles set to null");
 		} else {
 			String[] columns = new String[getLimitedColumnCount()];
+			Object[] titleRow = previewRows.getRow(row);
 			for (int i = 1; i < columns.length && i < columnLimit; i++) {
-				// The first column of choppedDataMatrix is ignored because it
+				// The first column of previewRows is ignored because it
 				// is the
 				// row number column
-				if (i < choppedDataMatrix[row].length) {
-					columns[i - 1] = choppedDataMatrix[row][i].toString();
+				if (i < titleRow.length) {
+					columns[i - 1] = titleRow[i].toString();
 				} else {
 					columns[i - 1] = " ";
 				}
@@ -1191,7 +1318,7 @@ public class ConversionModel implements ConversionModelChangeSupport {
 		return outputFiles;
 	}
 
-	private void writeSplittedLineToChipFile(int chip, int columnNumber, boolean[] isFirst, String[] splittedLine, PrintWriter outputWriter, ColumnType type) {
+	private void writeSplittedLineToChipFile(int chip, int columnNumber, boolean[] isFirst, String[] splittedLine, StringBuilder outputWriter, ColumnType type) {
 		String OUTPUT_DELIM = "\t";
 
 		if(isNormalised){
@@ -1204,7 +1331,7 @@ public class ConversionModel implements ConversionModelChangeSupport {
 			// Do not print delimiter to the first column of the row
 			isFirst[chip] = false;
 		} else {
-			outputWriter.print(OUTPUT_DELIM);
+			outputWriter.append(OUTPUT_DELIM);
 		}
 
 		// Get the data to be written to file
@@ -1228,7 +1355,7 @@ public class ConversionModel implements ConversionModelChangeSupport {
 		}
 		
 		// Get the correct outputWriter and print the data to file
-		outputWriter.print(dataToWrite);
+		outputWriter.append(dataToWrite);
 	}
 
 	public String getInputFileName() {
@@ -1,10 +1,11 @@
 package fi.csc.microarray.client.dataimport;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
 import java.util.HashMap;
@@ -12,12 +13,11 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 
-import sun.nio.ch.ChannelInputStream;
-
 /**
  * Class to analyse file which will be imported. While analysing file 
  * the analyser tries to guess which is the best suitable delimeter to 
- * chop the data of the file. It also count lines on file.
+ * chop the data of the file. It also count lines on file and creates 
+ * a <code>LineIndex</code> for reading the lines later.
  * 
  * @author Mikko Koski, Petri Klemelä
  *
@@ -53,6 +53,18 @@ public class FileAnalyser {
 	 * doubled during each iteration. So this is only the start value.
 	 */
 	private final static int DELIMETER_GUESS_INTERVAL_START = 10;
+	
+	private final static int READ_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Byte offsets of the lines
+	 */
+	private LineIndex lineIndex;
+	
+	/**
+	 * Biggest column count of a line for each predefined delimiter
+	 */
+	private Map<String, Integer> columnCounts;
 
 	public FileAnalyser(File file) {
 		this.file = file;
@@ -61,7 +73,10 @@ public class FileAnalyser {
 
 	
 	/**
-	 * Starts analysing the file
+	 * Starts analysing the file. The file is read as bytes, so that the byte offsets of the 
+	 * lines can be stored to the line index. The lines where the delimiter is guessed are 
+	 * the only ones converted to strings. Columns of each line are counted for every 
+	 * predefined delimiter, so that the whole file doesn't have to be split later. 
 	 * 
 	 * @throws IOException the exception is thrown if there occures some problems 
 	 * while reading the file but also if the analysis is interrupted
@@ -74,45 +89,116 @@ public class FileAnalyser {
 			hitCountsOnFile.put(delim, 0);
 		}
 		
+		// Column counting for each predefined delimiter. The counting follows String.split(), 
+		// which ignores the empty columns in the end of the line
+		Delimiter[] delimiters = Delimiter.values();
+		byte[] delimiterBytes = new byte[delimiters.length];
+		for (int d = 0; d < delimiters.length; d++) {
+			delimiterBytes[d] = (byte) delimiters[d].toString().charAt(0);
+		}
+		int[] columnsOnLine = new int[delimiters.length];
+		int[] lastColumnOnLine = new int[delimiters.length];
+		int[] maxColumns = new int[delimiters.length];
+		
 		// Line counter
 		int lines = 0;
 		
-		// Variable for line
-		String nextLine;
+		LineIndex index = new LineIndex(file);
 		
-		BufferedReader buf = null;
+		// Bytes of the line which is used for guessing the delimiter
+		ByteArrayOutputStream sampleLine = new ByteArrayOutputStream();
 		int delimInterval = FileAnalyser.DELIMETER_GUESS_INTERVAL_START;
+		
+		InputStream in = null;
 		try {
-			buf = new BufferedReader(new InputStreamReader(new ChannelInputStream((new RandomAccessFile(file, "r")).getChannel())));
+			in = Channels.newInputStream((new RandomAccessFile(file, "r")).getChannel());
 			
-			// Read through the file line by line
-			while((nextLine = buf.readLine()) != null && !Thread.interrupted()){
-				lines++;
-				if(lines % delimInterval == 0){
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			long position = 0;
+			int read;
+			
+			// Line breaks are handled like in BufferedReader.readLine()
+			boolean lineHasContent = false;
+			boolean skipLineFeed = false;
+			
+			// Read through the file
+			while(!Thread.interrupted() && (read = in.read(buffer)) != -1){
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
 					
-					// Guess the best suitable delimeter for this line
-					Delimiter bestSuitable = FileAnalyser.guessDelimeterForLine(nextLine);
+					if (b == '\n' && skipLineFeed) {
+						// End of \r\n line break
+						skipLineFeed = false;
+						continue;
+					}
+					skipLineFeed = false;
 					
-					// Increase the hit count
-					int delimeterCount = hitCountsOnFile.get(bestSuitable);
-					delimeterCount++;
-					hitCountsOnFile.put(bestSuitable, delimeterCount);
-					delimInterval = delimInterval * 2;
+					if (b == '\n' || b == '\r') {
+						
+						// End of line
+						lines++;
+						if (lineHasContent) {
+							for (int d = 0; d < delimiters.length; d++) {
+								maxColumns[d] = Math.max(maxColumns[d], lastColumnOnLine[d]);
+								columnsOnLine[d] = 0;
+								lastColumnOnLine[d] = 0;
+							}
+						}						
+						if(lines % delimInterval == 0){
+							guessDelimeter(sampleLine, hitCountsOnFile);
+							delimInterval = delimInterval * 2;
+						}
+						lineHasContent = false;
+						skipLineFeed = b == '\r';
+						
+					} else {
+						
+						if (!lineHasContent) {
+							// First character of a non-empty line
+							index.addLine(position + i);
+							lineHasContent = true;
+						}
+						
+						for (int d = 0; d < delimiters.length; d++) {
+							if (b == delimiterBytes[d]) {
+								columnsOnLine[d]++;
+							} else {
+								lastColumnOnLine[d] = columnsOnLine[d] + 1;
+							}
+						}
+						
+						if (lines + 1 == delimInterval) {
+							sampleLine.write(b);
+						}
+					}
 				}
+				position += read;
 			}
+			
+			// Last line without a line break
+			if (lineHasContent) {
+				lines++;
+				for (int d = 0; d < delimiters.length; d++) {
+					maxColumns[d] = Math.max(maxColumns[d], lastColumnOnLine[d]);
+				}
+				if(lines % delimInterval == 0){
+					guessDelimeter(sampleLine, hitCountsOnFile);
+				}
+			}
+			
 		} catch (ClosedByInterruptException cbie){
-			if(buf != null){
-				buf.close();
+			if(in != null){
+				in.close();
 			}
 			throw cbie;
 		} catch (ClosedChannelException che){
-			if(buf != null){
-				buf.close();
+			if(in != null){
+				in.close();
 			}
 			throw che;
 		} finally {
-			if(buf != null){
-				buf.close();
+			if(in != null){
+				in.close();
 			}
 		}
 		
@@ -132,10 +218,31 @@ public class FileAnalyser {
 		// Save the results
 		this.delimiter = bestSuitable;
 		this.linesOnFile = lines;
+		this.lineIndex = index;
+		this.columnCounts = new HashMap<String, Integer>();
+		for (int d = 0; d < delimiters.length; d++) {
+			this.columnCounts.put(delimiters[d].toString(), maxColumns[d]);
+		}
 		this.isAnalysed = true;
 	}
 	
-	
+	/**
+	 * Guesses the best suitable delimiter for the sampled line and increases its hit count.
+	 * 
+	 * @param sampleLine bytes of the line, cleared after use
+	 * @param hitCountsOnFile
+	 */
+	private static void guessDelimeter(ByteArrayOutputStream sampleLine, Map<Delimiter, Integer> hitCountsOnFile) {
+		
+		// Guess the best suitable delimeter for this line
+		Delimiter bestSuitable = FileAnalyser.guessDelimeterForLine(sampleLine.toString());
+		sampleLine.reset();
+		
+		// Increase the hit count
+		int delimeterCount = hitCountsOnFile.get(bestSuitable);
+		delimeterCount++;
+		hitCountsOnFile.put(bestSuitable, delimeterCount);
+	}
 	
 	/**
 	 * Guesses the best delimeter for this given line. The line is splitted 
@@ -184,6 +291,30 @@ public class FileAnalyser {
 		}
 	}
 
+	public LineIndex getLineIndex() {
+		if(isAnalysed){
+			return lineIndex;
+		} else {
+			throw new IllegalStateException("File is not analysed yet");
+		}
+	}
+	
+	/**
+	 * Gets the biggest number of columns on a line, when the lines are split 
+	 * with the given delimiter.
+	 * 
+	 * @param delim
+	 * @return column count or -1 if the columns were not counted for this delimiter
+	 */
+	public int getColumnCount(Delimiter delim) {
+		if(isAnalysed){
+			Integer count = columnCounts.get(delim.toString());
+			return count != null ? count : -1;
+		} else {
+			throw new IllegalStateException("File is not analysed yet");
+		}
+	}
+
 	public int getLinesOnFile() {
 		if(isAnalysed){
 			return linesOnFile;
@@ -201,6 +332,8 @@ public class FileAnalyser {
 			this.file = inputFile;
 			this.delimiter = null;
 			this.linesOnFile = -1;
+			this.lineIndex = null;
+			this.columnCounts = null;
 			this.isAnalysed = false;
 		} else {
 			// The file is same file and it is already analysed. 
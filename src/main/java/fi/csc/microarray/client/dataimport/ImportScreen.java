@@ -204,7 +204,7 @@ public class ImportScreen extends ScreenBase implements ImportScreenModel,
 		 */
 		private boolean hideHeaderFooter;
 
-		private Object[][] choppedDataMatrix;
+		private PreviewRows previewRows;
 		private String[] columnTitles;
 
 		public UpdateTableProcess(ProgressInformator informator,
@@ -216,9 +216,9 @@ public class ImportScreen extends ScreenBase implements ImportScreenModel,
 		public void taskToDo() {
 			logger.debug("Starting import process");
 
-			choppedDataMatrix = null;
+			previewRows = null;
 			try {
-				choppedDataMatrix = conversionModel.chopData(hideHeaderFooter,
+				previewRows = conversionModel.chopData(hideHeaderFooter,
 						this.getInformator());
 			} catch (IOException e) {
 				application.reportException(e);
@@ -227,7 +227,7 @@ public class ImportScreen extends ScreenBase implements ImportScreenModel,
 			columnTitles = conversionModel.getColumnTitles();
 
 			tableFrame.getTable().setData(
-					UpdateTableProcess.this.choppedDataMatrix,
+					UpdateTableProcess.this.previewRows,
 					UpdateTableProcess.this.columnTitles);
 
 			SwingUtilities.invokeLater(new Runnable() {
@@ -0,0 +1,132 @@
+package fi.csc.microarray.client.dataimport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Byte offsets of the lines of a file. Empty lines are ignored and the
+ * rest of the lines are numbered like in <code>ConversionModel</code>.
+ * Only the offset of every {@link #SAMPLE_INTERVAL}th line is stored, the
+ * lines between those are found by reading forward. This way any part of
+ * the file can be read without keeping the whole file in memory.
+ *
+ * The index is created by <code>FileAnalyser</code>.
+ *
+ */
+public class LineIndex {
+
+	/**
+	 * Number of lines between the stored offsets
+	 */
+	public static final int SAMPLE_INTERVAL = 64;
+
+	private File file;
+
+	private long[] offsets = new long[1024];
+
+	/**
+	 * Count of non-empty lines
+	 */
+	private int lineCount = 0;
+
+	public LineIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Adds the next non-empty line to the index.
+	 *
+	 * @param offset byte offset of the first character of the line
+	 */
+	void addLine(long offset) {
+		if (lineCount % SAMPLE_INTERVAL == 0) {
+			int sample = lineCount / SAMPLE_INTERVAL;
+			if (sample == offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			offsets[sample] = offset;
+		}
+		lineCount++;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return count of non-empty lines
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Splits the file to parts of about the given size. Each part
+	 * starts from a stored offset, so it can be read without reading
+	 * the previous lines.
+	 *
+	 * @param chunkSize size of the parts in bytes
+	 * @return number of the first line of each part
+	 */
+	public List<Integer> getChunkStarts(long chunkSize) {
+		List<Integer> starts = new ArrayList<Integer>();
+		long chunkStart = -1;
+		for (int sample = 0; sample * SAMPLE_INTERVAL < lineCount; sample++) {
+			if (chunkStart < 0 || offsets[sample] - chunkStart >= chunkSize) {
+				starts.add(sample * SAMPLE_INTERVAL);
+				chunkStart = offsets[sample];
+			}
+		}
+		return starts;
+	}
+
+	/**
+	 * Reads non-empty lines. Every call opens the file again, so several threads
+	 * can read different parts of the file at the same time.
+	 *
+	 * @param firstLine number of the first line to read
+	 * @param count number of lines to read
+	 * @return lines or less lines if the end of file was reached
+	 * @throws IOException
+	 */
+	public List<String> readLines(int firstLine, int count) throws IOException {
+
+		List<String> lines = new ArrayList<String>(Math.max(0, Math.min(count, lineCount - firstLine)));
+
+		if (firstLine >= lineCount || count <= 0) {
+			return lines;
+		}
+
+		int sample = firstLine / SAMPLE_INTERVAL;
+		int lineNumber = sample * SAMPLE_INTERVAL;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.position(offsets[sample]);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel)));
+
+			String line;
+			while (lines.size() < count && (line = reader.readLine()) != null) {
+				if (line.equals("")) {
+					continue;
+				}
+				if (lineNumber >= firstLine) {
+					lines.add(line);
+				}
+				lineNumber++;
+			}
+		} finally {
+			raf.close();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,272 @@
+package fi.csc.microarray.client.dataimport;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Rows of the import preview table. Each row starts with the row number
+ * column, which is followed by the data columns either as a
+ * <code>Double</code> or a <code>String</code>.
+ *
+ * The rows are either read to the memory at once or read from the file
+ * when those are needed.
+ *
+ */
+public abstract class PreviewRows {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(PreviewRows.class);
+
+	public abstract int getRowCount();
+
+	/**
+	 * @param row
+	 * @return row number column and the data columns of the row
+	 */
+	public abstract Object[] getRow(int row);
+
+	/**
+	 * Rows in memory
+	 */
+	public static class Loaded extends PreviewRows {
+
+		private Object[][] rows;
+
+		public Loaded(List<Object[]> rows) {
+			this.rows = rows.toArray(new Object[0][]);
+		}
+
+		@Override
+		public int getRowCount() {
+			return rows.length;
+		}
+
+		@Override
+		public Object[] getRow(int row) {
+			return rows[row];
+		}
+	}
+
+	/**
+	 * Rows which are read from the file in pages of
+	 * {@link LineIndex#SAMPLE_INTERVAL} rows. Only the most recently
+	 * used pages are kept in memory. Row numbers are the line numbers 
+	 * starting from one.
+	 */
+	public static class Indexed extends PreviewRows {
+
+		private static final int PAGE_SIZE = LineIndex.SAMPLE_INTERVAL;
+		private static final int CACHED_PAGES = 64;
+
+		private LineIndex index;
+		private int rowCount;
+		private String delimiter;
+		private int columnLimit;
+
+		private Map<Integer, Object[][]> pages = new LinkedHashMap<Integer, Object[][]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+				return size() > CACHED_PAGES;
+			}
+		};
+
+		/**
+		 * @param index
+		 * @param rowCount number of lines to show from the beginning of the file
+		 * @param delimiter regular expression to split the lines
+		 * @param columnLimit number of columns including the row number column
+		 */
+		public Indexed(LineIndex index, int rowCount, String delimiter, int columnLimit) {
+			this.index = index;
+			this.rowCount = rowCount;
+			this.delimiter = delimiter;
+			this.columnLimit = columnLimit;
+		}
+
+		@Override
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		@Override
+		public synchronized Object[] getRow(int row) {
+			int page = row / PAGE_SIZE;
+			Object[][] rows = pages.get(page);
+			if (rows == null) {
+				rows = readPage(page);
+				pages.put(page, rows);
+			}
+			return rows[row - page * PAGE_SIZE];
+		}
+
+		private Object[][] readPage(int page) {
+			int firstRow = page * PAGE_SIZE;
+			Object[][] rows = new Object[Math.min(PAGE_SIZE, rowCount - firstRow)][];
+			try {
+				List<String> lines = index.readLines(firstRow, rows.length);
+				for (int i = 0; i < lines.size(); i++) {
+					rows[i] = parseRow(lines.get(i).split(delimiter), firstRow + i + 1, columnLimit);
+				}
+			} catch (IOException e) {
+				logger.error("could not read lines from " + index.getFile(), e);
+			}
+
+			// Rows that couldn't be read are shown empty
+			for (int i = 0; i < rows.length; i++) {
+				if (rows[i] == null) {
+					rows[i] = new Object[] { firstRow + i + 1 };
+				}
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Creates a table row from the splitted line. The row number column is added
+	 * and the data columns are limited so that the row has at most columnLimit
+	 * columns. The last column of a limited row is shown as "...".
+	 *
+	 * @param splittedLine
+	 * @param lineNumber
+	 * @param columnLimit number of columns including the row number column
+	 * @return row
+	 */
+	public static Object[] parseRow(String[] splittedLine, int lineNumber, int columnLimit) {
+
+		boolean isLimited = splittedLine.length >= columnLimit;
+
+		// Plus 1 for the row number column
+		Object[] dataLine = new Object[isLimited ? columnLimit : splittedLine.length + 1];
+
+		// Row number
+		dataLine[0] = lineNumber;
+
+		for (int j = 1; j < dataLine.length; j++) {
+			// To have visual sign of limitation
+			if (isLimited && j == dataLine.length - 1) {
+				dataLine[j] = "...";
+			} else {
+				// Saves token as Double or String
+				String token = splittedLine[j - 1];
+				Double number = parseDouble(token);
+				dataLine[j] = number != null ? number : token;
+			}
+		}
+		return dataLine;
+	}
+
+	/**
+	 * Parses a number like <code>Double.valueOf(String)</code> does, but returns null
+	 * instead of throwing an exception when the text isn't a number. Plain decimal
+	 * numbers are recognised directly. Only the texts that start like a number and 
+	 * could be one of the special formats of <code>Double.valueOf(String)</code> 
+	 * (surrounding whitespace, NaN, Infinity, hexadecimal or type suffix) are tried 
+	 * with the exception.
+	 *
+	 * @param token
+	 * @return number or null
+	 */
+	public static Double parseDouble(String token) {
+
+		if (isDecimal(token)) {
+			return Double.valueOf(token);
+		}
+
+		// Double.valueOf() ignores the leading whitespace
+		int start = 0;
+		while (start < token.length() && token.charAt(start) <= ' ') {
+			start++;
+		}
+		if (start == token.length()) {
+			return null;
+		}
+		
+		// most texts can be rejected by the first character
+		char first = token.charAt(start);
+		if (!(first == '+' || first == '-' || first == '.' || (first >= '0' && first <= '9') || first == 'N' || first == 'I')) {
+			return null;
+		}
+
+		if (start > 0 || token.charAt(token.length() - 1) <= ' ') {
+			return parseWithException(token);
+		}
+
+		for (int i = 0; i < token.length(); i++) {
+			switch (token.charAt(i)) {
+			case 'N':
+			case 'I':
+			case 'x':
+			case 'X':
+			case 'f':
+			case 'F':
+			case 'd':
+			case 'D':
+				return parseWithException(token);
+			}
+		}
+		return null;
+	}
+
+	private static Double parseWithException(String token) {
+		try {
+			return Double.valueOf(token);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param token
+	 * @return true if the token is sign, digits, decimal point and exponent
+	 */
+	private static boolean isDecimal(String token) {
+		int length = token.length();
+		int i = 0;
+
+		if (i < length && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+			i++;
+		}
+
+		int digits = 0;
+		while (i < length && isDigit(token.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if (i < length && token.charAt(i) == '.') {
+			i++;
+			while (i < length && isDigit(token.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+
+		if (i < length && (token.charAt(i) == 'e' || token.charAt(i) == 'E')) {
+			i++;
+			if (i < length && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+				i++;
+			}
+			int exponentDigits = 0;
+			while (i < length && isDigit(token.charAt(i))) {
+				i++;
+				exponentDigits++;
+			}
+			if (exponentDigits == 0) {
+				return false;
+			}
+		}
+		return i == length;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -31,6 +31,7 @@ import fi.csc.microarray.client.dataimport.ColumnType;
 import fi.csc.microarray.client.dataimport.ColumnTypeManager;
 import fi.csc.microarray.client.dataimport.ConversionModel;
 import fi.csc.microarray.client.dataimport.ImportScreen;
+import fi.csc.microarray.client.dataimport.PreviewRows;
 import fi.csc.microarray.client.dataimport.events.ColumnTitlesChangedEvent;
 import fi.csc.microarray.client.dataimport.events.ConversionModelChangeListener;
 import fi.csc.microarray.client.dataimport.events.DecimalSeparatorChangedEvent;
@@ -59,22 +60,25 @@ public class ImportPreviewTable extends JXTable implements MouseMotionListener,
 	private static final int COLUMN_WIDTH = 120;
 	
 	/**
-	 * Table model for imported data. 
+	 * Table model for imported data. The rows are asked from the 
+	 * <code>PreviewRows</code> only when those are shown, so the 
+	 * whole file doesn't have to be in memory.
+	 * 
 	 * @author mkoski
 	 *
 	 */
 	class ImportPreviewTableModel extends AbstractTableModel {
 
 		private String[] columnTitles;
-		private Object[][] arrayData;
+		private PreviewRows rows;
 
-		public ImportPreviewTableModel(Object[][] arrayData, String[] columnTitles) {
-			this.arrayData = arrayData;
+		public ImportPreviewTableModel(PreviewRows rows, String[] columnTitles) {
+			this.rows = rows;
 			this.columnTitles = columnTitles;
 		}
 
 		public int getRowCount() {
-			return arrayData.length;
+			return rows != null ? rows.getRowCount() : 0;
 		}
 
 		public int getColumnCount() {
@@ -104,12 +108,13 @@ public class ImportPreviewTable extends JXTable implements MouseMotionListener,
 		 * @return value of the cell or empty string if there is no value set
 		 */
 		public Object getValueAt(int row, int col) {
-			if (row >= 0 && row < arrayData.length &&
-					col >= 0 && col < arrayData[row].length) {
-				return arrayData[row][col];
-			} else {
-				return "";
+			if (row >= 0 && row < getRowCount() && col >= 0) {
+				Object[] rowData = rows.getRow(row);
+				if (col < rowData.length) {
+					return rowData[col];
+				}
 			}
+			return "";
 		}
 	}
 
@@ -302,10 +307,10 @@ public class ImportPreviewTable extends JXTable implements MouseMotionListener,
 	/**
 	 * Sets data to table. This method updates swing components and it made thread safe.
 	 * 
-	 * @param arrayData
+	 * @param rows
 	 * @param columnTitles
 	 */
-	public void setData(Object[][] arrayData, String[] columnTitles) {
+	public void setData(PreviewRows rows, String[] columnTitles) {
 		
 		/**
 		 * Runnable helper class to set data to table. This is done 
@@ -320,16 +325,16 @@ public class ImportPreviewTable extends JXTable implements MouseMotionListener,
 		 */
 		class SetModelRunnable implements Runnable{
 
-			private Object[][] arrayData;
+			private PreviewRows rows;
 			private String[] columnTitles;
 			
-			public SetModelRunnable(Object[][] arrayData, String[] columnTitles) {
-				this.arrayData = arrayData;
+			public SetModelRunnable(PreviewRows rows, String[] columnTitles) {
+				this.rows = rows;
 				this.columnTitles = columnTitles;
 			}
 			
 			public void run() {
-				ImportPreviewTable.this.setModel(new ImportPreviewTableModel(arrayData, columnTitles));
+				ImportPreviewTable.this.setModel(new ImportPreviewTableModel(rows, columnTitles));
 				if(screen.getCurrentStep() == ImportScreen.Step.FIRST){
 					screen.getTableFrame().addCornerComponents();
 				}
@@ -371,7 +376,7 @@ public class ImportPreviewTable extends JXTable implements MouseMotionListener,
 		
 		// Set data to table
 		try {
-			SwingUtilities.invokeAndWait(new SetModelRunnable(arrayData, columnTitles));
+			SwingUtilities.invokeAndWait(new SetModelRunnable(rows, columnTitles));
 		} 
 		
 		catch (InterruptedException e) { } 
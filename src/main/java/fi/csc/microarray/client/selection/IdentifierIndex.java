@@ -0,0 +1,114 @@
+package fi.csc.microarray.client.selection;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.exception.MicroarrayException;
+
+/**
+ * Identifiers of the rows of a dataset and a hash index from the identifiers to rows.
+ * Used for mapping selections between rows and identifiers, so that the identifier
+ * column doesn't have to be read again for every selection. The index is kept in the
+ * content bound cache of the bean, so it is created again when the content changes.
+ *
+ * @see DataBean#putToContentBoundCache(String, Object)
+ */
+public class IdentifierIndex {
+
+	private static final String CACHENAME_PREFIX = "identifier-index:";
+	private static final String IDENTIFIER_EXPRESSION = "/identifier";
+
+	private String[] identifiers;
+	private Map<String, Integer> rows;
+
+	/**
+	 * Index of the identifier column of the dataset.
+	 */
+	public static IdentifierIndex getIndex(DataBean data) throws MicroarrayException {
+		return getIndex(data, IDENTIFIER_EXPRESSION);
+	}
+
+	/**
+	 * Index of any column of the dataset.
+	 *
+	 * @param expression feature query that returns the identifiers as strings, e.g. /column/symbol
+	 */
+	public static IdentifierIndex getIndex(DataBean data, String expression) throws MicroarrayException {
+		String cacheName = CACHENAME_PREFIX + expression;
+		IdentifierIndex index = (IdentifierIndex)data.getFromContentBoundCache(cacheName);
+		if (index == null) {
+			Iterable<String> strings = data.queryFeatures(expression).asStrings();
+			if (strings == null) {
+				throw new MicroarrayException("no identifiers " + expression + " in " + data.getName());
+			}
+			index = new IdentifierIndex(strings);
+			data.putToContentBoundCache(cacheName, index);
+		}
+		return index;
+	}
+
+	IdentifierIndex(Iterable<String> strings) {
+		List<String> list = new ArrayList<String>();
+		rows = new HashMap<String, Integer>();
+		for (String identifier : strings) {
+			// the last row wins, when the same identifier is on several rows
+			rows.put(identifier, list.size());
+			list.add(identifier);
+		}
+		identifiers = list.toArray(new String[list.size()]);
+	}
+
+	public int getRowCount() {
+		return identifiers.length;
+	}
+
+	public String getIdentifier(int row) {
+		return identifiers[row];
+	}
+
+	/**
+	 * @return row of the identifier or -1, if there isn't such identifier
+	 */
+	public int getRow(String identifier) {
+		Integer row = rows.get(identifier);
+		return row != null ? row : -1;
+	}
+
+	/**
+	 * @return rows of the identifiers that were found
+	 */
+	public BitSet getRows(Collection<String> identifiers) {
+		BitSet bits = new BitSet(this.identifiers.length);
+		for (String identifier : identifiers) {
+			Integer row = rows.get(identifier);
+			if (row != null) {
+				bits.set(row);
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * @return identifiers of the set bits, in the order of the rows
+	 */
+	public List<String> getIdentifiers(BitSet rows) {
+		List<String> names = new ArrayList<String>(rows.cardinality());
+		for (int row = rows.nextSetBit(0); row >= 0 && row < identifiers.length; row = rows.nextSetBit(row + 1)) {
+			names.add(identifiers[row]);
+		}
+		return names;
+	}
+
+	/**
+	 * @return unmodifiable map from the identifiers to rows
+	 */
+	public Map<String, Integer> asMap() {
+		return Collections.unmodifiableMap(rows);
+	}
+}
@@ -6,7 +6,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 
@@ -26,6 +26,8 @@ import fi.csc.microarray.module.basic.BasicModule;
 
 /**
  * Selection manager for the rows that are selected from the specific dataset.
+ * Selected rows are kept in a bitset, and the selection events tell which rows
+ * were added to or removed from the selection.
  * 
  * @author Petri Klemelä, Aleksi Kallio
  * 
@@ -35,7 +37,7 @@ public class IntegratedSelectionManager {
 
 	private ClientApplication client;
 	private DataBean data;
-	private int[] selectedRows = new int[0];
+	private BitSet selectedRows = new BitSet();
 	private static IntegratedEntity pointSelection; // FIXME remove static and make the whole thing not dataset specific
 
 	public IntegratedSelectionManager(ClientApplication client, DataBean data) {
@@ -44,27 +46,35 @@ public class IntegratedSelectionManager {
 	}
 
 	public int[] getSelectionAsRows() {
-		return selectedRows.clone();
+		int[] rows = new int[selectedRows.cardinality()];
+		int i = 0;
+		for (int row = selectedRows.nextSetBit(0); row >= 0; row = selectedRows.nextSetBit(row + 1)) {
+			rows[i++] = row;
+		}
+		return rows;
 	}
 
-	public IntegratedEntity getPointSelection() {
-		return IntegratedSelectionManager.pointSelection;
+	/**
+	 * @return copy of the selected rows
+	 */
+	public BitSet getSelectionAsBitSet() {
+		return (BitSet) selectedRows.clone();
 	}
 
-	public List<String> getSelectionAsIdentifiers() throws MicroarrayException {
+	public boolean isSelected(int row) {
+		return selectedRows.get(row);
+	}
 
-		Arrays.sort(selectedRows);
+	public int getSelectionCount() {
+		return selectedRows.cardinality();
+	}
 
-		List<String> names = new ArrayList<String>(selectedRows.length);
-		int i = 0;
-		for (String name : data.queryFeatures("/identifier").asStrings()) {
-			if (Arrays.binarySearch(selectedRows, i) >= 0) {
-				names.add(name);
-			}
-			i++;
-		}
+	public IntegratedEntity getPointSelection() {
+		return IntegratedSelectionManager.pointSelection;
+	}
 
-		return names;
+	public List<String> getSelectionAsIdentifiers() throws MicroarrayException {
+		return IdentifierIndex.getIndex(data).getIdentifiers(selectedRows);
 	}
 	
 	public List<String> getSelectedLines() throws Exception {
@@ -81,7 +91,7 @@ public class IntegratedSelectionManager {
 		boolean keepSelectedLines = !invert;
 		boolean keepUnselectedLines = invert;
 
-		List<String> lines = new ArrayList<String>(selectedRows.length + 1);
+		List<String> lines = new ArrayList<String>(selectedRows.cardinality() + 1);
 		
 		try (BufferedReader original = new BufferedReader(new InputStreamReader(
 				Session.getSession().getDataManager().getContentStream(data, DataNotAvailableHandling.EXCEPTION_ON_NA)))) {
@@ -105,12 +115,9 @@ public class IntegratedSelectionManager {
 
 			// copy selected rows
 			
-			// prepare for binary search
-			Arrays.sort(selectedRows);
-
 			for (int i = 0; (line = original.readLine()) != null; i++) {
 
-				boolean isSelected = Arrays.binarySearch(selectedRows, i) >= 0;
+				boolean isSelected = selectedRows.get(i);
 				
 				if ((keepSelectedLines && isSelected) 
 						|| (keepUnselectedLines && !isSelected)) {
@@ -170,8 +177,24 @@ public class IntegratedSelectionManager {
 	 * Normal type of selection.
 	 */
 	public void setSelection(int[] selection, Object source) {
-		selectedRows = selection.clone();
-		client.fireClientEvent(new SelectionEvent(data, source));
+		BitSet rows = new BitSet();
+		for (int row : selection) {
+			rows.set(row);
+		}
+		setSelection(rows, source);
+	}
+
+	/**
+	 * Normal type of selection.
+	 */
+	public void setSelection(BitSet selection, Object source) {
+		BitSet added = (BitSet) selection.clone();
+		added.andNot(selectedRows);
+		BitSet removed = (BitSet) selectedRows.clone();
+		removed.andNot(selection);
+
+		selectedRows = (BitSet) selection.clone();
+		client.fireClientEvent(new SelectionEvent(data, source, added, removed));
 	}
 
 	/**
@@ -183,7 +206,7 @@ public class IntegratedSelectionManager {
 	}
 
 	public void clearAll(Object source) {
-		selectedRows = new int[0];
+		selectedRows = new BitSet();
 	}
 
 	public void setSelected(Set<Integer> set, Object source) {
@@ -192,15 +215,12 @@ public class IntegratedSelectionManager {
 		// be avoided
 		set.remove(null);
 
-		int[] indexes = new int[set.size()];
-
-		int i = 0;
+		BitSet rows = new BitSet();
 		for (Integer index : set) {
 			if (index != null) {
-				indexes[i++] = index;
+				rows.set(index);
 			}
 		}
-		selectedRows = indexes;
-		client.fireClientEvent(new SelectionEvent(data, source));
+		setSelection(rows, source);
 	}
 }
@@ -1,6 +1,7 @@
 package fi.csc.microarray.client.selection;
 
 import java.beans.PropertyChangeEvent;
+import java.util.BitSet;
 
 import fi.csc.microarray.databeans.DataBean;
 
@@ -18,6 +19,9 @@ import fi.csc.microarray.databeans.DataBean;
  * event is not the manager, but the component that actually
  * triggered the selection change.</p> 
  * 
+ * <p>Components that keep their own copy of the selection can update
+ * only the rows that were added to or removed from the selection.</p>
+ * 
  * @see IntegratedSelectionManager
  * 
  * @author Petri Klemelä, Aleksi Kallio
@@ -25,13 +29,39 @@ import fi.csc.microarray.databeans.DataBean;
  */
 public class SelectionEvent extends PropertyChangeEvent {
 	private DataBean data;
+	private BitSet addedRows;
+	private BitSet removedRows;
 	
 	public SelectionEvent(DataBean data, Object source) {
+		this(data, source, null, null);
+	}
+
+	public SelectionEvent(DataBean data, Object source, BitSet addedRows, BitSet removedRows) {
 		super(source, null, null, null);
 		this.data = data;
+		this.addedRows = addedRows;
+		this.removedRows = removedRows;
 	}
 	
 	public DataBean getData(){
 		return data;
 	}
+
+	/**
+	 * @return rows that were selected by this change or null, if not known
+	 */
+	public BitSet getAddedRows() {
+		return addedRows;
+	}
+
+	/**
+	 * @return rows that were deselected by this change or null, if not known
+	 */
+	public BitSet getRemovedRows() {
+		return removedRows;
+	}
+
+	public boolean hasChangedRows() {
+		return addedRows != null && removedRows != null;
+	}
 }
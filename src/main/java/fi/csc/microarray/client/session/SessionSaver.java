@@ -57,6 +57,7 @@ import fi.csc.microarray.filebroker.ContentLengthException;
 import fi.csc.microarray.filebroker.FileBrokerClient;
 import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
 import fi.csc.microarray.util.IOUtils;
+import fi.csc.microarray.util.IOUtils.CopyProgressListener;
 import fi.csc.microarray.util.SwingTools;
 
 /**
@@ -157,24 +158,26 @@ public class SessionSaver {
 	public LinkedList<String> saveRemoteSession(FileBrokerArea area) throws Exception {
 		// move data bean contents to filebroker
 		LinkedList<String> dataIds = new LinkedList<String>();
-		
-		for (DataBean dataBean : dataManager.databeans()) {
-			
-			boolean success;
-			switch(area) {
-			case STORAGE:
-				success = dataManager.uploadToStorageIfNeeded(dataBean);
-				break;
-			case CACHE:
-				success = dataManager.uploadToCacheIfNeeded(dataBean, null);
-				break;
-			default:
-				throw new IllegalArgumentException("unknown filebroker area");
-			}
-				
-			if (success) {
-				dataIds.add(dataBean.getId());				
+		List<DataBean> dataBeans = dataManager.databeans();
+		
+		List<DataBean> uploaded;
+		switch(area) {
+		case STORAGE:
+			uploaded = dataManager.uploadToStorageIfNeeded(dataBeans);
+			break;
+		case CACHE:
+			List<CopyProgressListener> progressListeners = new LinkedList<>();
+			for (int i = 0; i < dataBeans.size(); i++) {
+				progressListeners.add(null);
 			}
+			uploaded = dataManager.uploadToCacheIfNeeded(dataBeans, progressListeners);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown filebroker area");
+		}
+		
+		for (DataBean dataBean : uploaded) {
+			dataIds.add(dataBean.getId());				
 		}
 		
 		// save metadata
@@ -390,8 +390,9 @@ public class TaskExecutor {
 					updateTaskState(task, State.TRANSFERRING_INPUTS, null, -1);
 					int i = 0;
 					
+					List<DataBean> inputBeans = new LinkedList<>();
+					List<CopyProgressListener> progressListeners = new LinkedList<>();
 					for (InputRecord input : task.getInputRecords()) {
-						String operationsInputName = input.getNameID().getID();
 						final DataBean bean = input.getValue();
 						final int fi = i;
 						CopyProgressListener progressListener = new CopyProgressListener() {
@@ -405,16 +406,22 @@ public class TaskExecutor {
 								updateTaskState(task, State.TRANSFERRING_INPUTS, null, Math.round(total * 100f));
 							}
 						};
-						
-						
-						// transfer input contents to file broker if needed
-						manager.uploadToCacheIfNeeded(bean, progressListener);
+						inputBeans.add(bean);
+						progressListeners.add(progressListener);
+						i++;
+					}
+					
+					// transfer input contents to file broker if needed
+					manager.uploadToCacheIfNeeded(inputBeans, progressListeners);
+					
+					for (InputRecord input : task.getInputRecords()) {
+						String operationsInputName = input.getNameID().getID();
+						DataBean bean = input.getValue();
 						
 						// add the data id to the message
 						jobMessage.addPayload(operationsInputName, bean.getId(), bean.getName());
 						
 						logger.debug("added input " + bean.getName() + " to job message.");
-						i++;
 					}				
 
 					updateTaskState(task, State.WAITING, null, -1);
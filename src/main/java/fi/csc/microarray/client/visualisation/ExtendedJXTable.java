@@ -12,6 +12,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import javax.swing.JComponent;
@@ -347,8 +348,42 @@ public class ExtendedJXTable extends JXTable implements ActionListener, Property
 
 			logger.debug("SelectionEvent not from Spreadsheet");
 
-			updateSelectionsFromApplication();
+			SelectionEvent selectionEvent = (SelectionEvent) evt;
+			if (selectionEvent.hasChangedRows()) {
+				updateChangedRows(selectionEvent.getAddedRows(), selectionEvent.getRemovedRows());
+			} else {
+				updateSelectionsFromApplication();
+			}
+		}
+	}
+
+	/**
+	 * Select and deselect only the rows that were changed, instead of going through 
+	 * the whole selection.
+	 */
+	private void updateChangedRows(BitSet added, BitSet removed) {
+
+		boolean tmp = doNotDispatchEvents;
+		doNotDispatchEvents = true;
+		this.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		ListSelectionModel selectionModel = this.getSelectionModel();
+		selectionModel.setValueIsAdjusting(true);
+
+		for (int row = removed.nextSetBit(0); row >= 0; row = removed.nextSetBit(row + 1)) {
+			int viewRow = this.convertRowIndexToView(row);
+			if (viewRow >= 0) {
+				selectionModel.removeSelectionInterval(viewRow, viewRow);
+			}
 		}
+		for (int row = added.nextSetBit(0); row >= 0; row = added.nextSetBit(row + 1)) {
+			int viewRow = this.convertRowIndexToView(row);
+			if (viewRow >= 0) {
+				selectionModel.addSelectionInterval(viewRow, viewRow);
+			}
+		}
+
+		selectionModel.setValueIsAdjusting(false);
+		doNotDispatchEvents = tmp;
 	}
 
 	public void updateSelectionsFromApplication() {
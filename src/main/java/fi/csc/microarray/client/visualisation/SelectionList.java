@@ -3,8 +3,8 @@ package fi.csc.microarray.client.visualisation;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +20,7 @@ import javax.swing.JScrollPane;
 import net.miginfocom.swing.MigLayout;
 import fi.csc.microarray.client.ClientApplication;
 import fi.csc.microarray.client.Session;
+import fi.csc.microarray.client.selection.IdentifierIndex;
 import fi.csc.microarray.client.visualisation.methods.threed.DataPoint;
 import fi.csc.microarray.databeans.DataBean;
 import fi.csc.microarray.exception.MicroarrayException;
@@ -192,6 +193,24 @@ public class SelectionList extends JPanel {
 	 */
 	public void setSelectedRows(Set<Integer> rows, Object source, boolean dispatchEvent, DataBean data) {
 
+		BitSet bits = new BitSet();
+		for (Integer row : rows) {
+			if (row != null) {
+				bits.set(row);
+			}
+		}
+		setSelectedRows(bits, source, dispatchEvent, data);
+	}
+
+	/**
+	 * @param rows
+	 * @param source
+	 * @param dispatchEvent
+	 * @param data
+	 *            is needed only if event is dispatched
+	 */
+	public void setSelectedRows(BitSet rows, Object source, boolean dispatchEvent, DataBean data) {
+
 		setData(data);
 		TableAnnotationProvider annotationProvider;
 		try {
@@ -202,31 +221,24 @@ public class SelectionList extends JPanel {
 		}
 
 		selectedListModel.removeAllElements();
-		setCount(rows.size());
-		filterSelectedButton.setEnabled(rows.size() > 0);
-		filterUnselectedButton.setEnabled(rows.size() > 0);
+		setCount(rows.cardinality());
+		filterSelectedButton.setEnabled(!rows.isEmpty());
+		filterUnselectedButton.setEnabled(!rows.isEmpty());
 
 
 		//TODO getAnnotatedRowname should allow row index arguments, as it is used generally
 		//to locate rows in chipster. After that finding these identifiers isn't necessary anymore
-		Iterator<String> ids = null;
 		try {
-			ids = data.queryFeatures("/identifier").asStrings().iterator();
+			for (String id : IdentifierIndex.getIndex(data).getIdentifiers(rows)) {
+				selectedListModel.addElement(annotationProvider.getAnnotatedRowname(id));
+			}
 		} catch (MicroarrayException e) {
 			//Finding identifiers shouldn't be necessary at all, see TODO couple rows upwards
 			application.reportException(e);
 		}
 
-		for(int i = 0; ids.hasNext(); i++){
-			String id = ids.next();
-
-			if(rows.contains(i)){
-				selectedListModel.addElement(annotationProvider.getAnnotatedRowname(id));
-			}
-		}
-
 		if (dispatchEvent) {
-			application.getSelectionManager().getSelectionManager(data).setSelected(
+			application.getSelectionManager().getSelectionManager(data).setSelection(
 					rows, source);
 		}
 	}
@@ -257,7 +257,7 @@ public class ChipsterGBrowserVisualisation extends Visualisation {
 
 			if (sel != null && sel.containsKey("chromosome") && sel.containsKey("start")) {
 
-				Chromosome chr = new Chromosome(sel.get("chromosome"));
+				Chromosome chr = Chromosome.valueOf(sel.get("chromosome"));
 				Long start = Long.parseLong(sel.get("start"));
 
 				Long end;
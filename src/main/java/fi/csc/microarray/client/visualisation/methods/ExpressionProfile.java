@@ -7,6 +7,7 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -57,7 +58,7 @@ implements PropertyChangeListener, SelectionChangeListener {
 	private DataBean data;
 	
 	//selection indexes in order of the original data
-	private Set<Integer> selectedIndexes = new HashSet<Integer>();
+	private BitSet selectedIndexes = new BitSet();
 
 	public void initialise(VisualisationFrame frame) throws Exception {
 		super.initialise(frame);
@@ -247,7 +248,7 @@ implements PropertyChangeListener, SelectionChangeListener {
 		float step = 1.0f / ((float)rows.size());
 			
 		for (ProfileRow row : rows) {
-			if(selectedIndexes.contains(row.series)){
+			if(selectedIndexes.get(row.series)){
 				renderer.setSeriesPaint(row.series, Color.black);
 			} else {
 				row.color = getColor(position);
@@ -319,11 +320,7 @@ implements PropertyChangeListener, SelectionChangeListener {
 			//of line inside selection rectangle would undo selection
 			
 			for(Integer row: newSelection){
-				if(selectedIndexes.contains(row)){
-					selectedIndexes.remove(row);
-				} else {
-					selectedIndexes.add(row);
-				}
+				selectedIndexes.flip(row);
 			}
 		}
 		
@@ -342,10 +339,7 @@ implements PropertyChangeListener, SelectionChangeListener {
 	protected void updateSelectionsFromApplication(boolean dispatchEvent) {
 		IntegratedSelectionManager manager = application.getSelectionManager().getSelectionManager(data);
 
-		selectedIndexes.clear();
-		for (int i : manager.getSelectionAsRows()){
-			selectedIndexes.add(i);			
-		}
+		selectedIndexes = manager.getSelectionAsBitSet();
 
 		list.setSelectedRows(selectedIndexes, this, dispatchEvent, data);
 		
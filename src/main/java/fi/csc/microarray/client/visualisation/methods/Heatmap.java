@@ -8,6 +8,7 @@ import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
@@ -55,7 +56,7 @@ public class Heatmap extends ChipVisualisation implements PropertyChangeListener
 
 	protected SelectableChartPanel selectableChartPanel;
 
-	protected Set<Integer> selected = new HashSet<Integer>();
+	protected BitSet selected = new BitSet();
 
 	protected DataBean selectionBean;
 
@@ -216,10 +217,7 @@ public class Heatmap extends ChipVisualisation implements PropertyChangeListener
 	protected void updateSelectionsFromApplication(boolean dispatchEvent) {
 		IntegratedSelectionManager manager = application.getSelectionManager().getSelectionManager(selectionBean);
 
-		selected.clear();
-		for (int i : manager.getSelectionAsRows()) {
-			selected.add(i);
-		}
+		selected = manager.getSelectionAsBitSet();
 
 		showSelection(dispatchEvent);
 	}
@@ -319,11 +317,7 @@ public class Heatmap extends ChipVisualisation implements PropertyChangeListener
 			// of block (several in one line) inside selection rectangle would undo selection
 
 			for (Integer row : newSelection) {
-				if (selected.contains(row)) {
-					selected.remove(row);
-				} else {
-					selected.add(row);
-				}
+				selected.flip(row);
 			}
 
 			showSelection(true);
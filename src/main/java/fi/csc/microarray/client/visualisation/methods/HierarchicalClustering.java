@@ -12,6 +12,7 @@ import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -55,15 +56,12 @@ import fi.csc.microarray.client.visualisation.VisualisationFrame;
 import fi.csc.microarray.client.visualisation.VisualisationMethodChangedEvent;
 import fi.csc.microarray.client.visualisation.methods.SelectableChartPanel.SelectionChangeListener;
 import fi.csc.microarray.client.visualisation.methods.hc.OrderSuperviser;
-import fi.csc.microarray.cluster.ClusterBranchNode;
-import fi.csc.microarray.cluster.ClusterLeafNode;
-import fi.csc.microarray.cluster.ClusterNode;
 import fi.csc.microarray.cluster.ClusterParser;
+import fi.csc.microarray.cluster.ClusterTree;
 import fi.csc.microarray.cluster.TreeParseException;
 import fi.csc.microarray.databeans.DataBean;
 import fi.csc.microarray.databeans.DataBean.Link;
 import fi.csc.microarray.databeans.DataBean.Traversal;
-import fi.csc.microarray.databeans.features.QueryResult;
 import fi.csc.microarray.databeans.features.Table;
 import fi.csc.microarray.exception.ErrorReportAsException;
 import fi.csc.microarray.exception.MicroarrayException;
@@ -89,7 +87,7 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 	private SelectionList list;
 
 	// Selected indexes in the order of parent data bean
-	protected Set<Integer> selected = new HashSet<Integer>();
+	protected BitSet selected = new BitSet();
 
 	protected DataBean selectionBean;
 
@@ -289,61 +287,43 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 	private SelectableChartPanel getChartPanel(DataBean treeDataBean, DataBean heatMapDataBean, boolean scaleValues) throws MicroarrayException, TreeParseException, DataRangeMismatchException {
 		// Connect selections to correct dataset
 
-		// Create heatmap
-		QueryResult heatMapFeature = treeDataBean.queryFeatures("/clusters/hierarchical/heatmap");
-		LinkedList<String> columns = new LinkedList<String>();
-		int rowCount = 0;
-		try (Table heatMapDataIterator = heatMapFeature.asTable()) {
-
-			// Count heatmap rows
-			while (heatMapDataIterator.nextRow()) {
-				rowCount++;
-			}
-
-			// Count columns that contain expression values
-			for (String columnName : heatMapDataIterator.getColumnNames()) {
-				if (columnName.startsWith("chip.")) {
-					columns.add(columnName);
-				} else {
-					logger.debug("Column skipped in HC: " + columnName);
-				}
-			}
-		}
-		int columnCount = columns.size();
-
 		// Parse HC tree and check which way we have clustered
 		String hcTree = treeDataBean.queryFeatures("/clusters/hierarchical/tree").asStrings().iterator().next();
-		ClusterBranchNode tree = new ClusterParser(hcTree).getTree();
+		ClusterTree tree = new ClusterParser(hcTree).parse();
 		boolean reversed = hcTree.contains("chip.");
-
-		// Adjust gene count for sampling
-		HeatMap heatMap = null;
-		int dataCount;
-		if (!reversed) {
-			rowCount = tree.getLeafCount(); // heatmap has more genes than tree (sampling done), correct for it
-			heatMap = new HeatMap("Heatmap", rowCount, columnCount);
-			dataCount = rowCount;
-		} else {
-			heatMap = new HeatMap("Heatmap", columnCount, rowCount);
-			dataCount = columnCount;
-		}
-
-		// Go through the tree to find its biggest height
-		int initialHeight = getTreeHeight(tree);
+		int dataCount = tree.getLeafCount();
 
 		// Read the tree and fill the treeToId map
 		List<String> treeToId = new ArrayList<String>();
 		treeToId.addAll(Collections.nCopies(dataCount, (String) null));
-		HCTreeNode root = readTree(tree, 0, initialHeight, treeToId);
+		HCTreeNode root = readTree(tree, treeToId);
 
 		OrderSuperviser orders = new OrderSuperviser();
 		orders.setTreeToId(treeToId);
 
+		// Read the heatmap rows in one pass, they are put to the HeatMap when the row count is known
+		LinkedList<String> columns = new LinkedList<String>();
+		List<Integer> rowIndexes = new ArrayList<Integer>();
+		List<String> rowNames = new ArrayList<String>();
+		List<float[]> rowValueList = new ArrayList<float[]>();
+
 		TableAnnotationProvider annotationProvider = new TableAnnotationProvider(heatMapDataBean);
 		List<Integer> treeToBean = new ArrayList<Integer>();
 		try (Table heatMapData = treeDataBean.queryFeatures("/clusters/hierarchical/heatmap").asTable()) {
 
-			treeToBean.addAll(Collections.nCopies(rowCount, -1));
+			// Count columns that contain expression values
+			for (String columnName : heatMapData.getColumnNames()) {
+				if (columnName.startsWith("chip.")) {
+					columns.add(columnName);
+				} else {
+					logger.debug("Column skipped in HC: " + columnName);
+				}
+			}
+
+			if (!reversed) {
+				// heatmap has more genes than tree (sampling done), correct for it
+				treeToBean.addAll(Collections.nCopies(dataCount, -1));
+			}
 
 			int row = -1; // This is increased to 0 in the beginning of the
 			// loop
@@ -371,22 +351,11 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 				}
 
 				String geneName = heatMapData.getStringValue(" ");
-				geneName = annotationProvider.getAnnotatedRowname(geneName);
+				rowIndexes.add(row);
+				rowNames.add(annotationProvider.getAnnotatedRowname(geneName));
 
-				if (!reversed) {
-					heatMap.setRowName(row, geneName);
-				} else {
-					heatMap.setColumnName(row, geneName);
-				}
-
-				
-				ArrayList<Float> rowValues = new ArrayList<>();
-				// fill with nulls so that we can fill in the values in any order
-				for (int i = 0; i < columns.size(); i++) {
-					rowValues.add(null);
-				}
-				
 				// collect the values of one row
+				float[] rowValues = new float[columns.size()];
 				int i = -1;
 				for (String columnName : columns) {
 
@@ -398,38 +367,59 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 						logger.debug("Adding a new row to heatmap (reversed), name: " + columnName + "\tto row: " + i);
 					}
 
-					rowValues.set(i, heatMapData.getFloatValue(columnName));
+					rowValues[i] = heatMapData.getFloatValue(columnName);
 				}
 				
 				
 				if (scaleValues) {
 					DescriptiveStatistics stats = new DescriptiveStatistics();
-					for (Float value : rowValues) {
+					for (float value : rowValues) {
 						stats.addValue(value);
 					}
 					
 					// average of scaled values should be 0 and stdev 1
-					//DescriptiveStatistics stats2 = new DescriptiveStatistics();
-					for (int j = 0; j < rowValues.size(); j++) {
-						double rowMean = stats.getMean();
-						double rowStdev = stats.getStandardDeviation();
-						float scaledValue = (float) ((rowValues.get(j) - rowMean) / rowStdev);
-						rowValues.set(j, scaledValue);
-						//stats2.addValue(scaledValue);
+					double rowMean = stats.getMean();
+					double rowStdev = stats.getStandardDeviation();
+					for (int j = 0; j < rowValues.length; j++) {
+						rowValues[j] = (float) ((rowValues[j] - rowMean) / rowStdev);
 					}					
-					//System.out.println("orig avg " + stats.getMean() + " orig stdev " + stats.getStandardDeviation()  + " scaled avg " + stats2.getMean() + " scaled stdev " + stats2.getStandardDeviation());
 				}
-				
-				// show the row values
-				for (int j = 0; j < rowValues.size(); j++) {
-					if (!reversed) {
-						heatMap.update(row, j, rowValues.get(j));
-					} else {
-						heatMap.update(j, row, rowValues.get(j));
-					}
+				rowValueList.add(rowValues);
+			}
+
+			if (reversed) {
+				treeToBean.addAll(Collections.nCopies(rowValueList.size(), -1));
+			}
+		}
+		int columnCount = columns.size();
+
+		HeatMap heatMap;
+		if (!reversed) {
+			heatMap = new HeatMap("Heatmap", dataCount, columnCount);
+		} else {
+			heatMap = new HeatMap("Heatmap", columnCount, rowValueList.size());
+		}
+
+		// show the row values
+		for (int k = 0; k < rowValueList.size(); k++) {
+			int row = rowIndexes.get(k);
+			float[] rowValues = rowValueList.get(k);
+
+			if (!reversed) {
+				heatMap.setRowName(row, rowNames.get(k));
+			} else {
+				heatMap.setColumnName(row, rowNames.get(k));
+			}
+
+			for (int j = 0; j < rowValues.length; j++) {
+				if (!reversed) {
+					heatMap.update(row, j, rowValues[j]);
+				} else {
+					heatMap.update(j, row, rowValues[j]);
 				}
 			}
 		}
+		rowValueList = null;
 
 		orders.setTreeToBean(treeToBean);
 
@@ -557,37 +547,36 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 		return gene;
 	}
 
-	private int getTreeHeight(ClusterNode tree) {
-		if (tree instanceof ClusterLeafNode) {
-			return 0;
-		} else {
-			int left = getTreeHeight(((ClusterBranchNode) tree).getLeftBranch()) + 1;
-			int right = getTreeHeight(((ClusterBranchNode) tree).getRightBranch()) + 1;
+	/**
+	 * Create HCTreeNodes of the parsed tree. The nodes are created bottom-up in the 
+	 * post-order of the tree, so no recursion is needed.
+	 */
+	private HCTreeNode readTree(ClusterTree tree, List<String> treeToId) throws DataRangeMismatchException {
 
-			return left > right ? left : right;
+		// Go through the tree to find its biggest height
+		int[] depths = tree.getDepths();
+		int initialHeight = 0;
+		for (int depth : depths) {
+			initialHeight = Math.max(initialHeight, depth);
 		}
-	}
 
-	private HCTreeNode readTree(ClusterNode tree, int index, int height, List<String> treeToId) throws DataRangeMismatchException {
+		HCTreeNode[] nodes = new HCTreeNode[tree.getNodeCount()];
+		for (int i = 0; i < nodes.length; i++) {
+			if (tree.isLeaf(i)) {
+				int index = tree.getLeafIndex(i);
+				String gene = tree.getGene(index);
+				treeToId.set(index, gene);
+				logger.debug("LeafNode: " + gene + "in index: " + index);
+				nodes[i] = new HCTreeNode(0, index); // height is zero
 
-		if (tree instanceof ClusterLeafNode) {
-			String gene = ((ClusterLeafNode) tree).getGene();
-			treeToId.set(index, gene);
-			logger.debug("LeafNode: " + ((ClusterLeafNode) tree).getGene() + "in index: " + index);
-			return new HCTreeNode(0, index); // height is zero
-
-		} else {
-			HCTreeNode node = new HCTreeNode(height);
-			HCTreeNode leftChild = readTree(((ClusterBranchNode) tree).getLeftBranch(), index, height - 1, treeToId);
-
-			node.setLeftChild(leftChild);
-
-			HCTreeNode rightChild = readTree(((ClusterBranchNode) tree).getRightBranch(), node.getDataRange().getRightBound() + 1, height - 1, treeToId);
-
-			node.setRightChild(rightChild);
-
-			return node;
+			} else {
+				HCTreeNode node = new HCTreeNode(initialHeight - depths[i]);
+				node.setLeftChild(nodes[tree.getLeftChild(i)]);
+				node.setRightChild(nodes[tree.getRightChild(i)]);
+				nodes[i] = node;
+			}
 		}
+		return nodes[tree.getRoot()];
 	}
 
 	@Override
@@ -650,11 +639,7 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 			// of block (several in one line) inside selection rectangle would undo selection
 
 			for (Integer row : newSelection) {
-				if (selected.contains(row)) {
-					selected.remove(row);
-				} else {
-					selected.add(row);
-				}
+				selected.flip(row);
 			}
 
 			showSelection(true);
@@ -672,10 +657,7 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 
 		orders.updateVisibleIndexes();
 
-		selected.clear();
-		for (int i : manager.getSelectionAsRows()) {
-			selected.add(i);
-		}
+		selected = manager.getSelectionAsBitSet();
 
 		showSelection(dispatchEvent);
 	}
@@ -703,7 +685,7 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 		// Is each visible row fully, partially or not at all selected
 		Selection[] detailedSelection = new Selection[closedRows.length];
 
-		for (int selectedRow : selected) {
+		for (int selectedRow = selected.nextSetBit(0); selectedRow >= 0; selectedRow = selected.nextSetBit(selectedRow + 1)) {
 			selectedRows[orders.beanToVisible(selectedRow)]++;
 		}
 
@@ -727,7 +709,7 @@ public class HierarchicalClustering extends Visualisation implements PropertyCha
 		Selection[] detailedSelection = new Selection[hcPlot.getDataset().getHeatMap().getColumnsCount()];
 
 		for (int i = 0; i < detailedSelection.length; i++) {
-			if (selected.contains(i)) {
+			if (selected.get(i)) {
 				detailedSelection[i] = Selection.YES;
 			} else {
 				detailedSelection[i] = Selection.NO;
@@ -4,7 +4,6 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -12,10 +11,8 @@ import java.awt.geom.Ellipse2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -149,7 +146,7 @@ implements ActionListener, PropertyChangeListener, SelectionChangeListener {
 		}
 	}
 	
-	protected Set<Integer> selectedIndexes = new HashSet<Integer>();
+	protected BitSet selectedIndexes = new BitSet();
 
 	@Override
 	public JComponent getVisualisation(DataBean data) throws Exception {
@@ -204,31 +201,22 @@ implements ActionListener, PropertyChangeListener, SelectionChangeListener {
 
 	protected void updateXYSerieses() throws MicroarrayException {
 
-		Iterable<Float> xValues = data.queryFeatures(xVar.getExpression()).asFloats();
-		Iterable<Float> yValues = data.queryFeatures(yVar.getExpression()).asFloats();
+		float[] xValues = data.queryFeatures(xVar.getExpression()).asFloatArray();
+		float[] yValues = data.queryFeatures(yVar.getExpression()).asFloatArray();
 		
-		XYSeries series = new XYSeries(""); 
-		XYSeries selectionSeries = new XYSeries("");
+		// points are drawn without lines, so the series don't need to be sorted
+		XYSeries series = new XYSeries("", false); 
+		XYSeries selectionSeries = new XYSeries("", false);
 		
-		Iterator<Float> xIterator = xValues != null ? xValues.iterator() : null;
-		int i = 0;
-
-		for (Float y : yValues) {
-			if(selectedIndexes.contains(i)){
-				if (xIterator != null) {
-					selectionSeries.add(xIterator.next(), y);
-				} else {
-					selectionSeries.add(i, y);
-				}
-			} else {
+		int count = xValues != null ? Math.min(xValues.length, yValues.length) : yValues.length;
 
-				if (xIterator != null) {
-					series.add(xIterator.next(), y);
-				} else {
-					series.add(i, y);
-				}
+		for (int i = 0; i < count; i++) {
+			float x = xValues != null ? xValues[i] : i;
+			if(selectedIndexes.get(i)){
+				selectionSeries.add(x, yValues[i], false);
+			} else {
+				series.add(x, yValues[i], false);
 			}
-			i++;
 		}
 		
 			
@@ -250,10 +238,7 @@ implements ActionListener, PropertyChangeListener, SelectionChangeListener {
 	protected void updateSelectionsFromApplication(boolean dispatchEvent) {
 		IntegratedSelectionManager manager = application.getSelectionManager().getSelectionManager(data);
 
-		selectedIndexes.clear();
-		for (int i : manager.getSelectionAsRows()){
-			selectedIndexes.add(i);
-		}
+		selectedIndexes = manager.getSelectionAsBitSet();
 
 		list.setSelectedRows(selectedIndexes, this, dispatchEvent, data);
 		
@@ -270,30 +255,17 @@ implements ActionListener, PropertyChangeListener, SelectionChangeListener {
 			selectedIndexes.clear();
 		} else {
 		
-			Iterator<Float> xValues;
-			Iterator<Float> yValues;
-			
 			try {								
 				
-				xValues = data.queryFeatures(xVar.getExpression()).asFloats().iterator();
-				yValues = data.queryFeatures(yVar.getExpression()).asFloats().iterator();
-
-				for (int i = 0;	xValues.hasNext() && yValues.hasNext();	i++){			
-
-					double x = xValues.next();
-					double y = yValues.next();				
-					
-					if(newSelection.contains(new Point.Double(x, y))){
-
-						//Contains method should work with Intgers as it uses equals to compare objects. 
-						//Usage of hash inside equals can be still a problem, as VM pools integer 
-						//objects only for integers between -256 and 256 or something like that.
-						if(selectedIndexes.contains(i)){
-							//Remove from selection if selected twice
-							selectedIndexes.remove(i);
-						} else {
-							selectedIndexes.add(i);
-						}
+				float[] xValues = data.queryFeatures(xVar.getExpression()).asFloatArray();
+				float[] yValues = data.queryFeatures(yVar.getExpression()).asFloatArray();
+
+				for (int i = 0;	i < xValues.length && i < yValues.length; i++){			
+
+					if(newSelection.contains(xValues[i], yValues[i])){
+
+						//Remove from selection if selected twice
+						selectedIndexes.flip(i);
 					}
 				}		
 			} catch (MicroarrayException e) {
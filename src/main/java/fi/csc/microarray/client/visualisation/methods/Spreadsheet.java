@@ -2,8 +2,10 @@ package fi.csc.microarray.client.visualisation.methods;
 
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -14,8 +16,12 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
 
+import org.jdesktop.swingx.decorator.SortOrder;
 import org.jdesktop.swingx.hyperlink.LinkModel;
 import org.jdesktop.swingx.hyperlink.LinkModelAction;
 import org.jdesktop.swingx.renderer.DefaultTableRenderer;
@@ -30,9 +36,8 @@ import fi.csc.microarray.client.visualisation.VisualisationFrame;
 import fi.csc.microarray.client.visualisation.VisualisationUtilities;
 import fi.csc.microarray.databeans.DataBean;
 import fi.csc.microarray.databeans.DataManager;
-import fi.csc.microarray.databeans.features.QueryResult;
-import fi.csc.microarray.databeans.features.RestrictModifier.RestrictedTable;
 import fi.csc.microarray.databeans.features.Table;
+import fi.csc.microarray.databeans.features.table.TableIndex;
 import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.module.Module;
 import fi.csc.microarray.module.basic.BasicModule;
@@ -95,7 +100,9 @@ public class Spreadsheet extends Visualisation {
 
 	private final int COLUMNS_REQUIRES_SCROLLING = 8;
 
-	private ExtendedJXTable table;
+	private SpreadsheetTable table;
+	
+	private JLabel summaryLabel = new JLabel();
 
 	/**
 	 * Creates a new TablePanel, which is dataset specific.
@@ -109,105 +116,38 @@ public class Spreadsheet extends Visualisation {
 		JPanel panel = new JPanel(new BorderLayout());				
 		Module primaryModule = Session.getSession().getPrimaryModule();
 
-		// Figure out column names
-		String[] columnTitles;
-		Object[][] rowData;
+		// Figure out columns
+		TableModel tableModel;
 		List<Boolean> linkableFlags;
-		int rowCount;
-		int columnCount;
-		QueryResult columnsFeature = data.queryFeatures("restrict(/column/*)");
-		try (Table columns = columnsFeature.asTable()) {
+		try (Table columns = data.queryFeatures("/column/*").asTable()) {
 
 			if (columns == null) {
-				columnTitles = new String[] { "Info" };
-				rowData = new String[][] { new String[] { DataManager.DATA_NA_INFOTEXT }};
+				tableModel = new DefaultTableModel(new String[][] { new String[] { DataManager.DATA_NA_INFOTEXT }}, new String[] { "Info" }) {			
+					@Override
+					public boolean isCellEditable(int row, int column){
+						return false;
+					}			
+				};
 				linkableFlags = new LinkedList<Boolean>();
 				linkableFlags.add(false);
-				rowCount = 1;
-				columnCount = 1;
 
 			} else {
 
-				columnTitles = new String[columns.getColumnCount()];
-				int counter = 0;
-				for (String column : columns.getColumnNames()) {
-					columnTitles[counter] = column;
-					counter++;
-				}
-				columnCount = columns.getColumnCount();
-
 				// Check which columns need hyperlinking
 				linkableFlags = primaryModule.flagLinkableColumns(columns, data);
-
-				Integer restrictdRows = ((RestrictedTable)columns).getRestrictedRows();
 				
-				// Count data rows
-				try (Table rowCounter = data.queryFeatures("/column/*").asTable()) {
-					rowCount = 0;
-					while (rowCounter.nextRow()) {
-						rowCount++;
-						if (rowCount > restrictdRows * 10) {
-							// don't read through huge files
-							rowCount = Integer.MAX_VALUE;
-							break;
-						}
-					}
-				}
+				// Index the rows, those are parsed only when shown
+				// mothur files hack, use first row as title
+				boolean firstRowAsTitles = 
+						data.isContentTypeCompatitible("text/mothur-oligos") || 
+						data.isContentTypeCompatitible("text/mothur-count");
 				
-				// Create actual tabular data
-				rowData = new Object[Math.min(restrictdRows, rowCount)][columnCount];
-				int row = 0;
-				while (columns.nextRow()) {
-					int column = 0;
-					for (String columnName : columns.getColumnNames()) {
-
-						Object value = columns.getValue(columnName);
-						ExtendedCellValue cell;
-
-						IntegratedEntity linkedEntity = null;
-						if (linkableFlags.get(column)) {
-							// This cell value is linkable
-							linkedEntity = primaryModule.createLinkableEntity(columns, data);
-						}
-
-						if (value instanceof Float) {
-							cell = new ExtendedCellValue(columns.getStringValue(columnName), (Float)value, linkedEntity);
-
-						} else {
-							cell = new ExtendedCellValue(columns.getStringValue(columnName), null, linkedEntity);
-						}
-						rowData[row][column] = cell;
-						column++;
-					}
-					row++;
-				}
+				tableModel = new SpreadsheetTableModel(TableIndex.create(data), firstRowAsTitles, linkableFlags, primaryModule, data);
 			}
 		}
 
-		// mothur files hack, use first row as title
-		if (rowData.length > 0 &&  (
-				data.isContentTypeCompatitible("text/mothur-oligos") || 
-				data.isContentTypeCompatitible("text/mothur-count"))) {
-			// use the first row as column titles 
-			for (int i = 0; i < rowData[0].length; i++) {
-				columnTitles[i] = String.valueOf(rowData[0][i]);
-			}
-
-			// 'remove' the first row from actual data
-			Object[][] rowDataWithoutTitleRow = new Object[rowData.length -1][];
-			System.arraycopy(rowData, 1, rowDataWithoutTitleRow, 0, rowData.length - 1);
-			rowData = rowDataWithoutTitleRow;
-			rowCount--;
-		}
-		
 		// Create the table component
-		table = new ExtendedJXTable(data);
-		DefaultTableModel tableModel = new DefaultTableModel(rowData, columnTitles) {			
-			@Override
-			public boolean isCellEditable(int row, int column){
-				return false;
-			}			
-		};
+		table = new SpreadsheetTable(data);
 		table.setModel(tableModel);
 
 		// Initialise support for hyperlinks, if needed
@@ -229,7 +169,7 @@ public class Spreadsheet extends Visualisation {
 		table.setColumnControlVisible(true);
 		JScrollPane tableScroller = new JScrollPane(table);
 		table.setBackground(java.awt.Color.white);
-		table.setHorizontalScrollEnabled(columnCount > COLUMNS_REQUIRES_SCROLLING);
+		table.setHorizontalScrollEnabled(tableModel.getColumnCount() > COLUMNS_REQUIRES_SCROLLING);
 
 		// Initialise support for popups
 		table.addMouseListener(new MouseAdapter(){
@@ -248,25 +188,171 @@ public class Spreadsheet extends Visualisation {
 				}
 			}
 		});
+		
+		// Filter rows
+		JPanel topPanel = new JPanel(new BorderLayout());
+		topPanel.add(summaryLabel, BorderLayout.CENTER);
+		if (tableModel instanceof SpreadsheetTableModel) {
+			final JTextField filterField = new JTextField(20);
+			filterField.setToolTipText("Show only the rows that contain this text");
+			filterField.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					table.setFilter(filterField.getText());
+				}
+			});
+			JPanel filterPanel = new JPanel();
+			filterPanel.add(new JLabel("Filter:"));
+			filterPanel.add(filterField);
+			topPanel.add(filterPanel, BorderLayout.EAST);
+		}
 
 		// Make visible and activate
-		String summary = "";
-		if (rowCount == Integer.MAX_VALUE) {
-			summary += "Showing only the first " + rowData.length + " rows of table";
-		} else {
-			summary += "Showing " + rowData.length + " rows of " + rowCount;
-		}
-		
-		summary += " and all " + rowData[0].length + " columns";
-		
-		panel.add(new JLabel(summary), BorderLayout.NORTH);
+		updateSummary();
+		panel.add(topPanel, BorderLayout.NORTH);
 		panel.add(tableScroller, BorderLayout.CENTER);
 		table.updateSelectionsFromApplication();
 		table.sendEvents(true);
 
 		return panel; 
 	}
+	
+	private void updateSummary() {
+		int rowCount = table.getModel().getRowCount();
+		String summary;
+		if (table.getRowCount() == rowCount) {
+			summary = "Showing all " + rowCount + " rows";
+		} else {
+			summary = "Showing " + table.getRowCount() + " rows of " + rowCount;
+		}
+		summary += " and all " + table.getModel().getColumnCount() + " columns";
+		summaryLabel.setText(summary);
+	}
+
+	/**
+	 * Table that is sorted and filtered by {@link SpreadsheetTableModel}. The rows
+	 * are ordered in a background thread and the table maps its row indexes through
+	 * the resulting order instead of using the filters of JXTable, which would
+	 * read every row in the event dispatch thread.
+	 */
+	private class SpreadsheetTable extends ExtendedJXTable {
+
+		private int sortColumn = -1;
+		private boolean ascending = true;
+		private String filter = null;
+
+		private int[] viewToModel = null;
+		private int[] modelToView = null;
+		private Thread sortThread;
+
+		public SpreadsheetTable(DataBean data) {
+			super(data);
+		}
+
+		@Override
+		public void toggleSortOrder(int columnIndex) {
+			int column = convertColumnIndexToModel(columnIndex);
+			if (column == sortColumn) {
+				ascending = !ascending;
+			} else {
+				sortColumn = column;
+				ascending = true;
+			}
+			updateView();
+		}
+
+		@Override
+		public void resetSortOrder() {
+			sortColumn = -1;
+			updateView();
+		}
+
+		@Override
+		public SortOrder getSortOrder(int columnIndex) {
+			if (convertColumnIndexToModel(columnIndex) != sortColumn) {
+				return SortOrder.UNSORTED;
+			}
+			return ascending ? SortOrder.ASCENDING : SortOrder.DESCENDING;
+		}
+
+		public void setFilter(String filter) {
+			this.filter = filter;
+			updateView();
+		}
+
+		private void updateView() {
+			if (!(getModel() instanceof SpreadsheetTableModel)) {
+				return;
+			}
+			final SpreadsheetTableModel model = (SpreadsheetTableModel) getModel();
+			final int column = sortColumn;
+			final boolean isAscending = ascending;
+			final String text = filter;
+
+			// only the latest order is needed
+			if (sortThread != null) {
+				sortThread.interrupt();
+			}
+			summaryLabel.setText("Sorting...");
+			getTableHeader().repaint();
+
+			sortThread = new Thread(new Runnable() {
+				public void run() {
+					final Thread thread = Thread.currentThread();
+					try {
+						final int[] order = model.sortAndFilter(column, isAscending, text);
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								if (sortThread == thread) {
+									setOrder(order);
+								}
+							}
+						});
+					} catch (InterruptedException e) {
+						// newer order was requested
+					} catch (final Exception e) {
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								application.reportException(e);
+							}
+						});
+					}
+				}
+			}, "chipster-spreadsheet-sort");
+			sortThread.setDaemon(true);
+			sortThread.start();
+		}
+
+		private void setOrder(int[] order) {
+			viewToModel = order;
+			modelToView = null;
+			if (order != null) {
+				modelToView = new int[getModel().getRowCount()];
+				Arrays.fill(modelToView, -1);
+				for (int i = 0; i < order.length; i++) {
+					modelToView[order[i]] = i;
+				}
+			}
+			resizeAndRepaint();
+			getTableHeader().repaint();
+			updateSelectionsFromApplication();
+			updateSummary();
+		}
+
+		@Override
+		public int getRowCount() {
+			return viewToModel != null ? viewToModel.length : getModel().getRowCount();
+		}
+
+		@Override
+		public int convertRowIndexToModel(int row) {
+			return viewToModel != null ? viewToModel[row] : row;
+		}
 
+		@Override
+		public int convertRowIndexToView(int row) {
+			return modelToView != null ? modelToView[row] : row;
+		}
+	}
 
 	public static class ExtendedCellValue extends LinkModel implements Comparable {
 
@@ -0,0 +1,355 @@
+package fi.csc.microarray.client.visualisation.methods;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
+
+import fi.csc.microarray.client.selection.IntegratedEntity;
+import fi.csc.microarray.client.visualisation.methods.Spreadsheet.ExtendedCellValue;
+import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.databeans.features.Table;
+import fi.csc.microarray.databeans.features.table.TableIndex;
+import fi.csc.microarray.module.Module;
+
+/**
+ * Table model of the {@link Spreadsheet}, which reads the rows from the file only
+ * when those are shown. Rows are parsed in pages and the most recently used pages
+ * are kept in memory. The type of each column is inferred from the first rows: a
+ * column is numeric if all its values in the sample are numbers or missing.
+ *
+ * Sorting and filtering read the whole file, so those are done in
+ * {@link #sortAndFilter(int, boolean, String)}, which is meant to be called
+ * outside the event dispatch thread. It returns the order of the rows, which
+ * the table uses to convert its row indexes.
+ */
+public class SpreadsheetTableModel extends AbstractTableModel {
+
+	private static final int PAGE_SIZE = 256;
+	private static final int MAX_PAGES = 64;
+	private static final int TYPE_SAMPLE_ROWS = 1000;
+	private static final int SCAN_ROWS = 4096;
+	private static final String MISSING_VALUE = "NA";
+
+	private TableIndex index;
+	private String[] columnTitles;
+	private boolean[] numeric;
+	private int firstRow = 0;
+
+	private List<Boolean> linkableFlags;
+	private boolean hasLinkableColumns;
+	private Module primaryModule;
+	private DataBean data;
+
+	private Map<Integer, ExtendedCellValue[][]> pages = new LinkedHashMap<Integer, ExtendedCellValue[][]>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, ExtendedCellValue[][]> eldest) {
+			return size() > MAX_PAGES;
+		}
+	};
+
+	/**
+	 * @param index
+	 * @param firstRowAsTitles use the first row as column titles instead of showing it
+	 * @param linkableFlags see {@link Module#flagLinkableColumns(Table, DataBean)}
+	 * @param primaryModule
+	 * @param data
+	 * @throws IOException
+	 */
+	public SpreadsheetTableModel(TableIndex index, boolean firstRowAsTitles, List<Boolean> linkableFlags, Module primaryModule, DataBean data) throws IOException {
+		this.index = index;
+		this.linkableFlags = linkableFlags;
+		this.primaryModule = primaryModule;
+		this.data = data;
+		this.hasLinkableColumns = linkableFlags.contains(true);
+
+		this.columnTitles = index.getColumnNames().clone();
+		if (firstRowAsTitles && index.getRowCount() > 0) {
+			columnTitles = index.readRows(0, 1).get(0);
+			firstRow = 1;
+		}
+
+		inferTypes();
+	}
+
+	private void inferTypes() throws IOException {
+		numeric = new boolean[getColumnCount()];
+		boolean[] hasValues = new boolean[getColumnCount()];
+		Arrays.fill(numeric, true);
+
+		for (String[] row : index.readRows(firstRow, TYPE_SAMPLE_ROWS)) {
+			for (int column = 0; column < row.length; column++) {
+				if (numeric[column] && row[column].length() > 0 && !MISSING_VALUE.equals(row[column])) {
+					hasValues[column] = true;
+					numeric[column] = parseFloat(row[column]) != null;
+				}
+			}
+		}
+
+		for (int column = 0; column < numeric.length; column++) {
+			numeric[column] &= hasValues[column];
+		}
+	}
+
+	private static Float parseFloat(String value) {
+		try {
+			return Float.parseFloat(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public int getRowCount() {
+		return index.getRowCount() - firstRow;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columnTitles.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return columnTitles[column];
+	}
+
+	public boolean isNumeric(int column) {
+		return numeric[column];
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		return getPage(row / PAGE_SIZE)[row % PAGE_SIZE][column];
+	}
+
+	private synchronized ExtendedCellValue[][] getPage(int page) {
+		ExtendedCellValue[][] cells = pages.get(page);
+		if (cells == null) {
+			try {
+				cells = readPage(page);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			pages.put(page, cells);
+		}
+		return cells;
+	}
+
+	private ExtendedCellValue[][] readPage(int page) throws IOException {
+		List<String[]> rows = index.readRows(firstRow + page * PAGE_SIZE, PAGE_SIZE);
+		ExtendedCellValue[][] cells = new ExtendedCellValue[rows.size()][];
+
+		for (int i = 0; i < cells.length; i++) {
+			String[] row = rows.get(i);
+			cells[i] = new ExtendedCellValue[row.length];
+
+			IntegratedEntity linkedEntity = null;
+			if (hasLinkableColumns) {
+				// This row has linkable cells
+				linkedEntity = primaryModule.createLinkableEntity(new RowTable(index.getColumnNames(), row), data);
+			}
+
+			for (int column = 0; column < row.length; column++) {
+				Float numericValue = numeric[column] ? parseFloat(row[column]) : null;
+				boolean linkable = column < linkableFlags.size() && linkableFlags.get(column);
+				cells[i][column] = new ExtendedCellValue(row[column], numericValue, linkable ? linkedEntity : null);
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Find the rows that contain the filter text and sort them. Reads the whole file, so
+	 * this shouldn't be called from the event dispatch thread.
+	 *
+	 * @param sortColumn model index of the column to sort by or -1 to keep the original order
+	 * @param ascending
+	 * @param filter text to search from the cells, ignoring case, or null to show all rows
+	 * @return model indexes of the rows in the view order or null if the rows are shown as they are
+	 * @throws IOException
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public int[] sortAndFilter(int sortColumn, boolean ascending, String filter) throws IOException, InterruptedException {
+
+		boolean filtering = filter != null && filter.length() > 0;
+		if (!filtering && sortColumn < 0) {
+			return null;
+		}
+
+		int rowCount = getRowCount();
+		int[] rows = new int[rowCount];
+		float[] floats = sortColumn >= 0 && numeric[sortColumn] ? new float[rowCount] : null;
+		String[] strings = sortColumn >= 0 && !numeric[sortColumn] ? new String[rowCount] : null;
+		int count = 0;
+
+		for (int first = 0; first < rowCount; first += SCAN_ROWS) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+
+			List<String[]> cells = index.readRows(firstRow + first, SCAN_ROWS);
+			for (int i = 0; i < cells.size(); i++) {
+				String[] row = cells.get(i);
+				if (filtering && !contains(row, filter)) {
+					continue;
+				}
+				rows[count] = first + i;
+				if (floats != null) {
+					Float value = parseFloat(row[sortColumn]);
+					floats[count] = value != null ? value : Float.NaN;
+				} else if (strings != null) {
+					strings[count] = row[sortColumn];
+				}
+				count++;
+			}
+		}
+
+		if (floats != null) {
+			sortByFloats(rows, floats, count, ascending);
+		} else if (strings != null) {
+			sortByStrings(rows, strings, count, ascending);
+		}
+
+		return Arrays.copyOf(rows, count);
+	}
+
+	private static boolean contains(String[] row, String filter) {
+		for (String cell : row) {
+			for (int i = 0; i <= cell.length() - filter.length(); i++) {
+				if (cell.regionMatches(true, i, filter, 0, filter.length())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sort the rows by packing the float and the position of the row to a long.
+	 * Rows with equal values keep their order and NaNs are the biggest values.
+	 */
+	private static void sortByFloats(int[] rows, float[] values, int count, boolean ascending) {
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			// flip the bits of negative floats to make them comparable as ints
+			int bits = Float.floatToIntBits(values[i]);
+			bits ^= (bits >> 31) & 0x7fffffff;
+			if (!ascending) {
+				bits = ~bits;
+			}
+			keys[i] = ((long) bits << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] sorted = new int[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = rows[(int) keys[i]];
+		}
+		System.arraycopy(sorted, 0, rows, 0, count);
+	}
+
+	/**
+	 * Stable merge sort of the row positions by the values.
+	 */
+	private static void sortByStrings(int[] rows, String[] values, int count, boolean ascending) {
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		int[] buffer = new int[count];
+
+		for (int width = 1; width < count; width *= 2) {
+			for (int left = 0; left < count; left += 2 * width) {
+				int middle = Math.min(left + width, count);
+				int right = Math.min(left + 2 * width, count);
+				int i = left;
+				int j = middle;
+				for (int k = left; k < right; k++) {
+					if (i < middle && (j >= right || compare(values[order[i]], values[order[j]], ascending) <= 0)) {
+						buffer[k] = order[i++];
+					} else {
+						buffer[k] = order[j++];
+					}
+				}
+			}
+			int[] swap = order;
+			order = buffer;
+			buffer = swap;
+		}
+
+		int[] sorted = new int[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = rows[order[i]];
+		}
+		System.arraycopy(sorted, 0, rows, 0, count);
+	}
+
+	private static int compare(String a, String b, boolean ascending) {
+		return ascending ? a.compareTo(b) : b.compareTo(a);
+	}
+
+	/**
+	 * One parsed row for {@link Module#createLinkableEntity(Table, DataBean)}.
+	 */
+	private static class RowTable implements Table {
+
+		private String[] columnNames;
+		private String[] values;
+
+		public RowTable(String[] columnNames, String[] values) {
+			this.columnNames = columnNames;
+			this.values = values;
+		}
+
+		private int getColumn(String columnName) {
+			for (int i = 0; i < columnNames.length; i++) {
+				if (columnNames[i].equals(columnName)) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("column name " + columnName + " was not found");
+		}
+
+		public boolean nextRow() {
+			return false;
+		}
+
+		public float getFloatValue(String columnName) {
+			Float value = parseFloat(getStringValue(columnName));
+			return value != null ? value : Float.NaN;
+		}
+
+		public String getStringValue(String columnName) {
+			return values[getColumn(columnName)];
+		}
+
+		public int getIntValue(String columnName) {
+			return (int) getFloatValue(columnName);
+		}
+
+		public Object getValue(String columnName) {
+			Float value = parseFloat(getStringValue(columnName));
+			return value != null ? value : getStringValue(columnName);
+		}
+
+		public String[] getColumnNames() {
+			return columnNames;
+		}
+
+		public boolean hasColumn(String columnName) {
+			return Arrays.asList(columnNames).contains(columnName);
+		}
+
+		public int getColumnCount() {
+			return columnNames.length;
+		}
+
+		public void close() {
+			// nothing to close
+		}
+	}
+}
@@ -26,6 +26,7 @@ import javax.swing.JTabbedPane;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
 
+import fi.csc.microarray.client.selection.IdentifierIndex;
 import fi.csc.microarray.client.selection.IntegratedSelectionManager;
 import fi.csc.microarray.client.selection.SelectionEvent;
 import fi.csc.microarray.client.visualisation.SelectionList;
@@ -125,29 +126,13 @@ public class VennDiagram extends Visualisation implements PropertyChangeListener
 
 		colVar = (Variable) colBox.getSelectedItem();
 		
-		Map<String, Integer> A = new HashMap<String, Integer>();
-		Map<String, Integer> B = new HashMap<String, Integer>();
+		// rows of the identifiers, cached in the datasets
+		Map<String, Integer> A = getIdentifierIndex(datas.get(0), colVar).asMap();
+		Map<String, Integer> B = getIdentifierIndex(datas.get(1), colVar).asMap();
 		Map<String, Integer> C = new HashMap<String, Integer>();
 
-		
-		//xValues = data.queryFeatures(xVar.getExpression()).asFloats().iterator();
-		
-		int i = 0;
-		for (String name : getIdentifiers(datas.get(0), colVar)) {
-			A.put(name, i++);
-
-		}
-
-		i = 0;
-		for (String name : getIdentifiers(datas.get(1), colVar)) {
-			B.put(name, i++);
-		}
-
-		i = 0;
 		if (datas.size() == 3) {
-			for (String name : getIdentifiers(datas.get(2), colVar)) {
-				C.put(name, i++);
-			}
+			C = getIdentifierIndex(datas.get(2), colVar).asMap();
 		}
 
 		// Every AREA is mapped to the set of String containing the identifiers
@@ -213,13 +198,13 @@ public class VennDiagram extends Visualisation implements PropertyChangeListener
 		return chartPanel;
 	}
 
-	private Iterable<String> getIdentifiers(DataBean dataBean, Variable var) throws MicroarrayException {
+	private IdentifierIndex getIdentifierIndex(DataBean dataBean, Variable var) throws MicroarrayException {
 		// if there is no identifier column, try with a column name " " 
 		if (IDENTIFIER_ID.equals(var) && !dataBean.queryFeatures(var.getExpression()).exists()) {
 			var = SPACE_ID;
 		}
 		
-		return dataBean.queryFeatures(var.getExpression()).asStrings();
+		return IdentifierIndex.getIndex(dataBean, var.getExpression());
 	}
 
 	@Override
@@ -263,7 +248,8 @@ public class VennDiagram extends Visualisation implements PropertyChangeListener
 
 	private void updateSelectionsFromApplication(boolean dispatchEvent) {
 
-		List<String> selected = new ArrayList<String>();
+		// set, because the plot checks which areas are fully selected
+		Set<String> selected = new HashSet<String>();
 		try {
 
 			for (DataBean data : plot.getDataset().getDataBeans()) {
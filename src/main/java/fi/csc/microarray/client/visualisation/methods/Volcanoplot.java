@@ -3,7 +3,6 @@ package fi.csc.microarray.client.visualisation.methods;
 import java.awt.Color;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -11,7 +10,6 @@ import java.awt.geom.Ellipse2D;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.JButton;
@@ -25,7 +23,6 @@ import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.Range;
-import org.jfree.data.xy.XYDataItem;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 
@@ -160,112 +157,89 @@ public class Volcanoplot extends Scatterplot implements ActionListener, Property
 		return selectableChartPanel;
 	}
 
-	private Iterator<Float> getXValueIterator() throws MicroarrayException {
+	private float[] getXValues() throws MicroarrayException {
 
-		return data.queryFeatures(xVar.getExpression()).asFloats().iterator();
-	}
-
-	private Iterator<Float> getYValueIterator() throws MicroarrayException {
-
-		return new YValueIterator();
+		return data.queryFeatures(xVar.getExpression()).asFloatArray();
 	}
 
 	/**
-	 * Class tries to find out the rounding limit of y-values and changes zero values into this limit. Iterated values are also translated
+	 * Finds out the rounding limit of y-values and changes zero values into this limit. Values are also translated
 	 * with -log().
-	 * 
-	 * @author klemela
-	 * 
 	 */
-	private class YValueIterator implements Iterator<Float> {
+	private float[] getYValues() throws MicroarrayException {
 
-		private static final float DEFAULT_ROUNDING_LIMIT = 0.001f;
+		final float DEFAULT_ROUNDING_LIMIT = 0.001f;
 		// "/column/" part of the query comes from the getExpression function
-		Iterator<Float> original;
-
-		public YValueIterator() throws MicroarrayException {
-
-			original = data.queryFeatures(yVar.getExpression()).asFloats().iterator();
+		float[] original = data.queryFeatures(yVar.getExpression()).asFloatArray();
 
-			// Find smallest non-zero value to find out rounding limit
-			float min = Float.MAX_VALUE;
+		// Find smallest non-zero value to find out rounding limit
+		float min = Float.MAX_VALUE;
 
-			while (original.hasNext()) {
-
-				float y = original.next();
-				if (y < min && y > 0) {
-					min = y;
-				}
-			}
-
-			// Rounding to the nearest 1*10^-n
-			// plus one to hide points going into lines because of rounding
-			ROUNDING_LIMIT = (float) Math.pow(10, Math.ceil(Math.log10(min)) + 1);
-			
-			// Sanity check
-			if (ROUNDING_LIMIT <= 0 || ROUNDING_LIMIT > DEFAULT_ROUNDING_LIMIT) {
-				ROUNDING_LIMIT = DEFAULT_ROUNDING_LIMIT;
+		for (float y : original) {
+			if (y < min && y > 0) {
+				min = y;
 			}
-
-			original = data.queryFeatures(yVar.getExpression()).asFloats().iterator();
-
 		}
 
-		public boolean hasNext() {
-			return original.hasNext();
-		}
+		// Rounding to the nearest 1*10^-n
+		// plus one to hide points going into lines because of rounding
+		ROUNDING_LIMIT = (float) Math.pow(10, Math.ceil(Math.log10(min)) + 1);
 
-		public Float next() {
-			float y = original.next();
+		// Sanity check
+		if (ROUNDING_LIMIT <= 0 || ROUNDING_LIMIT > DEFAULT_ROUNDING_LIMIT) {
+			ROUNDING_LIMIT = DEFAULT_ROUNDING_LIMIT;
+		}
 
+		// the original array is cached, so the results go to a new one
+		float[] values = new float[original.length];
+		for (int i = 0; i < original.length; i++) {
+			float y = original[i];
 			if (y < ROUNDING_LIMIT) {
 				y = ROUNDING_LIMIT;
 			}
-			return (float) -Math.log10(y);
+			values[i] = (float) -Math.log10(y);
 		}
-
-		public void remove() {
-			original.remove();
-		}
-	};
+		return values;
+	}
 
 	protected void updateXYSerieses() throws MicroarrayException {
 
-		Iterator<Float> xValues = getXValueIterator();
-		Iterator<Float> yValues = getYValueIterator();
+		float[] xValues = getXValues();
+		float[] yValues = getYValues();
 
-		XYSeries greenSeries = new XYSeries("");
-		XYSeries blackSeries = new XYSeries("");
-		XYSeries redSeries = new XYSeries("");
-		XYSeries selectedSeries = new XYSeries("");
+		// points are drawn without lines, so the series don't need to be sorted
+		XYSeries greenSeries = new XYSeries("", false);
+		XYSeries blackSeries = new XYSeries("", false);
+		XYSeries redSeries = new XYSeries("", false);
+		XYSeries selectedSeries = new XYSeries("", false);
 
-		int row = 0;
-		while (xValues.hasNext() && yValues.hasNext()) {
+		double yThreshold = -Math.log10(0.05);
 
-			float x = xValues.next();
-			float y = yValues.next();
+		for (int row = 0; row < xValues.length && row < yValues.length; row++) {
 
-			boolean overYThreshold = y >= -Math.log10(0.05);
+			float x = xValues[row];
+			float y = yValues[row];
+
+			boolean overYThreshold = y >= yThreshold;
 			boolean overXThreshold = Math.abs(x) >= 1f;
 
-			if (selectedIndexes.contains(row)) {
-				selectedSeries.add(new XYDataItem(x, y));
+			if (selectedIndexes.get(row)) {
+				selectedSeries.add(x, y, false);
 			} else {
 
 				if (overYThreshold && overXThreshold) {
 					if (x < 0) {
-						greenSeries.add(new XYDataItem(x, y));
+						greenSeries.add(x, y, false);
 
 					} else {
-						redSeries.add(new XYDataItem(x, y));
+						redSeries.add(x, y, false);
 
 					}
 				} else {
-					blackSeries.add(new XYDataItem(x, y));
+					blackSeries.add(x, y, false);
 
 				}
 			}
-			row++;
 		}
 
 		XYSeriesCollection dataset = new XYSeriesCollection();
@@ -301,24 +275,17 @@ public class Volcanoplot extends Scatterplot implements ActionListener, Property
 			selectedIndexes.clear();
 		} else {
 
-			Iterator<Float> xValues;
-			Iterator<Float> yValues;
-
 			try {
 
-				xValues = getXValueIterator();
-				yValues = getYValueIterator();
+				float[] xValues = getXValues();
+				float[] yValues = getYValues();
 
-				for (int i = 0; xValues.hasNext() && yValues.hasNext(); i++) {
+				for (int i = 0; i < xValues.length && i < yValues.length; i++) {
 
-					if (newSelection.contains(new Point.Double(xValues.next(), yValues.next()))) {
+					if (newSelection.contains(xValues[i], yValues[i])) {
 
-						if (selectedIndexes.contains(i)) {
-							// Remove from selection if selected twice
-							selectedIndexes.remove(i);
-						} else {
-							selectedIndexes.add(i);
-						}
+						// Remove from selection if selected twice
+						selectedIndexes.flip(i);
 					}
 				}
 			} catch (MicroarrayException e) {
@@ -427,6 +427,19 @@ public class GBrowser {
 		return gia;
 	}
 
+	/**
+	 * @param prefix
+	 * @param maxCount
+	 * @return gene names starting with the prefix or an empty list if gene search is not available
+	 */
+	public List<String> getGeneSuggestions(String prefix, int maxCount) {
+		GeneIndexActions gia = this.gia;
+		if (gia == null) {
+			return new LinkedList<String>();
+		}
+		return gia.getSuggestions(prefix, maxCount);
+	}
+
 	public void requestGeneSearch(String gene) {
 		// do not start blocking task if search is not available for this genome
 		if (getGeneIndexActions() != null) {
@@ -494,7 +507,7 @@ public class GBrowser {
 
 						// Update coordinate controls with gene's location
 
-						Chromosome resultChr = new Chromosome(geneLocation.start.chr);
+						Chromosome resultChr = geneLocation.start.chr;
 
 						if (settings.setChromosome(resultChr)) {
 
@@ -597,8 +610,8 @@ public class GBrowser {
 				String stringUrl = url.toString();
 				Region region = plot.getDataView().getBpRegion();
 				stringUrl = stringUrl.replace(AnnotationManager.CHR_LOCATION, region.start.chr.toNormalisedString());
-				stringUrl = stringUrl.replace(AnnotationManager.START_LOCATION, region.start.bp.toString());
-				stringUrl = stringUrl.replace(AnnotationManager.END_LOCATION, region.end.bp.toString());
+				stringUrl = stringUrl.replace(AnnotationManager.START_LOCATION, Long.toString(region.start.bp));
+				stringUrl = stringUrl.replace(AnnotationManager.END_LOCATION, Long.toString(region.end.bp));
 
 				return stringUrl;
 			} 
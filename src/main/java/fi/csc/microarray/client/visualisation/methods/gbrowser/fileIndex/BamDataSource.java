@@ -1,10 +1,13 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
@@ -28,6 +31,11 @@ public class BamDataSource extends DataSource {
 	
 	private ChromosomeNameUnnormaliser chromosomeNameUnnormaliser = ChromosomeNameUnnormaliser.newIdentityPreversingUnnormaliser();
 	private SAMFileReader reader;
+	
+	private URL dataUrl;
+	private URL indexUrl;
+	// readers for the parallel coverage calculation, because a reader can't be used from several threads
+	private ConcurrentLinkedQueue<SAMFileReader> readerPool = new ConcurrentLinkedQueue<>();
 
     /**
      * Generally we would like to have both data and index files,
@@ -47,7 +55,9 @@ public class BamDataSource extends DataSource {
     	System.setErr(new PrintStream(new ByteArrayOutputStream()));
     	
     	SAMFileReader.setDefaultValidationStringency(ValidationStringency.SILENT);
-    	this.reader = SamBamUtils.getSAMReader(data.getUrl(), index.getUrl());
+    	this.dataUrl = data.getUrl();
+    	this.indexUrl = index.getUrl();
+    	this.reader = SamBamUtils.getSAMReader(dataUrl, indexUrl);
 
     	LinkedList<String> chrList = new LinkedList<>();
     	
@@ -69,9 +79,18 @@ public class BamDataSource extends DataSource {
 
 	public void close() {
 		SamBamUtils.closeIfPossible(reader);
+		
+		SAMFileReader pooled;
+		while ((pooled = readerPool.poll()) != null) {
+			SamBamUtils.closeIfPossible(pooled);
+		}
 	}	
 
 	public CloseableIterator<SAMRecord> query(Chromosome chr, int start,	int end) {		
+		return query(reader, chr, start, end);
+	}
+
+	public CloseableIterator<SAMRecord> query(SAMFileReader reader, Chromosome chr, int start,	int end) {		
 		
 		String unnormalisedChr = chromosomeNameUnnormaliser.unnormalise(chr);
 	
@@ -80,4 +99,24 @@ public class BamDataSource extends DataSource {
 
 		return iterator; 
 	}
+	
+	/**
+	 * Get a reader for another thread. Return it with {@link #returnReader(SAMFileReader)} after use.
+	 */
+	public SAMFileReader borrowReader() throws FileNotFoundException, URISyntaxException {
+		SAMFileReader pooled = readerPool.poll();
+		if (pooled != null) {
+			return pooled;
+		}
+		return SamBamUtils.getSAMReader(dataUrl, indexUrl);
+	}
+	
+	public void returnReader(SAMFileReader reader) {
+		// keep only as many readers as there are coverage threads
+		if (readerPool.size() < ParallelCoverageCalculator.PARALLELISM) {
+			readerPool.add(reader);
+		} else {
+			SamBamUtils.closeIfPossible(reader);
+		}
+	}
 }
@@ -1,27 +1,22 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
 
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.List;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.GBrowser;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserSettings.CoverageType;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Cigar;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.ReadPart;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.FeatureBatch;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex.ParallelCoverageCalculator.Coverage;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataThread;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.util.BaseStorage;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.BaseStorage.Base;
-import fi.csc.microarray.util.BamUtils;
-import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.util.CloseableIterator;
 
 /**
  * This conversion class uses Picard to read Bam files and calculates a coverage.
@@ -31,6 +26,9 @@ import htsjdk.samtools.util.CloseableIterator;
  */
 public class BamToCoverageConversion extends DataThread {
 	
+	// multiple of the bin size
+	private static final int RESULT_STEP = 640 * CoverageTool.BIN_SIZE;
+	
 	private BamDataSource dataSource;
 
 	private CoverageType coverageType;
@@ -51,112 +49,99 @@ public class BamToCoverageConversion extends DataThread {
 
 
 	@Override
-	protected void processDataRequest(DataRequest request) throws InterruptedException {							
-		
-		long step = 10_000;
-		
-		// Divide visible region into subregions and iterate over them
-		for (long pos = request.start.bp; pos < request.end.bp; pos += step ) {
-
-			BpCoord from = new BpCoord(pos, request.start.chr);
-			BpCoord to = new BpCoord(Math.min(pos + step, request.end.bp), request.start.chr);
+	protected boolean isTileCacheable() {
+		return true;
+	}
 
-			calculateCoverage(request, from, to);									
-		}
+	@Override
+	protected Object getTileCacheId() {
+		Object id = super.getTileCacheId();
+		return id == null ? null : Arrays.asList(id, coverageType);
 	}
 
-	private void calculateCoverage(DataRequest request, BpCoord from, BpCoord to) throws InterruptedException {	
-				
+	@Override
+	protected void processDataRequest(DataRequest request) throws GBrowserException, InterruptedException {							
+		
 		//query data for full average bins, because merging them later would be difficult
-		long start = CoverageTool.getBin(from.bp);		
-		long end = CoverageTool.getBin(to.bp) + CoverageTool.BIN_SIZE - 1;
-
-		//if end coordinate is smaller than 1 Picard returns a full chromosome and we'll run out of memory
-		if (end < 1) {
-			end = 1;
+		long start = CoverageTool.getBin(request.start.bp);		
+		long end = CoverageTool.getBin(request.end.bp) + CoverageTool.BIN_SIZE - 1;
+		
+		boolean bases = request.getRequestedContents().contains(DataType.COVERAGE);
+		boolean averages = request.getRequestedContents().contains(DataType.COVERAGE_AVERAGE);
+		
+		if (!bases && !averages) {
+			return;
 		}
-				
-		CloseableIterator<SAMRecord> iterator = dataSource.query(from.chr, (int)start, (int)end);		
 		
-		BaseStorage forwardBaseStorage = new BaseStorage();
-		BaseStorage reverseBaseStorage = new BaseStorage();
+		Coverage coverage = ParallelCoverageCalculator.calculate(dataSource, request.start.chr, start, end, coverageType, bases);
 		
-		while (iterator.hasNext()) {
+		// Send results in parts to keep the GUI responsive
+		for (int from = 0; from < coverage.getLength(); from += RESULT_STEP) {
 			
-			SAMRecord record = iterator.next();
+			int to = Math.min(from + RESULT_STEP, coverage.getLength());
 			
-			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
-
-			Region recordRegion = new Region((long) record.getAlignmentStart(), (long) record.getAlignmentEnd(), request.start.chr);
+			if (bases) {
+				LinkedList<Feature> resultList = new LinkedList<Feature>();
+				createResultList(request, coverage, from, to, 0, Strand.FORWARD, resultList);
+				createResultList(request, coverage, from, to, 1, Strand.REVERSE, resultList);
+				super.createDataResult(new DataResult(request, resultList));
+			}
 			
-			Feature read = new Feature(recordRegion, values);
+			if (averages) {
+				FeatureBatch averageCoverage = new FeatureBatch(request.start.chr, DataType.COVERAGE_AVERAGE, 2 * (to - from) / CoverageTool.BIN_SIZE);
+				createAverageList(coverage, from, to, 0, Strand.FORWARD, averageCoverage);
+				createAverageList(coverage, from, to, 1, Strand.REVERSE, averageCoverage);
+				super.createDataResult(new DataResult(request, averageCoverage));
+			}
+		}
+	}
 
-			values.put(DataType.ID, record.getReadName());
-			
-			values.put(DataType.STRAND, BamUtils.getStrand(record, coverageType));
+	private void createResultList(DataRequest request, Coverage coverage, int from, int to, int strandIndex, Strand strand, LinkedList<Feature> resultList) {
+		
+		for (int i = from; i < to; i++) {
 			
-			Cigar cigar = new Cigar(read, record.getCigar());
-			values.put(DataType.CIGAR, cigar);
+			if (!coverage.isCovered(strandIndex, i)) {
+				continue;
+			}
 			
-			String seq = record.getReadString();
-			values.put(DataType.SEQUENCE, seq);
+			long bp = coverage.getStart() + i;
+			Base base = new Base(bp, null);
+			base.setNucleotideCounts(coverage.getNucleotideCounts(strandIndex, i));
 			
+			Region region = new Region(bp, bp, request.start.chr);
 			
-			// Split read into continuous blocks (elements) by using the cigar
-			List<ReadPart> parts = Cigar.splitElements(read);
+			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
+			values.put(DataType.VALUE, base);
+			values.put(DataType.STRAND, strand);
 			
-			for (ReadPart part : parts) {				 
-				
-				if (read.values.get(DataType.STRAND) == Strand.FORWARD) {
-					forwardBaseStorage.addNucleotideCounts(part);
-				} else if (read.values.get(DataType.STRAND) == Strand.REVERSE) {
-					reverseBaseStorage.addNucleotideCounts(part);			
-				}
-			}						
-		}
-				
-		// We are done
-		iterator.close();
-				
-		/* Reads that overlap query regions create nucleotide counts outside the query region.
-		 * Remove those extra nucleotide counts, because they don't contain all reads of those regions and would show
-		 * wrong information. 
-		 */
-		Region filterRegion = new Region(start, end, from.chr);
-		forwardBaseStorage.filter(filterRegion);
-		reverseBaseStorage.filter(filterRegion);
-
-		// Send result		
-		LinkedList<Feature> resultList = new LinkedList<Feature>();					
-		
-		createResultList(from, forwardBaseStorage, resultList, Strand.FORWARD);
-		createResultList(from, reverseBaseStorage, resultList, Strand.REVERSE);		
-		
-		LinkedList<Feature> averageCoverage = CoverageTool.average(resultList, from.chr);
-		
-		if (request.getRequestedContents().contains(DataType.COVERAGE)) {		
-			super.createDataResult(new DataResult(request, resultList));
-		}
-		
-		if (request.getRequestedContents().contains(DataType.COVERAGE_AVERAGE)) {
-			super.createDataResult(new DataResult(request, averageCoverage));
+			resultList.add(new Feature(region, values));
 		}
 	}
-
-	private void createResultList(BpCoord from, BaseStorage baseStorage,
-			LinkedList<Feature> resultList, Strand strand) {
-		
-		Iterator<Base> baseIter = baseStorage.iterator();
+	
+	/**
+	 * Average coverage of the covered bases in each bin. 
+	 */
+	private void createAverageList(Coverage coverage, int from, int to, int strandIndex, Strand strand, FeatureBatch averages) {
 		
-		while(baseIter.hasNext()) {
-			Base base = baseIter.next();
-			Region region = new Region(base.getBpLocation(), base.getBpLocation(), from.chr);
+		// the coverage starts from a bin boundary and the parts are full bins
+		for (int bin = from; bin < to; bin += CoverageTool.BIN_SIZE) {
 			
-			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
-			values.put(DataType.VALUE, base);
-			values.put(DataType.STRAND, strand);
+			long sum = 0;
+			int count = 0;
 			
-			resultList.add(new Feature(region, values));
+			for (int i = bin; i < Math.min(bin + CoverageTool.BIN_SIZE, to); i++) {
+				if (coverage.isCovered(strandIndex, i)) {
+					sum += coverage.getCoverage(strandIndex, i);
+					count++;
+				}
+			}
+			
+			if (count == 0) {
+				continue;
+			}
+			
+			long binStart = coverage.getStart() + bin;
+			averages.add(binStart, binStart + CoverageTool.BIN_SIZE, strand, (float) sum / count);
 		}
 	}
 	
@@ -13,6 +13,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataReque
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.PackedReads;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataThread;
 import fi.csc.microarray.util.BamUtils;
@@ -62,7 +63,12 @@ public class BamToDetailsConversion extends DataThread {
 	protected void processDataRequest(DataRequest request) throws InterruptedException {
 		
 		// Read the given region
-		CloseableIterator<SAMRecord> iterator = dataSource.query(request.start.chr, request.start.bp.intValue(), request.end.bp.intValue());
+		CloseableIterator<SAMRecord> iterator = dataSource.query(request.start.chr, (int) request.start.bp, (int) request.end.bp);
+		
+		if (request.getRequestedContents().contains(DataType.PACKED_READS)) {
+			processPackedRequest(request, iterator);
+			return;
+		}
 		
 		// Produce results
 		while (iterator.hasNext()) {
@@ -107,7 +113,7 @@ public class BamToDetailsConversion extends DataThread {
 				if (request.getRequestedContents().contains(DataType.MATE_POSITION)) {
 					
 					BpCoord mate = new BpCoord((Long)(long)record.getMateAlignmentStart(),
-							new Chromosome(record.getMateReferenceName()));
+							Chromosome.valueOf(record.getMateReferenceName()));
 					
 					values.put(DataType.MATE_POSITION, mate);
 				}
@@ -135,6 +141,47 @@ public class BamToDetailsConversion extends DataThread {
 		iterator.close();
 	}
 	
+	/**
+	 * Send the reads in a {@link PackedReads} object in a single Feature for each chunk. 
+	 */
+	private void processPackedRequest(DataRequest request, CloseableIterator<SAMRecord> iterator) throws InterruptedException {
+		
+		boolean sequence = request.getRequestedContents().contains(DataType.SEQUENCE);
+		boolean nh = request.getRequestedContents().contains(DataType.BAM_TAG_NH);
+		
+		try {
+			while (iterator.hasNext()) {
+
+				PackedReads reads = new PackedReads(request.start.chr, RESULT_CHUNK_SIZE);
+				long start = Long.MAX_VALUE;
+				long end = Long.MIN_VALUE;
+
+				for (int c = 0; c < RESULT_CHUNK_SIZE && iterator.hasNext(); c++) {
+					SAMRecord record = iterator.next();
+
+					Object alignments = nh ? record.getAttribute("NH") : null;
+					boolean multimapping = alignments instanceof Integer && (Integer) alignments > 1;
+
+					reads.add(record.getAlignmentStart(), record.getAlignmentEnd(), record.getReadName(), 
+							BamUtils.getStrand(record, coverageType), multimapping, record.getCigar(), 
+							sequence ? record.getReadString() : null);
+
+					start = Math.min(start, record.getAlignmentStart());
+					end = Math.max(end, record.getAlignmentEnd());
+				}
+
+				LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
+				values.put(DataType.PACKED_READS, reads);
+				List<Feature> responseList = new LinkedList<Feature>();
+				responseList.add(new Feature(new Region(start, end, request.start.chr), values));
+
+				super.createDataResult(new DataResult(request.getStatus(), responseList));
+			}
+		} finally {
+			iterator.close();
+		}
+	}
+	
 	public String toString() {
 		return this.getClass().getName() + " - " + dataSource;
 	}
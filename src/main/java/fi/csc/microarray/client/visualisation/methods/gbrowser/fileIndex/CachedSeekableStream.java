@@ -0,0 +1,130 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.seekablestream.SeekableStreamFactory;
+
+/**
+ * Stream of a local or remote file, which reads the file in blocks through the
+ * {@link FileBlockCache}. The underlying stream is read only when a block
+ * isn't found from the cache.
+ *
+ * Each reader needs its own stream, because the position isn't shared, but the
+ * blocks are shared between all streams of the same file.
+ */
+public class CachedSeekableStream extends SeekableStream {
+
+	private String source;
+	private FileBlockCache cache;
+	private SeekableStream stream;
+	private long length;
+	private long position = 0;
+
+	/**
+	 * @param source file path or URL
+	 * @param cache
+	 * @throws IOException
+	 */
+	public CachedSeekableStream(String source, FileBlockCache cache) throws IOException {
+		this.source = source;
+		this.cache = cache;
+		this.stream = SeekableStreamFactory.getInstance().getStreamFor(source);
+		this.length = stream.length();
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public long position() throws IOException {
+		return position;
+	}
+
+	@Override
+	public void seek(long position) throws IOException {
+		this.position = position;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+
+		long blockIndex = position / FileBlockCache.BLOCK_SIZE;
+		int blockOffset = (int) (position - blockIndex * FileBlockCache.BLOCK_SIZE);
+		byte[] block = getBlock(blockIndex);
+
+		if (blockOffset >= block.length) {
+			return -1;
+		}
+
+		int count = Math.min(length, block.length - blockOffset);
+		System.arraycopy(block, blockOffset, buffer, offset, count);
+		position += count;
+		return count;
+	}
+
+	private byte[] getBlock(long blockIndex) throws IOException {
+		byte[] block = cache.get(source, blockIndex);
+		if (block != null) {
+			return block;
+		}
+
+		long start = blockIndex * FileBlockCache.BLOCK_SIZE;
+		int size = FileBlockCache.BLOCK_SIZE;
+		if (length >= 0) {
+			// length of a remote file may be unknown
+			size = (int) Math.max(0, Math.min(size, length - start));
+		}
+
+		byte[] buffer = new byte[size];
+		int count = 0;
+		stream.seek(start);
+		while (count < size) {
+			int n = stream.read(buffer, count, size - count);
+			if (n < 0) {
+				break;
+			}
+			count += n;
+		}
+
+		if (count < size) {
+			if (length >= 0) {
+				// don't cache a truncated block, the next read would get the same broken data
+				throw new IOException("unexpected end of file " + source + " at " + (start + count) + ", length " + length);
+			}
+			// the last block of a file whose length is unknown
+			block = Arrays.copyOf(buffer, count);
+		} else {
+			block = buffer;
+		}
+		cache.put(source, blockIndex, block);
+		return block;
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+
+	@Override
+	public boolean eof() throws IOException {
+		return length >= 0 && position >= length;
+	}
+
+	@Override
+	public String getSource() {
+		return source;
+	}
+}
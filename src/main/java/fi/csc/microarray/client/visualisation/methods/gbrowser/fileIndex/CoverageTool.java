@@ -12,6 +12,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosom
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.FeatureBatch;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.BaseStorage.Base;
 
@@ -131,6 +132,23 @@ public class CoverageTool {
 		}
 	}
 
+	public static void convertFeatureBatchToFloatList(FeatureBatch batch,
+			TreeMap<Region, Float> forwardAverages,
+			TreeMap<Region, Float> reverseAverages) {
+		
+		for (int i = 0; i < batch.getCount(); i++) {
+			
+			Strand strand = batch.getStrand(i);
+			
+			if (strand == Strand.FORWARD) {
+				forwardAverages.put(batch.getRegion(i), batch.getValue(i));
+				
+			} else if (strand == Strand.REVERSE) {
+				reverseAverages.put(batch.getRegion(i), batch.getValue(i));
+			}
+		}
+	}
+
 	public static TreeMap<Long, LinkedList<Base>> binBases (
 			TreeMap<BpCoord, Base> bases) {		
 
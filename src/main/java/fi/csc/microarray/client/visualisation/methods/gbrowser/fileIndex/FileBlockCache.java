@@ -0,0 +1,108 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Blocks of {@link #BLOCK_SIZE} bytes of the indexed files, shared by all readers of
+ * the browser. Moving back and forth in the same region reads the same blocks again,
+ * which is slow especially over HTTP. The least recently used blocks are removed
+ * when the total size of the blocks exceeds the limit.
+ *
+ * @see CachedSeekableStream
+ */
+public class FileBlockCache {
+
+	public static final int BLOCK_SIZE = 64 * 1024;
+
+	private static FileBlockCache instance;
+
+	public static synchronized FileBlockCache getInstance() {
+		if (instance == null) {
+			// tile cache takes an eighth, this is needed only for the annotation files
+			instance = new FileBlockCache(Runtime.getRuntime().maxMemory() / 32);
+		}
+		return instance;
+	}
+
+	private LinkedHashMap<List<Object>, byte[]> blocks = new LinkedHashMap<List<Object>, byte[]>(16, 0.75f, true);
+
+	private long maxSize;
+	private long size = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param maxSize maximum size of the blocks in bytes
+	 */
+	public FileBlockCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param file anything that identifies the file
+	 * @param block index of the block from the beginning of the file
+	 * @return block or null if it isn't cached
+	 */
+	public synchronized byte[] get(Object file, long block) {
+		byte[] bytes = blocks.get(Arrays.<Object>asList(file, block));
+		if (bytes == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Store a block. The array must not be modified after this.
+	 *
+	 * @param file
+	 * @param block
+	 * @param bytes contents of the block, shorter than the block size only at the end of the file
+	 */
+	public synchronized void put(Object file, long block, byte[] bytes) {
+
+		byte[] old = blocks.put(Arrays.<Object>asList(file, block), bytes);
+		if (old != null) {
+			size -= old.length;
+		}
+		size += bytes.length;
+
+		Iterator<byte[]> iter = blocks.values().iterator();
+		while (size > maxSize && iter.hasNext()) {
+			size -= iter.next().length;
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Remove all blocks of the file, e.g. when the file has changed.
+	 */
+	public synchronized void remove(Object file) {
+		Iterator<Map.Entry<List<Object>, byte[]>> iter = blocks.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<List<Object>, byte[]> entry = iter.next();
+			if (entry.getKey().get(0).equals(file)) {
+				size -= entry.getValue().length;
+				iter.remove();
+			}
+		}
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+}
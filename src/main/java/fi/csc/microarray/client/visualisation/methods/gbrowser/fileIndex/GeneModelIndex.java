@@ -0,0 +1,478 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Exon;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.GtfLineParser;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+
+/**
+ * Binary transcript index of a gtf file.
+ *
+ * The gtf file is read once and the exons are grouped to transcripts. The
+ * transcripts of each chromosome are sorted by their start position and stored
+ * together with the running maximum of their end positions, so that all transcripts
+ * overlapping a region can be found with a binary search and a short scan backwards.
+ * The index file is memory-mapped, so the transcripts that are visible can be
+ * found without reading and parsing the surrounding gtf lines.
+ *
+ * File format, all integers big-endian:
+ * <pre>
+ * header: magic, version, source length, source modification time, counts of strings, chromosomes, transcripts and exons
+ * string offsets: int for each string
+ * chromosomes: original name, first transcript, transcript count
+ * transcripts: start, end, max end, strand, gene id, transcript id, gene name, transcript name, first exon, exon count
+ * exons: start, end, feature, exon number
+ * strings: short length and UTF-8 bytes
+ * </pre>
+ */
+public class GeneModelIndex {
+
+	private static final Logger logger = Logger.getLogger(GeneModelIndex.class);
+
+	public static final String FILE_SUFFIX = ".gmi";
+
+	private static final int MAGIC = 0x474D4931; // "GMI1"
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 * 4;
+	private static final int CHROMOSOME_SIZE = 3 * 4;
+	private static final int TRANSCRIPT_SIZE = 10 * 4;
+	private static final int EXON_SIZE = 4 * 4;
+
+	private static final int NONE = -1;
+
+	private static final Strand[] STRANDS = Strand.values();
+	private static final Exon.Feature[] FEATURES = Exon.Feature.values();
+
+	private ByteBuffer buffer;
+
+	private int stringOffsetsPosition;
+	private int chromosomesPosition;
+	private int transcriptsPosition;
+	private int exonsPosition;
+	private int stringsPosition;
+
+	private HashMap<Chromosome, Integer> chromosomes = new HashMap<>();
+	private Chromosome[] chromosomeArray;
+
+	private GeneModelIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("unsupported gene model index");
+		}
+		int stringCount = buffer.getInt(24);
+		int chromosomeCount = buffer.getInt(28);
+		int transcriptCount = buffer.getInt(32);
+		int exonCount = buffer.getInt(36);
+
+		stringOffsetsPosition = HEADER_SIZE;
+		chromosomesPosition = stringOffsetsPosition + stringCount * 4;
+		transcriptsPosition = chromosomesPosition + chromosomeCount * CHROMOSOME_SIZE;
+		exonsPosition = transcriptsPosition + transcriptCount * TRANSCRIPT_SIZE;
+		stringsPosition = exonsPosition + exonCount * EXON_SIZE;
+
+		chromosomeArray = new Chromosome[chromosomeCount];
+		for (int i = 0; i < chromosomeCount; i++) {
+			int position = chromosomesPosition + i * CHROMOSOME_SIZE;
+			chromosomeArray[i] = Chromosome.valueOf(getString(buffer.getInt(position)));
+			chromosomes.put(chromosomeArray[i], i);
+		}
+	}
+
+	/**
+	 * Memory-map an index file.
+	 *
+	 * @param indexFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static GeneModelIndex open(File indexFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+			// the mapping stays valid after the file is closed
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			return new GeneModelIndex(buffer);
+		}
+	}
+
+	/**
+	 * @param gtfFile
+	 * @return index file of the gtf file, which may not exist yet
+	 */
+	public static File getIndexFile(File gtfFile) {
+		return new File(gtfFile.getParentFile(), gtfFile.getName() + FILE_SUFFIX);
+	}
+
+	/**
+	 * @param gtfFile
+	 * @param indexFile
+	 * @return true if the index file exists and was created from the current version of the gtf file
+	 */
+	public static boolean isUpToDate(File gtfFile, File indexFile) {
+		if (!indexFile.exists()) {
+			return false;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+			return file.length() >= HEADER_SIZE &&
+					file.readInt() == MAGIC &&
+					file.readInt() == VERSION &&
+					file.readLong() == gtfFile.length() &&
+					file.readLong() == gtfFile.lastModified();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Open the index of the gtf file, creating it first if necessary. Compressed
+	 * gtf files (tabix) are recognized from the file name.
+	 *
+	 * @param gtfFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static GeneModelIndex openOrCreate(File gtfFile) throws IOException {
+		File indexFile = getIndexFile(gtfFile);
+		if (!isUpToDate(gtfFile, indexFile)) {
+			long t = System.currentTimeMillis();
+			create(gtfFile, indexFile);
+			logger.info("gene model index of " + gtfFile.getName() + " created in " + (System.currentTimeMillis() - t) + " ms");
+		}
+		return open(indexFile);
+	}
+
+	/**
+	 * Read the gtf file and write its index. The index is written to a temporary
+	 * file first, so that an interrupted run doesn't leave a broken index behind.
+	 *
+	 * @param gtfFile
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public static void create(File gtfFile, File indexFile) throws IOException {
+
+		Builder builder = new Builder();
+
+		InputStream in = new FileInputStream(gtfFile);
+		if (gtfFile.getName().endsWith(".gz")) {
+			in = new BlockCompressedInputStream(in);
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			GtfLineParser parser = new GtfLineParser();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Exon exon = GtfToFeatureConversion.parseLine(parser, line);
+				if (exon != null) {
+					builder.add(exon);
+				}
+			}
+		}
+
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			builder.write(out, gtfFile.length(), gtfFile.lastModified());
+		}
+
+		indexFile.delete();
+		if (!tmpFile.renameTo(indexFile)) {
+			tmpFile.delete();
+			throw new IOException("could not rename " + tmpFile + " to " + indexFile);
+		}
+	}
+
+	/**
+	 * Get all exons of the transcripts that overlap with the region.
+	 *
+	 * @param region
+	 * @return exons in the order of their transcripts' start positions
+	 */
+	public List<Exon> getExons(Region region) {
+
+		LinkedList<Exon> exons = new LinkedList<>();
+
+		Integer chr = chromosomes.get(region.start.chr);
+		if (chr == null) {
+			return exons;
+		}
+
+		int chrPosition = chromosomesPosition + chr * CHROMOSOME_SIZE;
+		int first = buffer.getInt(chrPosition + 4);
+		int count = buffer.getInt(chrPosition + 8);
+
+		long start = region.start.bp;
+		long end = region.end.bp;
+
+		// last transcript that starts before the end of the region
+		int low = first;
+		int high = first + count - 1;
+		int last = first - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (getTranscriptInt(middle, 0) <= end) {
+				last = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		// go backwards until none of the earlier transcripts can reach the region
+		for (int i = last; i >= first && getTranscriptInt(i, 2) >= start; i--) {
+			if (getTranscriptInt(i, 1) >= start) {
+				addExons(chr, i, exons);
+			}
+		}
+
+		return exons;
+	}
+
+	/**
+	 * @return exons of each transcript whose gene name or id equals to the search string
+	 */
+	public List<Exon> searchGene(String searchString) {
+
+		LinkedList<Exon> exons = new LinkedList<>();
+
+		for (int chr = 0; chr < chromosomeArray.length; chr++) {
+			int chrPosition = chromosomesPosition + chr * CHROMOSOME_SIZE;
+			int first = buffer.getInt(chrPosition + 4);
+			int count = buffer.getInt(chrPosition + 8);
+
+			for (int i = first + count - 1; i >= first; i--) {
+				if (searchString.equalsIgnoreCase(getString(getTranscriptInt(i, 6))) ||
+						searchString.equalsIgnoreCase(getString(getTranscriptInt(i, 4)))) {
+					addExons(chr, i, exons);
+				}
+			}
+		}
+		return exons;
+	}
+
+	@SuppressWarnings("deprecation") // the gene tracks still read the strand from the region
+	private void addExons(int chrIndex, int transcript, LinkedList<Exon> exons) {
+
+		Chromosome chr = chromosomeArray[chrIndex];
+		int strand = getTranscriptInt(transcript, 3);
+		String geneId = getString(getTranscriptInt(transcript, 4));
+		String transcId = getString(getTranscriptInt(transcript, 5));
+		String geneName = getString(getTranscriptInt(transcript, 6));
+		String transcName = getString(getTranscriptInt(transcript, 7));
+		int firstExon = getTranscriptInt(transcript, 8);
+		int exonCount = getTranscriptInt(transcript, 9);
+
+		// in reverse, because the transcripts are iterated backwards and added to the beginning
+		for (int i = firstExon + exonCount - 1; i >= firstExon; i--) {
+			int position = exonsPosition + i * EXON_SIZE;
+			Region exonRegion = new Region(buffer.getInt(position), buffer.getInt(position + 4), chr);
+			exonRegion.strand = strand == NONE ? null : STRANDS[strand];
+			String feature = FEATURES[buffer.getInt(position + 8)].getId();
+
+			exons.addFirst(new Exon(exonRegion, feature, buffer.getInt(position + 12), geneId, transcId, geneName, transcName, null));
+		}
+	}
+
+	private int getTranscriptInt(int transcript, int field) {
+		return buffer.getInt(transcriptsPosition + transcript * TRANSCRIPT_SIZE + field * 4);
+	}
+
+	private String getString(int index) {
+		if (index == NONE) {
+			return null;
+		}
+		int position = stringsPosition + buffer.getInt(stringOffsetsPosition + index * 4);
+		int length = buffer.getShort(position) & 0xFFFF;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(position + 2 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Collects the exons in memory and writes the index.
+	 */
+	private static class Builder {
+
+		private static class Transcript {
+			String chr;
+			int start = Integer.MAX_VALUE;
+			int end = Integer.MIN_VALUE;
+			int strand = NONE;
+			int geneId;
+			int transcId;
+			int geneName;
+			int transcName;
+			ArrayList<int[]> exons = new ArrayList<>();
+		}
+
+		private LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+		private LinkedHashMap<String, Transcript> transcripts = new LinkedHashMap<>();
+		// first original name of each normalised chromosome name
+		private HashMap<String, String> chromosomeNames = new HashMap<>();
+		private int exonCount = 0;
+
+		public void add(Exon exon) {
+			Region region = exon.getRegion();
+			String chr = region.start.chr.toNormalisedString();
+			if (!chromosomeNames.containsKey(chr)) {
+				chromosomeNames.put(chr, region.start.chr.getOriginalName());
+			}
+			String key = chr + "\t" + exon.getTranscriptId();
+
+			Transcript transcript = transcripts.get(key);
+			if (transcript == null) {
+				transcript = new Transcript();
+				transcript.chr = chr;
+				transcript.geneId = string(exon.getGeneId());
+				transcript.transcId = string(exon.getTranscriptId());
+				transcript.geneName = string(exon.getGeneName());
+				transcript.transcName = string(exon.getTranscName());
+				if (region.getStrand() != null) {
+					transcript.strand = region.getStrand().ordinal();
+				}
+				transcripts.put(key, transcript);
+			}
+
+			int start = (int) region.start.bp;
+			int end = (int) region.end.bp;
+			transcript.start = Math.min(transcript.start, start);
+			transcript.end = Math.max(transcript.end, end);
+			transcript.exons.add(new int[] { start, end, exon.getFeature().ordinal(), exon.getIndex() });
+			exonCount++;
+		}
+
+		private int string(String value) {
+			if (value == null) {
+				return NONE;
+			}
+			Integer index = strings.get(value);
+			if (index == null) {
+				index = strings.size();
+				strings.put(value, index);
+			}
+			return index;
+		}
+
+		public void write(DataOutputStream out, long sourceLength, long sourceLastModified) throws IOException {
+
+			// group by chromosome and sort by start
+			LinkedHashMap<String, List<Transcript>> chromosomes = new LinkedHashMap<>();
+			for (Transcript transcript : transcripts.values()) {
+				if (!chromosomes.containsKey(transcript.chr)) {
+					chromosomes.put(transcript.chr, new ArrayList<Transcript>());
+					string(chromosomeNames.get(transcript.chr));
+				}
+				chromosomes.get(transcript.chr).add(transcript);
+			}
+			for (List<Transcript> list : chromosomes.values()) {
+				list.sort(new Comparator<Transcript>() {
+					@Override
+					public int compare(Transcript t1, Transcript t2) {
+						return Integer.compare(t1.start, t2.start);
+					}
+				});
+			}
+
+			byte[][] stringBytes = new byte[strings.size()][];
+			for (String string : strings.keySet()) {
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				if (bytes.length > 0xFFFF) {
+					bytes = Arrays.copyOf(bytes, 0xFFFF);
+				}
+				stringBytes[strings.get(string)] = bytes;
+			}
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceLength);
+			out.writeLong(sourceLastModified);
+			out.writeInt(stringBytes.length);
+			out.writeInt(chromosomes.size());
+			out.writeInt(transcripts.size());
+			out.writeInt(exonCount);
+
+			int stringOffset = 0;
+			for (byte[] bytes : stringBytes) {
+				out.writeInt(stringOffset);
+				stringOffset += 2 + bytes.length;
+			}
+
+			int transcriptIndex = 0;
+			for (String chr : chromosomes.keySet()) {
+				out.writeInt(strings.get(chromosomeNames.get(chr)));
+				out.writeInt(transcriptIndex);
+				out.writeInt(chromosomes.get(chr).size());
+				transcriptIndex += chromosomes.get(chr).size();
+			}
+
+			int exonIndex = 0;
+			for (List<Transcript> list : chromosomes.values()) {
+				int maxEnd = Integer.MIN_VALUE;
+				for (Transcript transcript : list) {
+					maxEnd = Math.max(maxEnd, transcript.end);
+					out.writeInt(transcript.start);
+					out.writeInt(transcript.end);
+					out.writeInt(maxEnd);
+					out.writeInt(transcript.strand);
+					out.writeInt(transcript.geneId);
+					out.writeInt(transcript.transcId);
+					out.writeInt(transcript.geneName);
+					out.writeInt(transcript.transcName);
+					out.writeInt(exonIndex);
+					out.writeInt(transcript.exons.size());
+					exonIndex += transcript.exons.size();
+				}
+			}
+
+			for (List<Transcript> list : chromosomes.values()) {
+				for (Transcript transcript : list) {
+					for (int[] exon : transcript.exons) {
+						for (int value : exon) {
+							out.writeInt(value);
+						}
+					}
+				}
+			}
+
+			for (byte[] bytes : stringBytes) {
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: GeneModelIndex GTF_FILE");
+			System.exit(1);
+		}
+		File gtfFile = new File(args[0]);
+		create(gtfFile, getIndexFile(gtfFile));
+	}
+}
@@ -1,5 +1,6 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -35,7 +36,6 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.Inde
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.RandomAccessLineDataSource;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedDataException;
-import htsjdk.tribble.readers.TabixReader;
 
 public class GtfToFeatureConversion extends DataThread {
 	
@@ -49,6 +49,10 @@ public class GtfToFeatureConversion extends DataThread {
 
 	private ChromosomeBinarySearch chrSearch;
 	
+	/**
+	 * Index of a local gtf file, null until it's ready.
+	 */
+	private volatile GeneModelIndex geneModelIndex;
 
 	public GtfToFeatureConversion(DataUrl gtfTabixUrl, DataUrl gtfIndexUrl, final GBrowser browser) {
 	    
@@ -76,6 +80,10 @@ public class GtfToFeatureConversion extends DataThread {
 				//		}
 			}
 
+			if ("file".equals(gtfTabixUrl.getUrl().getProtocol())) {
+				openGeneModelIndex(gtfTabixUrl.getLocalFile());
+			}
+
 		} catch (final UnsortedDataException e) {
 				SwingUtilities.invokeLater(new Runnable() {
 
@@ -95,9 +103,45 @@ public class GtfToFeatureConversion extends DataThread {
 		}		
 	}
 
+	/**
+	 * Open or create the index in the background. Requests are served from the 
+	 * gtf file until the index is ready, because creating the index takes some 
+	 * time when the gtf file is opened for the first time.
+	 * 
+	 * @param gtfFile
+	 */
+	private void openGeneModelIndex(final File gtfFile) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					geneModelIndex = GeneModelIndex.openOrCreate(gtfFile);
+				} catch (IOException e) {
+					// the gtf file is still usable without the index
+					e.printStackTrace();
+				}
+			}
+		}, "gene-model-index");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Results of the old implementation contain genes far outside the request, so only the results of the index are cached.
+	 */
+	@Override
+	protected boolean isTileCacheable() {
+		return geneModelIndex != null;
+	}
+
 	@Override
 	protected void processDataRequest(DataRequest request) throws InterruptedException {				
 		
+		if (geneModelIndex != null) {
+			processIndexRequest(request);
+			return;
+		}
+		
 		if (!isTabix && index == null) {
 			return;
 		}
@@ -137,11 +181,35 @@ public class GtfToFeatureConversion extends DataThread {
 		}
 	}
 	
+	/**
+	 * Complete transcripts are found from the index, so there is no need to 
+	 * extend the area.
+	 */
+	private void processIndexRequest(DataRequest request) throws InterruptedException {
+		
+		if (request instanceof SearchRequest) {
+
+			SearchRequest geneRequest = (SearchRequest)request;
+			List<Feature> resultList = toGeneFeatures(geneModelIndex.searchGene(geneRequest.getSearchString()), geneRequest.getSearchString().toLowerCase());
+			createDataResult(new GeneResult(geneRequest.getStatus(), resultList, geneRequest.getSearchString()));
+
+		} else {
+			List<Exon> exons = geneModelIndex.getExons(new Region(request.start.bp, request.end.bp, request.start.chr));
+			super.createDataResult(new DataResult(request.getStatus(), toFeatures(exons)));
+		}
+	}
+	
 	protected void processDataRequestChunk(DataRequest request, Region chunkRegion) throws InterruptedException {
 		
-		List<Feature> resultList = new LinkedList<Feature>();
 		List<Exon> exons = fetchExons(request, chunkRegion);						
 		
+		super.createDataResult(new DataResult(request.getStatus(), toFeatures(exons)));
+	}
+
+	private List<Feature> toFeatures(List<Exon> exons) {
+		
+		List<Feature> resultList = new LinkedList<Feature>();
+		
 		for (Exon exon : exons) {
 			
 			LinkedHashMap<DataType, Object> valueMap = new LinkedHashMap<DataType, Object>();
@@ -152,8 +220,7 @@ public class GtfToFeatureConversion extends DataThread {
 
 			resultList.add(feature);
 		}
-		
-		super.createDataResult(new DataResult(request.getStatus(), resultList));
+		return resultList;
 	}
 
 	private LinkedList<Exon> fetchExons(DataRequest request, Region chunkRegion) {
@@ -252,13 +319,11 @@ public class GtfToFeatureConversion extends DataThread {
 			
 			lines = new TreeMap<IndexKey, String>();
 			
-			TabixReader.Iterator iter = tabixDataSource.getTabixIterator(request);
+			List<String> tabixLines = tabixDataSource.getLines(request);
 
-			String line;
-			
-			if (iter != null) { //null if there isn't such chromosome in annotations
+			if (tabixLines != null) { //null if there isn't such chromosome in annotations
 				
-				while ((line = iter.next()) != null) {
+				for (String line : tabixLines) {
 					
 					parser.setLine(line);
 					BpCoord start = parser.getRegion().start;
@@ -290,29 +355,36 @@ public class GtfToFeatureConversion extends DataThread {
 		List<Feature> resultList = new LinkedList<Feature>();
 		
 		for (String chrName : getChromosomes()) {
-			Chromosome chr = new Chromosome(chrName);
-			Region region = new Region(1l, Long.MAX_VALUE, new Chromosome(chr));
+			Chromosome chr = Chromosome.valueOf(chrName);
+			Region region = new Region(1l, Long.MAX_VALUE, chr);
 			request.start.chr = chr;
 			request.end.chr = chr;
 			List<Exon> exons = fetchExons(request, region);
 
-			GeneSet genes = new GeneSet();				
-			genes.add(exons.iterator(), region);
+			resultList.addAll(toGeneFeatures(exons, searchString));
+		}
 
+		return resultList;
+	}
 
-			for (Gene gene : genes.values()) {
+	private List<Feature> toGeneFeatures(List<Exon> exons, String searchString) {
+		
+		List<Feature> resultList = new LinkedList<Feature>();
 
-				if (gene.getName() != null && gene.getName().toLowerCase().equals(searchString) || 
-						gene.getId() != null && gene.getId().toLowerCase().equals(searchString)) {
+		GeneSet genes = new GeneSet();				
+		genes.add(exons.iterator(), null);
 
-					LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
+		for (Gene gene : genes.values()) {
 
-					values.put(DataType.VALUE, gene);
-					resultList.add(new Feature(gene.getRegion(), values));
-				}
+			if (gene.getName() != null && gene.getName().toLowerCase().equals(searchString) || 
+					gene.getId() != null && gene.getId().toLowerCase().equals(searchString)) {
+
+				LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
+
+				values.put(DataType.VALUE, gene);
+				resultList.add(new Feature(gene.getRegion(), values));
 			}
 		}
-
 		return resultList;
 	}
 
@@ -38,6 +38,11 @@ public class IndexedFastaConversion extends DataThread {
 	}
 
 
+	@Override
+	protected boolean isTileCacheable() {
+		return true;
+	}
+
 	@Override
 	protected void processDataRequest(DataRequest request) throws InterruptedException {
 		
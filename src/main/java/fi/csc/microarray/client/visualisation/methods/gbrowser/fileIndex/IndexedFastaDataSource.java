@@ -12,7 +12,6 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.Line
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.ChromosomeNameUnnormaliser;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.reference.ChipsterIndexedFastaSequenceFile;
-import htsjdk.samtools.reference.ReferenceSequence;
 
 /**
  * 
@@ -26,6 +25,7 @@ public class IndexedFastaDataSource extends DataSource {
 	private URL dataUrl;
     private URL indexUrl;
 	private ChipsterIndexedFastaSequenceFile picard;
+	private ReferenceBlockCache blockCache = ReferenceBlockCache.getInstance();
 
 
 	public IndexedFastaDataSource(DataUrl data, DataUrl index) throws URISyntaxException, IOException {
@@ -51,13 +51,41 @@ public class IndexedFastaDataSource extends DataSource {
 		return dataUrl;
 	}
 
+	/**
+	 * Get the sequence from the {@link ReferenceBlockCache}. Missing blocks are read
+	 * from the file, so that the neighbouring queries don't need to access the file again.
+	 */
 	public String query(Chromosome chr, Long start, Long end) {
 		
 		String chrString = chromosomeNameUnnormaliser.unnormalise(chr);
 		
 		try {
-			ReferenceSequence picardSequence = picard.getSubsequenceAt(chrString, start, end);
-			return new String(picardSequence.getBases());
+			long contigLength = picard.getContigLength(chrString);
+			
+			if (end > contigLength) {
+				throw new SAMException("Query asks for data past end of contig");
+			}
+			
+			byte[] bases = new byte[(int) (end - start + 1)];
+			
+			for (long block = (start - 1) / ReferenceBlockCache.BLOCK_SIZE; block <= (end - 1) / ReferenceBlockCache.BLOCK_SIZE; block++) {
+				
+				ReferenceBlockCache.Block blockBases = blockCache.get(dataUrl.toString(), chrString, block);
+				
+				long blockStart = block * ReferenceBlockCache.BLOCK_SIZE + 1;
+				
+				if (blockBases == null) {
+					long blockEnd = Math.min(blockStart + ReferenceBlockCache.BLOCK_SIZE - 1, contigLength);
+					blockBases = new ReferenceBlockCache.Block(picard.getSubsequenceAt(chrString, blockStart, blockEnd).getBases());
+					blockCache.put(dataUrl.toString(), chrString, block, blockBases);
+				}
+				
+				long from = Math.max(start, blockStart);
+				long to = Math.min(end, blockStart + blockBases.getLength() - 1);
+				blockBases.getBases((int) (from - blockStart), (int) (to - blockStart + 1), bases, (int) (from - start));
+			}
+			
+			return new String(bases);
 
 		} catch (SAMException e) {				
 			e.printStackTrace(); //Catch "Query asks for data past end of contig" to prevent this thread from ending
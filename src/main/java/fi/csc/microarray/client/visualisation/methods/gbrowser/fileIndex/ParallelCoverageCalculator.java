@@ -0,0 +1,266 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserSettings.CoverageType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.BaseStorage.Nucleotide;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.SamBamUtils;
+import fi.csc.microarray.util.BamUtils;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileReader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloseableIterator;
+
+/**
+ * Calculates the coverage of a region of a BAM file in several threads. The region
+ * is divided into chunks that match the 16 kb windows of the BAM index, so that each
+ * thread can seek directly to the first compressed block of its chunk. Each thread
+ * counts only the bases in its own chunk to its own part of the result arrays, so the
+ * results don't need any merging or locking.
+ *
+ * Aligned bases are counted with a difference array for each strand. Nucleotides are counted
+ * separately only when those are needed.
+ */
+public class ParallelCoverageCalculator {
+
+	/**
+	 * Size of the linear index window in BAM index
+	 */
+	public static final int CHUNK_SIZE = 16 * 1024;
+
+	/**
+	 * Number of threads, which is also the number of readers needed at the same time
+	 */
+	public static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	private static final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+	/**
+	 * Counts of a region, indexed by strand (0 forward, 1 reverse) and position from the start of the region.
+	 */
+	public static class Coverage {
+
+		private long start;
+		private int length;
+
+		private int[][] aligned;
+		private int[][] unknown;
+		private int[][][] nucleotides;
+
+		public Coverage(long start, long end, boolean countNucleotides) {
+			this.start = start;
+			this.length = (int) (end - start + 1);
+			aligned = new int[2][length];
+			unknown = new int[2][length];
+			if (countNucleotides) {
+				nucleotides = new int[2][Nucleotide.values().length][length];
+			}
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return true if there is any aligned base in this position, even if its nucleotide is unknown
+		 */
+		public boolean isCovered(int strand, int position) {
+			return aligned[strand][position] > 0;
+		}
+
+		/**
+		 * @return number of A, C, G and T bases in the position
+		 */
+		public int getCoverage(int strand, int position) {
+			return aligned[strand][position] - unknown[strand][position];
+		}
+
+		/**
+		 * @return counts of the nucleotides in the position or null if those weren't counted
+		 */
+		public int[] getNucleotideCounts(int strand, int position) {
+			if (nucleotides == null) {
+				return null;
+			}
+			int[] counts = new int[nucleotides[strand].length];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = nucleotides[strand][i][position];
+			}
+			return counts;
+		}
+
+		/**
+		 * Count the bases of the records in the chunk. The arrays of other chunks aren't touched.
+		 *
+		 * @param records records overlapping the chunk
+		 * @param chunkStart
+		 * @param chunkEnd inclusive
+		 * @param coverageType
+		 */
+		public void count(Iterator<SAMRecord> records, long chunkStart, long chunkEnd, CoverageType coverageType) {
+
+			int from = (int) (Math.max(chunkStart, start) - start);
+			int to = (int) (Math.min(chunkEnd, start + length - 1) - start);
+
+			if (to < from) {
+				return;
+			}
+
+			int[][] diff = new int[2][to - from + 2];
+
+			while (records.hasNext()) {
+				SAMRecord record = records.next();
+
+				Strand strand = BamUtils.getStrand(record, coverageType);
+				int s;
+				if (strand == Strand.FORWARD) {
+					s = 0;
+				} else if (strand == Strand.REVERSE) {
+					s = 1;
+				} else {
+					continue;
+				}
+
+				byte[] bases = record.getReadBases();
+				long refPos = record.getAlignmentStart();
+				int seqPos = 0;
+
+				for (CigarElement element : record.getCigar().getCigarElements()) {
+
+					CigarOperator operator = element.getOperator();
+					int elementLength = element.getLength();
+
+					if (operator == CigarOperator.M || operator == CigarOperator.X || operator == CigarOperator.EQ) {
+
+						// part of this element in this chunk
+						int first = (int) Math.max(0, start + from - refPos);
+						int last = (int) Math.min(elementLength - 1, start + to - refPos);
+
+						if (first <= last) {
+							int position = (int) (refPos - start);
+							diff[s][position + first - from]++;
+							diff[s][position + last - from + 1]--;
+
+							for (int i = first; i <= last; i++) {
+								// sequence may be missing
+								Nucleotide nt = seqPos + i < bases.length ? Nucleotide.fromCharacter((char) bases[seqPos + i]) : null;
+								if (nt == null) {
+									unknown[s][position + i]++;
+								} else if (nucleotides != null) {
+									nucleotides[s][nt.ordinal()][position + i]++;
+								}
+							}
+						}
+					}
+
+					if (operator.consumesReferenceBases()) {
+						refPos += elementLength;
+					}
+					if (operator.consumesReadBases()) {
+						seqPos += elementLength;
+					}
+				}
+			}
+
+			for (int s = 0; s < 2; s++) {
+				int depth = 0;
+				for (int i = from; i <= to; i++) {
+					depth += diff[s][i - from];
+					aligned[s][i] = depth;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the chunks of a range, splitting the range until only one chunk is left.
+	 */
+	@SuppressWarnings("serial")
+	private static class ChunkTask extends RecursiveAction {
+
+		private BamDataSource dataSource;
+		private Chromosome chr;
+		private CoverageType coverageType;
+		private Coverage coverage;
+		private long firstChunk;
+		private long lastChunk;
+
+		public ChunkTask(BamDataSource dataSource, Chromosome chr, CoverageType coverageType, Coverage coverage, long firstChunk, long lastChunk) {
+			this.dataSource = dataSource;
+			this.chr = chr;
+			this.coverageType = coverageType;
+			this.coverage = coverage;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (firstChunk < lastChunk) {
+				long middle = (firstChunk + lastChunk) / 2;
+				invokeAll(new ChunkTask(dataSource, chr, coverageType, coverage, firstChunk, middle),
+						new ChunkTask(dataSource, chr, coverageType, coverage, middle + 1, lastChunk));
+				return;
+			}
+
+			long chunkStart = Math.max(coverage.getStart(), firstChunk * CHUNK_SIZE);
+			long chunkEnd = Math.min(coverage.getStart() + coverage.getLength() - 1, (firstChunk + 1) * CHUNK_SIZE - 1);
+
+			SAMFileReader reader = null;
+			try {
+				reader = dataSource.borrowReader();
+
+				// BAM coordinates start from 1
+				try (CloseableIterator<SAMRecord> iterator = dataSource.query(reader, chr, (int) Math.max(1, chunkStart), (int) Math.max(1, chunkEnd))) {
+					coverage.count(iterator, chunkStart, chunkEnd, coverageType);
+				}
+
+				dataSource.returnReader(reader);
+
+			} catch (Exception e) {
+				// broken reader isn't returned to the pool
+				if (reader != null) {
+					SamBamUtils.closeIfPossible(reader);
+				}
+				// fail the whole calculation instead of showing zero coverage
+				throw new RuntimeException("coverage calculation failed in " + chr + ":" + chunkStart + "-" + chunkEnd, e);
+			}
+		}
+	}
+
+	/**
+	 * Calculate the coverage of the region.
+	 *
+	 * @param dataSource
+	 * @param chr
+	 * @param start
+	 * @param end inclusive
+	 * @param coverageType
+	 * @param countNucleotides set true to count each nucleotide separately
+	 * @return
+	 * @throws GBrowserException if reading of any chunk failed
+	 */
+	public static Coverage calculate(BamDataSource dataSource, Chromosome chr, long start, long end, CoverageType coverageType, boolean countNucleotides) throws GBrowserException {
+
+		Coverage coverage = new Coverage(start, end, countNucleotides);
+
+		try {
+			pool.invoke(new ChunkTask(dataSource, chr, coverageType, coverage, start / CHUNK_SIZE, end / CHUNK_SIZE));
+		} catch (RuntimeException e) {
+			throw new GBrowserException("failed to calculate coverage of " + dataSource.getDataUrl(), e);
+		}
+
+		return coverage;
+	}
+}
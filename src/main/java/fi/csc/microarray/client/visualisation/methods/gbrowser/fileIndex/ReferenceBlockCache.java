@@ -0,0 +1,161 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference sequence in blocks of {@link #BLOCK_SIZE} bases, shared by all tracks that show
+ * the same genome. Bases are packed in two bits, so a block takes a quarter of the
+ * memory of the text. Least recently used blocks are removed, when there are more than
+ * {@link #MAX_BLOCKS} blocks.
+ */
+public class ReferenceBlockCache {
+
+	public static final int BLOCK_SIZE = 64 * 1024;
+
+	// 16 Mbp, about 5 MB
+	private static final int MAX_BLOCKS = 256;
+
+	private static ReferenceBlockCache instance;
+
+	public static synchronized ReferenceBlockCache getInstance() {
+		if (instance == null) {
+			instance = new ReferenceBlockCache(MAX_BLOCKS);
+		}
+		return instance;
+	}
+
+	private LinkedHashMap<List<Object>, Block> blocks;
+	private long hits = 0;
+	private long misses = 0;
+
+	public ReferenceBlockCache(final int maxBlocks) {
+		blocks = new LinkedHashMap<List<Object>, Block>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, Block> eldest) {
+				return size() > maxBlocks;
+			}
+		};
+	}
+
+	/**
+	 * @param genome anything that identifies the reference file
+	 * @param contig
+	 * @param block index of the block from the beginning of the contig
+	 * @return block or null if it isn't cached
+	 */
+	public synchronized Block get(Object genome, String contig, long block) {
+		Block result = blocks.get(Arrays.asList(genome, contig, block));
+		if (result == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return result;
+	}
+
+	public synchronized void put(Object genome, String contig, long block, Block bases) {
+		blocks.put(Arrays.<Object>asList(genome, contig, block), bases);
+	}
+
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	public synchronized int getBlockCount() {
+		return blocks.size();
+	}
+
+	/**
+	 * Bases of one block. A, C, G and T are packed in two bits and their case
+	 * in a bit mask. Other characters, usually runs of N, are stored as runs.
+	 */
+	public static class Block {
+
+		private static final byte[] CODES = new byte[128];
+		private static final char[] BASES = new char[] { 'A', 'C', 'G', 'T' };
+
+		static {
+			Arrays.fill(CODES, (byte) -1);
+			CODES['A'] = CODES['a'] = 0;
+			CODES['C'] = CODES['c'] = 1;
+			CODES['G'] = CODES['g'] = 2;
+			CODES['T'] = CODES['t'] = 3;
+		}
+
+		private int length;
+		private byte[] packed;
+		private long[] lowerCase;
+
+		private int runCount = 0;
+		private int[] runStarts = new int[0];
+		private int[] runEnds = new int[0];
+		private byte[] runBases = new byte[0];
+
+		public Block(byte[] bases) {
+			length = bases.length;
+			packed = new byte[(length + 3) / 4];
+			lowerCase = new long[(length + 63) / 64];
+
+			for (int i = 0; i < length; i++) {
+				byte base = bases[i];
+				int code = base >= 0 ? CODES[base] : -1;
+
+				if (code < 0) {
+					addRun(i, base);
+					continue;
+				}
+				packed[i >> 2] |= code << ((i & 3) << 1);
+				if (base >= 'a') {
+					lowerCase[i >> 6] |= 1l << i;
+				}
+			}
+		}
+
+		private void addRun(int position, byte base) {
+			if (runCount > 0 && runEnds[runCount - 1] == position && runBases[runCount - 1] == base) {
+				runEnds[runCount - 1]++;
+				return;
+			}
+			if (runCount == runStarts.length) {
+				int capacity = Math.max(4, runCount * 2);
+				runStarts = Arrays.copyOf(runStarts, capacity);
+				runEnds = Arrays.copyOf(runEnds, capacity);
+				runBases = Arrays.copyOf(runBases, capacity);
+			}
+			runStarts[runCount] = position;
+			runEnds[runCount] = position + 1;
+			runBases[runCount] = base;
+			runCount++;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Copy bases to an array.
+		 *
+		 * @param from first base of the block to copy
+		 * @param to end of the bases to copy, exclusive
+		 * @param target
+		 * @param offset position in the target
+		 */
+		public void getBases(int from, int to, byte[] target, int offset) {
+			for (int i = from; i < to; i++) {
+				char base = BASES[(packed[i >> 2] >> ((i & 3) << 1)) & 3];
+				if ((lowerCase[i >> 6] & (1l << i)) != 0) {
+					base = Character.toLowerCase(base);
+				}
+				target[offset + i - from] = (byte) base;
+			}
+			for (int run = 0; run < runCount; run++) {
+				for (int i = Math.max(from, runStarts[run]); i < Math.min(to, runEnds[run]); i++) {
+					target[offset + i - from] = runBases[run];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import org.apache.log4j.Logger;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.readers.TabixReader;
+
+/**
+ * TabixReader that can be copied without parsing the index again. The copies share
+ * the index of the original reader, which isn't changed after the constructor, but
+ * each copy reads the file through its own stream, so that they can be used from
+ * different threads.
+ *
+ * TabixReader doesn't allow setting the stream, so it's replaced with reflection. If
+ * that isn't possible with the current htsjdk version, the index is parsed again.
+ */
+class SharedIndexTabixReader extends TabixReader implements Cloneable {
+
+	private static final Logger logger = Logger.getLogger(SharedIndexTabixReader.class);
+
+	private static final Field streamField = getStreamField();
+
+	public SharedIndexTabixReader(String path, SeekableStream stream) throws IOException {
+		super(path, stream);
+	}
+
+	private static Field getStreamField() {
+		try {
+			Field field = TabixReader.class.getDeclaredField("mFp");
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException | SecurityException e) {
+			logger.warn("tabix readers can't share the index", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param stream stream of the same file for the new reader
+	 * @return new reader using the index of this reader
+	 * @throws IOException
+	 */
+	public SharedIndexTabixReader copy(SeekableStream stream) throws IOException {
+		if (streamField != null) {
+			try {
+				SharedIndexTabixReader copy = (SharedIndexTabixReader) clone();
+				streamField.set(copy, new BlockCompressedInputStream(stream));
+				return copy;
+			} catch (CloneNotSupportedException | IllegalAccessException e) {
+				logger.warn("tabix reader copy failed, parsing the index again", e);
+			}
+		}
+		return new SharedIndexTabixReader(getSource(), stream);
+	}
+}
@@ -4,23 +4,23 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.List;
 import java.util.Set;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataSource;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.util.SamBamUtils;
-import htsjdk.tribble.readers.TabixReader;
-import htsjdk.tribble.readers.TabixReader.Iterator;
 
 /**
+ * Tabix file of a track. Tracks of the same file share the readers and the
+ * cached blocks of the file, see {@link TabixFile}.
  * 
  * @author Petri Klemelä
  *
  */
 public class TabixDataSource extends DataSource {
 
-	private TabixReader reader;
+	private TabixFile file;
 
     public TabixDataSource(DataUrl repeat, DataUrl repeatIndex) throws URISyntaxException, IOException {
     	//TODO use the provided index instead of guessing
@@ -36,16 +36,24 @@ public class TabixDataSource extends DataSource {
         	fileString = (new File(repeatUrl.toURI()).getPath()); //Translate '%20' to space character, required in Windows
         }
         
-        this.reader = new TabixReader(fileString);       
+        this.file = TabixFile.open(fileString);
 
         // TODO initialize chromosome name unnormaliser (see for example BamDataSource), 
     }
     
 	public void clean() {
-		SamBamUtils.closeIfPossible(reader);
+		file.close();
 	}
 	
-	public Iterator getTabixIterator(Region request) {
+	/**
+	 * Read the lines of the region and some extra around it. The same data source can be
+	 * used from several threads.
+	 * 
+	 * @param request
+	 * @return lines or null if there isn't such chromosome
+	 * @throws IOException
+	 */
+	public List<String> getLines(Region request) throws IOException {
 		String chromosome = request.start.chr.toNormalisedString();
 
 		//limit to integer range
@@ -70,18 +78,10 @@ public class TabixDataSource extends DataSource {
 
 		String queryRegion = chromosome + ":" + start + "-" + end;
 
-		TabixReader.Iterator iter = null;
-		
-		try {
-			iter = reader.query(queryRegion);
-		} catch (ArrayIndexOutOfBoundsException e) {
-			//No such chromosome
-		}
-			
-		return iter;
+		return file.query(queryRegion);
 	}
 	
 	public Set<String> getChromosomes() {
-		return reader.getChromosomes();
+		return file.getChromosomes();
 	}
 }
@@ -0,0 +1,147 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.SamBamUtils;
+import htsjdk.tribble.readers.TabixReader;
+
+/**
+ * Tabix file shared by all tracks and threads that read it. A tabix reader can't be
+ * used from several threads, so each query borrows a reader from a pool. The readers read
+ * the file through the {@link FileBlockCache}, so that the blocks fetched by one reader
+ * are available for the others too. The index is parsed only once and shared by all readers.
+ *
+ * Get the instance with {@link #open(String)} and call {@link #close()} when it isn't
+ * needed anymore. The readers are closed when the last user has closed the file.
+ */
+public class TabixFile {
+
+	private static final Map<String, TabixFile> files = new HashMap<String, TabixFile>();
+
+	private String path;
+	private int users = 0;
+	private volatile boolean closed = false;
+	private Set<String> chromosomes;
+	private SharedIndexTabixReader indexReader;
+
+	private ConcurrentLinkedQueue<TabixReader> readerPool = new ConcurrentLinkedQueue<TabixReader>();
+
+	/**
+	 * @param path file path or URL of the bgzip compressed file, the index must be in the same
+	 * location with the extension .tbi
+	 * @return shared instance of the file
+	 * @throws IOException
+	 */
+	public static TabixFile open(String path) throws IOException {
+		synchronized (files) {
+			TabixFile file = files.get(path);
+			if (file == null) {
+				file = new TabixFile(path);
+				files.put(path, file);
+			}
+			file.users++;
+			return file;
+		}
+	}
+
+	private TabixFile(String path) throws IOException {
+		this.path = path;
+
+		// check that the file can be read and parse the index for all readers
+		this.indexReader = new SharedIndexTabixReader(path, createStream());
+		this.chromosomes = indexReader.getChromosomes();
+		readerPool.add(indexReader);
+	}
+
+	public void close() {
+		synchronized (files) {
+			users--;
+			if (users > 0) {
+				return;
+			}
+			files.remove(path);
+			closed = true;
+		}
+
+		TabixReader reader;
+		while ((reader = readerPool.poll()) != null) {
+			SamBamUtils.closeIfPossible(reader);
+		}
+	}
+
+	private CachedSeekableStream createStream() throws IOException {
+		return new CachedSeekableStream(path, FileBlockCache.getInstance());
+	}
+
+	private TabixReader createReader() throws IOException {
+		return indexReader.copy(createStream());
+	}
+
+	private TabixReader borrowReader() throws IOException {
+		TabixReader pooled = readerPool.poll();
+		if (pooled != null) {
+			return pooled;
+		}
+		return createReader();
+	}
+
+	private void returnReader(TabixReader reader) {
+		readerPool.add(reader);
+
+		// the file was closed during the query
+		if (closed && readerPool.remove(reader)) {
+			SamBamUtils.closeIfPossible(reader);
+		}
+	}
+
+	/**
+	 * Read the lines of a region. Several threads can query the file at the same time.
+	 *
+	 * @param region region in the tabix format chr:start-end
+	 * @return lines or null if there isn't such chromosome
+	 * @throws IOException
+	 */
+	public List<String> query(String region) throws IOException {
+
+		TabixReader reader = borrowReader();
+		try {
+			TabixReader.Iterator iter;
+			try {
+				iter = reader.query(region);
+			} catch (ArrayIndexOutOfBoundsException e) {
+				//No such chromosome
+				returnReader(reader);
+				return null;
+			}
+
+			List<String> lines = new ArrayList<String>();
+			String line;
+			while ((line = iter.next()) != null) {
+				lines.add(line);
+			}
+
+			returnReader(reader);
+			return lines;
+
+		} catch (IOException | RuntimeException e) {
+			// broken reader isn't returned to the pool
+			SamBamUtils.closeIfPossible(reader);
+			throw e;
+		}
+	}
+
+	public Set<String> getChromosomes() {
+		return chromosomes;
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
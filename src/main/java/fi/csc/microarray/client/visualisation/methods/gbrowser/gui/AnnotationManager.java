@@ -18,7 +18,9 @@ import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.GBrowser;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex.GeneModelIndex;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.SearchKeyIndex;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
 import fi.csc.microarray.util.IOUtils;
 import fi.csc.microarray.util.KeyAndTrustManager;
@@ -455,6 +457,12 @@ public class AnnotationManager {
 				if (file.getCanonicalPath().endsWith(fileName)) {
 					return true;
 				}
+				
+				// indexes created from the annotation file
+				if (file.getCanonicalPath().endsWith(fileName + GeneModelIndex.FILE_SUFFIX) ||
+						file.getCanonicalPath().endsWith(fileName + SearchKeyIndex.FILE_SUFFIX)) {
+					return true;
+				}
 			}
 		}
 		return false;
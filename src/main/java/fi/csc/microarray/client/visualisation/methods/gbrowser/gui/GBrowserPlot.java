@@ -168,8 +168,8 @@ public class GBrowserPlot implements ActionListener, Printable {
 	 * @param length number of visible base pairs (zoom)
 	 */
 	public void start(String chromosome, Double chromosomeSizeBp, Long position, Long length) {
-		overviewView.setBpRegion(new RegionDouble(0d, chromosomeSizeBp, new Chromosome(chromosome)));
-		moveDataBpRegion(new Chromosome(chromosome), position, length);
+		overviewView.setBpRegion(new RegionDouble(0d, chromosomeSizeBp, Chromosome.valueOf(chromosome)));
+		moveDataBpRegion(Chromosome.valueOf(chromosome), position, length);
 	}
 
     /**
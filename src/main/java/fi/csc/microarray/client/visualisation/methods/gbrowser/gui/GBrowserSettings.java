@@ -287,6 +287,7 @@ public class GBrowserSettings implements ActionListener, RegionListener {
 		settingsPanel.add(locationLabel, GAPY);
 		locationField.setEnabled(false);
 		locationField.addActionListener(this);
+		new GeneSuggestionPopup(locationField, browser);
 		settingsPanel.add(locationField, FULL_WIDTH);
 
 		// viewsize
@@ -261,6 +261,27 @@ public abstract class GBrowserView implements MouseListener, MouseMotionListener
 				DataStatus status = new DataStatus();
 				getQueueManager().addDataRequest(file, new DataRequest(newRequest, datas.get(file), status), requestRegion);
 			}
+
+			// Prefetch the next view in the direction of movement to the tile cache, if the user is scrolling
+			if (unchangedTracks && previousRequest != null && requestRegion.start.chr.equals(previousRequest.start.chr) &&
+					requestRegion.getLength().equals(previousRequest.getLength())) {
+				
+				Region prefetchRegion = null;
+				
+				if (requestRegion.start.bp > previousRequest.start.bp) {
+					prefetchRegion = new Region(requestRegion.end.bp, requestRegion.end.bp + view.getLength(), view.start.chr);
+				} else if (requestRegion.start.bp < previousRequest.start.bp && requestRegion.start.bp > 1) {
+					prefetchRegion = new Region(Math.max(1, requestRegion.start.bp - view.getLength()), requestRegion.start.bp, view.start.chr);
+				}
+				
+				if (prefetchRegion != null) {
+					for (DataThread file : datas.keySet()) {
+						DataRequest prefetch = new DataRequest(prefetchRegion, datas.get(file), new DataStatus());
+						prefetch.setPrefetch(true);
+						getQueueManager().addDataRequest(file, prefetch, requestRegion);
+					}
+				}
+			}
 		}
 	}
 	
@@ -2,6 +2,8 @@ package fi.csc.microarray.client.visualisation.methods.gbrowser.gui;
 
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
@@ -10,6 +12,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.SearchReq
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.GeneResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataThread;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.SearchIndexConversion;
 
 public class GeneIndexActions implements DataResultListener {
 
@@ -19,10 +22,10 @@ public class GeneIndexActions implements DataResultListener {
 
 	private QueueManager queueManager;
 	private DataThread gtfDataSource;
-	private DataThread geneDataSource;
+	private SearchIndexConversion geneDataSource;
 	private Map<String, GeneLocationListener> listenerMap = new HashMap<String, GeneLocationListener>();
 
-	public GeneIndexActions(QueueManager queueManager, DataThread gtfDataSource, DataThread geneDataSource) {
+	public GeneIndexActions(QueueManager queueManager, DataThread gtfDataSource, SearchIndexConversion geneDataSource) {
 
 		this.queueManager = queueManager;
 		this.gtfDataSource = gtfDataSource;
@@ -51,6 +54,21 @@ public class GeneIndexActions implements DataResultListener {
 		}
 	}
 
+	/**
+	 * Gene names starting with the prefix for completing the user's input. Only the 
+	 * search indexes support this, the gtf file would be too slow for it.
+	 * 
+	 * @param prefix
+	 * @param maxCount
+	 * @return
+	 */
+	public List<String> getSuggestions(String prefix, int maxCount) {
+		if (geneDataSource != null) {
+			return geneDataSource.getSuggestions(prefix, maxCount);
+		}
+		return new LinkedList<String>();
+	}
+
 	public static boolean checkIfNumber(String name) {
 		try {
 			Integer.parseInt(name);
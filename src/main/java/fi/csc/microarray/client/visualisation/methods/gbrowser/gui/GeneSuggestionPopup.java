@@ -0,0 +1,158 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.GBrowser;
+
+/**
+ * Shows matching gene names under the location field while the user is typing.
+ * Selecting a gene starts the search like pressing enter in the field.
+ *
+ * The names are looked up in a background thread, because the search index is
+ * read when it's used for the first time.
+ */
+public class GeneSuggestionPopup implements DocumentListener, ActionListener {
+
+	private static final int MAX_SUGGESTIONS = 10;
+	private static final int MIN_PREFIX_LENGTH = 2;
+	private static final int DELAY = 150; // ms
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "gene-suggestions");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private JTextField field;
+	private GBrowser browser;
+	private JPopupMenu popup = new JPopupMenu();
+	private Timer timer;
+
+	public GeneSuggestionPopup(JTextField field, GBrowser browser) {
+		this.field = field;
+		this.browser = browser;
+
+		popup.setFocusable(false);
+
+		// wait until the user stops typing
+		timer = new Timer(DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				requestSuggestions();
+			}
+		});
+		timer.setRepeats(false);
+
+		field.getDocument().addDocumentListener(this);
+		field.addActionListener(this);
+		field.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+					hide();
+				}
+			}
+		});
+	}
+
+	private void requestSuggestions() {
+
+		final String prefix = field.getText().trim();
+
+		// the field is also updated by the browser, don't show anything then
+		if (!field.isFocusOwner() || prefix.length() < MIN_PREFIX_LENGTH || GeneIndexActions.checkIfNumber(prefix)) {
+			hide();
+			return;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final List<String> suggestions = browser.getGeneSuggestions(prefix, MAX_SUGGESTIONS);
+
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						// ignore if the user has already typed more
+						if (prefix.equals(field.getText().trim())) {
+							show(suggestions);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void show(List<String> suggestions) {
+
+		popup.setVisible(false);
+		popup.removeAll();
+
+		// nothing to complete if the only suggestion is already there
+		if (suggestions.isEmpty() || (suggestions.size() == 1 && suggestions.get(0).equalsIgnoreCase(field.getText().trim()))) {
+			return;
+		}
+
+		for (final String suggestion : suggestions) {
+			JMenuItem item = new JMenuItem(suggestion);
+			item.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					timer.stop();
+					field.getDocument().removeDocumentListener(GeneSuggestionPopup.this);
+					field.setText(suggestion);
+					field.getDocument().addDocumentListener(GeneSuggestionPopup.this);
+					field.postActionEvent();
+				}
+			});
+			popup.add(item);
+		}
+		popup.show(field, 0, field.getHeight());
+	}
+
+	private void hide() {
+		timer.stop();
+		popup.setVisible(false);
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		timer.restart();
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		timer.restart();
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+		timer.restart();
+	}
+
+	/**
+	 * Enter was pressed in the field.
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		hide();
+	}
+}
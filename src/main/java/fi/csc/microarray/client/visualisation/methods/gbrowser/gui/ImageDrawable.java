@@ -0,0 +1,35 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.gui;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * An image that is drawn as such. Tracks with a lot of small shapes can draw them
+ * to an image only when their content changes.
+ *
+ * The image is not flipped, when the track is drawn upside down. The track has to
+ * draw the image upside down itself.
+ */
+public class ImageDrawable extends Drawable {
+
+	public BufferedImage image;
+
+	public ImageDrawable(int x, int y, BufferedImage image) {
+		super(x, y, null);
+		this.image = image;
+	}
+
+	public void draw(Graphics2D g, int x, int y) {
+		g.drawImage(image, this.x + x, this.y + y, null);
+	}
+
+	public void upsideDown() {
+		super.upsideDown();
+		y -= image.getHeight();
+	}
+
+    @Override
+    public int getMaxY() {
+        return y + image.getHeight();
+    }
+}
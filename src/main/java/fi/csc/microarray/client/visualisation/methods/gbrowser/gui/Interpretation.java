@@ -328,7 +328,7 @@ public class Interpretation {
 
 			for (String string : SamBamUtils.readChromosomeNames(bam, index)) {
 
-				chromosomes.add(new Chromosome(string));
+				chromosomes.add(Chromosome.valueOf(string));
 			}
 		}
 		
@@ -343,7 +343,7 @@ public class Interpretation {
 
 			for (String string : picard.getContigs()) {
 
-				chromosomes.add(new Chromosome(string));
+				chromosomes.add(Chromosome.valueOf(string));
 			}
 		}
 		
@@ -3,9 +3,13 @@ package fi.csc.microarray.client.visualisation.methods.gbrowser.gui;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
@@ -13,24 +17,42 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResul
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataSource;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataThread;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.ResultMailbox;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.track.Track;
 
 /**
  * Collects and resends dataResults. Used by the {@link GBrowserView} objects to manage incoming dataResults.
  * 
+ * Data threads leave their results in a {@link ResultMailbox}. All mailboxes are emptied together in the event 
+ * dispatch thread and the view is redrawn only once after that.
+ * 
  * @author Petri Klemelä
  *
  */
 public class QueueManager {
 	
+	/**
+	 * Number of results that each data thread can have waiting for the EDT
+	 */
+	private static final int MAX_WAITING_RESULTS = 16;
+	
 	private class QueueContext {
 		public Queue<DataRequest> queue;
+		public ResultMailbox mailbox;
 		public Collection<DataResultListener> listeners = new ArrayList<DataResultListener>();
 		public DataThread dataThread;
 	}
 
 	private Map<DataThread, QueueContext> queues = new HashMap<DataThread, QueueContext>();
 	private GBrowserView view;
+	
+	private AtomicBoolean drainScheduled = new AtomicBoolean(false);
+	
+	private Runnable drainRunnable = new Runnable() {
+		public void run() {
+			drainResults();
+		}
+	};
 
 	public QueueManager(GBrowserView view) {
 		this.view = view;
@@ -42,10 +64,12 @@ public class QueueManager {
 			QueueContext context = new QueueContext();
 			
 			context.queue = new LinkedBlockingDeque<DataRequest>();				
+			context.mailbox = new ResultMailbox(MAX_WAITING_RESULTS);
 			
 			try {
 
 				dataThread.setQueue(context.queue);
+				dataThread.setResultMailbox(context.mailbox);
 				dataThread.setQueueManager(this);
 				
 				context.dataThread = dataThread;
@@ -97,11 +121,45 @@ public class QueueManager {
 		qContext.listeners.add(listener);
 	}
 
-	public void processDataResult(DataResult dataResult) {
+	/**
+	 * Called by the data threads when there are new results or the queue length has changed.
+	 * Only one drain is waiting in the EDT at a time.
+	 */
+	public void scheduleDrain() {
+		if (drainScheduled.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(drainRunnable);
+		}
+	}
+
+	/**
+	 * Hand all waiting results to the listeners and redraw once. 
+	 */
+	private void drainResults() {
+		
+		// results that arrive after this will schedule a new drain
+		drainScheduled.set(false);
 		
-		for (DataResultListener listener : queues.get(dataResult.getStatus().getDataThread()).listeners) {
+		// listeners may add new queues
+		for (QueueContext context : new ArrayList<QueueContext>(queues.values())) {
 			
-//			long t = System.currentTimeMillis();
+			List<DataResult> results = context.mailbox.drain();
+			
+			if (results.isEmpty()) {
+				continue;
+			}
+			
+			for (DataResult dataResult : ResultMailbox.coalesce(results, context.dataThread.getDataRegion())) {
+				processDataResult(context, dataResult);
+			}
+		}
+		
+		// redraw also when only the queue lengths have changed
+		view.redraw();
+	}
+
+	private void processDataResult(QueueContext context, DataResult dataResult) {
+		
+		for (DataResultListener listener : context.listeners) {
 			
 			if (listener instanceof Track) {
 				Track track = (Track) listener;
@@ -113,15 +171,7 @@ public class QueueManager {
 			} else {
 				listener.processDataResult(dataResult);
 			}
-						
-//			t = System.currentTimeMillis() - t;
-//			
-//			if (t > 1) {
-//				System.out.println(listener + "\t" + t);
-//			}					
 		}
-		
-		view.redraw();
 	}
 
 	public void poisonAll() {		
@@ -2,26 +2,29 @@ package fi.csc.microarray.client.visualisation.methods.gbrowser.message;
 
 /**
  * Basepair coordinate: base(pair) location and chromosome. The basic coordinate used throughout the Genome Browser.
+ * 
+ * The location is a primitive and the chromosome is shared, because millions of these are created when
+ * the view is moved.
  *
  */
 public class BpCoord implements Comparable<BpCoord> {
 
 	private static final BpCoord MAX = new BpCoord(Long.MAX_VALUE, null);
 	private static final BpCoord MIN = new BpCoord(0l, null);
-	public Long bp;
+	public long bp;
 	public Chromosome chr;
 
-	public BpCoord(Long bp, Chromosome chr) {
+	public BpCoord(long bp, Chromosome chr) {
 		this.bp = bp;
 		this.chr = chr;
 	}
 
 	public BpCoord(BpCoord o) {
-		this(new Long(o.bp), new Chromosome(o.chr));
+		this(o.bp, o.chr);
 	}
 
 	public BpCoord clone() {
-		return new BpCoord(bp, chr.clone());
+		return new BpCoord(bp, chr);
 	}
 
 	public int compareTo(BpCoord o) {
@@ -31,26 +34,26 @@ public class BpCoord implements Comparable<BpCoord> {
 		if (chrComparison != 0) {
 			return chrComparison;
 		} else {
-			return bp.compareTo(o.bp);
+			return Long.compare(bp, o.bp);
 		}
 	}
 	
 	public int compareTo(Long o) {
 
-		return bp.compareTo(o);		
+		return Long.compare(bp, o);
 	}
 
 	public boolean equals(Object o) {
 		if (o instanceof BpCoord) {
 			BpCoord other = (BpCoord) o;
 
-			return chr.equals(other.chr) && bp.equals(other.bp);
+			return bp == other.bp && chr.equals(other.chr);
 		}
 		return false;
 	}
 
 	public int hashCode() {
-		return bp.hashCode();
+		return Long.hashCode(bp);
 	}
 
 	public Long minus(BpCoord o) {
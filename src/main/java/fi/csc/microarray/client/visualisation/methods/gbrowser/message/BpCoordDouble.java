@@ -15,7 +15,7 @@ public class BpCoordDouble implements Comparable<BpCoordDouble> {
 	}
 
 	public BpCoordDouble(BpCoord coord) {
-		this.bp = (double) (long) coord.bp;
+		this.bp = (double) coord.bp;
 		this.chr = coord.chr;
 	}
 
@@ -74,7 +74,7 @@ public class BpCoordDouble implements Comparable<BpCoordDouble> {
 	}
 
 	public BpCoord asBpCoord() {
-		return new BpCoord((long) (double) bp, chr);
+		return new BpCoord(bp.longValue(), chr);
 	}
 
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.message;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * <p>Chrosome part of a genomic coordinate.</p> 
  * 
@@ -8,15 +10,26 @@ package fi.csc.microarray.client.visualisation.methods.gbrowser.message;
  * are normalised and normalised name is used in all comparisons,
  * so naming conventions can be mixed.</p>
  * 
+ * <p>Chromosomes are immutable. Use {@link #valueOf(String)} to get a shared
+ * instance instead of creating a new one for every coordinate.</p>
+ * 
  * @author Petri Klemelä, Aleksi Kallio
  */
 public class Chromosome implements Comparable<Chromosome> {
 
 	public static final String CHROMOSOME_PREFIX = "chr";
 	private String chr;
-	private Integer intValue;
+	private boolean isNumeric;
+	private int intValue;
 	private String chrNormalised;
 	
+	/**
+	 * Shared instances by the original name. The names come from the data files, so 
+	 * the size is limited in case a file has an unusual number of sequences.
+	 */
+	private static final ConcurrentHashMap<String, Chromosome> registry = new ConcurrentHashMap<String, Chromosome>();
+	private static final int MAX_REGISTRY_SIZE = 100000;
+	
 	//Default
 	private static final SynonymReplace synonymReplace = new SynonymReplace( new SynonymReplace.Synonym[] { new SynonymReplace.Synonym("M", "MT")});
 	
@@ -31,10 +44,31 @@ public class Chromosome implements Comparable<Chromosome> {
 		
 		try {
 			this.intValue = Integer.parseInt(chrNormalised);
+			this.isNumeric = true;
 		} catch (NumberFormatException e) {
 			// was not numeric
-			this.intValue = null;
+			this.isNumeric = false;
+		}
+	}
+
+	/**
+	 * Returns a shared instance of the chromosome. 
+	 * 
+	 * @param chr chromosome name in any naming convention
+	 * @return
+	 */
+	public static Chromosome valueOf(String chr) {
+		Chromosome chromosome = registry.get(chr);
+		if (chromosome == null) {
+			chromosome = new Chromosome(chr);
+			if (registry.size() < MAX_REGISTRY_SIZE) {
+				Chromosome previous = registry.putIfAbsent(chr, chromosome);
+				if (previous != null) {
+					chromosome = previous;
+				}
+			}
 		}
+		return chromosome;
 	}
 
 	public static String normalise(String original, boolean enableSynonymReplace) {
@@ -82,6 +116,9 @@ public class Chromosome implements Comparable<Chromosome> {
 	}
 
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if (o instanceof Chromosome) {
 			Chromosome other = (Chromosome) o;
 			return chrNormalised.equals(other.chrNormalised);
@@ -107,13 +144,16 @@ public class Chromosome implements Comparable<Chromosome> {
      */
 	public int compareTo(Chromosome o) {
 
-		if (intValue != null && o.intValue != null) {
-			return intValue.compareTo(o.intValue);
+		if (o == this) {
+			return 0;
 			
-		} else if (intValue != null && o.intValue == null) {
+		} else if (isNumeric && o.isNumeric) {
+			return Integer.compare(intValue, o.intValue);
+			
+		} else if (isNumeric && !o.isNumeric) {
 			return -1;
 
-		} else if (intValue == null && o.intValue != null) {
+		} else if (!isNumeric && o.isNumeric) {
 			return 1;
 			
 		} else {
@@ -142,8 +182,11 @@ public class Chromosome implements Comparable<Chromosome> {
 		return chrNormalised;
 	}
 	
+	/**
+	 * Chromosomes are immutable, so the same instance is returned.
+	 */
 	public Chromosome clone() {
-		return new Chromosome(this.chr);
+		return this;
 	}
 
 	public static SynonymReplace getSynonymReplace() {
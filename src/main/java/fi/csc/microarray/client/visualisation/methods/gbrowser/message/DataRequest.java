@@ -11,6 +11,7 @@ public class DataRequest extends Region {
 	
 	private DataStatus status;
 	private Collection<DataType> requestedContents;
+	private boolean prefetch = false;
 	
 	/**
 	 * Constructs a new request. 
@@ -41,4 +42,16 @@ public class DataRequest extends Region {
 	public Collection<DataType> getRequestedContents() {
 		return requestedContents;
 	}
+
+	/**
+	 * @return true if the data isn't needed yet, but is likely to be needed soon.
+	 * Results of these requests are only stored in the {@link fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.TileCache}.
+	 */
+	public boolean isPrefetch() {
+		return prefetch;
+	}
+
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
 }
@@ -7,12 +7,16 @@ import java.util.List;
 
 /**
  * Result with content for some view area. The processing layer uses these results to send content back to view layer.
+ * 
+ * The content is either a list of features or a {@link FeatureBatch}. The features of a batch are created only
+ * if some track asks for those.
  *
  */
 public class DataResult {
 
 	private DataStatus status;	
 	private List<Feature> contents;
+	private FeatureBatch batch;
 	private DataRequest request;
 
 	public DataResult(DataStatus status, List<Feature> contents) {
@@ -26,14 +30,33 @@ public class DataResult {
 		this.request = request;
 	}
 
+	public DataResult(DataRequest request, FeatureBatch batch) {
+		this.status = request.getStatus();
+		this.batch = batch;
+		this.request = request;
+	}
+
 	public DataStatus getStatus() {
 		return status;
 	}
 
-	public List<Feature> getFeatures() {
+	/**
+	 * @return features of the result, converted from the batch if necessary
+	 */
+	public synchronized List<Feature> getFeatures() {
+		if (contents == null && batch != null) {
+			contents = batch.toFeatures();
+		}
 		return contents;
 	}
 
+	/**
+	 * @return content as a batch or null if the result has a list of features
+	 */
+	public FeatureBatch getFeatureBatch() {
+		return batch;
+	}
+
 	public DataRequest getRequest() {
 		return request;
 	}
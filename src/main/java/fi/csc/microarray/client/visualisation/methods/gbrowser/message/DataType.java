@@ -33,5 +33,6 @@ public enum DataType {
 	CANCEL, 
 	REGION, 
 	NOTE,
-	BAM_TAG_NH
+	BAM_TAG_NH,
+	PACKED_READS
 	};
\ No newline at end of file
@@ -0,0 +1,143 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Features of one chromosome with a single float value each, stored in primitive arrays.
+ * A {@link Feature} with its region, coordinates and map of values takes hundreds of bytes
+ * for each float, which is too much for the numeric tracks that get thousands of these
+ * every time the view is moved.
+ *
+ * Tracks that haven't been changed to use the batches directly can still get the
+ * features from {@link DataResult#getFeatures()}, which converts the batch with
+ * {@link #toFeatures()}.
+ */
+public class FeatureBatch {
+
+	private static final Strand[] STRANDS = Strand.values();
+	private static final byte NO_STRAND = -1;
+
+	private Chromosome chr;
+	private DataType valueType;
+
+	private int count = 0;
+	private long[] starts;
+	private long[] ends;
+	private byte[] strands;
+	private float[] values;
+
+	/**
+	 * @param chr
+	 * @param valueType data type of the values when those are converted to features
+	 * @param capacity initial capacity
+	 */
+	public FeatureBatch(Chromosome chr, DataType valueType, int capacity) {
+		this.chr = chr;
+		this.valueType = valueType;
+		capacity = Math.max(capacity, 16);
+		starts = new long[capacity];
+		ends = new long[capacity];
+		strands = new byte[capacity];
+		values = new float[capacity];
+	}
+
+	/**
+	 * @param start
+	 * @param end
+	 * @param strand strand or null
+	 * @param value
+	 */
+	public void add(long start, long end, Strand strand, float value) {
+		if (count == starts.length) {
+			int capacity = count * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			strands = Arrays.copyOf(strands, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		starts[count] = start;
+		ends[count] = end;
+		strands[count] = strand != null ? (byte) strand.ordinal() : NO_STRAND;
+		values[count] = value;
+		count++;
+	}
+
+	/**
+	 * Add all features of the other batch.
+	 *
+	 * @param other batch of the same chromosome and value type
+	 */
+	public void addAll(FeatureBatch other) {
+		if (!chr.equals(other.chr) || valueType != other.valueType) {
+			throw new IllegalArgumentException("can't join batches of different chromosomes or value types");
+		}
+		for (int i = 0; i < other.count; i++) {
+			add(other.starts[i], other.ends[i], other.getStrand(i), other.values[i]);
+		}
+	}
+
+	public Chromosome getChromosome() {
+		return chr;
+	}
+
+	public DataType getValueType() {
+		return valueType;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getStart(int i) {
+		return starts[i];
+	}
+
+	public long getEnd(int i) {
+		return ends[i];
+	}
+
+	/**
+	 * @param i
+	 * @return strand or null
+	 */
+	public Strand getStrand(int i) {
+		return strands[i] != NO_STRAND ? STRANDS[strands[i]] : null;
+	}
+
+	public float getValue(int i) {
+		return values[i];
+	}
+
+	public Region getRegion(int i) {
+		return new Region(starts[i], ends[i], chr);
+	}
+
+	/**
+	 * @return approximate size in memory in bytes
+	 */
+	public long estimateSize() {
+		return 64 + starts.length * (8 + 8 + 1 + 4);
+	}
+
+	/**
+	 * Convert to features for the tracks that use the old API.
+	 *
+	 * @return features with the value and strand, if there is one
+	 */
+	public List<Feature> toFeatures() {
+		List<Feature> features = new ArrayList<Feature>(count);
+		for (int i = 0; i < count; i++) {
+			LinkedHashMap<DataType, Object> featureValues = new LinkedHashMap<DataType, Object>();
+			featureValues.put(valueType, values[i]);
+			Strand strand = getStrand(i);
+			if (strand != null) {
+				featureValues.put(DataType.STRAND, strand);
+			}
+			features.add(new Feature(getRegion(i), featureValues));
+		}
+		return features;
+	}
+}
@@ -0,0 +1,217 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+
+/**
+ * Reads of one chromosome packed into primitive arrays. A Feature with a map of values
+ * takes hundreds of bytes for each read, which is too much when a deep locus has
+ * hundreds of thousands of reads in the view.
+ *
+ * Spliced reads are stored as separate segments split at the skipped regions (N in the CIGAR),
+ * because the read pile shows them separately.
+ *
+ * CIGAR operations are stored like in BAM files: length shifted left by 4 bits and
+ * the operator code in the lowest 4 bits.
+ */
+public class PackedReads {
+
+	private static final int FLAG_REVERSE = 1;
+	private static final int FLAG_MULTIMAPPING = 2;
+
+	private Chromosome chr;
+
+	private int count = 0;
+	private int[] starts;
+	private int[] ends;
+	private int[] nameHashes;
+	private byte[] flags;
+
+	// offsets of each read, size is count + 1
+	private int[] cigarOffsets;
+	private int[] sequenceOffsets;
+
+	private int[] cigar;
+	private byte[] sequence;
+
+	public PackedReads(Chromosome chr, int capacity) {
+		this.chr = chr;
+		capacity = Math.max(capacity, 16);
+		starts = new int[capacity];
+		ends = new int[capacity];
+		nameHashes = new int[capacity];
+		flags = new byte[capacity];
+		cigarOffsets = new int[capacity + 1];
+		sequenceOffsets = new int[capacity + 1];
+		cigar = new int[capacity * 2];
+		sequence = new byte[capacity * 64];
+	}
+
+	/**
+	 * Add a read and split it at the skipped regions.
+	 *
+	 * @param start alignment start
+	 * @param name read name, only its hash code is stored to recognize the same read
+	 * @param strand
+	 * @param multimapping true if the read has several alignments
+	 * @param samCigar cigar or null if the whole read is aligned
+	 * @param seq read sequence or null if not needed
+	 */
+	public void add(int start, int end, String name, Strand strand, boolean multimapping, htsjdk.samtools.Cigar samCigar, String seq) {
+
+		int nameHash = name == null ? 0 : name.hashCode();
+		byte flag = (byte) ((strand == Strand.REVERSE ? FLAG_REVERSE : 0) | (multimapping ? FLAG_MULTIMAPPING : 0));
+		byte[] bases = seq == null || "*".equals(seq) ? new byte[0] : seq.getBytes(StandardCharsets.US_ASCII);
+
+		if (samCigar == null || samCigar.isEmpty()) {
+			addSegment(start, end, nameHash, flag, new int[0], 0, 0, bases, 0, bases.length);
+			return;
+		}
+
+		int[] ops = new int[samCigar.numCigarElements()];
+		int segmentStart = start;
+		int refPos = start;
+		int firstOp = 0;
+		int opCount = 0;
+		int seqPos = 0;
+		int segmentSeqStart = 0;
+
+		for (CigarElement element : samCigar.getCigarElements()) {
+			CigarOperator operator = element.getOperator();
+
+			if (operator == CigarOperator.N) {
+				addSegment(segmentStart, refPos - 1, nameHash, flag, ops, firstOp, opCount, bases, segmentSeqStart, seqPos);
+				refPos += element.getLength();
+				segmentStart = refPos;
+				segmentSeqStart = seqPos;
+				firstOp += opCount + 1;
+				opCount = 0;
+				continue;
+			}
+
+			ops[firstOp + opCount++] = element.getLength() << 4 | CigarOperator.enumToBinary(operator);
+
+			if (operator.consumesReferenceBases()) {
+				refPos += element.getLength();
+			}
+			if (operator.consumesReadBases()) {
+				seqPos += element.getLength();
+			}
+		}
+		addSegment(segmentStart, Math.max(segmentStart, refPos - 1), nameHash, flag, ops, firstOp, opCount, bases, segmentSeqStart, Math.min(seqPos, bases.length));
+	}
+
+	/**
+	 * Copy a read from other reads.
+	 */
+	public void add(PackedReads other, int read) {
+		addSegment(other.starts[read], other.ends[read], other.nameHashes[read], other.flags[read],
+				other.cigar, other.cigarOffsets[read], other.cigarOffsets[read + 1] - other.cigarOffsets[read],
+				other.sequence, other.sequenceOffsets[read], other.sequenceOffsets[read + 1]);
+	}
+
+	private void addSegment(int start, int end, int nameHash, byte flag, int[] ops, int opOffset, int opCount, byte[] bases, int from, int to) {
+
+		if (count == starts.length) {
+			int capacity = count * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			nameHashes = Arrays.copyOf(nameHashes, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			cigarOffsets = Arrays.copyOf(cigarOffsets, capacity + 1);
+			sequenceOffsets = Arrays.copyOf(sequenceOffsets, capacity + 1);
+		}
+
+		int cigarEnd = cigarOffsets[count];
+		if (cigarEnd + opCount > cigar.length) {
+			cigar = Arrays.copyOf(cigar, Math.max(cigar.length * 2, cigarEnd + opCount));
+		}
+		System.arraycopy(ops, opOffset, cigar, cigarEnd, opCount);
+
+		int sequenceEnd = sequenceOffsets[count];
+		// bases may be missing from the end of the segment, if the sequence doesn't match the cigar
+		int length = Math.max(0, Math.min(to, bases.length) - from);
+		if (sequenceEnd + length > sequence.length) {
+			sequence = Arrays.copyOf(sequence, Math.max(sequence.length * 2, sequenceEnd + length));
+		}
+		System.arraycopy(bases, from, sequence, sequenceEnd, length);
+
+		starts[count] = start;
+		ends[count] = end;
+		nameHashes[count] = nameHash;
+		flags[count] = flag;
+		cigarOffsets[count + 1] = cigarEnd + opCount;
+		sequenceOffsets[count + 1] = sequenceEnd + length;
+		count++;
+	}
+
+	public Chromosome getChromosome() {
+		return chr;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getStart(int read) {
+		return starts[read];
+	}
+
+	public int getEnd(int read) {
+		return ends[read];
+	}
+
+	public Strand getStrand(int read) {
+		return (flags[read] & FLAG_REVERSE) != 0 ? Strand.REVERSE : Strand.FORWARD;
+	}
+
+	public boolean isMultimapping(int read) {
+		return (flags[read] & FLAG_MULTIMAPPING) != 0;
+	}
+
+	/**
+	 * Identifies the read segment, so that the same read received twice from overlapping requests
+	 * can be ignored.
+	 */
+	public long getKey(int read) {
+		return ((long) starts[read] << 32) ^ (nameHashes[read] * 31L + ends[read]) * 31L + flags[read];
+	}
+
+	/**
+	 * @return number of CIGAR operations or 0 if the whole segment is aligned
+	 */
+	public int getCigarCount(int read) {
+		return cigarOffsets[read + 1] - cigarOffsets[read];
+	}
+
+	public CigarOperator getCigarOperator(int read, int op) {
+		return CigarOperator.binaryToEnum(cigar[cigarOffsets[read] + op] & 0xF);
+	}
+
+	public int getCigarLength(int read, int op) {
+		return cigar[cigarOffsets[read] + op] >>> 4;
+	}
+
+	public int getSequenceLength(int read) {
+		return sequenceOffsets[read + 1] - sequenceOffsets[read];
+	}
+
+	/**
+	 * @param read
+	 * @param position position in the sequence of the segment
+	 * @return base as an ASCII character
+	 */
+	public char getBase(int read, int position) {
+		return (char) sequence[sequenceOffsets[read] + position];
+	}
+
+	/**
+	 * @return rough estimate of the memory used
+	 */
+	public long getSize() {
+		return starts.length * 21L + cigar.length * 4L + sequence.length;
+	}
+}
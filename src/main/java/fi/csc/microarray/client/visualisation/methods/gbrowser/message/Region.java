@@ -25,19 +25,19 @@ public class Region implements Comparable<Region> {
 	}
 	
 	@Deprecated
-	public Region(Long start, Long end, Chromosome chr, Strand strand) {
+	public Region(long start, long end, Chromosome chr, Strand strand) {
 		this.start = new BpCoord(start, chr);
 		this.end = new BpCoord(end, chr);
 		this.strand = strand;
 	}
 
-	public Region(Long start, Long end, Chromosome chr) {
+	public Region(long start, long end, Chromosome chr) {
 		
 		this.start = new BpCoord(start, chr);
 		this.end = new BpCoord(end, chr);
 	}
 
-	public Region(Long start, Chromosome chr1, Long end, Chromosome chr2) {
+	public Region(long start, Chromosome chr1, long end, Chromosome chr2) {
 		this.start = new BpCoord(start, chr1);
 		this.end = new BpCoord(end, chr2);
 	}
@@ -105,8 +105,8 @@ public class Region implements Comparable<Region> {
 		return start.chr.equals(point.chr) && point.compareTo(start) >= 0 && point.compareTo(end) < 0;
 	}
 	
-	public boolean contains(Long point) {
-		return point.compareTo(start.bp) >= 0 && point.compareTo(end.bp) < 0;
+	public boolean contains(long point) {
+		return point >= start.bp && point < end.bp;
 	}
 
 	/**
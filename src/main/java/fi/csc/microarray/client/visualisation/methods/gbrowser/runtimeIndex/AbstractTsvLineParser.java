@@ -1,21 +1,36 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
 
-public abstract class AbstractTsvLineParser implements LineParser {
+public abstract class AbstractTsvLineParser implements LineParser, Cloneable {
 	
 	protected String[] values;
+	
+	/**
+	 * Block of the {@link ColumnarCache}, if the values were set from there
+	 */
+	private ColumnarCache.Block block;
+	private int row;
 
 	public Integer getInteger(int column) {
+		if (block != null && block.isInteger(column)) {
+			return (int) block.getLong(column, row);
+		}
 		String string = values[column];
 		return new Integer(string);		
 	}
 	
 	public Long getLong(int column) {
+		if (block != null && block.isInteger(column)) {
+			return block.getLong(column, row);
+		}
 		String string = values[column];
 		return new Long(string);		
 	}
 	
 	public Float getFloat(int column) {
+		if (block != null && (block.isInteger(column) || block.isFloat(column))) {
+			return block.getFloat(column, row);
+		}
 		String string = values[column];
 		try {
 			return new Float(string);
@@ -36,14 +51,32 @@ public abstract class AbstractTsvLineParser implements LineParser {
 	@Override
 	public boolean setLine(String line) {
 		if (getHeaderStart() != null && line.startsWith(getHeaderStart())) {
-			this.values = null;
+			setValues(null);
 			return false;
 		} else {
-			this.values = line.split("\t"); 
+			setValues(line.split("\t")); 
 			return true; 
 		}
 	}
 	
+	protected void setValues(String[] values) {
+		this.values = values;
+		this.block = null;
+	}
+	
+	/**
+	 * Parse a row from the {@link ColumnarCache} instead of a text line. Numbers are
+	 * taken directly from the cache without parsing.
+	 * 
+	 * @param block
+	 * @param row
+	 */
+	public void setRow(ColumnarCache.Block block, int row) {
+		this.values = block.getValues(row);
+		this.block = block;
+		this.row = row;
+	}
+	
 	@Override
 	public boolean isContentLine() {
 		return values != null;
@@ -52,4 +85,18 @@ public abstract class AbstractTsvLineParser implements LineParser {
 	public String getHeaderStart() {
 		return null;
 	}
+	
+	/**
+	 * Copy for another thread. The copy has the same configuration, but it doesn't share the current line. 
+	 */
+	@Override
+	public AbstractTsvLineParser clone() {
+		try {
+			AbstractTsvLineParser clone = (AbstractTsvLineParser) super.clone();
+			clone.setValues(null);
+			return clone;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
 }
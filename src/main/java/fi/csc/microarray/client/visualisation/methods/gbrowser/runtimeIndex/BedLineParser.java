@@ -57,7 +57,7 @@ public class BedLineParser extends AbstractTsvLineParser {
 
 			long start = getLong(Column.CHROM_START.ordinal());
 			long end = getLong(Column.CHROM_END.ordinal());
-			Chromosome chr = new Chromosome(getString(Column.CHROM.ordinal()));
+			Chromosome chr = Chromosome.valueOf(getString(Column.CHROM.ordinal()));
 
 			if (convertCoordinates) {
 				start++;
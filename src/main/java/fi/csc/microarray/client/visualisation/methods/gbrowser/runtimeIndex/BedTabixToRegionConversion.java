@@ -12,7 +12,6 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataReque
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
-import htsjdk.tribble.readers.TabixReader;
 
 public class BedTabixToRegionConversion extends DataThread {
 
@@ -42,18 +41,22 @@ public class BedTabixToRegionConversion extends DataThread {
 
 
 	@Override
-	protected void processDataRequest(DataRequest request) throws InterruptedException {
+	protected boolean isTileCacheable() {
+		return true;
+	}
 
-		// Read the given region
-		TabixReader.Iterator iterator = dataSource.getTabixIterator(request);
+	@Override
+	protected void processDataRequest(DataRequest request) throws InterruptedException {
 
 		try {
-			String line;
+			// Read the given region
+			List<String> lines = dataSource.getLines(request);
+
 			List<Feature> resultList = new LinkedList<Feature>();
 
-			if (iterator != null) { //null if there isn't such chromosome in annotations
+			if (lines != null) { //null if there isn't such chromosome in annotations
 
-				while ((line = iterator.next()) != null) {
+				for (String line : lines) {
 
 					parser.setLine(line);
 					Region region = parser.getRegion();				
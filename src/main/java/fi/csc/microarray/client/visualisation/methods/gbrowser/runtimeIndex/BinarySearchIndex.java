@@ -1,6 +1,7 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -141,7 +142,7 @@ public class BinarySearchIndex extends Index {
 			if (region != null) {
 				index.put(region.start, firstLinePosition);
 			} else {
-				firstLinePosition += firstLine.length() + 1; //plus one for new line character
+				firstLinePosition = getFile().getLineReaderPosition();
 			}
 			
 		} while (region == null);
@@ -150,7 +151,7 @@ public class BinarySearchIndex extends Index {
 		String lastLine = getFile().getLastLine();		
 		getParser().setLine(lastLine);
 		region = getParser().getRegion();
-		index.put(region.start, getFile().length() - lastLine.length() - 1);
+		index.put(region.start, getFile().length() - lastLine.getBytes(StandardCharsets.UTF_8).length - 1);
 	}
 	
 	/**
@@ -243,12 +244,13 @@ public class BinarySearchIndex extends Index {
 		TreeMap<IndexKey, String> lines = new TreeMap<IndexKey, String>();
 		
 		String line = null;
-		long lineBytePosition = floorFilePosition;
+		long lineBytePosition = getFile().getLineReaderPosition();
 		
 		while ((line = getFile().getNextLine()) != null) {
 			
 			if ("".equals(line)) {
-				//First byte was new line character
+				//First byte was new line character, the line starts after it
+				lineBytePosition = getFile().getLineReaderPosition();
 				continue;
 			}
 			
@@ -263,7 +265,7 @@ public class BinarySearchIndex extends Index {
 				break;
 			}
 			
-			lineBytePosition += line.length() + 1; // plus one for new line character
+			lineBytePosition = getFile().getLineReaderPosition();
 		}
 		
 		return lines;
@@ -323,14 +325,14 @@ public class BinarySearchIndex extends Index {
 		
 		getFile().setLineReaderPosition(centerFilePosition);
 		//Skip the first line, because we don't know if it is complete or partial 		
-		long partialLineLength = getFile().getNextLine().length() + 1; //plus one because of new line character
+		getFile().getNextLine();
 		String line = getFile().getNextLine();		
 		
 		getParser().setLine(line);
 		Region region = getParser().getRegion();
 
 		//index file positions point to preceding new line character
-		index.put(region.start, centerFilePosition + partialLineLength + line.length());
+		index.put(region.start, getFile().getLineReaderPosition() - 1);
 	}
 
 	public RandomAccessLineDataSource getFile() {
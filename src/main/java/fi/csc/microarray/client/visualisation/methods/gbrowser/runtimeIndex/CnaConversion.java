@@ -1,6 +1,8 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -10,6 +12,7 @@ import java.util.TreeMap;
 import javax.swing.SwingUtilities;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.GBrowser;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.CnaRow;
@@ -18,6 +21,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.IndexKey;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.CnaRow.Sample;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.ColumnarCache.Block;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedDataException;
 
@@ -35,6 +39,8 @@ public class CnaConversion extends DataThread {
 	private CnaLineParser parser;
 
 	private LinkedList<String> sampleNames;
+	
+	private volatile ColumnarCache columnarCache;
 
 	public CnaConversion(RandomAccessLineDataSource file, final GBrowser browser) {
 			    
@@ -51,6 +57,10 @@ public class CnaConversion extends DataThread {
 			
 			//create index
 			this.index = new BinarySearchIndex(file, parser);
+			
+			if ("file".equals(file.getDataUrl().getUrl().getProtocol())) {
+				openColumnarCache(file.getDataUrl().getLocalFile());
+			}
 		
 		} catch (final UnsortedDataException e) {
 			SwingUtilities.invokeLater(new Runnable() {
@@ -65,9 +75,36 @@ public class CnaConversion extends DataThread {
 			e.printStackTrace();
 		} catch (GBrowserException e) {
 			e.printStackTrace();
+		} catch (URISyntaxException e) {
+			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Open or create the columnar cache in the background. Requests are served from the 
+	 * text file until the cache is ready.
+	 * 
+	 * @param file
+	 */
+	private void openColumnarCache(final File file) {
+		
+		final AbstractTsvLineParser cacheParser = parser.clone();
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					columnarCache = ColumnarCache.openOrCreate(file, cacheParser);
+				} catch (IOException | UnsortedDataException e) {
+					// the text file is still usable without the cache
+					e.printStackTrace();
+				}
+			}
+		}, "columnar-cache");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
 	@Override
 	protected void processDataRequest(DataRequest request) throws InterruptedException {						
 		
@@ -83,88 +120,110 @@ public class CnaConversion extends DataThread {
 		
 		Region requestRegion = new Region(start, end, request.start.chr);		
 		
-		TreeMap<IndexKey, String> lines = null;
-		try {		
-						
-			lines = index.getFileLines(new DataRequest(requestRegion, request.getRequestedContents(), request.getStatus()));
-			
-		} catch (IllegalArgumentException e) {
-			e.printStackTrace();
-			return;
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (GBrowserException e) {
-			e.printStackTrace();
-		}
-		
 		List<Feature> list = new LinkedList<Feature>();
 		
-		for (Entry<IndexKey, String> lineEntry : lines.entrySet()) {
-
-			parser.setLine(lineEntry.getValue());					
-			
-			Region region = parser.getRegion();
-			
-			if (!region.intersects(request)) {
-				continue;
-			}
-			
-			CnaRow row = new CnaRow();
-			row.setRegion(region);
-			
-			Float gainFreq = parser.getGainFreq();
-			if (gainFreq != null) {
-				row.setGainFreg(gainFreq);
+		ColumnarCache cache = columnarCache;
+		
+		if (cache != null) {
+			
+			for (Block block : cache.getBlocks(requestRegion)) {
+				for (int row = 0; row < block.getRowCount(); row++) {
+					
+					BpCoord rowStart = new BpCoord(block.getStart(row), block.getChromosome());
+					
+					if (requestRegion.contains(rowStart)) {
+						parser.setRow(block, row);
+						addFeature(list, new IndexKey(rowStart, block.getLineId(row)), request);
+					}
+				}
 			}
 			
-			Float lossFreq = parser.getLossFreq();
-			if (lossFreq != null) {
-				row.setLossFreg(parser.getLossFreq());
+		} else {
+		
+			TreeMap<IndexKey, String> lines = null;
+			try {		
+
+				lines = index.getFileLines(new DataRequest(requestRegion, request.getRequestedContents(), request.getStatus()));
+
+			} catch (IllegalArgumentException e) {
+				e.printStackTrace();
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (GBrowserException e) {
+				e.printStackTrace();
 			}
-			
-			List<String> sampleNames = parser.getSampleNames();
-			List<Float> flagValues = parser.getFlagValues();
-			List<Float> logRatioValues = parser.getLogRatioValues();
-			
-			LinkedList<Sample> samples = new LinkedList<Sample>();
-			
-			for (int i = 0; i < sampleNames.size(); i++) {
-				
-				Sample sample = new Sample();
-				
-				sample.setName(sampleNames.get(i));
-				
-				if (flagValues.size() > 0) {
-					sample.setFlag(flagValues.get(i));
-				}
-				
-				sample.setLogRatio(logRatioValues.get(i));
-				
-				samples.add(sample);
+
+			for (Entry<IndexKey, String> lineEntry : lines.entrySet()) {
+
+				parser.setLine(lineEntry.getValue());
+				addFeature(list, lineEntry.getKey(), request);
 			}
-			
-			row.setSamples(samples);
-			
-			IndexKey id = lineEntry.getKey();
-			
-			LinkedHashMap<DataType, Object> valueMap = new LinkedHashMap<DataType, Object>();			
-			
-			valueMap.put(DataType.ID, id);
-			valueMap.put(DataType.VALUE, row);
-			valueMap.put(DataType.LOSS, row.getLossFreg());
-			valueMap.put(DataType.GAIN, row.getGainFreg());
-			
-			//Add logRatios in general format to make it possible to view them with ScatterploTrack			
-			valueMap.put(DataType.FLOAT_LIST, logRatioValues);
-			
-			Feature regionContent = new Feature(region, valueMap);
-			
-			list.add(regionContent);
-		}	
+		}
 		
 		super.createDataResult(new DataResult(request.getStatus(), list));
 	}
 	
+	/**
+	 * Create a feature of the line that was given to the parser, if it intersects with the request
+	 */
+	private void addFeature(List<Feature> list, IndexKey id, Region request) {
+			
+		Region region = parser.getRegion();
+
+		if (!region.intersects(request)) {
+			return;
+		}
+
+		CnaRow row = new CnaRow();
+		row.setRegion(region);
+
+		Float gainFreq = parser.getGainFreq();
+		if (gainFreq != null) {
+			row.setGainFreg(gainFreq);
+		}
+
+		Float lossFreq = parser.getLossFreq();
+		if (lossFreq != null) {
+			row.setLossFreg(parser.getLossFreq());
+		}
+
+		List<String> sampleNames = parser.getSampleNames();
+		List<Float> flagValues = parser.getFlagValues();
+		List<Float> logRatioValues = parser.getLogRatioValues();
+
+		LinkedList<Sample> samples = new LinkedList<Sample>();
+
+		for (int i = 0; i < sampleNames.size(); i++) {
+
+			Sample sample = new Sample();
+
+			sample.setName(sampleNames.get(i));
+
+			if (flagValues.size() > 0) {
+				sample.setFlag(flagValues.get(i));
+			}
+
+			sample.setLogRatio(logRatioValues.get(i));
+
+			samples.add(sample);
+		}
+
+		row.setSamples(samples);
+
+		LinkedHashMap<DataType, Object> valueMap = new LinkedHashMap<DataType, Object>();			
+
+		valueMap.put(DataType.ID, id);
+		valueMap.put(DataType.VALUE, row);
+		valueMap.put(DataType.LOSS, row.getLossFreg());
+		valueMap.put(DataType.GAIN, row.getGainFreg());
+
+		//Add logRatios in general format to make it possible to view them with ScatterploTrack			
+		valueMap.put(DataType.FLOAT_LIST, logRatioValues);
+
+		list.add(new Feature(region, valueMap));
+	}
+	
 	public LinkedList<String> getSampleNames() {
 		return sampleNames;
 	}
@@ -44,10 +44,10 @@ public class CnaLineParser extends AbstractTsvLineParser {
 	public boolean setLine(String line) {
 		if (line.startsWith(getHeaderStart())) {
 			parseHeader(line);
-			this.values = null;
+			setValues(null);
 			return false;
 		} else {
-			this.values = line.split("\t"); 
+			setValues(line.split("\t")); 
 			return true; 
 		}
 	}
@@ -92,7 +92,7 @@ public class CnaLineParser extends AbstractTsvLineParser {
 			long start = getLong(Column.START.ordinal());
 			long end = getLong(Column.END.ordinal());
 			
-			Chromosome chr = new Chromosome(getString(Column.CHROMOSOME.ordinal()));
+			Chromosome chr = Chromosome.valueOf(getString(Column.CHROMOSOME.ordinal()));
 			return new Region(start, end, chr);
 			
 		} else {
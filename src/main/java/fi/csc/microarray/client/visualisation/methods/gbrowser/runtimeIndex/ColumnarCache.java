@@ -0,0 +1,672 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedDataException;
+
+/**
+ * Binary columnar copy of a sorted tab separated track file, for example bed, vcf or cna file.
+ *
+ * The text file is read once and its rows are written in blocks of {@link #BLOCK_ROWS} rows
+ * to a file next to it. All rows of a block are in the same chromosome. Start positions and
+ * line positions are delta encoded, columns of integers and decimal numbers are stored as
+ * numbers and other columns with a dictionary of the block. The file is memory-mapped and only
+ * the blocks that overlap the request are decoded, so the text lines don't need to be read
+ * and split again for every request.
+ *
+ * A column is stored as numbers only if the numbers can be formatted back to exactly the original
+ * text, so the parsers get always the same values than from the text file.
+ *
+ * File format, all integers big-endian:
+ * <pre>
+ * header: magic, version, source length, source modification time
+ * blocks: row count, line positions, start positions, column counts, columns
+ * column: type and the values of the rows that have this column
+ * index: block count and chromosome, first start, last start and position of each block
+ * trailer: position of the index
+ * </pre>
+ */
+public class ColumnarCache {
+
+	private static final Logger logger = Logger.getLogger(ColumnarCache.class);
+
+	public static final String FILE_SUFFIX = ".columns";
+
+	public static final int BLOCK_ROWS = 1024;
+
+	private static final int MAGIC = 0x54434331; // "TCC1"
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+	private static final int MAX_DECODED_BLOCKS = 32;
+
+	private static final byte TYPE_INTEGER = 0;
+	private static final byte TYPE_FLOAT = 1;
+	private static final byte TYPE_STRING = 2;
+
+	private static class BlockEntry {
+		private long firstStart;
+		private long lastStart;
+		private int position;
+	}
+
+	private ByteBuffer buffer;
+
+	private HashMap<Chromosome, List<BlockEntry>> index = new HashMap<>();
+
+	private LinkedHashMap<Integer, Block> decodedBlocks = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+			return size() > MAX_DECODED_BLOCKS;
+		}
+	};
+
+	private ColumnarCache(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		if (buffer.limit() < HEADER_SIZE + 8 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("unsupported columnar cache");
+		}
+
+		ByteBuffer in = buffer.duplicate();
+		in.position((int) buffer.getLong(buffer.limit() - 8));
+
+		int blockCount = in.getInt();
+		for (int i = 0; i < blockCount; i++) {
+			Chromosome chr = Chromosome.valueOf(readString(in));
+			BlockEntry entry = new BlockEntry();
+			entry.firstStart = in.getLong();
+			entry.lastStart = in.getLong();
+			entry.position = (int) in.getLong();
+
+			List<BlockEntry> entries = index.get(chr);
+			if (entries == null) {
+				entries = new ArrayList<>();
+				index.put(chr, entries);
+			}
+			entries.add(entry);
+		}
+	}
+
+	/**
+	 * Memory-map a cache file.
+	 *
+	 * @param cacheFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static ColumnarCache open(File cacheFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+			// the mapping stays valid after the file is closed
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			return new ColumnarCache(buffer);
+		}
+	}
+
+	/**
+	 * @param source
+	 * @return cache file of the source file, which may not exist yet
+	 */
+	public static File getCacheFile(File source) {
+		return new File(source.getParentFile(), source.getName() + FILE_SUFFIX);
+	}
+
+	/**
+	 * @param source
+	 * @param cacheFile
+	 * @return true if the cache file exists and was created from the current version of the source file
+	 */
+	public static boolean isUpToDate(File source, File cacheFile) {
+		if (!cacheFile.exists()) {
+			return false;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+			return file.length() >= HEADER_SIZE &&
+					file.readInt() == MAGIC &&
+					file.readInt() == VERSION &&
+					file.readLong() == source.length() &&
+					file.readLong() == source.lastModified();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Open the cache of the source file, creating it first if necessary.
+	 *
+	 * @param source
+	 * @param parser parser for the source file, which isn't used by other threads at the same time
+	 * @return
+	 * @throws IOException
+	 * @throws UnsortedDataException
+	 */
+	public static ColumnarCache openOrCreate(File source, AbstractTsvLineParser parser) throws IOException, UnsortedDataException {
+		File cacheFile = getCacheFile(source);
+		if (!isUpToDate(source, cacheFile)) {
+			long t = System.currentTimeMillis();
+			create(source, cacheFile, parser);
+			logger.info("columnar cache of " + source.getName() + " created in " + (System.currentTimeMillis() - t) + " ms");
+		}
+		return open(cacheFile);
+	}
+
+	/**
+	 * Read the source file and write its cache. The cache is written to a temporary
+	 * file first, so that an interrupted run doesn't leave a broken cache behind.
+	 *
+	 * @param source
+	 * @param cacheFile
+	 * @param parser
+	 * @throws IOException
+	 * @throws UnsortedDataException if the rows of the source file aren't sorted
+	 */
+	public static void create(File source, File cacheFile, AbstractTsvLineParser parser) throws IOException, UnsortedDataException {
+
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(source));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+
+			Writer writer = new Writer(out);
+			ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+			long lineId = 0;
+			int length;
+
+			while ((length = readLine(in, lineBytes)) >= 0) {
+
+				// byte position of the line in the file, same as in BinarySearchIndex
+				long id = lineId;
+				lineId += length;
+
+				String line = new String(lineBytes.toByteArray(), StandardCharsets.UTF_8);
+				if (line.endsWith("\r")) {
+					line = line.substring(0, line.length() - 1);
+				}
+
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				Region region;
+				try {
+					if (!parser.setLine(line) || !parser.isContentLine()) {
+						continue;
+					}
+					region = parser.getRegion();
+				} catch (RuntimeException e) {
+					throw new IOException("unable to parse line: " + line, e);
+				}
+
+				if (region != null) {
+					writer.add(region.start.chr, region.start.bp, id, parser.values);
+				}
+			}
+			writer.close();
+
+		} catch (IOException | UnsortedDataException e) {
+			tmpFile.delete();
+			throw e;
+		}
+
+		if (cacheFile.exists()) {
+			cacheFile.delete();
+		}
+		if (!tmpFile.renameTo(cacheFile)) {
+			throw new IOException("unable to rename " + tmpFile + " to " + cacheFile);
+		}
+	}
+
+	/**
+	 * Read the bytes of the next line without the new line character.
+	 *
+	 * @param in
+	 * @param line cleared and filled with the bytes of the line
+	 * @return number of bytes read including the new line character or -1 at the end of the stream
+	 * @throws IOException
+	 */
+	private static int readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+		line.reset();
+		int count = 0;
+		int b;
+		while ((b = in.read()) >= 0) {
+			count++;
+			if (b == '\n') {
+				return count;
+			}
+			line.write(b);
+		}
+		return count > 0 ? count : -1;
+	}
+
+	/**
+	 * Get the blocks that may contain rows starting in the region.
+	 *
+	 * @param region
+	 * @return blocks in position order
+	 */
+	public synchronized List<Block> getBlocks(Region region) {
+
+		List<Block> blocks = new LinkedList<>();
+		List<BlockEntry> entries = index.get(region.start.chr);
+
+		if (entries == null) {
+			return blocks;
+		}
+
+		for (BlockEntry entry : entries) {
+			if (entry.firstStart > region.end.bp) {
+				break;
+			}
+			if (entry.lastStart >= region.start.bp) {
+				Block block = decodedBlocks.get(entry.position);
+				if (block == null) {
+					block = new Block(buffer, entry.position);
+					decodedBlocks.put(entry.position, block);
+				}
+				blocks.add(block);
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * Decoded rows of one block.
+	 */
+	public static class Block {
+
+		private Chromosome chr;
+		private int rowCount;
+		private long[] lineIds;
+		private long[] starts;
+		private int[] columnCounts;
+
+		private byte[] types;
+		private long[][] integers;
+		private float[][] floats;
+		private String[][] dictionaries;
+		private int[][] dictionaryIndexes;
+
+		private Block(ByteBuffer buffer, int position) {
+
+			ByteBuffer in = buffer.duplicate();
+			in.position(position);
+
+			chr = Chromosome.valueOf(readString(in));
+			rowCount = in.getInt();
+
+			lineIds = new long[rowCount];
+			starts = new long[rowCount];
+			columnCounts = new int[rowCount];
+			int maxColumns = 0;
+
+			for (int row = 0; row < rowCount; row++) {
+				lineIds[row] = (row > 0 ? lineIds[row - 1] : 0) + readVarLong(in);
+			}
+			for (int row = 0; row < rowCount; row++) {
+				starts[row] = (row > 0 ? starts[row - 1] : 0) + readVarLong(in);
+			}
+			for (int row = 0; row < rowCount; row++) {
+				columnCounts[row] = (int) readVarLong(in);
+				maxColumns = Math.max(maxColumns, columnCounts[row]);
+			}
+
+			types = new byte[maxColumns];
+			integers = new long[maxColumns][];
+			floats = new float[maxColumns][];
+			dictionaries = new String[maxColumns][];
+			dictionaryIndexes = new int[maxColumns][];
+
+			for (int column = 0; column < maxColumns; column++) {
+				types[column] = in.get();
+
+				switch (types[column]) {
+				case TYPE_INTEGER:
+					integers[column] = new long[rowCount];
+					long previous = 0;
+					for (int row = 0; row < rowCount; row++) {
+						if (columnCounts[row] > column) {
+							previous += readVarLong(in);
+							integers[column][row] = previous;
+						}
+					}
+					break;
+				case TYPE_FLOAT:
+					floats[column] = new float[rowCount];
+					for (int row = 0; row < rowCount; row++) {
+						if (columnCounts[row] > column) {
+							floats[column][row] = in.getFloat();
+						}
+					}
+					break;
+				default:
+					dictionaries[column] = new String[(int) readVarLong(in)];
+					for (int i = 0; i < dictionaries[column].length; i++) {
+						dictionaries[column][i] = readString(in);
+					}
+					dictionaryIndexes[column] = new int[rowCount];
+					for (int row = 0; row < rowCount; row++) {
+						if (columnCounts[row] > column) {
+							dictionaryIndexes[column][row] = (int) readVarLong(in);
+						}
+					}
+				}
+			}
+		}
+
+		public Chromosome getChromosome() {
+			return chr;
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * @return start position of the row, as given by the parser
+		 */
+		public long getStart(int row) {
+			return starts[row];
+		}
+
+		/**
+		 * @return position of the line in the source file
+		 */
+		public long getLineId(int row) {
+			return lineIds[row];
+		}
+
+		public int getColumnCount(int row) {
+			return columnCounts[row];
+		}
+
+		public boolean isInteger(int column) {
+			return column < types.length && types[column] == TYPE_INTEGER;
+		}
+
+		public boolean isFloat(int column) {
+			return column < types.length && types[column] == TYPE_FLOAT;
+		}
+
+		public long getLong(int column, int row) {
+			return integers[column][row];
+		}
+
+		public float getFloat(int column, int row) {
+			if (isInteger(column)) {
+				return integers[column][row];
+			}
+			return floats[column][row];
+		}
+
+		/**
+		 * @return original text of the column
+		 */
+		public String getString(int column, int row) {
+			switch (types[column]) {
+			case TYPE_INTEGER:
+				return Long.toString(integers[column][row]);
+			case TYPE_FLOAT:
+				return Float.toString(floats[column][row]);
+			default:
+				return dictionaries[column][dictionaryIndexes[column][row]];
+			}
+		}
+
+		/**
+		 * @return columns of the row like those would have been split from the text line
+		 */
+		public String[] getValues(int row) {
+			String[] values = new String[columnCounts[row]];
+			for (int column = 0; column < values.length; column++) {
+				values[column] = getString(column, row);
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Collects rows to blocks and writes the blocks and the index.
+	 */
+	private static class Writer {
+
+		private DataOutputStream out;
+
+		private Chromosome chr;
+		private long previousStart;
+		private HashSet<Chromosome> finishedChromosomes = new HashSet<>();
+
+		private long[] lineIds = new long[BLOCK_ROWS];
+		private long[] starts = new long[BLOCK_ROWS];
+		private String[][] rows = new String[BLOCK_ROWS][];
+		private int rowCount = 0;
+
+		private ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		private DataOutputStream index = new DataOutputStream(indexBytes);
+		private int blockCount = 0;
+
+		public Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		public void add(Chromosome rowChr, long start, long lineId, String[] values) throws IOException, UnsortedDataException {
+
+			if (!rowChr.equals(chr)) {
+				flush();
+				if (chr != null) {
+					finishedChromosomes.add(chr);
+				}
+				if (finishedChromosomes.contains(rowChr)) {
+					throw new UnsortedDataException("chromosome " + rowChr + " isn't sorted", rowChr.toString());
+				}
+				chr = rowChr;
+			} else if (start < previousStart) {
+				throw new UnsortedDataException("position " + start + " in chromosome " + rowChr + " isn't sorted", rowChr.toString());
+			}
+
+			if (rowCount == BLOCK_ROWS) {
+				flush();
+			}
+
+			lineIds[rowCount] = lineId;
+			starts[rowCount] = start;
+			rows[rowCount] = values;
+			rowCount++;
+			previousStart = start;
+		}
+
+		private void flush() throws IOException {
+
+			if (rowCount == 0) {
+				return;
+			}
+
+			long position = out.size();
+			if (position >= Integer.MAX_VALUE) {
+				throw new IOException("file is too large for columnar cache");
+			}
+
+			index.write(toBytes(chr.getOriginalName()));
+			index.writeLong(starts[0]);
+			index.writeLong(starts[rowCount - 1]);
+			index.writeLong(position);
+			blockCount++;
+
+			out.write(toBytes(chr.getOriginalName()));
+			out.writeInt(rowCount);
+
+			for (int row = 0; row < rowCount; row++) {
+				writeVarLong(out, lineIds[row] - (row > 0 ? lineIds[row - 1] : 0));
+			}
+			for (int row = 0; row < rowCount; row++) {
+				writeVarLong(out, starts[row] - (row > 0 ? starts[row - 1] : 0));
+			}
+			int maxColumns = 0;
+			for (int row = 0; row < rowCount; row++) {
+				writeVarLong(out, rows[row].length);
+				maxColumns = Math.max(maxColumns, rows[row].length);
+			}
+
+			for (int column = 0; column < maxColumns; column++) {
+				writeColumn(column);
+			}
+
+			rowCount = 0;
+		}
+
+		private void writeColumn(int column) throws IOException {
+
+			boolean isInteger = true;
+			boolean isFloat = true;
+
+			for (int row = 0; row < rowCount && (isInteger || isFloat); row++) {
+				if (rows[row].length > column) {
+					String value = rows[row][column];
+					isInteger = isInteger && isInteger(value);
+					isFloat = isFloat && isFloat(value);
+				}
+			}
+
+			if (isInteger) {
+				out.writeByte(TYPE_INTEGER);
+				long previous = 0;
+				for (int row = 0; row < rowCount; row++) {
+					if (rows[row].length > column) {
+						long value = Long.parseLong(rows[row][column]);
+						writeVarLong(out, value - previous);
+						previous = value;
+					}
+				}
+			} else if (isFloat) {
+				out.writeByte(TYPE_FLOAT);
+				for (int row = 0; row < rowCount; row++) {
+					if (rows[row].length > column) {
+						out.writeFloat(Float.parseFloat(rows[row][column]));
+					}
+				}
+			} else {
+				out.writeByte(TYPE_STRING);
+				LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<>();
+				for (int row = 0; row < rowCount; row++) {
+					if (rows[row].length > column && !dictionary.containsKey(rows[row][column])) {
+						dictionary.put(rows[row][column], dictionary.size());
+					}
+				}
+				writeVarLong(out, dictionary.size());
+				for (String value : dictionary.keySet()) {
+					out.write(toBytes(value));
+				}
+				for (int row = 0; row < rowCount; row++) {
+					if (rows[row].length > column) {
+						writeVarLong(out, dictionary.get(rows[row][column]));
+					}
+				}
+			}
+		}
+
+		public void close() throws IOException {
+			flush();
+			long indexPosition = out.size();
+			out.writeInt(blockCount);
+			index.flush();
+			indexBytes.writeTo(out);
+			out.writeLong(indexPosition);
+		}
+	}
+
+	private static boolean isInteger(String value) {
+		// parsing would accept also values like "+1" or "01"
+		int length = value.length();
+		if (length == 0 || length > 18) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (!(c >= '0' && c <= '9') && !(i == 0 && c == '-' && length > 1)) {
+				return false;
+			}
+		}
+		return Long.toString(Long.parseLong(value)).equals(value);
+	}
+
+	private static boolean isFloat(String value) {
+		try {
+			return Float.toString(Float.parseFloat(value)).equals(value);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Strings are stored with a short length and UTF-8 bytes
+	 */
+	private static byte[] toBytes(String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IOException("too long value for columnar cache");
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 2);
+		new DataOutputStream(out).writeShort(bytes.length);
+		out.write(bytes);
+		return out.toByteArray();
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getShort()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write a zigzag encoded variable length long, so that small positive and negative values take only one byte
+	 */
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7fl) != 0) {
+			out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.writeByte((int) zigzag);
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long zigzag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			zigzag |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+}
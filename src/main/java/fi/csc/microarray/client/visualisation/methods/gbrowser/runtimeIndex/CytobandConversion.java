@@ -46,6 +46,11 @@ public class CytobandConversion extends DataThread {
 		}
 	}
 
+	@Override
+	protected boolean isTileCacheable() {
+		return true;
+	}
+
 	@Override
 	protected void processDataRequest(DataRequest request) throws InterruptedException {
 
@@ -31,7 +31,7 @@ public class CytobandLineParser extends AbstractTsvLineParser {
 		long start = getLong(Column.START.ordinal());
 		long end = getLong(Column.END.ordinal());
 			
-		Chromosome chr = new Chromosome(getString(Column.CHR.ordinal()));
+		Chromosome chr = Chromosome.valueOf(getString(Column.CHR.ordinal()));
 		
 		return new Region(start, end, chr);		
 	}
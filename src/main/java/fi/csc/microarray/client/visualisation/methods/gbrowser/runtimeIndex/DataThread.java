@@ -1,10 +1,12 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
-import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.SwingUtilities;
 
@@ -13,8 +15,9 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.QueueManager;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataStatus;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.FeatureBatch;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.SearchRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
@@ -30,17 +33,36 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserExce
 public abstract class DataThread {
 
 	private LinkedBlockingDeque<DataRequest> dataRequestQueue;
+	private ResultMailbox resultMailbox;
 	protected QueueManager queueManager;
 	protected Thread thread;
 
 
 	private volatile boolean poison = false;
+	
+	/**
+	 * Number of requests waiting or being processed, polled by the GUI
+	 */
+	private AtomicInteger queueLength = new AtomicInteger();
 
 	private Region dataRegion;
 
 	private GBrowser browser;
 	private DataSource dataSource;
 
+	/**
+	 * Requests that would need more tiles than this aren't cached. For example, the whole 
+	 * chromosome is requested with an end of Long.MAX_VALUE, because its length isn't known here.
+	 */
+	private static final long MAX_TILES = 64;
+
+	private TileCache tileCache = TileCache.getInstance();
+	/**
+	 * Features and feature batches of the tile that is being processed or null
+	 */
+	private List<Feature> tileFeatures;
+	private List<FeatureBatch> tileBatches;
+
 	public DataThread(GBrowser browser, DataSource dataSource) {
 		
 		this.browser = browser;
@@ -72,16 +94,25 @@ public abstract class DataThread {
 							
 							synchronized (this) {
 								
-								processRequest = 
-										dataRegion == null || 
-										dataRequest instanceof SearchRequest || //searched gene may be in other chromosome
-										(dataRegion != null && dataRegion.intersects(dataRequest));
+								if (dataRequest.isPrefetch()) {
+									//prefetch only when there is nothing else to do
+									processRequest = !hasNewRequest();
+								} else {
+									processRequest = 
+											dataRegion == null || 
+											dataRequest instanceof SearchRequest || //searched gene may be in other chromosome
+											(dataRegion != null && dataRegion.intersects(dataRequest));
+								}
 							}
 							
 							if (processRequest) {
 								
 								try {
-									processDataRequest(dataRequest);
+									if (useTileCache(dataRequest)) {
+										processTiles(dataRequest);
+									} else if (!dataRequest.isPrefetch()) {
+										processDataRequest(dataRequest);
+									}
 								} catch (GBrowserException e) {
 									reportException(e);
 									poison = true;
@@ -111,6 +142,127 @@ public abstract class DataThread {
 	}
 
 	protected abstract void processDataRequest(DataRequest dataRequest) throws GBrowserException, InterruptedException;
+
+	/**
+	 * Override this method to store the results of this thread in the {@link TileCache}. The results
+	 * of a region must not depend on the length of the request or on earlier requests,
+	 * because the request is divided into tiles and the results of the tiles are
+	 * reused later.
+	 *
+	 * @return true if the results can be cached
+	 */
+	protected boolean isTileCacheable() {
+		return false;
+	}
+
+	/**
+	 * Identifies the data in the {@link TileCache}. Override this method, if the same file can
+	 * be converted in different ways.
+	 *
+	 * @return identifier of the data or null if it can't be cached
+	 */
+	protected Object getTileCacheId() {
+		if (dataSource == null || dataSource.getDataUrl() == null) {
+			return null;
+		}
+		return Arrays.asList(getClass().getName(), dataSource.getDataUrl());
+	}
+
+	private boolean useTileCache(DataRequest request) {
+		return isTileCacheable() &&
+				!(request instanceof SearchRequest) &&
+				request.start != null && request.end != null && request.start.chr != null &&
+				(request.getRequestedContents() == null || !request.getRequestedContents().contains(DataType.CANCEL)) &&
+				getTileCacheId() != null;
+	}
+
+	/**
+	 * Serve the request from the {@link TileCache} and process only the missing tiles. 
+	 * Prefetch requests only fill the cache.
+	 */
+	private void processTiles(DataRequest request) throws GBrowserException, InterruptedException {
+
+		Object id = getTileCacheId();
+		Region region = getDataRegion();
+		// tile size follows the zoom level, not the length of this request, which may be only the new part of the view
+		long tileSize = TileCache.getTileSize(region != null ? region.getLength() : request.getLength());
+		Chromosome chr = request.start.chr;
+		
+		long firstTile = Math.max(0, request.start.bp / tileSize);
+		long lastTile = request.end.bp / tileSize;
+
+		if (lastTile - firstTile >= MAX_TILES) {
+			// the request doesn't have a real end or the data region is old
+			if (!request.isPrefetch()) {
+				processDataRequest(request);
+			}
+			return;
+		}
+
+		for (long tile = firstTile; tile <= lastTile; tile++) {
+
+			TileCache.TileKey key = new TileCache.TileKey(id, request.getRequestedContents(), chr, tile, tileSize);
+
+			if (request.isPrefetch()) {
+				if (hasNewRequest()) {
+					// the user is waiting for something else
+					return;
+				}
+				if (tileCache.contains(key)) {
+					continue;
+				}
+			} else {
+				TileCache.Tile cached = tileCache.getTile(key);
+				if (cached != null) {
+					sendTile(request, cached.getFeatures(), cached.getBatches(), tile == firstTile ? Long.MIN_VALUE : key.getStart());
+					continue;
+				}
+			}
+
+			Region tileRegion = new Region(Math.max(1, key.getStart()), key.getEnd(), chr);
+			List<Feature> features = new LinkedList<Feature>();
+			List<FeatureBatch> batches = new LinkedList<FeatureBatch>();
+			tileFeatures = features;
+			tileBatches = batches;
+			try {
+				processDataRequest(new DataRequest(tileRegion, request.getRequestedContents(), request.getStatus()));
+			} finally {
+				tileFeatures = null;
+				tileBatches = null;
+			}
+			tileCache.put(key, features, batches);
+			
+			if (!request.isPrefetch()) {
+				sendTile(request, features, batches, tile == firstTile ? Long.MIN_VALUE : key.getStart());
+			}
+		}
+	}
+	
+	/**
+	 * Pass the results of a tile to the GUI. Features that continue from the previous tile 
+	 * of the same request were sent already with that tile, so only the features starting 
+	 * in this tile are sent.
+	 * 
+	 * @param tileStart start of the tile or Long.MIN_VALUE to send all features 
+	 */
+	private void sendTile(DataRequest request, List<Feature> features, List<FeatureBatch> batches, long tileStart) throws InterruptedException {
+		
+		// tracks may modify the list
+		LinkedList<Feature> owned = new LinkedList<Feature>();
+		for (Feature feature : features) {
+			if (feature.region == null || feature.region.start == null || feature.region.start.bp >= tileStart) {
+				owned.add(feature);
+			}
+		}
+		
+		if (!owned.isEmpty() || batches.isEmpty()) {
+			createDataResult(new DataResult(request, owned));
+		}
+		for (FeatureBatch batch : batches) {
+			createDataResult(new DataResult(request, batch));
+		}
+	}
+
 	/**
 	 * Pass the result to be visualised in GUI.
 	 * 
@@ -123,30 +275,40 @@ public abstract class DataThread {
 			throw new InterruptedException();
 		}
 
-		try {
-			/* 
-			 * Use invokeAndWait() instead of invokeLater() to avoid congestion of EDT.
-			 * 
-			 * For example, ReadPileTrack removes extra data only during drawing. If invokeLater() was used,
-			 * the DataThread would stack up so many processDataResult() calls, that memory runs out before
-			 * the Track gets a chance to remove any data. Call of invokeAndWait() will wait drawing of the present frame to finish
-			 * first, in practice slowing down DataThread when it's producing more data than EDT can handle.
-			 */
-			SwingUtilities.invokeAndWait(new Runnable() {
-							
-				public void run() {					
-					queueManager.processDataResult(dataResult);
-				}						
-			});
-		} catch (InvocationTargetException | InterruptedException e) {
-			e.printStackTrace();
+		if (tileFeatures != null) {
+			// results of a tile are sent after the whole tile is processed
+			if (dataResult.getFeatureBatch() != null) {
+				tileBatches.add(dataResult.getFeatureBatch());
+			} else {
+				tileFeatures.addAll(dataResult.getFeatures());
+			}
+			return;
 		}
+
+		/* 
+		 * Wait if the mailbox is full to avoid congestion of EDT.
+		 * 
+		 * For example, ReadPileTrack removes extra data only during drawing. If the results weren't limited,
+		 * the DataThread would stack up so many results, that memory runs out before
+		 * the Track gets a chance to remove any data. The mailbox is emptied once for each frame, 
+		 * in practice slowing down DataThread when it's producing more data than EDT can handle.
+		 */
+		while (!resultMailbox.offer(dataResult, 100, TimeUnit.MILLISECONDS)) {
+			if (poison) {
+				throw new InterruptedException();
+			}
+		}
+		queueManager.scheduleDrain();
 	}	
 	
 	public void setQueue(Queue<DataRequest> queue) {
 		this.dataRequestQueue = (LinkedBlockingDeque<DataRequest>) queue;
 	}
 
+	public void setResultMailbox(ResultMailbox resultMailbox) {
+		this.resultMailbox = resultMailbox;
+	}
+
 	public boolean hasNewRequest() {
 		return dataRequestQueue.size() > 0;
 	}
@@ -162,8 +324,8 @@ public abstract class DataThread {
 	public void setDataRegion(Region dataRegion) {
 		synchronized (this) {			
 			if (dataRegion != null && dataRegion.start != null && dataRegion.end != null) {
-				//Create a new Region instance for this thread
-				Region region = new Region((long)dataRegion.start.bp, (long)dataRegion.end.bp, new Chromosome(dataRegion.start.chr));
+				//Create a new Region instance for this thread, chromosomes are immutable and can be shared
+				Region region = new Region(dataRegion.start.bp, dataRegion.end.bp, dataRegion.start.chr);
 				this.dataRegion = region;
 			}
 		}
@@ -176,15 +338,22 @@ public abstract class DataThread {
 	/**
 	 * @param increaseByOne set true to indicate that queue size should be increased by one to count the
 	 * request which is taken from the queue, but not processed yet
-	 * @throws InterruptedException 
 	 */
-	private void reportQueueSize(boolean increaseByOne) throws InterruptedException {
+	private void reportQueueSize(boolean increaseByOne) {
 				
-		DataStatus status = new DataStatus();
-		status.setDataThread(this);
-		status.setDataRequestCount(dataRequestQueue.size() + (increaseByOne ? 1 : 0));		
-		List<Feature> emptyList = new LinkedList<Feature>();		
-		createDataResult(new DataResult(status, emptyList));		
+		int length = dataRequestQueue.size() + (increaseByOne ? 1 : 0);
+		
+		if (queueLength.getAndSet(length) != length) {
+			// let the status animation know
+			queueManager.scheduleDrain();
+		}
+	}
+
+	/**
+	 * @return number of requests waiting or being processed
+	 */
+	public int getQueueLength() {
+		return queueLength.get();
 	}
 
 	public void setQueueManager(QueueManager queueManager) {
@@ -1,5 +1,6 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.LinkedHashMap;
@@ -10,12 +11,14 @@ import java.util.TreeMap;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.GBrowser;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.IndexKey;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.ColumnarCache.Block;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedDataException;
 
@@ -39,7 +42,9 @@ public class FileLineConversion extends DataThread {
 
 	private Index index;
 
-	private LineParser parser;
+	private AbstractTsvLineParser parser;
+	
+	private volatile ColumnarCache columnarCache;
 
 	public FileLineConversion(DataUrl data, AbstractTsvLineParser parser, GBrowser browser) throws URISyntaxException, IOException, UnsortedDataException, GBrowserException {
 		super(browser, null);
@@ -55,9 +60,38 @@ public class FileLineConversion extends DataThread {
 		} else {
 			this.index = new BinarySearchIndex(dataSource, parser);
 			super.setDataSource(dataSource);
+			
+			if ("file".equals(data.getUrl().getProtocol())) {
+				openColumnarCache(data.getLocalFile());
+			}
 		}
 	}
 
+	/**
+	 * Open or create the columnar cache in the background. Requests are served from the 
+	 * text file until the cache is ready.
+	 * 
+	 * @param file
+	 */
+	private void openColumnarCache(final File file) {
+		
+		final AbstractTsvLineParser cacheParser = parser.clone();
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					columnarCache = ColumnarCache.openOrCreate(file, cacheParser);
+				} catch (IOException | UnsortedDataException e) {
+					// the text file is still usable without the cache
+					e.printStackTrace();
+				}
+			}
+		}, "columnar-cache");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
 	@Override
 	protected void processDataRequest(DataRequest request) throws InterruptedException {					
 		
@@ -77,39 +111,62 @@ public class FileLineConversion extends DataThread {
 		
 		Region requestRegion = new Region(start, end, request.start.chr);
 				
-		TreeMap<IndexKey, String> lines = null;
-		try {		
-					
-			lines = index.getFileLines(new DataRequest(requestRegion, request.getRequestedContents(), request.getStatus()));
-			
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (GBrowserException e) {
-			e.printStackTrace();
-		}	
-				
 		List<Feature> list = new LinkedList<Feature>();
 		
-		for (Entry<IndexKey, String> entry : lines.entrySet()) {
-			
-			String line = entry.getValue();			
-			parser.setLine(line);								
-			Region region = parser.getRegion();
-			FileLine fileLine = parser.getFileLine();
-			IndexKey id = entry.getKey();
-			
-			LinkedHashMap<DataType, Object> valueMap = new LinkedHashMap<DataType, Object>();			
+		ColumnarCache cache = columnarCache;
+		
+		if (cache != null) {
 			
-			valueMap.put(DataType.ID, id);
-			valueMap.put(DataType.VALUE, fileLine);			
-			Feature regionContent = new Feature(region, valueMap);
+			for (Block block : cache.getBlocks(requestRegion)) {
+				for (int row = 0; row < block.getRowCount(); row++) {
+					
+					BpCoord rowStart = new BpCoord(block.getStart(row), block.getChromosome());
+					
+					if (requestRegion.contains(rowStart)) {
+						parser.setRow(block, row);
+						list.add(createFeature(new IndexKey(rowStart, block.getLineId(row))));
+					}
+				}
+			}
 			
-			list.add(regionContent);
-		}						
+		} else {
+
+			TreeMap<IndexKey, String> lines = null;
+			try {		
+
+				lines = index.getFileLines(new DataRequest(requestRegion, request.getRequestedContents(), request.getStatus()));
+
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (GBrowserException e) {
+				e.printStackTrace();
+			}	
+
+			for (Entry<IndexKey, String> entry : lines.entrySet()) {
+
+				parser.setLine(entry.getValue());
+				list.add(createFeature(entry.getKey()));
+			}
+		}
 			
 		super.createDataResult(new DataResult(request.getStatus(), list));
 	}
 
+	/**
+	 * Create a feature of the line that was given to the parser
+	 */
+	private Feature createFeature(IndexKey id) {
+
+		Region region = parser.getRegion();
+		FileLine fileLine = parser.getFileLine();
+
+		LinkedHashMap<DataType, Object> valueMap = new LinkedHashMap<DataType, Object>();			
+
+		valueMap.put(DataType.ID, id);
+		valueMap.put(DataType.VALUE, fileLine);			
+		return new Feature(region, valueMap);
+	}
+
 	public LineParser getParser() {
 		return parser;
 	}
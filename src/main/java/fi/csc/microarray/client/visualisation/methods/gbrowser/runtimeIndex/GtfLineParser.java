@@ -46,7 +46,7 @@ public class GtfLineParser extends AbstractTsvLineParser {
 
 			long start = getLong(Column.START.ordinal());
 			long end = getLong(Column.END.ordinal());
-			Chromosome chr = new Chromosome(getString(Column.SEQNAME.ordinal()));
+			Chromosome chr = Chromosome.valueOf(getString(Column.SEQNAME.ordinal()));
 			
 			String strandString = getString(Column.STRAND.ordinal());
 
@@ -52,6 +52,15 @@ public class RandomAccessLineDataSource extends DataSource {
 		return lineReader.readLine();
 	}
 	
+	/**
+	 * See {@link RandomAccessLineReader#getPosition()} for comments.
+	 * 
+	 * @return
+	 */
+	public long getLineReaderPosition() {
+		return lineReader.getPosition();
+	}
+	
 	/**
 	 * @return Last line of the file.
 	 * @throws IOException
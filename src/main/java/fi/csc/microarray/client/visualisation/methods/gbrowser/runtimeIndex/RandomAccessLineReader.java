@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.ChromosomeNormaliser;
@@ -36,6 +37,7 @@ public class RandomAccessLineReader {
 	//File position of the buffer's first byte
 	private long position = -1;
 	
+	//Bytes decoded as ISO-8859-1, so that each char is one byte of the file
 	private String buffer;
 
 	//Reads random access bytes from file or http
@@ -118,7 +120,7 @@ public class RandomAccessLineReader {
 		}
 		
 		//Get the requested line from buffer
-		String line = buffer.substring(0, indexOfNewLine);
+		String line = new String(buffer.substring(0, indexOfNewLine).getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
 		
 		//Remove requested line from buffer and mark its new position
 		buffer = buffer.substring(indexOfNewLine + 1);
@@ -145,12 +147,19 @@ public class RandomAccessLineReader {
 		long refillPosition = position + buffer.length();
 		 
 		byte[] bytes = byteDataSource.read(refillPosition, HTTP_BUFFER_SIZE);
-		buffer = buffer + new String(bytes);		
+		buffer = buffer + new String(bytes, StandardCharsets.ISO_8859_1);		
 		
 		//System.out.println("RandomAccessLineReader.fillBuffer() Position: " + position/1024/1024 + " MB \t Length: " + buffer.lastIndexOf("\n") + " bytes");
 	}
 
 
+	/**
+	 * @return File position (in bytes) of the next line returned by readLine().
+	 */
+	public long getPosition() {
+		return position;
+	}
+
 	/**
 	 * Close file.
 	 * 
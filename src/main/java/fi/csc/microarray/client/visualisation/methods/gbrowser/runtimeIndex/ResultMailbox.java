@@ -0,0 +1,144 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.FeatureBatch;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.SearchRequest;
+
+/**
+ * Results of a {@link DataThread} waiting to be handled in the event dispatch thread. The
+ * number of waiting results is limited, so a data thread that produces results faster than
+ * those can be drawn has to wait, instead of filling the memory.
+ */
+public class ResultMailbox {
+
+	private ConcurrentLinkedQueue<DataResult> results = new ConcurrentLinkedQueue<DataResult>();
+	private Semaphore capacity;
+
+	/**
+	 * @param maxResults number of results that can wait at the same time
+	 */
+	public ResultMailbox(int maxResults) {
+		this.capacity = new Semaphore(maxResults);
+	}
+
+	/**
+	 * Add a result, waiting if the mailbox is full.
+	 *
+	 * @param result
+	 * @param timeout
+	 * @param unit
+	 * @return false if the result wasn't added, because the mailbox stayed full
+	 * @throws InterruptedException
+	 */
+	public boolean offer(DataResult result, long timeout, TimeUnit unit) throws InterruptedException {
+		if (!capacity.tryAcquire(timeout, unit)) {
+			return false;
+		}
+		results.add(result);
+		return true;
+	}
+
+	/**
+	 * Take all waiting results and make room for new ones.
+	 *
+	 * @return results in the order they were added
+	 */
+	public List<DataResult> drain() {
+		List<DataResult> drained = new ArrayList<DataResult>();
+		DataResult result;
+		while ((result = results.poll()) != null) {
+			drained.add(result);
+		}
+		capacity.release(drained.size());
+		return drained;
+	}
+
+	public int size() {
+		return results.size();
+	}
+
+	/**
+	 * Remove results of the requests that don't intersect with the current data region anymore
+	 * and join consecutive results of the same request.
+	 *
+	 * @param results
+	 * @param dataRegion current region of the data thread or null
+	 * @return
+	 */
+	public static List<DataResult> coalesce(List<DataResult> results, Region dataRegion) {
+
+		List<DataResult> coalesced = new ArrayList<DataResult>(results.size());
+		DataResult previous = null;
+
+		for (DataResult result : results) {
+
+			DataRequest request = result.getRequest();
+
+			if (isSuperseded(request, dataRegion)) {
+				continue;
+			}
+
+			DataResult joined = null;
+			if (previous != null && previous.getStatus() == result.getStatus() && previous.getRequest() == request) {
+				joined = join(previous, result);
+			}
+
+			if (joined != null) {
+				previous = joined;
+				coalesced.set(coalesced.size() - 1, previous);
+			} else {
+				previous = result;
+				coalesced.add(result);
+			}
+		}
+		return coalesced;
+	}
+
+	/**
+	 * Join the results of the same request. Batches are joined only with batches of
+	 * the same kind, so that those aren't converted to features here.
+	 *
+	 * @return joined result or null if the results can't be joined
+	 */
+	private static DataResult join(DataResult first, DataResult second) {
+
+		DataRequest request = first.getRequest();
+		FeatureBatch firstBatch = first.getFeatureBatch();
+		FeatureBatch secondBatch = second.getFeatureBatch();
+
+		if (firstBatch != null || secondBatch != null) {
+			if (firstBatch == null || secondBatch == null || request == null ||
+					!firstBatch.getChromosome().equals(secondBatch.getChromosome()) ||
+					firstBatch.getValueType() != secondBatch.getValueType()) {
+				return null;
+			}
+			// the batches may be in the tile cache, so those aren't modified
+			FeatureBatch batch = new FeatureBatch(firstBatch.getChromosome(), firstBatch.getValueType(), firstBatch.getCount() + secondBatch.getCount());
+			batch.addAll(firstBatch);
+			batch.addAll(secondBatch);
+			return new DataResult(request, batch);
+		}
+
+		LinkedList<Feature> features = new LinkedList<Feature>(first.getFeatures());
+		features.addAll(second.getFeatures());
+		return request != null ? new DataResult(request, features) : new DataResult(second.getStatus(), features);
+	}
+
+	private static boolean isSuperseded(DataRequest request, Region dataRegion) {
+		return request != null && dataRegion != null &&
+				!(request instanceof SearchRequest) && //searched gene may be in other chromosome
+				request.start != null && request.end != null && request.start.chr != null &&
+				dataRegion.start.chr != null &&
+				!dataRegion.intersects(request);
+	}
+}
@@ -1,15 +1,17 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.log4j.Logger;
+
 import fi.csc.microarray.client.visualisation.methods.gbrowser.GBrowser;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.SearchRequest;
@@ -23,19 +25,18 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
  * multiple URLs, those are searched in the list's order until a matching key 
  * is found.
  * 
- * At the moment, there are indexes only for gene names and ids, These files 
- * are small, only a few megabytes and are simply read through and saved in 
- * memory.
- *  
- * To prepare for the future needs, search indexes are sorted according to 
- * key (ignoring case). It is possible to implement binary search for keys 
- * similarly to how genome browser usually locates positions in TSV, GTF and 
- * BED files, if larger index files are needed at some point.
+ * At the moment, there are indexes only for gene names and ids. Each file is 
+ * read through once and converted to a {@link SearchKeyIndex}, which finds 
+ * the keys with a binary search and also offers suggestions for the partial
+ * gene names. The converted index of a local file is saved next to it, so 
+ * that the conversion is needed only once per genome.
  * 
  * @author klemela
  */
 public class SearchIndexConversion extends DataThread {
 	
+	private static final Logger logger = Logger.getLogger(SearchIndexConversion.class);
+	
 	public static class SearchIndex {
 		
 		public SearchIndex(DataUrl dataUrl) throws URISyntaxException, IOException {
@@ -43,37 +44,58 @@ public class SearchIndexConversion extends DataThread {
 		}
 		
 		private LineDataSource dataSource;
-		private HashMap<String, Region> indexMap;
+		private SearchKeyIndex keyIndex;
 		
 		public Region search(String searchString) {
-			if (indexMap == null) {				
-				indexMap = new HashMap<String, Region>();
-
+			SearchKeyIndex keyIndex = getKeyIndex();
+			return keyIndex != null ? keyIndex.search(searchString) : null;
+		}
+		
+		public List<String> getSuggestions(String prefix, int maxCount) {
+			SearchKeyIndex keyIndex = getKeyIndex();
+			return keyIndex != null ? keyIndex.getSuggestions(prefix, maxCount) : new LinkedList<String>();
+		}
+		
+		private synchronized SearchKeyIndex getKeyIndex() {
+			if (keyIndex == null) {				
 				try {
-					readFile();				
+					keyIndex = readIndex();				
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
 			}
-			
-			return indexMap.get(searchString);
+			return keyIndex;
 		}
 		
-		private void readFile() throws IOException {
+		private SearchKeyIndex readIndex() throws IOException {
+			
+			File sourceFile = dataSource.file;
+			File indexFile = null;
+			
+			if (sourceFile != null) {
+				indexFile = new File(sourceFile.getParentFile(), sourceFile.getName() + SearchKeyIndex.FILE_SUFFIX);
+				if (SearchKeyIndex.isUpToDate(sourceFile, indexFile)) {
+					return SearchKeyIndex.open(indexFile);
+				}
+			}
 
+			SearchKeyIndex.Builder builder = new SearchKeyIndex.Builder();
 			String line;
 
 			while ((line = dataSource.readLine()) != null) {
-
-				String[] cols = line.split("\t");
-
-				String chr = cols[0];
-				long start = Long.parseLong(cols[1]);
-				long end = Long.parseLong(cols[2]);
-				String string = cols[3];
-
-				indexMap.put(string.toLowerCase(), new Region(start, end, new Chromosome(chr)));			
+				builder.addLine(line);
+			}
+			
+			if (indexFile != null) {
+				try {
+					builder.write(sourceFile, indexFile);
+					return SearchKeyIndex.open(indexFile);
+				} catch (IOException e) {
+					// annotation directory may be read-only
+					logger.warn("could not write search index " + indexFile, e);
+				}
 			}
+			return builder.build();
 		}
 	}
 	
@@ -114,6 +136,25 @@ public class SearchIndexConversion extends DataThread {
 		reply(request, null);
 	}
 
+	/**
+	 * Find keys that start with the prefix. This can be called from any thread.
+	 * 
+	 * @param prefix
+	 * @param maxCount
+	 * @return keys of all indexes without duplicates, in the order of indexes
+	 */
+	public List<String> getSuggestions(String prefix, int maxCount) {
+		LinkedHashSet<String> suggestions = new LinkedHashSet<>();
+		for (SearchIndex index : indexes) {
+			for (String suggestion : index.getSuggestions(prefix, maxCount)) {
+				if (suggestions.size() < maxCount) {
+					suggestions.add(suggestion);
+				}
+			}
+		}
+		return new ArrayList<>(suggestions);
+	}
+
 	private void reply(SearchRequest request, Region region) throws InterruptedException {
 		List<Feature> resultList = new LinkedList<Feature>();							
 		resultList.add(new Feature(region, null));
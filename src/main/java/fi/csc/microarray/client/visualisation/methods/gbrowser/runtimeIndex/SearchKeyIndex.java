@@ -0,0 +1,366 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+
+/**
+ * Sorted search keys and their regions in a compact binary form.
+ *
+ * The keys are sorted ignoring case and stored in blocks of {@link #BLOCK_SIZE}
+ * keys. The first key of each block is stored completely and the following keys
+ * only as the length of the prefix shared with the previous key and the rest of
+ * the key (front coding). A key is found with a binary search over the first keys of
+ * the blocks and a scan through one block. Keys starting with a prefix are next to
+ * each other, so suggestions for the user's partial input are found the same way.
+ *
+ * The index can be kept in a byte array or in a memory-mapped file.
+ *
+ * File format, all integers big-endian:
+ * <pre>
+ * header: magic, version, source length, source modification time, key count, block count, chromosome count
+ * chromosomes: short length and UTF-8 bytes
+ * block offsets: int for each block
+ * blocks: for each key shared prefix length (byte), suffix length (short), suffix UTF-8 bytes, chromosome (short), start, end
+ * </pre>
+ */
+public class SearchKeyIndex {
+
+	public static final String FILE_SUFFIX = ".ski";
+
+	private static final int MAGIC = 0x534B4931; // "SKI1"
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 3 * 4;
+	private static final int BLOCK_SIZE = 16;
+	private static final int MAX_SHARED_PREFIX = 255;
+
+	private ByteBuffer buffer;
+	private int keyCount;
+	private int blockCount;
+	private int blockOffsetsPosition;
+	private Chromosome[] chromosomes;
+
+	public SearchKeyIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("unsupported search index");
+		}
+		keyCount = buffer.getInt(24);
+		blockCount = buffer.getInt(28);
+		chromosomes = new Chromosome[buffer.getInt(32)];
+
+		int position = HEADER_SIZE;
+		for (int i = 0; i < chromosomes.length; i++) {
+			int length = buffer.getShort(position) & 0xFFFF;
+			chromosomes[i] = Chromosome.valueOf(getString(position + 2, length));
+			position += 2 + length;
+		}
+		blockOffsetsPosition = position;
+	}
+
+	/**
+	 * Memory-map an index file.
+	 */
+	public static SearchKeyIndex open(File indexFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+			return new SearchKeyIndex(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+		}
+	}
+
+	/**
+	 * @return true if the index file exists and was created from the current version of the source file
+	 */
+	public static boolean isUpToDate(File sourceFile, File indexFile) {
+		if (!indexFile.exists()) {
+			return false;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+			return file.length() >= HEADER_SIZE &&
+					file.readInt() == MAGIC &&
+					file.readInt() == VERSION &&
+					file.readLong() == sourceFile.length() &&
+					file.readLong() == sourceFile.lastModified();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * @param key
+	 * @return region of the key ignoring case or null if the key is not found
+	 */
+	public Region search(String key) {
+		String lowerCaseKey = key.toLowerCase();
+		Cursor cursor = new Cursor(findBlock(lowerCaseKey));
+		while (cursor.next()) {
+			int c = cursor.lowerCaseKey.compareTo(lowerCaseKey);
+			if (c == 0) {
+				return cursor.getRegion();
+			}
+			if (c > 0) {
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param prefix
+	 * @param maxCount
+	 * @return keys starting with the prefix ignoring case, in alphabetical order,
+	 * so that the shortest keys are the first
+	 */
+	public List<String> getSuggestions(String prefix, int maxCount) {
+		LinkedList<String> suggestions = new LinkedList<>();
+		String lowerCasePrefix = prefix.toLowerCase();
+		Cursor cursor = new Cursor(findBlock(lowerCasePrefix));
+		String previous = null;
+
+		while (suggestions.size() < maxCount && cursor.next()) {
+			if (cursor.lowerCaseKey.startsWith(lowerCasePrefix)) {
+				// same key may have several locations
+				if (!cursor.lowerCaseKey.equals(previous)) {
+					suggestions.add(cursor.key);
+				}
+				previous = cursor.lowerCaseKey;
+
+			} else if (cursor.lowerCaseKey.compareTo(lowerCasePrefix) > 0) {
+				break;
+			}
+		}
+		return suggestions;
+	}
+
+	/**
+	 * @return last block whose first key is smaller than the lower case key
+	 */
+	private int findBlock(String lowerCaseKey) {
+		int low = 0;
+		int high = blockCount - 1;
+		int result = 0;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int position = getBlockPosition(middle);
+			// first key of the block has no shared prefix
+			int length = buffer.getShort(position + 1) & 0xFFFF;
+			// compareTo() instead of startsWith(), because earlier blocks may contain the same key
+			if (getString(position + 3, length).toLowerCase().compareTo(lowerCaseKey) < 0) {
+				result = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return result;
+	}
+
+	private int getBlockPosition(int block) {
+		return buffer.getInt(blockOffsetsPosition + block * 4);
+	}
+
+	private String getString(int position, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(position + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes keys one by one starting from a block and continuing to the following blocks.
+	 */
+	private class Cursor {
+
+		private int index;
+		private int position;
+		private byte[] keyBytes = new byte[64];
+		private int keyLength;
+
+		String key;
+		String lowerCaseKey;
+
+		public Cursor(int block) {
+			this.index = block * BLOCK_SIZE;
+			if (blockCount > 0) {
+				this.position = getBlockPosition(block);
+			}
+		}
+
+		public boolean next() {
+			if (index >= keyCount) {
+				return false;
+			}
+			int shared = buffer.get(position) & 0xFF;
+			int suffixLength = buffer.getShort(position + 1) & 0xFFFF;
+			position += 3;
+
+			keyLength = shared + suffixLength;
+			if (keyBytes.length < keyLength) {
+				byte[] bigger = new byte[keyLength * 2];
+				System.arraycopy(keyBytes, 0, bigger, 0, shared);
+				keyBytes = bigger;
+			}
+			for (int i = 0; i < suffixLength; i++) {
+				keyBytes[shared + i] = buffer.get(position + i);
+			}
+			position += suffixLength;
+
+			key = new String(keyBytes, 0, keyLength, StandardCharsets.UTF_8);
+			lowerCaseKey = key.toLowerCase();
+			index++;
+			position += 2 + 4 + 4;
+			return true;
+		}
+
+		public Region getRegion() {
+			int regionPosition = position - 10;
+			Chromosome chr = chromosomes[buffer.getShort(regionPosition) & 0xFFFF];
+			long start = buffer.getInt(regionPosition + 2);
+			long end = buffer.getInt(regionPosition + 6);
+			return new Region(start, end, chr);
+		}
+	}
+
+	/**
+	 * Collects the keys and writes them sorted in the index format.
+	 */
+	public static class Builder {
+
+		private static class Entry {
+			String key;
+			String lowerCaseKey;
+			int chr;
+			int start;
+			int end;
+		}
+
+		private ArrayList<Entry> entries = new ArrayList<>();
+		private LinkedHashMap<String, Integer> chromosomes = new LinkedHashMap<>();
+
+		public void add(String key, String chr, long start, long end) {
+			Entry entry = new Entry();
+			entry.key = key;
+			entry.lowerCaseKey = key.toLowerCase();
+			Integer chrIndex = chromosomes.get(chr);
+			if (chrIndex == null) {
+				chrIndex = chromosomes.size();
+				chromosomes.put(chr, chrIndex);
+			}
+			entry.chr = chrIndex;
+			entry.start = (int) start;
+			entry.end = (int) end;
+			entries.add(entry);
+		}
+
+		/**
+		 * Parse a line of a search index file, which has columns chr, start, end and key.
+		 */
+		public void addLine(String line) {
+			String[] cols = line.split("\t");
+			add(cols[3], cols[0], Long.parseLong(cols[1]), Long.parseLong(cols[2]));
+		}
+
+		public byte[] toBytes(long sourceLength, long sourceLastModified) throws IOException {
+
+			Collections.sort(entries, new Comparator<Entry>() {
+				@Override
+				public int compare(Entry e1, Entry e2) {
+					return e1.lowerCaseKey.compareTo(e2.lowerCaseKey);
+				}
+			});
+
+			int blockCount = (entries.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+			// blocks first to get their offsets
+			ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+			DataOutputStream blocks = new DataOutputStream(blockBytes);
+			int[] blockOffsets = new int[blockCount];
+			byte[] previous = new byte[0];
+
+			for (int i = 0; i < entries.size(); i++) {
+				Entry entry = entries.get(i);
+				byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+
+				int shared = 0;
+				if (i % BLOCK_SIZE == 0) {
+					blockOffsets[i / BLOCK_SIZE] = blocks.size();
+				} else {
+					while (shared < key.length && shared < previous.length && shared < MAX_SHARED_PREFIX && key[shared] == previous[shared]) {
+						shared++;
+					}
+				}
+				blocks.writeByte(shared);
+				blocks.writeShort(key.length - shared);
+				blocks.write(key, shared, key.length - shared);
+				blocks.writeShort(entry.chr);
+				blocks.writeInt(entry.start);
+				blocks.writeInt(entry.end);
+				previous = key;
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + blockBytes.size() + blockCount * 4);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceLength);
+			out.writeLong(sourceLastModified);
+			out.writeInt(entries.size());
+			out.writeInt(blockCount);
+			out.writeInt(chromosomes.size());
+			for (String chr : chromosomes.keySet()) {
+				byte[] chrBytes = chr.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(chrBytes.length);
+				out.write(chrBytes);
+			}
+			int blocksPosition = out.size() + blockCount * 4;
+			for (int offset : blockOffsets) {
+				out.writeInt(blocksPosition + offset);
+			}
+			blockBytes.writeTo(out);
+			out.flush();
+
+			return bytes.toByteArray();
+		}
+
+		public SearchKeyIndex build() throws IOException {
+			return new SearchKeyIndex(ByteBuffer.wrap(toBytes(-1, -1)));
+		}
+
+		/**
+		 * Write the index to a file. A temporary file is renamed at the end, so
+		 * that an interrupted run doesn't leave a broken index behind.
+		 */
+		public void write(File sourceFile, File indexFile) throws IOException {
+			File tmpFile = new File(indexFile.getPath() + ".tmp");
+			try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+				out.write(toBytes(sourceFile.length(), sourceFile.lastModified()));
+			}
+			indexFile.delete();
+			if (!tmpFile.renameTo(indexFile)) {
+				tmpFile.delete();
+				throw new IOException("could not rename " + tmpFile + " to " + indexFile);
+			}
+		}
+	}
+}
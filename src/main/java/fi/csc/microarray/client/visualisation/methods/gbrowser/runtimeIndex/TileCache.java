@@ -0,0 +1,294 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.FeatureBatch;
+
+/**
+ * Memory-bounded cache of the results of data threads. The genome is divided into tiles,
+ * whose size depends on the zoom level, and the features of each tile are stored
+ * under a key of data source, chromosome, tile index and tile size. The least recently
+ * used tiles are removed when the estimated size of the cached features exceeds
+ * the limit.
+ *
+ * The cache is shared by all data threads of the browser, so that the limit applies
+ * to the whole browser and a file opened again in another track is still cached.
+ *
+ * @see DataThread#isTileCacheable()
+ */
+public class TileCache {
+
+	/**
+	 * Smallest tile size in bp. Sequence and other details are shown only when the view is
+	 * a few hundred bp wide, so tiles smaller than this wouldn't make the requests faster.
+	 */
+	public static final long MIN_TILE_SIZE = 1024;
+
+	private static final long FEATURE_SIZE = 160;
+	private static final long VALUE_SIZE = 32;
+
+	private static TileCache instance;
+
+	public static synchronized TileCache getInstance() {
+		if (instance == null) {
+			// an eighth of the heap, rest is needed for tracks and drawing
+			instance = new TileCache(Runtime.getRuntime().maxMemory() / 8);
+		}
+		return instance;
+	}
+
+	public static class TileKey {
+
+		private Object dataSource;
+		private Collection<DataType> contents;
+		private Chromosome chr;
+		private long tileIndex;
+		private long tileSize;
+
+		/**
+		 * @param dataSource anything that identifies the data, including the conversion when the same file can be read in different ways
+		 * @param contents requested data types
+		 * @param chr
+		 * @param tileIndex tile position from the beginning of the chromosome
+		 * @param tileSize tile length in bp, i.e. zoom level
+		 */
+		public TileKey(Object dataSource, Collection<DataType> contents, Chromosome chr, long tileIndex, long tileSize) {
+			this.dataSource = dataSource;
+			this.contents = contents;
+			this.chr = chr;
+			this.tileIndex = tileIndex;
+			this.tileSize = tileSize;
+		}
+
+		public long getStart() {
+			return tileIndex * tileSize;
+		}
+
+		public long getEnd() {
+			return (tileIndex + 1) * tileSize - 1;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = dataSource.hashCode();
+			hash = 31 * hash + (contents == null ? 0 : contents.hashCode());
+			hash = 31 * hash + chr.hashCode();
+			hash = 31 * hash + (int) (tileIndex ^ (tileIndex >>> 32));
+			hash = 31 * hash + (int) (tileSize ^ (tileSize >>> 32));
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TileKey)) {
+				return false;
+			}
+			TileKey other = (TileKey) obj;
+			return tileIndex == other.tileIndex && tileSize == other.tileSize &&
+					dataSource.equals(other.dataSource) && chr.equals(other.chr) &&
+					(contents == null ? other.contents == null : contents.equals(other.contents));
+		}
+
+		@Override
+		public String toString() {
+			return dataSource + " " + chr + ":" + getStart() + "-" + getEnd();
+		}
+	}
+
+	/**
+	 * Cached results of one tile. The lists must not be modified.
+	 */
+	public static class Tile {
+		private List<Feature> features;
+		private List<FeatureBatch> batches;
+		private long size;
+
+		private Tile(List<Feature> features, List<FeatureBatch> batches, long size) {
+			this.features = features;
+			this.batches = batches;
+			this.size = size;
+		}
+
+		public List<Feature> getFeatures() {
+			return features;
+		}
+
+		public List<FeatureBatch> getBatches() {
+			return batches;
+		}
+	}
+
+	private LinkedHashMap<TileKey, Tile> tiles = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true);
+
+	private long maxSize;
+	private long size = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public TileCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Tile size for the zoom level. Tiles are a power of two long, so that
+	 * a slight change in the view length doesn't change the tiles.
+	 *
+	 * @param regionLength length of the requested region
+	 * @return
+	 */
+	public static long getTileSize(long regionLength) {
+		return Math.max(MIN_TILE_SIZE, Long.highestOneBit(Math.max(1, regionLength / 4)));
+	}
+
+	/**
+	 * @param key
+	 * @return features of the tile or null if it isn't cached
+	 */
+	public List<Feature> get(TileKey key) {
+		Tile tile = getTile(key);
+		return tile != null ? tile.features : null;
+	}
+
+	/**
+	 * Get the features and feature batches of a tile at once, so that another
+	 * thread can't evict the tile in between.
+	 * 
+	 * @param key
+	 * @return the tile or null if it isn't cached
+	 */
+	public synchronized Tile getTile(TileKey key) {
+		Tile tile = tiles.get(key);
+		if (tile == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return tile;
+	}
+
+	/**
+	 * @return true if the tile is cached, without counting hits or changing the order of eviction
+	 */
+	public synchronized boolean contains(TileKey key) {
+		return tiles.containsKey(key);
+	}
+
+	/**
+	 * Store the features of a tile. The list must not be modified after this.
+	 */
+	public void put(TileKey key, List<Feature> features) {
+		put(key, features, Collections.<FeatureBatch>emptyList());
+	}
+
+	/**
+	 * Store the features and feature batches of a tile. The lists and batches must not be modified after this.
+	 */
+	public synchronized void put(TileKey key, List<Feature> features, List<FeatureBatch> batches) {
+
+		long tileSize = estimateSize(features);
+		for (FeatureBatch batch : batches) {
+			tileSize += batch.estimateSize();
+		}
+
+		if (tileSize > maxSize) {
+			return;
+		}
+
+		Tile old = tiles.put(key, new Tile(features, batches, tileSize));
+		if (old != null) {
+			size -= old.size;
+		}
+		size += tileSize;
+
+		Iterator<Tile> iter = tiles.values().iterator();
+		while (size > maxSize && iter.hasNext()) {
+			size -= iter.next().size;
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Remove all tiles of the data source, e.g. when the file has changed.
+	 */
+	public synchronized void remove(Object dataSource) {
+		Iterator<Map.Entry<TileKey, Tile>> iter = tiles.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<TileKey, Tile> entry = iter.next();
+			if (entry.getKey().dataSource.equals(dataSource)) {
+				size -= entry.getValue().size;
+				iter.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		tiles.clear();
+		size = 0;
+	}
+
+	/**
+	 * Rough estimate of the memory used by the features. Only strings are measured,
+	 * because sequences are the biggest values.
+	 */
+	public static long estimateSize(List<Feature> features) {
+		long bytes = 64;
+		for (Feature feature : features) {
+			bytes += FEATURE_SIZE;
+			if (feature.values != null) {
+				for (Object value : feature.values.values()) {
+					if (value instanceof String) {
+						bytes += 40 + 2 * ((String) value).length();
+					} else {
+						bytes += VALUE_SIZE;
+					}
+				}
+			}
+		}
+		return bytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * @return share of tile requests found from the cache or 0 if nothing has been requested yet
+	 */
+	public synchronized double getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getTileCount() {
+		return tiles.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d tiles, %d kB of %d kB, hit rate %.1f %% (%d hits, %d misses), %d evictions",
+				tiles.size(), size / 1024, maxSize / 1024, getHitRate() * 100, hits, misses, evictions);
+	}
+}
@@ -74,7 +74,7 @@ public class TsvLineParser extends AbstractTsvLineParser {
 			long start = getLong(startColumn);
 			long end = getLong(endColumn);
 			
-			Chromosome chr = new Chromosome(getString(chrColumn));
+			Chromosome chr = Chromosome.valueOf(getString(chrColumn));
 			return new Region(start, end, chr);
 			
 		} else {
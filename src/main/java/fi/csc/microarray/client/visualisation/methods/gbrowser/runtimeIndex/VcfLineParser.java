@@ -34,7 +34,7 @@ public class VcfLineParser extends AbstractTsvLineParser {
 			
 			long start = getLong(Column.POS.ordinal());
 			
-			Chromosome chr = new Chromosome(getString(Column.CHROM.ordinal()));
+			Chromosome chr = Chromosome.valueOf(getString(Column.CHROM.ordinal()));
 			return new Region(start, start, chr);
 			
 		} else {
@@ -0,0 +1,134 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.track;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.PackedReads;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+
+/**
+ * Reads of a {@link ReadPileTrack} sorted by start position and the layer of each read.
+ * Layouts are immutable, so that a new layout can be created in a background thread while the
+ * previous one is drawn.
+ */
+public class ReadPileLayout {
+
+	/**
+	 * Layer of the reads that didn't fit in the pile
+	 */
+	public static final int HIDDEN = -1;
+
+	private PackedReads reads;
+	private int[] layers;
+	private int maxLayers;
+
+	private ReadPileLayout(PackedReads reads, int[] layers, int maxLayers) {
+		this.reads = reads;
+		this.layers = layers;
+		this.maxLayers = maxLayers;
+	}
+
+	/**
+	 * Add new reads to the previous layout and remove the reads that aren't needed anymore.
+	 *
+	 * @param previous previous layout or null
+	 * @param batches new reads
+	 * @param strand only the reads of this strand are used
+	 * @param request reads outside this region are removed
+	 * @param maxLayers reads that don't fit in this many layers are hidden
+	 * @return
+	 */
+	public static ReadPileLayout create(ReadPileLayout previous, Collection<PackedReads> batches, Strand strand, Region request, int maxLayers) {
+
+		PackedReads[] sources = new PackedReads[batches.size() + 1];
+		int total = 0;
+		if (previous != null) {
+			sources[0] = previous.reads;
+			total += previous.reads.size();
+		}
+		int s = 1;
+		for (PackedReads batch : batches) {
+			sources[s++] = batch;
+			total += batch.size();
+		}
+
+		// index of the source in the highest bits and index of the read in the lowest bits
+		long[] candidates = new long[total];
+		long[] sortKeys = new long[total];
+		int count = 0;
+		HashSet<Long> keys = new HashSet<>();
+		int requestStart = (int) request.start.bp;
+		int requestEnd = (int) request.end.bp;
+
+		for (s = 0; s < sources.length; s++) {
+			PackedReads source = sources[s];
+			if (source == null || !source.getChromosome().equals(request.start.chr)) {
+				continue;
+			}
+			for (int i = 0; i < source.size(); i++) {
+				if (source.getStart(i) > requestEnd || source.getEnd(i) < requestStart ||
+						source.getStrand(i) != strand || !keys.add(source.getKey(i))) {
+					continue;
+				}
+				candidates[count] = (long) s << 32 | i;
+				sortKeys[count] = (long) source.getStart(i) << 32 | count;
+				count++;
+			}
+		}
+
+		Arrays.sort(sortKeys, 0, count);
+
+		PackedReads reads = new PackedReads(request.start.chr, count);
+		for (int i = 0; i < count; i++) {
+			long candidate = candidates[(int) sortKeys[i]];
+			reads.add(sources[(int) (candidate >>> 32)], (int) candidate);
+		}
+
+		// each layer is reserved until the end of its last read
+		int[] layers = new int[count];
+		int[] occupied = new int[Math.max(maxLayers + 1, 1)];
+		int usedLayers = 0;
+
+		for (int i = 0; i < count; i++) {
+			int layer = 0;
+			while (layer < usedLayers && occupied[layer] > reads.getStart(i) + 1) {
+				layer++;
+			}
+
+			if (layer >= occupied.length) {
+				layers[i] = HIDDEN;
+				continue;
+			}
+
+			occupied[layer] = reads.getEnd(i);
+			usedLayers = Math.max(usedLayers, layer + 1);
+			layers[i] = layer;
+		}
+
+		return new ReadPileLayout(reads, layers, maxLayers);
+	}
+
+	public PackedReads getReads() {
+		return reads;
+	}
+
+	/**
+	 * @return layer or {@link #HIDDEN}
+	 */
+	public int getLayer(int read) {
+		return layers[read];
+	}
+
+	public int getMaxLayers() {
+		return maxLayers;
+	}
+
+	/**
+	 * @return true if the read is in the last layer that is drawn, which tells the user that some reads are hidden
+	 */
+	public boolean isWarning(int read) {
+		return layers[read] + 1 >= maxLayers;
+	}
+}
@@ -1,74 +1,82 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.track;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
-import java.awt.Rectangle;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.Drawable;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserConstants;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserView;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.ImageDrawable;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.LayoutTool.LayoutMode;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.RectDrawable;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Cigar;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.CigarItem.CigarItemType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.ReadPart;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.PackedReads;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.RegionDouble;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Sequence;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataThread;
+import htsjdk.samtools.CigarOperator;
 
 /**
  * The read track, most important of all tracks. Shows actual content of reads using color coding.
  * 
+ * Reads are received in {@link PackedReads} objects and laid out in a background thread. The pile is
+ * drawn to an image, which is drawn again as such until the view or the reads change. When 
+ * more reads are hidden than shown, because those don't fit in the track, the pile isn't 
+ * representative anymore and the track shows the read depth instead.
  */
 public class ReadPileTrack extends Track {
 	
-	public static class Read extends Feature {
-		
-		private int layer;
-		private boolean warning;
-
-		public Read(Feature feature) {
-			super(feature);
-		}
-
-		public boolean isWarning() {
-			return warning;
-		}
-
-		public void setWarning(boolean warning) {
-			this.warning = warning;
-		}
-
-		public int getLayer() {
-			return layer;
-		}
-
-		public void setLayer(int layer) {
-			this.layer = layer;
-		}
-	}
-	
 	public static final Color CUTOFF_COLOR = Color.ORANGE;
 
 	private static final int MAX_FULL_HEIGHT = 1000;
 
+	private static final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "read-pile-layout");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	private DataThread refData;
 	private Collection<Feature> referenceSequenceFeatures = new TreeSet<Feature>();
 
 	private boolean highlightSNP = false;
 
-	private TreeSet<Read> dividedReads = new TreeSet<>();
-
 	private boolean markMultimappingReads;
 
+	// reads waiting for the layout thread
+	private ConcurrentLinkedQueue<PackedReads> newReads = new ConcurrentLinkedQueue<>();
+	private AtomicBoolean layoutScheduled = new AtomicBoolean(false);
+	private volatile Region layoutRegion;
+	private volatile int layoutMaxLayers;
+	private volatile ReadPileLayout layout;
+	
+	// image and the state it was drawn for
+	private BufferedImage image;
+	private ReadPileLayout imageLayout;
+	private double imageStart;
+	private double imageEnd;
+	private boolean imageValid = false;
+
 	public ReadPileTrack(DataThread refData, Color fontColor) {
 		super();
 		this.refData = refData;
@@ -80,181 +88,301 @@ public class ReadPileTrack extends Track {
 		
 		Collection<Drawable> drawables = getEmptyDrawCollection();
 
-		// If SNP highlight mode is on, we need reference sequence data
-		char[] refSeq = highlightSNP ? getReferenceArray(referenceSequenceFeatures, view, strand) : null;		
+		ReadPileLayout current = layout;
 		
+		if (current == null) {
+			return drawables;
+		}
+		
+		if (current.getMaxLayers() != getMaxLayers()) {
+			// track height has changed
+			scheduleLayout();
+		}
 
-		Iterator<Read> splittedReadIter = dividedReads.iterator();
-		Read splittedRead = null;
+		RegionDouble viewRegion = getView().getBpRegionDouble();
+		
+		if (!imageValid || image == null || current != imageLayout || image.getWidth() != Math.max(1, getView().getWidth()) ||
+				viewRegion.start.bp != imageStart || viewRegion.end.bp != imageEnd) {
+			
+			drawImage(current);
+			imageLayout = current;
+			imageStart = viewRegion.start.bp;
+			imageEnd = viewRegion.end.bp;
+			imageValid = true;
+		}
+		
+		drawables.add(new ImageDrawable(0, 0, image));
 		
-		while (splittedReadIter.hasNext()) {
-			splittedRead = splittedReadIter.next();
+		return drawables;
+	}
 
-			// Skip elements that are not visible
-			if (!getView().viewIntersects(splittedRead.region)) {
+	private void drawImage(ReadPileLayout current) {
+
+		PackedReads reads = current.getReads();
+		Region viewRegion = getView().getBpRegion();
+		int viewStart = (int) viewRegion.start.bp;
+		int viewEnd = (int) viewRegion.end.bp;
+
+		// find the visible reads, these are sorted by start
+		int last = 0;
+		int shown = 0;
+		int maxLayer = 0;
+		int hidden = 0;
+		for (int i = 0; i < reads.size() && reads.getStart(i) <= viewEnd; i++) {
+			last = i + 1;
+			if (reads.getEnd(i) < viewStart) {
 				continue;
 			}
+			if (current.getLayer(i) == ReadPileLayout.HIDDEN) {
+				hidden++;
+			} else {
+				shown++;
+				maxLayer = Math.max(maxLayer, current.getLayer(i));
+			}
+		}
 
-			// Width in basepairs
-			long widthInBps = splittedRead.region.getLength();
-
-			// Create rectangle covering the correct screen area (x-axis)
-			Rectangle readRect = new Rectangle();
-			readRect.x = getView().bpToTrack(splittedRead.region.start);
-			readRect.width = (int) Math.floor(getView().bpWidth() * widthInBps);
+		boolean depth = hidden > shown;
+		
+		int height;
+		if (depth) {
+			// full mode would grow the track forever, if the height was taken from the component
+			height = getLayoutMode() == LayoutMode.FULL ? getTrackHeight() : getLayoutComponent().getHeight();
+		} else {
+			// room for the insertion marks
+			height = getYCoord(maxLayer) + GBrowserConstants.READ_HEIGHT + 2;
+		}
 
-			// Do not draw invisible rectangles
-			if (readRect.width < 2) {
-				readRect.width = 2;
+		Graphics2D g = createImage(Math.max(1, getView().getWidth()), Math.max(1, height));
+		
+		if (depth) {
+			drawDepth(g, reads, last, viewStart);
+		} else {
+			// If SNP highlight mode is on, we need reference sequence data
+			char[] refSeq = highlightSNP ? getReferenceArray(referenceSequenceFeatures, view, strand) : null;
+			
+			for (int i = 0; i < last; i++) {
+				if (reads.getEnd(i) >= viewStart && current.getLayer(i) != ReadPileLayout.HIDDEN) {
+					drawRead(g, current, i, refSeq);
+				}
 			}
+		}
+		g.dispose();
+	}
 
-			// Read parts are drawn in order and placed in layers
-			int layer = splittedRead.getLayer();
-			boolean lastBeforeMaxStackingDepthCut = splittedRead.isWarning();
-			
-			// Now we can decide the y coordinate
-			readRect.y = getYCoord(layer);
-			readRect.height = GBrowserConstants.READ_HEIGHT;
+	/**
+	 * Reuse the image if it has the right size.
+	 */
+	private Graphics2D createImage(int width, int height) {
+		
+		if (image == null || image.getWidth() != width || image.getHeight() != height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			return image.createGraphics();
+		}
+		
+		Graphics2D g = image.createGraphics();
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect(0, 0, width, height);
+		g.setComposite(AlphaComposite.SrcOver);
+		return g;
+	}
 
+	/**
+	 * Draw the number of reads in each pixel column.
+	 */
+	private void drawDepth(Graphics2D g, PackedReads reads, int last, int viewStart) {
+		
+		int width = image.getWidth();
+		int[] depth = new int[width + 1];
+		
+		for (int i = 0; i < last; i++) {
+			if (reads.getEnd(i) < viewStart) {
+				continue;
+			}
+			int x1 = Math.max(0, Math.min(width, getX(reads.getStart(i))));
+			int x2 = Math.max(x1 + 1, Math.min(width, getX(reads.getEnd(i) + 1)));
+			depth[x1]++;
+			depth[x2]--;
+		}
 
-			for (ReadPart readPart : Cigar.splitElements(splittedRead)) {
+		int maxDepth = 1;
+		for (int x = 0; x < width; x++) {
+			depth[x + 1] += depth[x];
+			maxDepth = Math.max(maxDepth, depth[x]);
+		}
 
-				// Width in basepairs
-				widthInBps = readPart.getLength();
+		g.setColor(Color.gray);
+		int maxHeight = image.getHeight() - GBrowserConstants.SPACE_BETWEEN_READS;
+		for (int x = 0; x < width; x++) {
+			if (depth[x] > 0) {
+				int barHeight = Math.max(1, (int) ((long) depth[x] * maxHeight / maxDepth));
+				fillRect(g, x, GBrowserConstants.SPACE_BETWEEN_READS, 1, barHeight);
+			}
+		}
+	}
 
-				// Create rectangle covering the correct screen area (x-axis)
-				Rectangle rect = new Rectangle();
-				rect.x = getView().bpToTrack(readPart.start);
-				rect.width = (int) Math.floor(getView().bpWidth() * widthInBps);
-				rect.y = readRect.y;
-				rect.height = readRect.height;
+	private void drawRead(Graphics2D g, ReadPileLayout current, int read, char[] refSeq) {
 
-				// Do not draw invisible rectangles
-				if (rect.width < 2) {
-					rect.width = 2;
-				}
+		PackedReads reads = current.getReads();
+		int y = getYCoord(current.getLayer(read));
+		
+		// Mark last line that will be drawn
+		Color color = current.isWarning(read) ? CUTOFF_COLOR : getDefaultReadColor(reads, read);
+		
+		int cigarCount = reads.getCigarCount(read);
+		
+		if (cigarCount == 0) {
+			drawReadPart(g, reads, read, reads.getStart(read), reads.getEnd(read) - reads.getStart(read) + 1, 0, y, color, refSeq);
+			return;
+		}
+		
+		int refPos = reads.getStart(read);
+		int seqPos = 0;
+		
+		for (int op = 0; op < cigarCount; op++) {
 
-				// Check if we have enough space for the actual sequence (at least pixel per nucleotide)
-				String seq = readPart.getSequencePart();
-				Cigar cigar = (Cigar) readPart.getRead().values.get(DataType.CIGAR);
-				if (readPart.isVisible()) {
-					if (rect.width < seq.length()) {
-						// Too little space - only show one rectangle for each read part
+			CigarOperator operator = reads.getCigarOperator(read, op);
+			int length = reads.getCigarLength(read, op);
 
-						Color color = getDefaultReadColor(readPart.getRead());
+			if (operator == CigarOperator.M || operator == CigarOperator.X || operator == CigarOperator.EQ) {
+				drawReadPart(g, reads, read, refPos, length, seqPos, y, color, refSeq);
 
-						// Mark last line that will be drawn
-						if (lastBeforeMaxStackingDepthCut) {
-							color = CUTOFF_COLOR;
-						}
+			} else if (operator == CigarOperator.D) {
+				int x = getX(refPos);
+				g.setColor(Color.black);
+				fillRect(g, x, y + 1, Math.max(2, (int) Math.floor(getView().bpWidth() * length)), GBrowserConstants.READ_HEIGHT - 2);
 
-						drawables.add(new RectDrawable(rect, color, color));
+			} else if (operator == CigarOperator.I) {
+				g.setColor(Color.black);
+				fillRect(g, getX(refPos), y - 2, 3, GBrowserConstants.READ_HEIGHT + 4);
+			}
+			
+			if (operator.consumesReferenceBases()) {
+				refPos += length;
+			}
+			if (operator.consumesReadBases()) {
+				seqPos += length;
+			}
+		}
+	}
 
-					} else {
-						// Enough space - show color coding for each nucleotide
+	private void drawReadPart(Graphics2D g, PackedReads reads, int read, int start, int length, int seqPos, int y, Color color, char[] refSeq) {
 
-						// Complement the read if on reverse strand
-						if ((Strand) readPart.getRead().values.get(DataType.STRAND) == Strand.REVERSE) {
+		int x = getX(start);
+		int width = Math.max(2, (int) Math.floor(getView().bpWidth() * length));
 
-							StringBuffer buf = new StringBuffer(seq.toUpperCase());
+		// Check if we have enough space for the actual sequence (at least pixel per nucleotide)
+		if (width < length || seqPos + length > reads.getSequenceLength(read)) {
+			// Too little space - only show one rectangle for each read part
+			g.setColor(color);
+			fillRect(g, x, y, width, GBrowserConstants.READ_HEIGHT);
+			return;
+		}
+		
+		// Enough space - show color coding for each nucleotide
+		boolean reverse = reads.getStrand(read) == Strand.REVERSE;
+		int viewStart = (int) getView().getBpRegion().start.bp;
+		
+		for (int j = 0; j < length; j++) {
 
-							// Complement
-							seq = buf.toString().replace('A', 'x'). // switch A and T
-									replace('T', 'A').replace('x', 'T').
+			char letter = Character.toUpperCase(reads.getBase(read, seqPos + j));
 
-									replace('C', 'x'). // switch C and G
-									replace('G', 'C').replace('x', 'G');
-						}
+			// Complement the read if on reverse strand
+			if (reverse) {
+				letter = complement(letter);
+			}
 
-						// Prepare to draw single nucleotides
-						float increment = getView().bpWidth();
-						float startX = getView().bpToTrackFloat(readPart.start);
-
-						// Draw each nucleotide
-						for (int j = 0; j < seq.length(); j++) {
-
-							char letter = seq.charAt(j);
-
-							long refIndex = j;
-
-							// Choose a color depending on viewing mode
-							Color bg = Color.white;
-							Color border = Color.white;
-							long posInRef = readPart.start.bp.intValue() + refIndex - getView().getBpRegion().start.bp.intValue();
-							if (highlightSNP && posInRef >= 0 && posInRef < refSeq.length && Character.toLowerCase(refSeq[(int)posInRef]) == Character.toLowerCase(letter)) {
-								bg = getDefaultReadColor(readPart.getRead());
-								border = bg;
-							} else {
-								switch (letter) {
-								case 'A':
-									bg = GBrowserConstants.charColors[0];
-									border = bg;
-									break;
-								case 'C':
-									bg = GBrowserConstants.charColors[1];
-									border = bg;
-									break;
-								case 'G':
-									bg = GBrowserConstants.charColors[2];
-									border = bg;
-									break;
-								case 'T':
-									bg = GBrowserConstants.charColors[3];
-									border = bg;
-									break;
-								case 'N':
-									bg = Color.white;
-									border = Color.gray;
-									break;
-								}
-							}
-
-							// Tell that we have reached max. stacking depth
-							if (lastBeforeMaxStackingDepthCut) {
-								bg = CUTOFF_COLOR;
-								border = bg;
-							}
-
-							// Draw rectangle
-							int x1 = Math.round(startX + ((float)refIndex) * increment);
-							int x2 = Math.round(startX + ((float)refIndex + 1f) * increment);
-							int width = Math.max(x2 - x1, 1);
-							drawables.add(new RectDrawable(x1, rect.y, width, GBrowserConstants.READ_HEIGHT, bg, border, cigar.toInfoString()));
+			// Choose a color depending on viewing mode
+			Color bg = Color.white;
+			Color border = Color.white;
+			long posInRef = start + j - viewStart;
+			if (highlightSNP && posInRef >= 0 && posInRef < refSeq.length && Character.toLowerCase(refSeq[(int)posInRef]) == Character.toLowerCase(letter)) {
+				bg = getDefaultReadColor(reads, read);
+				border = bg;
+			} else {
+				switch (letter) {
+				case 'A':
+					bg = GBrowserConstants.charColors[0];
+					border = bg;
+					break;
+				case 'C':
+					bg = GBrowserConstants.charColors[1];
+					border = bg;
+					break;
+				case 'G':
+					bg = GBrowserConstants.charColors[2];
+					border = bg;
+					break;
+				case 'T':
+					bg = GBrowserConstants.charColors[3];
+					border = bg;
+					break;
+				case 'N':
+					bg = Color.white;
+					border = Color.gray;
+					break;
+				}
+			}
 
-						}
-					}
-				} else if (readPart.getCigarItem() != null) { //invisible cigar type
+			// Tell that we have reached max. stacking depth
+			if (color == CUTOFF_COLOR) {
+				bg = CUTOFF_COLOR;
+				border = bg;
+			}
 
-					if (readPart.getCigarItem().getCigarItemType().equals(CigarItemType.D)) {
-						Color color = Color.black;
+			int x1 = getX(start + j);
+			int x2 = getX(start + j + 1);
+			int baseWidth = Math.max(x2 - x1, 1);
+			
+			g.setColor(bg);
+			fillRect(g, x1, y, baseWidth, GBrowserConstants.READ_HEIGHT);
+			if (border != bg) {
+				g.setColor(border);
+				drawRect(g, x1, y, baseWidth, GBrowserConstants.READ_HEIGHT);
+			}
+		}
+	}
 
-						rect.grow(0, -1);
+	private static char complement(char base) {
+		switch (base) {
+		case 'A':
+			return 'T';
+		case 'T':
+			return 'A';
+		case 'C':
+			return 'G';
+		case 'G':
+			return 'C';
+		default:
+			return base;
+		}
+	}
 
-						drawables.add(new RectDrawable(rect, color, null));
-					}
+	/**
+	 * Convert bp position to image x coordinate.
+	 */
+	private int getX(long bp) {
+		return (int) Math.round((bp - getView().getBpRegionDouble().start.bp) * getView().bpWidth());
+	}
 
-					if (readPart.getCigarItem().getCigarItemType().equals(CigarItemType.I)) {
-						Color color = Color.black;
+	/**
+	 * Fill a rectangle given in track coordinates, which grow upwards from the bottom 
+	 * unless the track is reversed.
+	 */
+	private void fillRect(Graphics2D g, int x, int y, int width, int height) {
+		g.fillRect(x, getImageY(y, height), width, height);
+	}
 
-						//drawables.add(new LineDrawable(rect.x, rect.y - 1, rect.x, rect.y + rect.height + 2, color));
-						drawables.add(new RectDrawable(rect.x, rect.y - 2, 3, rect.height + 4, color, color));
+	private void drawRect(Graphics2D g, int x, int y, int width, int height) {
+		g.drawRect(x, getImageY(y, height), width - 1, height - 1);
+	}
 
-					}					
-				}
-			}			
-		}
-		
-		return drawables;
+	private int getImageY(int y, int height) {
+		return isReversed() ? y : image.getHeight() - y - height;
 	}
 
-	private Color getDefaultReadColor(Feature read) {
-		if (markMultimappingReads) {
-			if (read.values.containsKey(DataType.BAM_TAG_NH)) {
-				Integer alignments = (Integer)read.values.get(DataType.BAM_TAG_NH);
-				if (alignments != null && alignments > 1) {
-					return Color.lightGray;
-				}
-			}
+	private Color getDefaultReadColor(PackedReads reads, int read) {
+		if (markMultimappingReads && reads.isMultimapping(read)) {
+			return Color.lightGray;
 		}
 		return Color.gray;
 	}
@@ -267,88 +395,70 @@ public class ReadPileTrack extends Track {
 		return (int) (yCoord / (GBrowserConstants.READ_HEIGHT + GBrowserConstants.SPACE_BETWEEN_READS));
 	}
 
+	private int getMaxLayers() {
+		if (getLayoutMode() == LayoutMode.FULL) {
+			return MAX_FULL_HEIGHT;				
+		} else {
+			return getLayer(getLayoutComponent().getHeight());				
+		}
+	}
+
 	public void processDataResult(DataResult dataResult) {
 		
-		Collection<CigarItemType> splitters = new HashSet<CigarItemType>();
-		splitters.add(CigarItemType.N);
-
 		for (Feature feature : dataResult.getFeatures()) {
-			if (feature.values.get(DataType.STRAND) == this.getStrand() && feature.values.containsKey(DataType.SEQUENCE)) {
-				
-				// Skip elements that are not in this view
-				if (!getView().requestIntersects(feature.region)) {
-					continue;
-				}
-
-				List<Feature> reads = Cigar.splitRead(feature, splitters);
-				
-				for (Feature featureRead : reads) {
-					
-					Read read = new Read(featureRead);
-					dividedReads.add(read);
-				}
-				
+			PackedReads reads = (PackedReads) feature.values.get(DataType.PACKED_READS);
+			if (reads != null) {
+				newReads.add(reads);
 			}
 		}
 		
 		if (dataResult.getStatus().getDataThread() == refData) {			
 			this.referenceSequenceFeatures.addAll(dataResult.getFeatures());
+			imageValid = false;
 		}
 		
 		// do layout immediately to remove useless data
-		doLayout();
+		scheduleLayout();
 	}
 	
-    private void doLayout() {
-    	
-		Iterator<Read> splittedReadIter = dividedReads.iterator();
-		Read splittedRead = null;
+	/**
+	 * Update the layout in the background thread. The thread takes all new reads at once, 
+	 * so the layout is done only once, if the reads come faster than those can be laid out.
+	 */
+	private void scheduleLayout() {
 		
-		List<Long> occupiedSpace = new ArrayList<>();
+		Region request = getView().getRequestRegion();
 		
-		while (splittedReadIter.hasNext()) {
-			splittedRead = splittedReadIter.next();
-
-			if (!getView().requestIntersects(splittedRead.region)) {
-				splittedReadIter.remove();
-				continue;
-			}
-
-			// Read parts are drawn in order and placed in layers
-			int layer = 0;
-			while (occupiedSpace.size() > layer && occupiedSpace.get(layer) > splittedRead.region.start.bp + 1) {
-				layer++;
-			}
+		if (request == null) {
+			return;
+		}
+		
+		// values of this moment for the background thread
+		layoutRegion = new Region(request.start.bp, request.end.bp, request.start.chr);
+		layoutMaxLayers = getMaxLayers();
+		
+		if (layoutScheduled.compareAndSet(false, true)) {
+			layoutExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					layoutScheduled.set(false);
 					
-			// Read part reserves the space of the layer from end to left corner of the screen
-			long end = splittedRead.region.end.bp;
-			if (occupiedSpace.size() > layer) {
-				occupiedSpace.set(layer, end);
-			} else {
-				occupiedSpace.add(end);
-			}
-									
-			int maxHeight;
-			
-			if (getLayoutMode() == LayoutMode.FULL) {
-								
-				maxHeight = MAX_FULL_HEIGHT;				
-			} else {
-				maxHeight = getLayer(getLayoutComponent().getHeight());				
-			}
-			
-			// Check if we are about to go over the edge of the drawing area
-			boolean lastBeforeMaxStackingDepthCut = layer + 1 >= maxHeight;
-
-			
-			// Check if we are over the edge of the drawing area
-			if (layer > maxHeight) {					
-				splittedReadIter.remove();
-				continue;
-			}
-			
-			splittedRead.setLayer(layer);
-			splittedRead.setWarning(lastBeforeMaxStackingDepthCut);	
+					List<PackedReads> batches = new ArrayList<>();
+					PackedReads reads;
+					while ((reads = newReads.poll()) != null) {
+						batches.add(reads);
+					}
+					
+					layout = ReadPileLayout.create(layout, batches, getStrand(), layoutRegion, layoutMaxLayers);
+					
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							getView().redraw();
+						}
+					});
+				}
+			});
 		}
 	}
 
@@ -359,6 +469,7 @@ public class ReadPileTrack extends Track {
 		addDataType(DataType.STRAND);
 		addDataType(DataType.CIGAR);
 		addDataType(DataType.BAM_TAG_NH);
+		addDataType(DataType.PACKED_READS);
 		
 		// We might also need reference sequence data
 		if (highlightSNP && this.getView().getBpRegion().getLength() < this.getView().getWidth() * 2) {
@@ -375,6 +486,7 @@ public class ReadPileTrack extends Track {
 	 */
 	public void setSNPHighlight(boolean highlightSnp) {
 		this.highlightSNP = highlightSnp;
+		imageValid = false;
 	}
 
 	/**
@@ -384,8 +496,8 @@ public class ReadPileTrack extends Track {
 		char[] refSeq = new char[0];
 		Iterator<Feature> iter = refFeatures.iterator();
 		refSeq = new char[view.getBpRegion().getLength().intValue() + 1];
-		int startBp = view.getBpRegion().start.bp.intValue();
-		int endBp = view.getBpRegion().end.bp.intValue();
+		int startBp = (int) view.getBpRegion().start.bp;
+		int endBp = (int) view.getBpRegion().end.bp;
 		Feature feature;
 		while (iter.hasNext()) {
 			feature = iter.next();
@@ -403,7 +515,7 @@ public class ReadPileTrack extends Track {
 					readBases = ((String) feature.values.get(DataType.SEQUENCE)).toCharArray();
 				}
 
-				int readStart = feature.region.start.bp.intValue();
+				int readStart = (int) feature.region.start.bp;
 				int readNum = 0;
 				int nextPos = 0;
 				for (char c : readBases) {
@@ -444,5 +556,6 @@ public class ReadPileTrack extends Track {
 
 	public void setMarkMultimappingReads(boolean markMultimappingReads) {
 		this.markMultimappingReads = markMultimappingReads;
+		imageValid = false;
 	}
 }
@@ -5,9 +5,7 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.geom.Ellipse2D;
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Map;
 
 import javax.swing.JComponent;
 
@@ -25,7 +23,6 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.Data
 public class StatusAnimation extends JComponent implements DataResultListener {
 	
 	private static final long VISIBLE_AFTER = 100; //ms
-	private Map<DataThread, Long> queueLengths = new HashMap<DataThread, Long>();
 	private double angle;
 	private long previousTime;
 	private long hideTime = 0;
@@ -87,26 +84,15 @@ public class StatusAnimation extends JComponent implements DataResultListener {
 	private long getMaxQueueLength() {
 		long max = 0; 
 		
-		for (Long value : queueLengths.values()) {
-			max = Math.max(max, value);
+		for (DataThread dataThread : dataThreads) {
+			max = Math.max(max, dataThread.getQueueLength());
 		}
 		
 		return max;
 	}
 
 	public void processDataResult(DataResult dataResult) {
-
-		DataThread dataThread = dataResult.getStatus().getDataThread();
-		
-		if (dataResult.getStatus().getDataRequestCount() >= 0) {
-						
-			if (!queueLengths.containsKey(dataThread)) {
-				queueLengths.put(dataThread, 0l);
-			}
-
-			Long value = dataResult.getStatus().getDataRequestCount(); 
-			queueLengths.put(dataThread, value);
-		}
+		// queue lengths are polled from the data threads when painting
 	}
 
 	public void addDataThread(DataThread dataThread) {
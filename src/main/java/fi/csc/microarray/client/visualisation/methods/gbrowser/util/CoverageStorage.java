@@ -37,7 +37,11 @@ public class CoverageStorage {
 		if (request != null) {
 			if (request.getRequestedContents().contains(DataType.COVERAGE_AVERAGE)) {
 
-				CoverageTool.convertRegionContentListToFloatList(dataResult.getFeatures(), forwardAverages, reverseAverages);		
+				if (dataResult.getFeatureBatch() != null) {
+					CoverageTool.convertFeatureBatchToFloatList(dataResult.getFeatureBatch(), forwardAverages, reverseAverages);
+				} else {
+					CoverageTool.convertRegionContentListToFloatList(dataResult.getFeatures(), forwardAverages, reverseAverages);
+				}
 				filterAverages(forwardAverages, filterRegion);
 				filterAverages(reverseAverages, filterRegion);
 				totalAveragesNeedsRefresh = true;				
@@ -2,23 +2,30 @@ package fi.csc.microarray.client.visualisation.methods.gbrowser.util;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.BedLineParser;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.RandomAccessLineReader;
+import fi.csc.microarray.util.IOUtils;
 import fi.csc.microarray.util.Strings;
 
 /**
@@ -30,6 +37,12 @@ import fi.csc.microarray.util.Strings;
 public class RegionOperations {
 
 	private static final String EMPTY_EXTRA_FIELDS = "";
+	
+	/**
+	 * Characters collected to memory in {@link #splitByChromosome(File, File, String)} 
+	 * before those are written to the files.
+	 */
+	private static final int SPLIT_BUFFER_LENGTH = 16 * 1024 * 1024;
 
 	public static void main(String[] args) throws FileNotFoundException, IOException, GBrowserException {
 		RegionOperations tool = new RegionOperations();
@@ -274,6 +287,84 @@ public class RegionOperations {
 		return regions;
 	}
 
+	/**
+	 * Splits a BED file to a file per chromosome, so that the chromosomes can be
+	 * processed separately. Lines are collected to memory and appended to the 
+	 * chromosome files when there are too many of them, so that neither the memory 
+	 * usage nor the number of open files depends on the size of the genome. Header 
+	 * rows are dropped.
+	 * 
+	 * @param input BED file
+	 * @param dir directory for the chromosome files
+	 * @param prefix prefix for the names of the chromosome files
+	 * @return chromosome files in chromosome order
+	 * @throws URISyntaxException 
+	 * @throws GBrowserException 
+	 */
+	public TreeMap<Chromosome, File> splitByChromosome(File input, File dir, String prefix) throws FileNotFoundException, IOException, URISyntaxException, GBrowserException {
+
+		TreeMap<Chromosome, File> files = new TreeMap<Chromosome, File>();
+		HashMap<Chromosome, StringBuilder> buffers = new HashMap<Chromosome, StringBuilder>();
+		long bufferedLength = 0;
+
+		DataUrl dataUrl = new DataUrl(input);
+		RandomAccessLineReader lineReader = new RandomAccessLineReader(dataUrl);
+		lineReader.setPosition(0);
+
+		try {
+			BedLineParser parser = new BedLineParser(false);
+			String line;
+
+			while ((line = lineReader.readLine()) != null) {
+
+				parser.setLine(line);
+				Region region = parser.getRegion();
+
+				if (region == null) {
+					//header
+					continue;
+				}
+
+				Chromosome chr = region.start.chr;
+				if (!files.containsKey(chr)) {
+					files.put(chr, new File(dir, prefix + files.size() + ".bed"));
+				}
+
+				StringBuilder buffer = buffers.get(chr);
+				if (buffer == null) {
+					buffer = new StringBuilder();
+					buffers.put(chr, buffer);
+				}
+				buffer.append(line).append('\n');
+				bufferedLength += line.length() + 1;
+
+				if (bufferedLength > SPLIT_BUFFER_LENGTH) {
+					appendBuffers(files, buffers);
+					bufferedLength = 0;
+				}
+			}
+
+			appendBuffers(files, buffers);
+
+		} finally {
+			lineReader.close();
+		}
+
+		return files;
+	}
+
+	private void appendBuffers(Map<Chromosome, File> files, Map<Chromosome, StringBuilder> buffers) throws IOException {
+		for (Entry<Chromosome, StringBuilder> entry : buffers.entrySet()) {
+			Writer writer = new FileWriter(files.get(entry.getKey()), true);
+			try {
+				writer.append(entry.getValue());
+			} finally {
+				IOUtils.closeIfPossible(writer);
+			}
+		}
+		buffers.clear();
+	}
+
 	/**
 	 * Parses region from a BED text formatted String.
 	 * 
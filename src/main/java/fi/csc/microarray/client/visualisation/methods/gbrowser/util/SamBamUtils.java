@@ -10,11 +10,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
 
 import fi.csc.microarray.util.IOUtils;
+import htsjdk.samtools.BAMIndex;
 import htsjdk.samtools.BAMIndexer;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.SAMFileHeader;
@@ -60,6 +66,12 @@ public class SamBamUtils {
 	}
 	
 	
+	// report progress after this many records
+	private static final int PROGRESS_INTERVAL = 100000;
+	
+	// share of the progress bar for reading the input, the rest is for writing the sorted records
+	private static final double READ_PERCENTAGE = 66;
+	
 	private SamBamUtilStateListener stateListener;
 	private ChromosomeNormaliser chromosomeNormaliser = new ChromosomeNormaliser() {
 
@@ -141,6 +153,31 @@ public class SamBamUtils {
 	}
 
 	
+	/**
+	 * Alter the chromosome names in header's SAMSequenceDictionary. The order of the 
+	 * chromosomes is kept, so the reference indexes of the records stay valid.
+	 * 
+	 * @param header
+	 */
+	private void normaliseHeader(SAMFileHeader header) {
+		
+		SAMSequenceDictionary normalisedDictionary = new SAMSequenceDictionary();
+		for (SAMSequenceRecord sequenceRecord : header.getSequenceDictionary().getSequences()) {
+
+			// Normalise chromosome
+			String sequenceName = chromosomeNormaliser.normaliseChromosome(sequenceRecord.getSequenceName());
+			normalisedDictionary.addSequence(new SAMSequenceRecord(sequenceName, sequenceRecord.getSequenceLength()));
+		}
+		header.setSequenceDictionary(normalisedDictionary);
+	}
+	
+	private static String getSequenceName(SAMFileHeader header, int index) {
+		if (index == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+			return SAMRecord.NO_ALIGNMENT_REFERENCE_NAME;
+		}
+		return header.getSequence(index).getSequenceName();
+	}
+	
 	public void normaliseBam(File bamFile, File normalisedBamFile) {
 
 		// Read in a BAM file and its header
@@ -149,16 +186,7 @@ public class SamBamUtils {
 		SAMFileWriter writer = null;
 		try {
 			SAMFileHeader normalisedHeader = reader.getFileHeader();
-
-			// Alter the chromosome names in header's SAMSequenceDictionary
-			SAMSequenceDictionary normalisedDictionary = new SAMSequenceDictionary();
-			for (SAMSequenceRecord sequenceRecord : normalisedHeader.getSequenceDictionary().getSequences()) {
-
-				// Normalise chromosome
-				String sequenceName = chromosomeNormaliser.normaliseChromosome(sequenceRecord.getSequenceName());
-				normalisedDictionary.addSequence(new SAMSequenceRecord(sequenceName, sequenceRecord.getSequenceLength()));
-			}
-			normalisedHeader.setSequenceDictionary(normalisedDictionary);
+			normaliseHeader(normalisedHeader);
 
 			// Write new BAM file with normalised chromosome names
 			writer = new SAMFileWriterFactory().makeBAMWriter(normalisedHeader, true, normalisedBamFile);
@@ -215,21 +243,73 @@ public class SamBamUtils {
 		}
 	}
 
+	/**
+	 * Sort, normalise and index a SAM or BAM file in one pass. The chromosome names are changed
+	 * in the header before the records are read, the records are sorted in memory and in temporary 
+	 * files when there are too many of them and the index is created while the sorted records are 
+	 * written. Compression runs in its own thread.
+	 * 
+	 * @param samBamFile
+	 * @param preprocessedBamFile
+	 * @param baiFile
+	 * @throws IOException
+	 */
 	public void preprocessSamBam(File samBamFile, File preprocessedBamFile, File baiFile) throws IOException {
 		
-		// Sort
 		updateState("sorting", 0);
-		File sortedTempBamFile = File.createTempFile("sorted", "bam");
-		sortSamBam(samBamFile, sortedTempBamFile);
 		
-		// Normalise (input must be BAM)
-		updateState("normalising", 33.3);
-		normaliseBam(sortedTempBamFile, preprocessedBamFile);
-		sortedTempBamFile.delete();
-
-		// Index
-		updateState("indexing", 66);
-		indexBam(preprocessedBamFile, baiFile);
+		SAMFileReader.setDefaultValidationStringency(ValidationStringency.SILENT);
+		CountingInputStream countingStream = new CountingInputStream(new FileInputStream(samBamFile));
+		InputStream in = countingStream;
+		if (samBamFile.getName().endsWith(".gz")) {
+			in = new GZIPInputStream(in);
+		}
+		
+		SAMFileReader reader = new SAMFileReader(in);
+		SAMFileWriter writer = null;
+		try {
+			// reader needs the original names to parse the records
+			SAMFileHeader header = reader.getFileHeader().clone();
+			header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+			normaliseHeader(header);
+			
+			writer = new SAMFileWriterFactory()
+					.setCreateIndex(true)
+					.setUseAsyncIo(true)
+					.makeBAMWriter(header, false, preprocessedBamFile);
+			
+			long length = samBamFile.length();
+			long count = 0;
+			
+			for (SAMRecord rec : reader) {
+				// writer finds the chromosomes by name, so give the normalised names for the original indexes
+				int referenceIndex = rec.getReferenceIndex();
+				int mateReferenceIndex = rec.getMateReferenceIndex();
+				rec.setHeader(null);
+				rec.setReferenceName(getSequenceName(header, referenceIndex));
+				rec.setMateReferenceName(getSequenceName(header, mateReferenceIndex));
+				writer.addAlignment(rec);
+				
+				if (++count % PROGRESS_INTERVAL == 0 && length > 0) {
+					updateState("sorting", READ_PERCENTAGE * countingStream.getByteCount() / length);
+				}
+			}
+			
+			// sorted records are written and indexed when the writer is closed
+			updateState("writing", READ_PERCENTAGE);
+			writer.close();
+			writer = null;
+			
+		} finally {
+			closeIfPossible(reader);
+			closeIfPossible(writer);
+		}
+		
+		// the index is created next to the bam file
+		File createdIndex = new File(preprocessedBamFile.getParentFile(), IOUtil.basename(preprocessedBamFile) + BAMIndex.BAMIndexSuffix);
+		if (!createdIndex.equals(baiFile)) {
+			Files.move(createdIndex.toPath(), baiFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
 		updateState("done", 100);
 	}
 
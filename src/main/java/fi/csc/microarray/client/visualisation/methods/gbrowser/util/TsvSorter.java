@@ -1,24 +1,61 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.springframework.util.StringUtils;
 
-import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.AbstractTsvLineParser;
 import fi.csc.microarray.util.IOUtils;
 import fi.csc.microarray.util.Strings;
 
+/**
+ * Sorts tab separated files by chromosome and start position. The file is read in chunks, which 
+ * are sorted in parallel and written to compressed chunk files. The chunk files are merged 
+ * with a heap. Rows with equal chromosome and start position keep their original order. 
+ */
 public class TsvSorter {
+	
+	private static final long MIN_CHUNK_CHARS = 1000000;
+	private static final long MAX_CHUNK_CHARS = 100000000;
+	
+	// row index in the lowest bits of the sort key
+	private static final int INDEX_BITS = 22;
+	private static final long INDEX_MASK = (1l << INDEX_BITS) - 1;
+	private static final int MAX_CHUNK_LINES = 1 << INDEX_BITS;
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
 
 	private int chrCol;
 	private int bpCol;
@@ -40,6 +77,9 @@ public class TsvSorter {
 	
 	private AbstractTsvLineParser parser;
 	
+	// zero to choose the chunk size according to the available memory
+	private long chunkChars = 0;
+	
 	public void sort(File in, File out, int chrColumn, int startColumn) throws Exception {
 		this.chrCol = chrColumn;
 		this.bpCol = startColumn;
@@ -51,26 +91,46 @@ public class TsvSorter {
 		sort(in, out, chrColumn, startColumn);
 	}	
 
-	private class Row extends BpCoord {
+	/**
+	 * Set the approximate size of the sorted chunks in characters. Only small files are 
+	 * split to many chunks with the default size, so this is mainly useful in tests. 
+	 * 
+	 * @param chunkChars
+	 */
+	void setChunkChars(long chunkChars) {
+		this.chunkChars = chunkChars;
+	}
+
+	/**
+	 * Chromosome and start position of a line. Columns are searched without splitting the whole line. 
+	 */
+	private class Row {
 
 		public String line;
+		public String chr;
+		public long bp;
 
 		public Row(String line) {
-			super(null, null);
 
 			this.line = line;
-			String[] splitted = line.split("\t");
-			String chrStr = splitted.length > chrCol ? splitted[chrCol] : "";
+			
+			String chrStr = getColumn(line, chrCol);
 			
 			// If chromosome name exists, normalise it
 			if (!chrStr.isEmpty()) {
-				chrStr = chromosomeNormaliser.normaliseChromosome(chrStr);
-				splitted[chrCol] = chrStr;
-				this.line = Strings.delimit(Arrays.asList(splitted), "\t"); // replace back to raw line
+				String normalised = chromosomeNormaliser.normaliseChromosome(chrStr);
+				
+				// splitting drops empty columns from the end of the line
+				if (!normalised.equals(chrStr) || line.endsWith("\t")) {
+					String[] splitted = line.split("\t");
+					splitted[chrCol] = normalised;
+					this.line = Strings.delimit(Arrays.asList(splitted), "\t"); // replace back to raw line
+				}
+				chrStr = normalised;
 			}
-			String bpStr = splitted.length > bpCol ? splitted[bpCol] : "";
+			String bpStr = getColumn(line, bpCol);
 
-			chr = new Chromosome(chrStr);
+			chr = chrStr;
 
 			if (bpStr.isEmpty()) {
 				bp = -1l;
@@ -79,8 +139,211 @@ public class TsvSorter {
 			}
 		}
 	}
+	
+	/**
+	 * @return column of the line or an empty string if there is no such column
+	 */
+	private static String getColumn(String line, int column) {
+		int start = 0;
+		for (int i = 0; i < column; i++) {
+			start = line.indexOf('\t', start) + 1;
+			if (start == 0) {
+				return "";
+			}
+		}
+		int end = line.indexOf('\t', start);
+		return end == -1 ? line.substring(start) : line.substring(start, end);
+	}
+	
+	/**
+	 * Sorted rows of one chunk. Chromosomes are numbered in their sort order inside the chunk.
+	 */
+	private static class SortedChunk {
+		private File file;
+		private String[] chromosomes;
+	}
+
+	/**
+	 * Sort the rows of a chunk and write them to a compressed chunk file. Rows are first
+	 * grouped by chromosome and then sorted by a primitive key, which has the start position in
+	 * the highest bits and the original row index in the lowest bits, so that equal rows keep their order.
+	 */
+	private class ChunkSorter implements Callable<SortedChunk> {
+		
+		private List<String> lines;
+		private File file;
+
+		public ChunkSorter(List<String> lines, File file) {
+			this.lines = lines;
+			this.file = file;
+		}
+
+		@Override
+		public SortedChunk call() throws IOException {
+			
+			int count = lines.size();
+			Row[] rows = new Row[count];
+			TreeMap<Chromosome, String> chromosomeMap = new TreeMap<Chromosome, String>();
+			HashSet<String> chromosomeNames = new HashSet<String>();
+			
+			for (int i = 0; i < count; i++) {
+				rows[i] = new Row(lines.get(i));
+				if (chromosomeNames.add(rows[i].chr)) {
+					Chromosome chr = Chromosome.valueOf(rows[i].chr);
+					if (!chromosomeMap.containsKey(chr)) {
+						chromosomeMap.put(chr, rows[i].chr);
+					}
+				}
+			}
+			lines = null;
+
+			// chromosome names that are equal after Chromosome normalisation are sorted together, like before 
+			HashMap<String, Integer> ranks = new HashMap<String, Integer>();
+			String[] chromosomes = new String[chromosomeMap.size()];
+			for (String chr : chromosomeMap.values()) {
+				ranks.put(chr, ranks.size());
+				chromosomes[ranks.size() - 1] = chr;
+			}
+			
+			int[] rowRanks = new int[count];
+			int[] bucketStarts = new int[chromosomes.length + 1];
+			for (int i = 0; i < count; i++) {
+				rowRanks[i] = getRank(ranks, chromosomeMap, rows[i].chr);
+				bucketStarts[rowRanks[i] + 1]++;
+			}
+			for (int i = 0; i < chromosomes.length; i++) {
+				bucketStarts[i + 1] += bucketStarts[i];
+			}
+
+			// stable counting sort by chromosome
+			int[] order = new int[count];
+			int[] next = Arrays.copyOf(bucketStarts, chromosomes.length);
+			for (int i = 0; i < count; i++) {
+				order[next[rowRanks[i]]++] = i;
+			}
+			
+			for (int bucket = 0; bucket < chromosomes.length; bucket++) {
+				sortByPosition(rows, order, bucketStarts[bucket], bucketStarts[bucket + 1]);
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new DeflaterOutputStream(new FileOutputStream(file), new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE), BUFFER_SIZE))) {
+				
+				for (int i = 0; i < count; i++) {
+					Row row = rows[order[i]];
+					byte[] bytes = row.line.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(rowRanks[order[i]]);
+					out.writeLong(row.bp);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+			
+			SortedChunk chunk = new SortedChunk();
+			chunk.file = file;
+			chunk.chromosomes = chromosomes;
+			return chunk;
+		}
+		
+		private int getRank(HashMap<String, Integer> ranks, TreeMap<Chromosome, String> chromosomeMap, String chr) {
+			Integer rank = ranks.get(chr);
+			if (rank == null) {
+				// other name of the same chromosome
+				rank = ranks.get(chromosomeMap.get(Chromosome.valueOf(chr)));
+				ranks.put(chr, rank);
+			}
+			return rank;
+		}
+
+		private void sortByPosition(Row[] rows, int[] order, int from, int to) {
+			
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (int i = from; i < to; i++) {
+				min = Math.min(min, rows[order[i]].bp);
+				max = Math.max(max, rows[order[i]].bp);
+			}
+			
+			if (to - from <= 1) {
+				return;
+			}
+			
+			if (max - min >= 1l << (63 - INDEX_BITS) || max - min < 0) {
+				// too large range for the packed key, sort the boxed indexes
+				Integer[] boxed = new Integer[to - from];
+				for (int i = from; i < to; i++) {
+					boxed[i - from] = order[i];
+				}
+				Arrays.sort(boxed, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer o1, Integer o2) {
+						return Long.compare(rows[o1].bp, rows[o2].bp);
+					}
+				});
+				for (int i = from; i < to; i++) {
+					order[i] = boxed[i - from];
+				}
+				return;
+			}
+			
+			// rows are in the original order inside the bucket 
+			long[] keys = new long[to - from];
+			for (int i = from; i < to; i++) {
+				keys[i - from] = (rows[order[i]].bp - min) << INDEX_BITS | (i - from);
+			}
+			Arrays.sort(keys);
+			
+			int[] bucket = Arrays.copyOfRange(order, from, to);
+			for (int i = from; i < to; i++) {
+				order[i] = bucket[(int) (keys[i - from] & INDEX_MASK)];
+			}
+		}
+	}
+
+	/**
+	 * Read the rows of a chunk file in the merge.
+	 */
+	private static class ChunkReader {
+		
+		private DataInputStream in;
+		private int[] globalRanks;
+		private int chunkIndex;
+		
+		private int rank;
+		private long bp;
+		private String line;
+
+		public ChunkReader(File file, int[] globalRanks, int chunkIndex) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file), new Inflater(), BUFFER_SIZE), BUFFER_SIZE));
+			this.globalRanks = globalRanks;
+			this.chunkIndex = chunkIndex;
+		}
+		
+		/**
+		 * @return false if there are no more rows
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException {
+			try {
+				rank = globalRanks[in.readInt()];
+			} catch (EOFException e) {
+				return false;
+			}
+			bp = in.readLong();
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			line = new String(bytes, StandardCharsets.UTF_8);
+			return true;
+		}
+		
+		public void close() {
+			IOUtils.closeIfPossible(in);
+		}
+	}
 
 	/**
+	 * Read the file in chunks, sort the chunks in parallel and merge the chunk files.
+	 * 
 	 * Based on http://www.codeodor.com/index.cfm/2007/5/14/Re-Sorting-really-BIG-files---the-Java-source-code/1208
 	 * 
 	 * @param infile
@@ -119,177 +382,151 @@ public class TsvSorter {
 			}					
 		}
 
-		// Create and sort chunks
-		ArrayList<Row> rowBatch = new ArrayList<Row>(500000);
-		boolean quit = false;
-		int numFiles = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		
+		// sorted chunks and the chunks that are read, but not sorted yet, must fit in memory   
+		int maxChunks = threads + 1;
+		long chunkChars = this.chunkChars;
+		if (chunkChars <= 0) {
+			chunkChars = Math.max(MIN_CHUNK_CHARS, Math.min(MAX_CHUNK_CHARS, Runtime.getRuntime().maxMemory() / 8 / maxChunks));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final Semaphore chunkPermits = new Semaphore(maxChunks);
+		List<Future<SortedChunk>> futures = new ArrayList<Future<SortedChunk>>();
+		List<SortedChunk> chunks = new ArrayList<SortedChunk>();
+		
+		try {
+			// Create and sort chunks
+			boolean quit = false;
 
-		while (!quit) {
+			while (!quit) {
 
-			// showProgress("Reading...");
+				// wait until there is room for a new chunk
+				chunkPermits.acquire();
 
-			// limit chunks to 100MB
-			int size = 0;
-			while (size < 100000000) {
-				// while (size < 10000000) {
-				String line = initReader.readLine();
+				List<String> lines = new ArrayList<String>();
+				long size = 0;
+				while (size < chunkChars && lines.size() < MAX_CHUNK_LINES) {
+					String line = initReader.readLine();
 
-				if (line == null) {
-					quit = true;
-					break;
+					if (line == null) {
+						quit = true;
+						break;
+					}
+
+					lines.add(line);
+					size += line.length();
 				}
 
-				rowBatch.add(new Row(line));
-				size += line.length();
+				final ChunkSorter sorter = new ChunkSorter(lines, new File(infile + "_chunk" + futures.size()));
+				futures.add(executor.submit(new Callable<SortedChunk>() {
+					@Override
+					public SortedChunk call() throws Exception {
+						try {
+							return sorter.call();
+						} finally {
+							chunkPermits.release();
+						}
+					}
+				}));
 			}
-
-			// showProgress("Sorting...");
-
-			// Use Java's sort.
-			Collections.sort(rowBatch);
-
-			// showProgress("Writing...");
-
-			// write to disk
-			FileWriter fw = new FileWriter(infile + "_chunk" + numFiles);
-			BufferedWriter bw = new BufferedWriter(fw);
-			for (int i = 0; i < rowBatch.size(); i++) {
-				bw.append(rowBatch.get(i).line + "\n");
+			
+			for (Future<SortedChunk> future : futures) {
+				chunks.add(future.get());
+			}
+			
+			mergeFiles(chunks, outfile, header);
+			
+		} catch (InterruptedException e) {
+			throw new IOException("sorting interrupted", e);
+			
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new GBrowserException("Error in sorting: " + e.getCause().getMessage());
+			
+		} finally {
+			executor.shutdownNow();
+			initReader.close();
+			
+			// Delete all of the chunk files.
+			for (int i = 0; i < futures.size(); i++) {
+				new File(infile + "_chunk" + i).delete();
 			}
-			bw.close();
-			numFiles++;
-			rowBatch.clear();
 		}
-
-		// showProgress("Merging...");
-
-		mergeFiles(infile.getAbsolutePath(), outfile, numFiles, header);
-
-		// showProgress("DONE");
-
-		initReader.close();
 	}
 
-	private void mergeFiles(String inputFilePath, File outputFilePath, int numChunkFiles, String header) throws IOException, GBrowserException {
+	private void mergeFiles(List<SortedChunk> chunks, File outputFilePath, String header) throws IOException {
 
+		// number the chromosomes of all chunks in their sort order
+		TreeMap<Chromosome, Integer> globalOrder = new TreeMap<Chromosome, Integer>();
+		for (SortedChunk chunk : chunks) {
+			for (String chr : chunk.chromosomes) {
+				globalOrder.put(Chromosome.valueOf(chr), -1);
+			}
+		}
+		int rank = 0;
+		for (Chromosome chr : globalOrder.keySet()) {
+			globalOrder.put(chr, rank++);
+		}
+		
+		// heap of chunks ordered by their current row, the first chunk first when rows are equal
+		PriorityQueue<ChunkReader> heap = new PriorityQueue<ChunkReader>(Math.max(1, chunks.size()), new Comparator<ChunkReader>() {
+			@Override
+			public int compare(ChunkReader o1, ChunkReader o2) {
+				if (o1.rank != o2.rank) {
+					return Integer.compare(o1.rank, o2.rank);
+				}
+				if (o1.bp != o2.bp) {
+					return Long.compare(o1.bp, o2.bp);
+				}
+				return Integer.compare(o1.chunkIndex, o2.chunkIndex);
+			}
+		});
 		
-		// Initialise
-		ArrayList<BufferedReader> mergefbr = new ArrayList<BufferedReader>();
-		ArrayList<Row> filerows = new ArrayList<Row>();
-		FileWriter fw = new FileWriter(outputFilePath);
-		BufferedWriter bw = new BufferedWriter(fw);
+		List<ChunkReader> readers = new ArrayList<ChunkReader>();
+		BufferedWriter bw = new BufferedWriter(new FileWriter(outputFilePath), BUFFER_SIZE);
 
 		try {
 			// Write header, if needed
 			if (!header.isEmpty()) {
 				bw.append(header);	
 			}		
-
-			// Merge chunks
-			boolean someFileStillHasRows = false;
-			for (int i = 0; i < numChunkFiles; i++) {
-				mergefbr.add(new BufferedReader(new FileReader(inputFilePath + "_chunk" + i)));
-
-				// get the first row
-				String line = mergefbr.get(i).readLine();
-				if (line != null) {
-					filerows.add(new Row(line));
-					someFileStillHasRows = true;
-				} else {
-					filerows.add(null);
-				}
-			}
-
-			Row row;
-			while (someFileStillHasRows) {
-				Row min;
-				int minIndex = 0;
-
-				row = filerows.get(0);
-				if (row != null) {
-					min = row;
-					minIndex = 0;
-				} else {
-					min = null;
-					minIndex = -1;
-				}
-
-				// check which one is min
-				for (int i = 1; i < filerows.size(); i++) {
-					row = filerows.get(i);
-					if (min != null) {
-
-						if (row != null && (row.compareTo(min) < 0)) {
-							minIndex = i;
-							min = filerows.get(i);
-						}
-					} else {
-						if (row != null) {
-							min = row;
-							minIndex = i;
-						}
-					}
-				}
-
-				if (minIndex < 0) {
-					someFileStillHasRows = false;
-				} else {
-					// write to the sorted file
-					bw.append(filerows.get(minIndex).line + "\n");
-
-					// get another row from the file that had the min
-					String line = mergefbr.get(minIndex).readLine();
-					if (line != null) {
-						filerows.set(minIndex, new Row(line));
-					} else {
-						filerows.set(minIndex, null);
-					}
+			
+			for (int i = 0; i < chunks.size(); i++) {
+				String[] chromosomes = chunks.get(i).chromosomes;
+				int[] globalRanks = new int[chromosomes.length];
+				for (int j = 0; j < chromosomes.length; j++) {
+					globalRanks[j] = globalOrder.get(Chromosome.valueOf(chromosomes[j]));
 				}
-				// check if one still has rows
-				for (int i = 0; i < filerows.size(); i++) {
-
-					someFileStillHasRows = false;
-					if (filerows.get(i) != null) {
-						if (minIndex < 0) {
-							
-							bw.close();
-							
-							throw new GBrowserException("Error in sorting: " + "mindex lt 0 and found row not null" + filerows.get(i));
-						}
-						someFileStillHasRows = true;
-						break;
-					}
+				
+				ChunkReader reader = new ChunkReader(chunks.get(i).file, globalRanks, i);
+				readers.add(reader);
+				if (reader.next()) {
+					heap.add(reader);
 				}
+			}
 
-				// check the actual files one more time
-				if (!someFileStillHasRows) {
-					// write the last one not covered above
-					for (int i = 0; i < filerows.size(); i++) {
-						if (filerows.get(i) == null) {
-							String line = mergefbr.get(i).readLine();
-							if (line != null) {
-
-								someFileStillHasRows = true;
-								filerows.set(i, new Row(line));
-							}
-						}
-					}
+			// Merge chunks
+			while (!heap.isEmpty()) {
+				ChunkReader reader = heap.poll();
+				bw.append(reader.line).append('\n');
+				
+				if (reader.next()) {
+					heap.add(reader);
 				}
 			}
 		} finally {
 
 			// close all the files			
 			IOUtils.closeIfPossible(bw);
-			IOUtils.closeIfPossible(fw);
-		}
-
-		for (int i = 0; i < mergefbr.size(); i++)
-			mergefbr.get(i).close();
-
-		// Delete all of the chunk files.
-		for (int i = 0; i < numChunkFiles; i++) {
-			File f = new File(inputFilePath + "_chunk" + i);
-			f.delete();
+			for (ChunkReader reader : readers) {
+				reader.close();
+			}
 		}
 	}
 
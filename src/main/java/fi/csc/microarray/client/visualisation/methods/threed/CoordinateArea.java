@@ -14,7 +14,6 @@ import java.awt.event.MouseWheelListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.LinkedList;
-import java.util.concurrent.PriorityBlockingQueue;
 
 import javax.swing.JComponent;
 import javax.swing.JMenuItem;
@@ -138,14 +137,14 @@ implements ActionListener, MouseInputListener, MouseWheelListener, PropertyChang
 		Graphics2D g2d = (Graphics2D)g;
 		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);							
 
-		PriorityBlockingQueue<Drawable> points = projection.doProjection();				
+		int visibleCount = projection.doProjection();
+		Drawable[] points = projection.getDrawOrder();
 			
 		g2d.setColor(this.getBackground());
 		g2d.fillRect(0, 0, getWidth(), getHeight());
 
-		Drawable p = null;
-		while ((p = points.poll()) != null) {
-			p.draw(g2d, getWidth(), getHeight(), getPaintMode());
+		for (int i = 0; i < visibleCount; i++) {
+			points[i].draw(g2d, getWidth(), getHeight(), getPaintMode());
 		}
 
 		if(this.mouseDragged){
@@ -10,7 +10,9 @@
 
 package fi.csc.microarray.client.visualisation.methods.threed;
 
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Takes care of the current projection parameters, as rotation and camera
@@ -36,7 +38,17 @@ public class Projection {
     private double[] camera = {0,0,-5};
     private double[] newOrigin = {0.5,0.5,0.5};
     
-    private PriorityBlockingQueue<Drawable> resultPoints = null;   
+    // data sets smaller than this are projected in the calling thread
+    private static final int PARALLEL_THRESHOLD = 8192;
+    
+    private static final long HIDDEN = Long.MAX_VALUE;
+    
+    // reused between frames
+    private double[] rotation = new double[16];
+    private double[] combined = new double[16];
+    private long[] depthKeys;
+    private Drawable[] drawOrder;
+    private int visibleCount;
     
     /**
      * 
@@ -171,14 +183,6 @@ public class Projection {
         this.newOrigin[2] = newOrigin[2];
     }
     
-    /**
-     * 
-     * @return 
-     */
-    public PriorityBlockingQueue<Drawable> getResultPoints() {
-        return resultPoints;
-    }
-
     private Matrix xAxisRotationMatrix(double degree) {
         double cosDegree = Math.cos(degree);
         double sinDegree = Math.sin(degree);
@@ -249,18 +253,26 @@ public class Projection {
         return m;
     }
     
-    private void homogeneousPointToProjectionPlanePoint(Matrix m, double[] p) {
-        double w = m.get(3,0);
-        p[0] = m.get(0,0)/w;
-        p[1] = m.get(1,0)/w;
-        //point3D[2] = m.get(2,0)/w;
+    /**
+     * Copy 4x4 matrix to a row-major array.
+     */
+    private static void toArray(Matrix m, double[] array) {
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                array[row * 4 + column] = m.get(row, column);
+            }
+        }
     }
     
     /**
+     * Project all drawables and sort the visible ones by the distance from the camera. 
+     * The matrices are combined only once per frame and the points are projected 
+     * with plain arithmetic, so that nothing is allocated per point. Large data 
+     * sets are projected and sorted in parallel.
      * 
-     * @return 
+     * @return number of visible drawables, see {@link #getDrawOrder()}
      */
-    public PriorityBlockingQueue<Drawable> doProjection() {
+    public int doProjection() {
         Matrix projM = perspectiveProjectionMatrix(distanceOfProjectionPlaneFromCamera);
                 
         projM = projM.times(translatePointToOriginMatrix(camera));
@@ -273,59 +285,128 @@ public class Projection {
                 
         rotM = rotM.times(translatePointToOriginMatrix(newOrigin));
         
+        toArray(rotM, rotation);
+        toArray(projM.times(rotM), combined);
+        
         Drawable[] points = dataModel.getDataArray();
         
-        resultPoints = new PriorityBlockingQueue<Drawable>(points.length);
- 
-        for (int i=0; i < points.length; i++) {
-            boolean visible = rotateAndProject(points[i], rotM, projM, camera,
-                    distanceOfProjectionPlaneFromCamera,
-                    viewWindowWidth, viewWindowHeight);
-            
-            if (visible == true && points[i] != null) {
-                resultPoints.add(points[i]);
-            }
+        if (depthKeys == null || depthKeys.length != points.length) {
+        	depthKeys = new long[points.length];
+        	drawOrder = new Drawable[points.length];
+        }
+        
+        if (points.length >= PARALLEL_THRESHOLD) {
+        	ForkJoinPool.commonPool().invoke(new ProjectionTask(points, 0, points.length));
+        	Arrays.parallelSort(depthKeys);
+        } else {
+        	project(points, 0, points.length);
+        	Arrays.sort(depthKeys);
         }
         
-        return resultPoints;
+        // farthest first
+        int visibleCount = 0;
+        for (int i = depthKeys.length - 1; i >= 0; i--) {
+        	if (depthKeys[i] == HIDDEN) {
+        		continue;
+        	}
+        	drawOrder[visibleCount++] = points[(int) depthKeys[i]];
+        }
+        this.visibleCount = visibleCount;
+        
+        return visibleCount;
+    }
+    
+    /**
+     * @return drawables in painting order, only the first items are valid, 
+     * see {@link #doProjection()}. The array is reused between frames.
+     */
+    public Drawable[] getDrawOrder() {
+    	return drawOrder;
+    }
+    
+    public int getVisibleCount() {
+    	return visibleCount;
+    }
+    
+    private class ProjectionTask extends RecursiveAction {
+    	
+		private static final long serialVersionUID = 1L;
+		
+		private Drawable[] points;
+		private int start;
+		private int end;
+
+		public ProjectionTask(Drawable[] points, int start, int end) {
+			this.points = points;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= PARALLEL_THRESHOLD) {
+				project(points, start, end);
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new ProjectionTask(points, start, middle), new ProjectionTask(points, middle, end));
+			}
+		}
+    }
+    
+    /**
+     * Project the given range of drawables and set their depth keys. 
+     */
+    private void project(Drawable[] points, int start, int end) {
+        for (int i = start; i < end; i++) {
+        	Drawable d = points[i];
+        	if (d != null && rotateAndProject(d, camera,
+        			distanceOfProjectionPlaneFromCamera, viewWindowWidth, viewWindowHeight)) {
+        		depthKeys[i] = depthKey(d.getDistanceFromCamera(), i);
+        	} else {
+        		depthKeys[i] = HIDDEN;
+        	}
+        }
     }
     
-    private boolean rotateAndProject(Drawable d, Matrix rot, Matrix proj,
-            double[] cam, double planeDist, double viewW, double viewH) {
-        Matrix point = new Matrix(4,1,1);
+    /**
+     * Pack the average distance and the index to one long, so that an array of 
+     * these can be sorted by the distance with a primitive sort. Non-negative 
+     * floats have the same order as their bits.
+     */
+    private static long depthKey(double[] distances, int index) {
+    	double sum = 0;
+    	for (int i = 0; i < distances.length; i++) {
+    		sum += distances[i];
+    	}
+    	float distance = (float) Math.abs(sum / distances.length);
+    	return ((long) Float.floatToIntBits(distance) << 32) | index;
+    }
+    
+    private boolean rotateAndProject(Drawable d, double[] cam, double planeDist, double viewW, double viewH) {
         
         boolean visible = false;
         
+        double[] r = rotation;
+        double[] c = combined;
+        
         for (int i=0; i < d.visualisationCoords.length; ++i) {
         	
         	//To make rotations not cumulative
-        	d.visualisationCoords[i][0] = d.dataCoords[i][0];
-        	d.visualisationCoords[i][1] = d.dataCoords[i][1];
-        	d.visualisationCoords[i][2] = d.dataCoords[i][2];
-        	
-            point.set(0,0,d.visualisationCoords[i][0]);
-            point.set(1,0,d.visualisationCoords[i][1]);
-            point.set(2,0,d.visualisationCoords[i][2]);
-            
-            point = rot.times(point);
+        	double x = d.dataCoords[i][0];
+        	double y = d.dataCoords[i][1];
+        	double z = d.dataCoords[i][2];
             
             //To get size of the ball right
-            d.visualisationCoords[i][0] = point.get(0,0);
-            d.visualisationCoords[i][1] = point.get(1,0);
-            d.visualisationCoords[i][2] = point.get(2,0);
-            
-            
-            point = proj.times(point);
+            d.visualisationCoords[i][0] = r[0] * x + r[1] * y + r[2] * z + r[3];
+            d.visualisationCoords[i][1] = r[4] * x + r[5] * y + r[6] * z + r[7];
+            d.visualisationCoords[i][2] = r[8] * x + r[9] * y + r[10] * z + r[11];
             
-            homogeneousPointToProjectionPlanePoint(point, d.projectedCoords[i]);
+            double w = c[12] * x + c[13] * y + c[14] * z + c[15];
+            d.projectedCoords[i][0] = (c[0] * x + c[1] * y + c[2] * z + c[3]) / w / viewW;
+            d.projectedCoords[i][1] = (c[4] * x + c[5] * y + c[6] * z + c[7]) / w / viewH;
             
-            d.projectedCoords[i][0] /= viewW;
-            d.projectedCoords[i][1] /= viewH;
-            
-             if (d.visualisationCoords[i][2] > camera[2] /*+ planeDist ???*/)
+             if (d.visualisationCoords[i][2] > cam[2] /*+ planeDist ???*/)
                  visible = true;
-            
-            point.set(3, 0, 1);
         }
         
         d.setDistanceFromCamera(cam, planeDist,viewW, viewH);
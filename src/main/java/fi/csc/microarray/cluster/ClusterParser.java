@@ -3,121 +3,156 @@ package fi.csc.microarray.cluster;
 import java.io.File;
 
 import fi.csc.microarray.util.Files;
-import fi.csc.microarray.util.LookaheadStringReader;
 
 /**
- * Parser for parenthesis formatted trees. Parses String and generates 
- * a corresponding tree of ClusterBranchNodes and ClusterLeafNodes.
- * 
+ * Parser for parenthesis formatted trees. Parses String and generates
+ * a corresponding {@link ClusterTree}.
+ *
+ * The parser works directly on a char array and keeps the open branches
+ * in an explicit stack instead of recursion, because trees of tens of
+ * thousands of genes can be so unbalanced that the recursion would
+ * overflow the stack.
+ *
  * @author Aleksi Kallio
  *
  */
 public class ClusterParser {
 
-	private static final String SEPARATE_PARTS = ":";
-	private static final String CLOSE_TREE = ";";
-	private static final String SEPARATE_BRANCHES = ",";
-	private static final String CLOSE_BRANCH = ")";
-	private static final String OPEN_BRANCH = "(";
-	
-	private LookaheadStringReader reader;
+	private static final char SEPARATE_PARTS = ':';
+	private static final char CLOSE_TREE = ';';
+	private static final char SEPARATE_BRANCHES = ',';
+	private static final char CLOSE_BRANCH = ')';
+	private static final char OPEN_BRANCH = '(';
+
+	private char[] chars;
+	private int length;
+	private int index = 0;
 
 	public ClusterParser(String tree) {
 		// remove whitespace first
-		this.reader = new LookaheadStringReader(tree.replace("\n", "").replace(" ", ""));
+		this.chars = new char[tree.length()];
+		for (int i = 0; i < tree.length(); i++) {
+			char c = tree.charAt(i);
+			if (c != '\n' && c != ' ') {
+				chars[length++] = c;
+			}
+		}
 	}
 
+	/**
+	 * Parse the tree to object nodes. For big trees, use {@link #parse()} instead.
+	 */
 	public ClusterBranchNode getTree() throws TreeParseException {
-		if (reader == null) {
+		// root is always a branch, otherwise the parsing would have failed
+		return (ClusterBranchNode) parse().toClusterNodes();
+	}
+
+	public ClusterTree parse() throws TreeParseException {
+		if (chars == null) {
 			throw new IllegalStateException("Tree already parsed, cannot reparse");
 		}
-		
-		// parse root branch 
-		//   (it is different (no length), so it is parsed here 
-		//   instead of using parseBranch)
-		readAndCheck(OPEN_BRANCH);
-		ClusterNode leftBranch = parseBranchOrLeaf();
-		readAndCheck(SEPARATE_BRANCHES);
-		ClusterNode rightBranch = parseBranchOrLeaf();
-		readAndCheck(CLOSE_BRANCH);
-		readAndCheck(CLOSE_TREE);
-		
-		// disable parsing
-		reader = null;
-		
-		// parse AST
-		ClusterBranchNode rootBranch = new ClusterBranchNode();
-		rootBranch.setLeftBranch(leftBranch);
-		rootBranch.setRightBranch(rightBranch);
-		return rootBranch;
-	}
 
-	private ClusterBranchNode parseBranch() throws TreeParseException {
+		// every branch has two children, so commas tell the size of the tree
+		int leafCount = 1;
+		for (int i = 0; i < length; i++) {
+			if (chars[i] == SEPARATE_BRANCHES) {
+				leafCount++;
+			}
+		}
+		ClusterTree tree = new ClusterTree(leafCount);
+
+		// left child of each open branch or NONE if not yet parsed
+		int[] stack = new int[leafCount];
+		int depth = 0;
 
-		// parse
+		// parse root branch
+		//   (it is different (no length), so it is closed by the
+		//   CLOSE_TREE instead of a length)
 		readAndCheck(OPEN_BRANCH);
-		ClusterNode leftBranch = parseBranchOrLeaf();
-		readAndCheck(SEPARATE_BRANCHES);
-		ClusterNode rightBranch = parseBranchOrLeaf();
-		readAndCheck(CLOSE_BRANCH);
-		String length = parseLength();
-		
-		// construct AST
-		ClusterBranchNode branch = new ClusterBranchNode();
-		branch.setLeftBranch(leftBranch);
-		branch.setRightBranch(rightBranch);
-		branch.setLength(length);
-		return branch;
-	}
+		stack[depth++] = ClusterTree.NONE;
+
+		while (true) {
+
+			// go down to the next leaf
+			while (lookahead() == OPEN_BRANCH) {
+				index++;
+				if (depth == stack.length) {
+					throw new TreeParseException("too many branches", around());
+				}
+				stack[depth++] = ClusterTree.NONE;
+			}
+			int node = tree.addLeaf(readTo(SEPARATE_PARTS), parseLength());
 
-	private ClusterNode parseBranchOrLeaf() throws TreeParseException {
-		ClusterNode node;
-		if (reader.lookahead().equals(OPEN_BRANCH)) {
-			node = parseBranch();
-		} else {
-			node = parseLeaf();
+			// close branches that got both of their children
+			while (stack[depth - 1] != ClusterTree.NONE) {
+				readAndCheck(CLOSE_BRANCH);
+				int leftChild = stack[--depth];
+				if (depth == 0) {
+					readAndCheck(CLOSE_TREE);
+					tree.addBranch(leftChild, node, Float.NaN);
+
+					// disable parsing
+					chars = null;
+					return tree;
+				}
+				node = tree.addBranch(leftChild, node, parseLength());
+			}
+
+			// this was the left child, right child comes next
+			stack[depth - 1] = node;
+			readAndCheck(SEPARATE_BRANCHES);
 		}
-		return node;
 	}
-	
-	private ClusterLeafNode parseLeaf() throws TreeParseException {
-		
-		// parse
-		String gene = parseGene();
-		String length = parseLength();
-		
-		// construct AST
-		ClusterLeafNode leaf = new ClusterLeafNode();
-		leaf.setGene(gene);
-		leaf.setLength(length);
-		return leaf;
+
+	private float parseLength() throws TreeParseException {
+		readAndCheck(SEPARATE_PARTS);
+		int start = index;
+		while (index < length && chars[index] != SEPARATE_BRANCHES && chars[index] != CLOSE_BRANCH) {
+			index++;
+		}
+		try {
+			return Float.parseFloat(new String(chars, start, index - start));
+		} catch (NumberFormatException e) {
+			throw new TreeParseException("invalid length \"" + new String(chars, start, index - start) + "\"", around());
+		}
 	}
 
-	private String parseGene() {
-		String gene = reader.readTo(SEPARATE_PARTS);
-		return gene;
+	private String readTo(char delimiter) {
+		int start = index;
+		while (index < length && chars[index] != delimiter) {
+			index++;
+		}
+		return new String(chars, start, index - start);
 	}
 
-	private String parseLength() throws TreeParseException {
-		readAndCheck(SEPARATE_PARTS);
-		String length = reader.readTo(SEPARATE_BRANCHES, CLOSE_BRANCH);
-		return length;
-		
+	/**
+	 * @return next char or 0 if at the end
+	 */
+	private char lookahead() {
+		return index < length ? chars[index] : 0;
 	}
 
-	private void readAndCheck(String s) throws TreeParseException {
-		try {
-			String r = reader.read();
-			if (!r.equals(s)) {
-				throw new TreeParseException("expected \"" + s + "\" but found \"" + r + "\"", reader);
-			}
-		} catch (StringIndexOutOfBoundsException se) {
-			throw new TreeParseException("unexpected end of string", reader);			
+	private void readAndCheck(char c) throws TreeParseException {
+		if (index >= length) {
+			throw new TreeParseException("unexpected end of string", around());
 		}
+		char r = chars[index++];
+		if (r != c) {
+			throw new TreeParseException("expected \"" + c + "\" but found \"" + r + "\"", around());
+		}
+	}
+
+	/**
+	 * @return String of 10 chars around current position
+	 */
+	private String around() {
+		int from = Math.max(0, index - 10);
+		int to = Math.min(length, index + 11);
+		return new String(chars, from, to - from);
 	}
 
 	public static void main(String[] args) throws Exception  {
 		String tree = Files.fileToString(new File("test.tre")); // for testing parsing issues
-		new ClusterParser(tree).getTree();
+		new ClusterParser(tree).parse();
 	}
 }
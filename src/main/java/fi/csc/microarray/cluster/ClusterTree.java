@@ -0,0 +1,152 @@
+package fi.csc.microarray.cluster;
+
+/**
+ * Binary cluster tree stored in arrays. Nodes are numbered in post-order,
+ * so the children of a node always have smaller indexes than the node itself
+ * and the root is the last node. Leaves are numbered separately from left
+ * to right, which is also the order of the genes in the heatmap.
+ *
+ * Compared to the tree of ClusterNode objects, this takes a fraction of the memory
+ * and can be traversed without recursion, so that deep trees don't overflow the stack.
+ *
+ * @see ClusterParser#parse()
+ */
+public class ClusterTree {
+
+	public static final int NONE = -1;
+
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+	private int[] leafIndex;
+	private float[] length;
+	private String[] genes;
+
+	private int nodeCount = 0;
+	private int leafCount = 0;
+
+	/**
+	 * @param leafCount maximum number of leaves
+	 */
+	ClusterTree(int leafCount) {
+		int capacity = Math.max(1, 2 * leafCount - 1);
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+		leafIndex = new int[capacity];
+		length = new float[capacity];
+		genes = new String[leafCount];
+	}
+
+	int addLeaf(String gene, float length) {
+		int node = addNode(NONE, NONE, length);
+		leafIndex[node] = leafCount;
+		genes[leafCount] = gene;
+		leafCount++;
+		return node;
+	}
+
+	int addBranch(int leftChild, int rightChild, float length) {
+		int node = addNode(leftChild, rightChild, length);
+		parent[leftChild] = node;
+		parent[rightChild] = node;
+		return node;
+	}
+
+	private int addNode(int leftChild, int rightChild, float length) {
+		int node = nodeCount++;
+		this.left[node] = leftChild;
+		this.right[node] = rightChild;
+		this.parent[node] = NONE;
+		this.leafIndex[node] = NONE;
+		this.length[node] = length;
+		return node;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getLeafCount() {
+		return leafCount;
+	}
+
+	public int getRoot() {
+		return nodeCount - 1;
+	}
+
+	public boolean isLeaf(int node) {
+		return left[node] == NONE;
+	}
+
+	public int getLeftChild(int node) {
+		return left[node];
+	}
+
+	public int getRightChild(int node) {
+		return right[node];
+	}
+
+	/**
+	 * @return parent node or {@link #NONE} for the root
+	 */
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	/**
+	 * @return length of the branch or NaN for the root
+	 */
+	public float getLength(int node) {
+		return length[node];
+	}
+
+	/**
+	 * @return position of the leaf from the left or {@link #NONE} for branches
+	 */
+	public int getLeafIndex(int node) {
+		return leafIndex[node];
+	}
+
+	/**
+	 * @param leafIndex position of the leaf from the left
+	 */
+	public String getGene(int leafIndex) {
+		return genes[leafIndex];
+	}
+
+	/**
+	 * @return depth of each node, root is 0
+	 */
+	public int[] getDepths() {
+		int[] depths = new int[nodeCount];
+		// parents have bigger indexes than their children
+		for (int node = nodeCount - 2; node >= 0; node--) {
+			depths[node] = depths[parent[node]] + 1;
+		}
+		return depths;
+	}
+
+	/**
+	 * Convert to the object tree.
+	 */
+	public ClusterNode toClusterNodes() {
+		ClusterNode[] nodes = new ClusterNode[nodeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			if (isLeaf(node)) {
+				ClusterLeafNode leaf = new ClusterLeafNode();
+				leaf.setGene(genes[leafIndex[node]]);
+				nodes[node] = leaf;
+			} else {
+				ClusterBranchNode branch = new ClusterBranchNode();
+				branch.setLeftBranch(nodes[left[node]]);
+				branch.setRightBranch(nodes[right[node]]);
+				nodes[node] = branch;
+			}
+			if (!Float.isNaN(length[node])) {
+				nodes[node].setLength(Float.toString(length[node]));
+			}
+		}
+		return nodes[getRoot()];
+	}
+}
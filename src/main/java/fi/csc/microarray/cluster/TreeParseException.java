@@ -1,10 +1,12 @@
 package fi.csc.microarray.cluster;
 
-import fi.csc.microarray.util.LookaheadStringReader;
-
 public class TreeParseException extends Exception {
 
-	public TreeParseException(String desc, LookaheadStringReader reader) {
-		super(desc + " (around ..." + reader.around(10) + "...)");
+	/**
+	 * @param desc
+	 * @param around part of the tree around the error
+	 */
+	public TreeParseException(String desc, String around) {
+		super(desc + " (around ..." + around + "...)");
 	}
 }
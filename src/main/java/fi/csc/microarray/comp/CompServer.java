@@ -655,7 +655,11 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 
 	private void sendCompAvailable() {
 		try {
-			jobmanagerTopic.sendMessage(new CommandMessage(CommandMessage.COMMAND_COMP_AVAILABLE));
+			// tell the module filter, so that the jobmanager sends only the jobs this comp can run
+			CommandMessage availableMessage = new CommandMessage(CommandMessage.COMMAND_COMP_AVAILABLE);
+			availableMessage.addNamedParameter(ParameterMessage.PARAMETER_MODULE_FILTER_MODE, moduleFilterMode);
+			availableMessage.addNamedParameter(ParameterMessage.PARAMETER_MODULE_FILTER_NAME, moduleFilterName);
+			jobmanagerTopic.sendMessage(availableMessage);
 		} catch (JMSException e) {
 			logger.error("could not send comp available message", e);
 		}
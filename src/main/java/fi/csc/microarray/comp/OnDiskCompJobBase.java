@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 
@@ -206,20 +207,26 @@ public abstract class OnDiskCompJobBase extends CompJob {
 			throw new IOException("Creating job data dir failed.");
 		}
 		
+		List<String> dataIds = new LinkedList<>();
+		List<File> localFiles = new LinkedList<>();
 		for (String fileName : inputMessage.getKeys()) {
-			cancelCheck();
 	
-			// get url and output file
-			String dataId = inputMessage.getId(fileName);
-			File localFile = new File(jobDataDir, fileName);
-			
-			// make local file available, by downloading, copying or symlinking
-			resultHandler.getFileBrokerClient().getFile(inputMessage.getSessionId(), dataId, new File(jobDataDir, fileName));
-			logger.debug("made available local file: " + localFile.getName() + " " + localFile.length());
+			// get dataId and output file
+			dataIds.add(inputMessage.getId(fileName));
+			localFiles.add(new File(jobDataDir, fileName));
 			
 			nameMap.put(fileName, inputMessage.getName(fileName));
 		}
 		
+		cancelCheck();
+		
+		// make local files available, by downloading, copying or symlinking
+		resultHandler.getFileBrokerClient().getFiles(inputMessage.getSessionId(), dataIds, localFiles);
+		
+		for (File localFile : localFiles) {
+			logger.debug("made available local file: " + localFile.getName() + " " + localFile.length());
+		}
+		
 		ToolUtils.writeInputDescription(new File(jobDataDir, "chipster-inputs.tsv"), nameMap);
 	
 		inputMessage.preExecute(jobDataDir);
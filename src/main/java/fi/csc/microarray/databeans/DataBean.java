@@ -1,12 +1,14 @@
 package fi.csc.microarray.databeans;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import fi.csc.microarray.client.operation.OperationRecord;
@@ -141,7 +143,7 @@ public class DataBean extends DataItemBase {
 	}
 
 	private DataManager dataManager;
-	private HashMap<String, Object> contentBoundCache = new HashMap<String, Object>();
+	private Map<String, Object> contentBoundCache = Collections.synchronizedMap(new HashMap<String, Object>());
 	
 	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
 
@@ -278,7 +280,7 @@ public class DataBean extends DataItemBase {
 			if (feature == null) {
 				throw new UnsupportedOperationException("request " + request + " not possible from " + this.getName());
 			}
-			return new QueryResult(feature);
+			return new QueryResult(feature, this, request);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -12,9 +12,12 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -42,6 +45,7 @@ import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.filebroker.ChecksumException;
 import fi.csc.microarray.filebroker.ChecksumInputStream;
 import fi.csc.microarray.filebroker.ContentLengthException;
+import fi.csc.microarray.filebroker.FileBrokerClient;
 import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
 import fi.csc.microarray.filebroker.FileBrokerException;
 import fi.csc.microarray.filebroker.NotEnoughDiskSpaceException;
@@ -907,6 +911,7 @@ public class DataManager {
 		} finally {
 //			this.lock.writeLock().unlock();
 		}
+		bean.resetContentBoundCache();
 		ContentChangedEvent cce = new ContentChangedEvent(bean);
 		this.dispatchEventIfVisible(cce);
 	}
@@ -1289,6 +1294,146 @@ public class DataManager {
 		}
 	}
 
+	/**
+	 * Upload several beans to storage like uploadToStorageIfNeeded(DataBean), but check the 
+	 * availability, move from cache and ask the upload urls of all beans with single requests.
+	 * 
+	 * @param beans
+	 * @return beans that are available in storage, in the original order
+	 * @throws Exception
+	 */
+	public List<DataBean> uploadToStorageIfNeeded(List<DataBean> beans) throws Exception {
+		
+		FileBrokerClient fileBrokerClient = Session.getSession().getServiceAccessor().getFileBrokerClient();
+		
+		// check if already in storage
+		Set<String> inStorage = new HashSet<>(fileBrokerClient.getAvailable(getIds(beans), getSizes(beans), getChecksums(beans), FileBrokerArea.STORAGE));
+		
+		// move from cache if possible
+		List<DataBean> notInStorage = new LinkedList<>();
+		for (DataBean bean : beans) {
+			if (!inStorage.contains(bean.getId())) {
+				notInStorage.add(bean);
+			}
+		}
+		inStorage.addAll(fileBrokerClient.moveFromCacheToStorage(getIds(notInStorage)));
+		
+		List<DataBean> uploadNeeded = new LinkedList<>();
+		for (DataBean bean : notInStorage) {
+			if (!inStorage.contains(bean.getId())) {
+				uploadNeeded.add(bean);
+			}
+		}
+
+		// upload
+		fileBrokerClient.reserveURLs(getIds(uploadNeeded), getContentLengths(uploadNeeded), FileBrokerArea.STORAGE);
+		for (DataBean bean : uploadNeeded) {
+			if (upload(bean, FileBrokerArea.STORAGE, null)) {
+				inStorage.add(bean.getId());
+			}
+		}
+		
+		List<DataBean> uploaded = new LinkedList<>();
+		for (DataBean bean : beans) {
+			if (inStorage.contains(bean.getId())) {
+				uploaded.add(bean);
+			}
+		}
+		return uploaded;
+	}
+	
+	/**
+	 * Upload several beans to cache like uploadToCacheIfNeeded(DataBean, CopyProgressListener), 
+	 * but check the availability and ask the upload urls of all beans with single requests.
+	 * 
+	 * @param beans
+	 * @param progressListeners listener for each bean, items may be null
+	 * @return beans that were uploaded
+	 * @throws Exception
+	 */
+	public List<DataBean> uploadToCacheIfNeeded(List<DataBean> beans, List<CopyProgressListener> progressListeners) throws Exception {
+		
+		FileBrokerClient fileBrokerClient = Session.getSession().getServiceAccessor().getFileBrokerClient();
+
+		// keep the beans unchanged from the availability check until the upload
+		List<DataBean> locked = new LinkedList<>();
+		try {
+			for (DataBean bean : beans) {
+				bean.getLock().readLock().lock();
+				locked.add(bean);
+			}
+
+			// upload only if not already available in cache or storage
+			Set<String> available = new HashSet<>(fileBrokerClient.getAvailable(getIds(beans), getSizes(beans), getChecksums(beans), FileBrokerArea.CACHE));
+			List<DataBean> notInCache = new LinkedList<>();
+			for (DataBean bean : beans) {
+				if (!available.contains(bean.getId())) {
+					notInCache.add(bean);
+				}
+			}
+			available.addAll(fileBrokerClient.getAvailable(getIds(notInCache), getSizes(notInCache), getChecksums(notInCache), FileBrokerArea.STORAGE));
+
+			List<DataBean> uploadNeeded = new LinkedList<>();
+			for (DataBean bean : notInCache) {
+				if (!available.contains(bean.getId())) {
+					uploadNeeded.add(bean);
+				}
+			}
+
+			// need to upload
+			fileBrokerClient.reserveURLs(getIds(uploadNeeded), getContentLengths(uploadNeeded), FileBrokerArea.CACHE);
+
+			List<DataBean> uploaded = new LinkedList<>();
+			Iterator<CopyProgressListener> listenerIterator = progressListeners.iterator();
+			for (DataBean bean : beans) {
+				CopyProgressListener progressListener = listenerIterator.next();
+				if (!available.contains(bean.getId())) {
+					if (upload(bean, FileBrokerArea.CACHE, progressListener)) {
+						uploaded.add(bean);
+					}
+				}
+			}
+			return uploaded;
+
+		} finally {
+			for (DataBean bean : locked) {
+				bean.getLock().readLock().unlock();
+			}
+		}
+	}
+	
+	private List<String> getIds(List<DataBean> beans) {
+		List<String> ids = new LinkedList<>();
+		for (DataBean bean : beans) {
+			ids.add(bean.getId());
+		}
+		return ids;
+	}
+
+	private List<Long> getSizes(List<DataBean> beans) {
+		List<Long> sizes = new LinkedList<>();
+		for (DataBean bean : beans) {
+			sizes.add(bean.getSize());
+		}
+		return sizes;
+	}
+	
+	private List<String> getChecksums(List<DataBean> beans) {
+		List<String> checksums = new LinkedList<>();
+		for (DataBean bean : beans) {
+			checksums.add(bean.getChecksum());
+		}
+		return checksums;
+	}
+	
+	private List<Long> getContentLengths(List<DataBean> beans) {
+		List<Long> lengths = new LinkedList<>();
+		for (DataBean bean : beans) {
+			lengths.add(getContentLength(bean));
+		}
+		return lengths;
+	}
+
 	private boolean upload(DataBean dataBean, FileBrokerArea area, CopyProgressListener progressListener) throws Exception {
 		// check if content is still available
 		if (dataBean.getContentLocations().size() == 0) {
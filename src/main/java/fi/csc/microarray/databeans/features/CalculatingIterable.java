@@ -76,6 +76,57 @@ public class CalculatingIterable implements Iterable<Float> {
 		}
 	}
 	
+	/**
+	 * Does the same calculation as the iterator, but for whole arrays at once
+	 * and without boxing the values. Each operation has its own loop, so that
+	 * the operation isn't checked for every value.
+	 * 
+	 * @param f1 first operand
+	 * @param f2 second operand or null for operations that have only one
+	 * @return new array, as long as the shorter operand
+	 */
+	public static float[] calculate(float[] f1, float[] f2, CalcOperation operation) {
+		int length = f2 != null ? Math.min(f1.length, f2.length) : f1.length;
+		float[] r = new float[length];
+
+		switch (operation) {
+		case ADD:
+			for (int i = 0; i < length; i++) {
+				r[i] = f1[i] + f2[i];
+			}
+			break;
+		case SUBTRACT:
+			for (int i = 0; i < length; i++) {
+				r[i] = f1[i] - f2[i];
+			}
+			break;
+		case MULTIPLY:
+			for (int i = 0; i < length; i++) {
+				r[i] = f1[i] * f2[i];
+			}
+			break;
+		case DIVIDE:
+			for (int i = 0; i < length; i++) {
+				r[i] = f1[i] / f2[i];
+			}
+			break;
+		case LOG_2:
+			double log2 = Math.log(2f);
+			for (int i = 0; i < length; i++) {
+				r[i] = (float)(Math.log(f1[i]) / log2);
+			}
+			break;
+		case NEGATE:
+			for (int i = 0; i < length; i++) {
+				r[i] = -f1[i];
+			}
+			break;
+		default:
+			throw new UnsupportedOperationException("unknown operation " + operation);
+		}
+		return r;
+	}
+
 	public Iterator<Float> iterator() {
 		Iterator<Float> iterator1 = f1.iterator();
 		Iterator<Float> iterator2 = f2 != null ? f2.iterator() : null;
@@ -8,6 +8,12 @@ public interface Feature {
 	public boolean exists();
 	public Iterable<Float> asFloats() throws MicroarrayException;
 	public Float asFloat() throws MicroarrayException;
+
+	/**
+	 * Returns the same values as {@link #asFloats()}, but as a primitive array.
+	 * @return array of values or null, if not supported
+	 */
+	public float[] asFloatArray() throws MicroarrayException;
 	
 	/**
 	 * Returns Table presentation of the feature, or null, if not supported. 
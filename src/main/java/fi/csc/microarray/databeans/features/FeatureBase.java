@@ -1,5 +1,6 @@
 package fi.csc.microarray.databeans.features;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import fi.csc.microarray.exception.MicroarrayException;
@@ -24,4 +25,24 @@ public abstract class FeatureBase implements Feature {
 		return floatValue;
 	}
 
+	/**
+	 * Collects the values of {@link #asFloats()}. Features that can produce the
+	 * values without boxing should override this. 
+	 */
+	public float[] asFloatArray() throws MicroarrayException {
+		Iterable<Float> floats = asFloats();
+		if (floats == null) {
+			return null;
+		}
+		float[] array = new float[1024];
+		int length = 0;
+		for (float value : floats) {
+			if (length == array.length) {
+				array = Arrays.copyOf(array, array.length * 2);
+			}
+			array[length++] = value;
+		}
+		return Arrays.copyOf(array, length);
+	}
+
 }
\ No newline at end of file
@@ -1,13 +1,28 @@
 package fi.csc.microarray.databeans.features;
 
+import fi.csc.microarray.databeans.DataBean;
 import fi.csc.microarray.exception.MicroarrayException;
 
 public class QueryResult {
 	
+	private static final String FLOAT_ARRAY_CACHENAME_PREFIX = "float-array:";
+
 	private Feature feature;
+	private DataBean bean;
+	private String request;
 	
 	public QueryResult(Feature feature) {
+		this(feature, null, null);
+	}
+
+	/**
+	 * @param bean bean that was queried, used for caching the results
+	 * @param request query that produced the feature
+	 */
+	public QueryResult(Feature feature, DataBean bean, String request) {
 		this.feature = feature;
+		this.bean = bean;
+		this.request = request;
 	}
 	
 	public String getName() {
@@ -22,6 +37,30 @@ public class QueryResult {
 		return feature.asFloats();
 	}
 	
+	/**
+	 * Returns the values as a primitive array. The array is cached in the content bound
+	 * cache of the bean, so querying the same expression again doesn't parse the
+	 * data again, until the content of the bean changes. The same array is returned
+	 * to all callers, so it must not be modified.
+	 * 
+	 * @see DataBean#putToContentBoundCache(String, Object)
+	 */
+	public float[] asFloatArray() throws MicroarrayException {
+		if (bean == null) {
+			return feature.asFloatArray();
+		}
+		
+		String cacheName = FLOAT_ARRAY_CACHENAME_PREFIX + request;
+		float[] floats = (float[])bean.getFromContentBoundCache(cacheName);
+		if (floats == null) {
+			floats = feature.asFloatArray();
+			if (floats != null) {
+				bean.putToContentBoundCache(cacheName, floats);
+			}
+		}
+		return floats;
+	}
+
 	public Table asTable() throws MicroarrayException {
 		return feature.asTable();
 	}
@@ -65,5 +65,32 @@ public class NormalisedExpressionProvider extends FeatureProviderBase {
 			}
 		}
 
+		@Override
+		public float[] asFloatArray() throws MicroarrayException {
+
+			if (getDataBean().queryFeatures(EXPRESSION_COLUMN).exists()) {
+				return getDataBean().queryFeatures(EXPRESSION_COLUMN).asFloatArray();
+
+			} else {
+				QueryResult rciColumn = getDataBean().queryFeatures(RED_CHANNEL_INTENSITY);
+				QueryResult rcbColumn = getDataBean().queryFeatures(RED_CHANNEL_BACKGROUND) ;
+				QueryResult gciColumn = getDataBean().queryFeatures(GREEN_CHANNEL_INTENSITY);
+				QueryResult gcbColumn = getDataBean().queryFeatures(GREEN_CHANNEL_BACKGROUND) ;
+				
+				if (rciColumn.exists() && rcbColumn.exists() &&	gciColumn.exists() && gcbColumn.exists()) {
+					
+					float[] redIntensity = CalculatingIterable.calculate(rciColumn.asFloatArray(), rcbColumn.asFloatArray(), CalcOperation.SUBTRACT);
+					float[] greenIntensity = CalculatingIterable.calculate(gciColumn.asFloatArray(), gcbColumn.asFloatArray(), CalcOperation.SUBTRACT);
+					return CalculatingIterable.calculate(redIntensity, greenIntensity, CalcOperation.SUBTRACT);
+
+				} else if (getDataBean().queryFeatures(AFFY_INTENSITY).exists()) {
+					return getDataBean().queryFeatures(AFFY_INTENSITY).asFloatArray();
+					
+				} else {
+					return null;
+				}
+			}
+		}
+
 	}
 }
@@ -27,6 +27,12 @@ public class CalcModifier {
 			public Iterable<Float> asFloats() throws MicroarrayException {			
 				return new CalculatingIterable(original.asFloats(), null, operation);
 			}
+
+			@Override
+			public float[] asFloatArray() throws MicroarrayException {
+				float[] floats = original.asFloatArray();
+				return floats != null ? CalculatingIterable.calculate(floats, null, operation) : null;
+			}
 		}
 
 	private CalcModifierFeature output;
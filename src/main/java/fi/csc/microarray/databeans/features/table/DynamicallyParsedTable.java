@@ -3,6 +3,7 @@ package fi.csc.microarray.databeans.features.table;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 
@@ -101,17 +102,28 @@ public class DynamicallyParsedTable implements Table {
 		}
 	}
 
-	private String preprocessExternalData(String string) {
+	private static String preprocessExternalData(String string) {
 		return string.replace("EMPTY", "NaN");
 	}
 	
 	private ArrayList<String> parseRow(String row) throws MicroarrayException {
+		return new ArrayList<String>(Arrays.asList(parseCells(row, settings.columns.size())));
+	}
+
+	/**
+	 * Splits a row to cells.
+	 * 
+	 * @param row
+	 * @param columnCount
+	 * @return cells, too short rows are stuffed with empty cells
+	 */
+	static String[] parseCells(String row, int columnCount) {
 
-		ArrayList<String> result = new ArrayList<String>(settings.columns.size());
+		String[] result = new String[columnCount];
 		row = preprocessExternalData(row);
 
 		String[] cells = TableColumnProvider.tokeniseRow(row);
-		for (int i = 0; i < settings.columns.values().size(); i++) {
+		for (int i = 0; i < columnCount; i++) {
 			String cell;
 			if (i < cells.length) {
 				cell = cells[i];
@@ -119,7 +131,7 @@ public class DynamicallyParsedTable implements Table {
 				// we are stuffing too short rows with empty cells (should this worry us?)
 				cell = "";
 			}
-			result.add(cell);
+			result[i] = cell;
 		}
 		
 		return result;
@@ -135,9 +147,9 @@ public class DynamicallyParsedTable implements Table {
 
 	public float getFloatValue(String columnName) {
 		try {
-			return new Float(values.get(columnName));
+			return Float.parseFloat(values.get(columnName));
 		} catch (NumberFormatException nfe) {
-			return new Float(Float.NaN);
+			return Float.NaN;
 		} catch (NullPointerException ne) {
 			throw new IllegalArgumentException("column name " + columnName + " was not found");
 		}
@@ -137,7 +137,7 @@ public class TableColumnProvider extends FeatureProviderBase {
 			for (String columnName : columnNames) {				
 				// create column
 				logger.debug("added column " + columnName);
-				settings.columns.put(columnName, new Column(columnName));
+				settings.addColumn(columnName);
 			}
 
 			return settings;
@@ -350,6 +350,10 @@ public class TableColumnProvider extends FeatureProviderBase {
 		String footerStarter = null;
 		boolean hasColumnNames = true;
 		LinkedHashMap<String, Column> columns = new LinkedHashMap<String, Column>();
+		
+		void addColumn(String name) {
+			columns.put(name, new Column(name));
+		}
 	}
 
 	public static class TableColumn extends BasicFeature {
@@ -394,6 +398,33 @@ public class TableColumnProvider extends FeatureProviderBase {
 			}
 		}
 
+		/**
+		 * Parses the column in one pass without boxing the values.
+		 */
+		@Override
+		public float[] asFloatArray() throws MicroarrayException {
+			if (indexCollector.size() != 1) {
+				// column name must match exactly one column
+				return null;
+			}
+
+			String columnName = nameCollector.getFirst();
+			DynamicallyParsedTable table = new DynamicallyParsedTable(getDataBean(), settings, indexCollector);
+			try {
+				float[] values = new float[1024];
+				int length = 0;
+				while (table.nextRow()) {
+					if (length == values.length) {
+						values = Arrays.copyOf(values, values.length * 2);
+					}
+					values[length++] = table.getFloatValue(columnName);
+				}
+				return Arrays.copyOf(values, length);
+			} finally {
+				table.close();
+			}
+		}
+
 		@Override
 		public Iterable<String> asStrings() throws MicroarrayException {
 			if (indexCollector.size() != 1) {
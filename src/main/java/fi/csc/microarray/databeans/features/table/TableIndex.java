@@ -0,0 +1,211 @@
+package fi.csc.microarray.databeans.features.table;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fi.csc.microarray.client.Session;
+import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.databeans.features.table.TableColumnProvider.MatrixParseSettings;
+import fi.csc.microarray.exception.MicroarrayException;
+
+/**
+ * Byte offsets of the data rows of a table, so that any rows can be parsed
+ * without reading the rows before them. Rows are found like in
+ * {@link DynamicallyParsedTable}: headers and the column name row are skipped
+ * and the rows end at the end of file, at the footer or at the first empty line.
+ * Only the offset of every {@link #SAMPLE_INTERVAL}th row is stored, the rows
+ * between those are found by reading forward.
+ *
+ * @see TableColumnProvider
+ */
+public class TableIndex {
+
+	/**
+	 * Number of rows between the stored offsets
+	 */
+	public static final int SAMPLE_INTERVAL = 64;
+
+	private File file;
+	private String[] columnNames;
+	private long[] offsets = new long[1024];
+	private int rowCount = 0;
+
+	/**
+	 * Index the content of a table bean. The whole content is read once, so
+	 * this shouldn't be called from the event dispatch thread.
+	 *
+	 * @param bean
+	 * @return
+	 * @throws IOException
+	 * @throws MicroarrayException
+	 */
+	public static TableIndex create(DataBean bean) throws IOException, MicroarrayException {
+		MatrixParseSettings settings = TableColumnProvider.inferSettings(bean);
+		File file = Session.getSession().getApplication().getDataManager().getLocalRandomAccessFile(bean);
+		return new TableIndex(file, settings);
+	}
+
+	TableIndex(File file, MatrixParseSettings settings) throws IOException {
+		this.file = file;
+		this.columnNames = settings.columns.keySet().toArray(new String[0]);
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		try {
+			LineScanner scanner = new LineScanner(in);
+			String line = scanner.nextLine();
+
+			// parse away headers, if any, see TableColumnProvider.getHeader()
+			long header = 0;
+			while (line != null && header + line.length() + 1 <= settings.headerBytes) {
+				header += line.length() + 1;
+				line = scanner.nextLine();
+			}
+			long endOfHeader = settings.headerBytes - header;
+			if (line != null && endOfHeader > 0) {
+				// header ends in the middle of the line
+				line = line.substring((int) endOfHeader);
+				scanner.lineOffset += endOfHeader;
+				if (line.length() == 0) {
+					line = scanner.nextLine();
+				}
+			}
+
+			// skip column name row, if any
+			if (settings.hasColumnNames && line != null) {
+				line = scanner.nextLine();
+			}
+
+			while (line != null &&
+					(settings.footerStarter == null || !line.contains(settings.footerStarter)) &&
+					!"".equals(line.trim())) {
+
+				addRow(scanner.lineOffset);
+				line = scanner.nextLine();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void addRow(long offset) {
+		if (rowCount % SAMPLE_INTERVAL == 0) {
+			int sample = rowCount / SAMPLE_INTERVAL;
+			if (sample == offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			offsets[sample] = offset;
+		}
+		rowCount++;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	/**
+	 * Reads and parses rows. Every call opens the file again, so several threads
+	 * can read different parts of the table at the same time.
+	 *
+	 * @param firstRow number of the first row to read
+	 * @param count number of rows to read
+	 * @return cells of the rows, or less rows if the end of the table was reached
+	 * @throws IOException
+	 */
+	public List<String[]> readRows(int firstRow, int count) throws IOException {
+
+		List<String[]> rows = new ArrayList<String[]>(Math.max(0, Math.min(count, rowCount - firstRow)));
+
+		if (firstRow >= rowCount || count <= 0) {
+			return rows;
+		}
+
+		int sample = firstRow / SAMPLE_INTERVAL;
+		int rowNumber = sample * SAMPLE_INTERVAL;
+		int lastRow = Math.min(rowCount, firstRow + count);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.position(offsets[sample]);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel)));
+
+			String line;
+			while (rowNumber < lastRow && (line = reader.readLine()) != null) {
+				if (rowNumber >= firstRow) {
+					rows.add(DynamicallyParsedTable.parseCells(line, columnNames.length));
+				}
+				rowNumber++;
+			}
+		} finally {
+			raf.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Reads lines of bytes and keeps track of their offsets. Lines are decoded
+	 * byte per char, which is enough for finding the empty lines and the footer.
+	 */
+	private static class LineScanner {
+
+		private InputStream in;
+		private StringBuilder line = new StringBuilder();
+		private long offset = 0;
+
+		/**
+		 * Offset of the line returned last
+		 */
+		long lineOffset = 0;
+
+		public LineScanner(InputStream in) {
+			this.in = in;
+		}
+
+		public String nextLine() throws IOException {
+			line.setLength(0);
+			lineOffset = offset;
+
+			int b;
+			while ((b = in.read()) != -1) {
+				offset++;
+				if (b == '\n') {
+					return stripCarriageReturn();
+				}
+				line.append((char) b);
+			}
+
+			if (offset == lineOffset) {
+				// end of file
+				return null;
+			}
+			return stripCarriageReturn();
+		}
+
+		private String stripCarriageReturn() {
+			int length = line.length();
+			if (length > 0 && line.charAt(length - 1) == '\r') {
+				line.setLength(length - 1);
+			}
+			return line.toString();
+		}
+	}
+}
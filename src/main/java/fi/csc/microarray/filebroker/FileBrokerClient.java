@@ -95,6 +95,19 @@ public interface FileBrokerClient {
 	 */
 	public abstract void getFile(UUID sessionId, String dataId, File destFile) throws IOException, FileBrokerException, ChecksumException;	
 
+	/**
+	 * Get several files like getFile(), but ask the locations of all the files from 
+	 * the file broker with a single request. 
+	 * 
+	 * @param dataIds
+	 * @param destFiles destination files that must not exist, in the same order with dataIds
+	 * 
+	 * @throws IOException
+	 * @throws FileBrokerException
+	 * @throws ChecksumException
+	 */
+	public abstract void getFiles(UUID sessionId, List<String> dataIds, List<File> destFiles) throws IOException, FileBrokerException, ChecksumException;
+
 	/**
 	 * Retrieves the list of public files or folders from the file broker. Method blocks until result is
 	 * retrieved or timeout. Talks to the file broker using JMS.
@@ -141,9 +154,44 @@ public interface FileBrokerClient {
 	 */
 	public boolean isAvailable(String dataId, Long contentLength, String checksum, FileBrokerArea area) throws FileBrokerException;
 
+	/**
+	 * Check the availability of several files with a single request. 
+	 * 
+	 * @param dataIds
+	 * @param contentLengths items may be null if not available
+	 * @param checksums items may be null if not available
+	 * @param area
+	 * @return dataIds of the files that are available
+	 * @throws FileBrokerException
+	 */
+	public List<String> getAvailable(List<String> dataIds, List<Long> contentLengths, List<String> checksums, FileBrokerArea area) throws FileBrokerException;
+	
+	/**
+	 * Ask upload URLs for several files with a single request. Following addFile() calls 
+	 * for these dataIds use the reserved URLs instead of asking them one by one. 
+	 * 
+	 * @param dataIds
+	 * @param contentLengths
+	 * @param area
+	 * @throws FileBrokerException
+	 */
+	public void reserveURLs(List<String> dataIds, List<Long> contentLengths, FileBrokerArea area) throws FileBrokerException;
+
 
 	public boolean moveFromCacheToStorage(String dataId) throws FileBrokerException, AuthCancelledException;
 
+	/**
+	 * Move several files from cache to storage with a single request. Files that 
+	 * aren't in cache are skipped.
+	 * 
+	 * @param dataIds
+	 * @return dataIds of the files that were moved
+	 * @throws QuotaExceededException if all the files don't fit in the quota
+	 * @throws FileBrokerException
+	 * @throws AuthCancelledException
+	 */
+	public List<String> moveFromCacheToStorage(List<String> dataIds) throws FileBrokerException, AuthCancelledException;
+
 
 	/**
 	 * Internally client should use only dataIds instead of full URL and access data through 
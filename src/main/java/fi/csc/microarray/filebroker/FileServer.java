@@ -264,6 +264,10 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 			handleMoveFromCacheToStorageRequest(endpoint, (CommandMessage)msg);
 			return true;
 			
+		case CommandMessage.COMMAND_MOVE_FROM_CACHE_TO_STORAGE_LIST:			
+			handleMoveFromCacheToStorageListRequest(endpoint, (CommandMessage)msg);
+			return true;
+			
 		case CommandMessage.COMMAND_DISK_SPACE_REQUEST:
 			handleSpaceRequest(endpoint, (CommandMessage)msg);
 			return true;
@@ -289,6 +293,18 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 			handleIsAvailable(endpoint, msg);
 			return true;
 			
+		case CommandMessage.COMMAND_NEW_URL_LIST_REQUEST:				
+			handleNewURLListRequest(endpoint, msg);
+			return true;
+			
+		case CommandMessage.COMMAND_GET_URL_LIST:				
+			handleGetURLList(endpoint, msg);
+			return true;
+			
+		case CommandMessage.COMMAND_IS_AVAILABLE_LIST:				
+			handleIsAvailableList(endpoint, msg);
+			return true;
+			
 		case CommandMessage.COMMAND_PUBLIC_URL_REQUEST:
 			handlePublicUrlRequest(endpoint, msg);
 			return true;
@@ -388,6 +404,63 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 	
 	
 	
+	private void handleNewURLListRequest(MessagingEndpoint endpoint, ChipsterMessage msg) throws Exception {
+		
+		// parse request
+		CommandMessage requestMessage = (CommandMessage) msg;
+		String[] fileIds = requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_FILE_ID_LIST);
+		String[] spaces = requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_SIZE_LIST);
+		boolean useCompression = requestMessage.getParameters().contains(ParameterMessage.PARAMETER_USE_COMPRESSION);
+		FileBrokerArea area = FileBrokerArea.valueOf(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_AREA));
+		String username = msg.getUsername();
+		
+		logger.debug("New url list request, " + fileIds.length + " dataIds");
+		
+		ChipsterMessage reply;
+		long totalSpace = 0;
+		for (int i = 0; i < fileIds.length; i++) {
+			totalSpace += Long.parseLong(spaces[i]);
+		}
+		
+		if (!checkFilenameSyntax(fileIds)) {
+			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED);
+		} else if (area == FileBrokerArea.STORAGE && !checkQuota(username, totalSpace)) {
+			// all files of the request must fit in the quota
+			reply = new SuccessMessage(false, ERROR_QUOTA_EXCEEDED);
+		} else {
+			List<URL> urls = new LinkedList<>();
+			for (int i = 0; i < fileIds.length; i++) {
+				URL url = urlRepository.createAuthorisedUrl(fileIds[i], useCompression, area, Long.parseLong(spaces[i]));
+				urls.add(url);
+				managerClient.urlRequest(username, url);
+			}
+			reply = new UrlListMessage(urls);
+		}
+		
+		// send reply
+		endpoint.replyToMessage(msg, reply);
+	}
+
+	private boolean checkFilenameSyntax(String[] fileIds) {
+		for (String fileId : fileIds) {
+			if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Empty list items are dropped from the end of the tab separated named parameter, 
+	 * so missing items are interpreted as nulls.
+	 */
+	private String getListItem(String[] list, int index) {
+		if (index >= list.length || list[index].isEmpty()) {
+			return null;
+		}
+		return list[index];
+	}
+	
 	private ChipsterMessage createNewURLReply(String fileId, String username, long space, boolean useCompression, FileBrokerArea area) throws Exception {
 		ChipsterMessage reply;
 		if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
@@ -428,6 +501,78 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		endpoint.replyToMessage(msg, reply);
 	}
 
+	private void handleGetURLList(MessagingEndpoint endpoint, ChipsterMessage msg) throws MalformedURLException, JMSException {
+		
+		// parse request
+		CommandMessage requestMessage = (CommandMessage) msg;
+		String[] fileIds = requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_FILE_ID_LIST);
+		ChipsterMessage reply;
+		
+		// check fileIds
+		if (!checkFilenameSyntax(fileIds)) {
+			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED);
+		} else {
+			// find urls, nulls for files that don't exist
+			List<URL> urls = new LinkedList<>();
+			for (String fileId : fileIds) {
+				URL url = null;
+				if (filebrokerAreas.fileExists(fileId, FileBrokerArea.CACHE)) {
+					url = urlRepository.constructCacheURL(fileId, "");
+				} else if (filebrokerAreas.fileExists(fileId, FileBrokerArea.STORAGE)) {
+					url = urlRepository.constructStorageURL(fileId, "");
+				}
+				urls.add(url);
+			}
+			reply = new UrlListMessage(urls);
+		}
+		
+		// send reply
+		endpoint.replyToMessage(msg, reply);
+	}
+
+	private void handleIsAvailableList(MessagingEndpoint endpoint, ChipsterMessage msg) throws JMSException, SQLException, IOException {
+		
+		// parse request
+		CommandMessage requestMessage = (CommandMessage) msg;
+		String[] fileIds = requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_FILE_ID_LIST);
+		String[] sizes = requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_SIZE_LIST);
+		String[] checksums = requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_CHECKSUM_LIST);
+		FileBrokerArea area = FileBrokerArea.valueOf(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_AREA));
+		
+		CommandMessage reply;
+		
+		// check fileIds
+		if (!checkFilenameSyntax(fileIds)) {
+			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED);
+		} else {
+			try {
+				// reply with the ids of available files
+				LinkedList<String> availableIds = new LinkedList<>();
+				for (int i = 0; i < fileIds.length; i++) {
+					String sizeString = getListItem(sizes, i);
+					Long size = sizeString != null ? Long.parseLong(sizeString) : null;
+					String checksum = getListItem(checksums, i);
+					try {
+						if (isAvailable(fileIds[i], size, checksum, area)) {
+							availableIds.add(fileIds[i]);
+						}
+					} catch (ContentLengthException | ChecksumException e) {
+						// report only this file as unavailable
+						logger.info("corrupted data or data id collision (" + fileIds[i] + ", " + size + ", " + checksum + ")", e);
+					}
+				}
+				reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL);
+				reply.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(availableIds, "\t"));
+				
+			} catch (ChecksumParseException e) {
+				throw new IOException(e);
+			}
+		}
+
+		// send reply
+		endpoint.replyToMessage(msg, reply);
+	}
+
 	private void handleIsAvailable(MessagingEndpoint endpoint, ChipsterMessage msg) throws JMSException, SQLException, IOException {
 		
 		// parse request
@@ -705,6 +850,76 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 	}
 	
 	
+	private void handleMoveFromCacheToStorageListRequest(final MessagingEndpoint endpoint, final CommandMessage requestMessage) throws JMSException {
+
+		final String[] fileIds = requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_FILE_ID_LIST);
+		logger.debug("move list request, " + fileIds.length + " dataIds");
+		
+		// check ids
+		if (!checkFilenameSyntax(fileIds)) {
+			endpoint.replyToMessage(requestMessage, new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED));
+			return;
+		}
+
+		// move
+		longRunningTaskExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+
+				CommandMessage reply = null;
+				try {
+
+					// only files in cache can be moved
+					List<String> cachedIds = new LinkedList<>();
+					long totalSize = 0;
+					for (String fileId : fileIds) {
+						if (filebrokerAreas.fileExists(fileId, FileBrokerArea.CACHE)) {
+							cachedIds.add(fileId);
+							totalSize += filebrokerAreas.getSize(fileId, FileBrokerArea.CACHE);
+						}
+					}
+					
+					// all files of the request must fit in the quota
+					if (!checkQuota(requestMessage.getUsername(), totalSize)) {
+						reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_FAILED);
+						reply.addParameter(ERROR_QUOTA_EXCEEDED);
+					} else {
+
+						List<String> movedIds = new LinkedList<>();
+						for (String fileId : cachedIds) {
+
+							// move the file
+							if (filebrokerAreas.moveFromCacheToStorage(fileId)) {
+
+								// add to db
+								long size = filebrokerAreas.getSize(fileId, FileBrokerArea.STORAGE);
+								metadataServer.addFile(fileId, size);
+								movedIds.add(fileId);
+							} else {
+								logger.warn("could not move from cache to storage: " + fileId);
+							}
+						}
+						reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL);
+						reply.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(movedIds, "\t"));
+					}
+
+				} catch (Exception e) {
+					logger.error("could not move files from cache to storage", e);
+					reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_FAILED);
+				}
+
+				// send reply
+				try {
+					endpoint.replyToMessage(requestMessage, reply);
+
+				} catch (JMSException e) {
+					logger.error("could not send reply message", e);
+				}
+			}
+		});
+	}
+	
 	private boolean checkQuota(String username, long additionalBytes) throws SQLException {
 		if (defaultUserQuota == -1) {
 			logger.debug("quota limit disabled");
@@ -16,9 +16,12 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.InflaterInputStream;
 
@@ -60,6 +63,7 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	private static final int SPACE_REQUEST_TIMEOUT = 300; // seconds
 	private static final int QUICK_POLL_OPERATION_TIMEOUT = 30; // seconds
 	private static final int MOVE_FROM_CACHE_TO_STORAGE_TIMEOUT = 24; // hours 
+	private static final int RESERVED_URL_LIFETIME = 5; // minutes, must be less than AuthorisedUrlRepository.URL_LIFETIME_MINUTES
 	
 	private static final Logger logger = Logger.getLogger(JMSFileBrokerClient.class);
 	
@@ -71,6 +75,24 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	private boolean useChecksums;
 	private String overridingFilebrokerIp;
 	
+	/**
+	 * Upload URLs asked beforehand with reserveURLs(), by area and dataId. 
+	 */
+	private Map<String, ReservedUrl> reservedUrls = new ConcurrentHashMap<>();
+	
+	private static class ReservedUrl {
+		private URL url;
+		private long created = System.currentTimeMillis();
+		
+		public ReservedUrl(URL url) {
+			this.url = url;
+		}
+		
+		public boolean isValid() {
+			return System.currentTimeMillis() - created < TimeUnit.MINUTES.toMillis(RESERVED_URL_LIFETIME);
+		}
+	}
+	
 	public JMSFileBrokerClient(MessagingTopic urlTopic, String localFilebrokerPath, String overridingFilebrokerIp) throws JMSException, NoSuchAlgorithmException, CertificateException, FileNotFoundException, KeyStoreException, IOException, KeyManagementException {
 
 		this.filebrokerTopic = urlTopic;
@@ -194,6 +216,11 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 			logger.error(e);
 		}
 		
+		return getInputStream(dataId, url);
+	}
+	
+	private ChecksumInputStream getInputStream(String dataId, URL url) throws IOException {
+		
 		if (url == null) {
 			throw new FileNotFoundException("file not found or filebroker didn't respond: " + dataId);
 		}
@@ -262,21 +289,47 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 			
 		} else {
 			// Not available locally, need to download
-			ChecksumInputStream inputStream = null;
-			OutputStream fileStream = null;
-			try {
-				// Download to file
-				inputStream = getInputStream(dataId);				
-				fileStream = new FileOutputStream(destFile);
-				
-				IOUtils.copy(new BufferedInputStream(inputStream), new BufferedOutputStream(fileStream));
-				
-				inputStream.verifyChecksums();
-				
-			} finally {
-				IOUtils.closeIfPossible(inputStream);
-				IOUtils.closeIfPossible(fileStream);
+			download(getInputStream(dataId), destFile);
+		}
+	}
+	
+	/**
+	 * @see fi.csc.microarray.filebroker.FileBrokerClient#getFiles(UUID, List, List)
+	 */
+	@Override
+	public void getFiles(UUID sessionId, List<String> dataIds, List<File> destFiles) throws IOException, FileBrokerException, ChecksumException {
+		
+		// local files don't need urls
+		if (localFilebrokerCache != null && localFilebrokerStorage != null) {
+			Iterator<File> destFileIterator = destFiles.iterator();
+			for (String dataId : dataIds) {
+				getFile(sessionId, dataId, destFileIterator.next());
 			}
+			return;
+		}
+		
+		List<URL> urls = getURLs(dataIds);
+		
+		Iterator<URL> urlIterator = urls.iterator();
+		Iterator<File> destFileIterator = destFiles.iterator();
+		for (String dataId : dataIds) {
+			download(getInputStream(dataId, urlIterator.next()), destFileIterator.next());
+		}
+	}
+
+	private void download(ChecksumInputStream inputStream, File destFile) throws IOException, ChecksumException {
+		OutputStream fileStream = null;
+		try {
+			// Download to file
+			fileStream = new FileOutputStream(destFile);
+			
+			IOUtils.copy(new BufferedInputStream(inputStream), new BufferedOutputStream(fileStream));
+			
+			inputStream.verifyChecksums();
+			
+		} finally {
+			IOUtils.closeIfPossible(inputStream);
+			IOUtils.closeIfPossible(fileStream);
 		}
 	}
 
@@ -315,6 +368,133 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		}
 	}
 
+
+	@Override
+	public List<String> getAvailable(List<String> dataIds, List<Long> contentLengths, List<String> checksums, FileBrokerArea area) throws FileBrokerException {
+		
+		if (dataIds.isEmpty()) {
+			return new LinkedList<>();
+		}
+		
+		ReplyMessageListener replyListener = new ReplyMessageListener();  
+		try {
+			
+			// nulls are sent as empty strings
+			List<String> contentLengthStrings = new LinkedList<>();
+			for (Long contentLength : contentLengths) {
+				contentLengthStrings.add(contentLength != null ? contentLength.toString() : "");
+			}
+			List<String> checksumStrings = new LinkedList<>();
+			for (String checksum : checksums) {
+				checksumStrings.add(checksum != null ? checksum : "");
+			}
+			
+			CommandMessage requestMessage = new CommandMessage(CommandMessage.COMMAND_IS_AVAILABLE_LIST);
+			requestMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+			requestMessage.addNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST, Strings.delimit(contentLengthStrings, "\t"));
+			requestMessage.addNamedParameter(ParameterMessage.PARAMETER_CHECKSUM_LIST, Strings.delimit(checksumStrings, "\t"));
+			requestMessage.addNamedParameter(ParameterMessage.PARAMETER_AREA, area.toString());
+			filebrokerTopic.sendReplyableMessage(requestMessage, replyListener);
+			
+			// wait
+			ParameterMessage reply = replyListener.waitForReply(QUICK_POLL_OPERATION_TIMEOUT, TimeUnit.SECONDS); 
+			
+			// check how it went
+			if (reply == null) {
+				throw new FileBrokerException("timeout while waiting for the filebroker");
+			}
+			
+			if (!(reply instanceof CommandMessage) || !CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL.equals(((CommandMessage)reply).getCommand())) {
+				throw new FileBrokerException("failed to check availability of files: " + reply);
+			}
+			
+			List<String> availableIds = new LinkedList<>();
+			for (String dataId : reply.getNamedParameterAsArray(ParameterMessage.PARAMETER_FILE_ID_LIST)) {
+				availableIds.add(dataId);
+			}
+			return availableIds;
+			
+		} catch (JMSException | AuthCancelledException e) {
+			throw new FileBrokerException(e);
+		} finally {
+			replyListener.cleanUp();
+		}
+	}
+	
+	@Override
+	public void reserveURLs(List<String> dataIds, List<Long> contentLengths, FileBrokerArea area) throws FileBrokerException {
+		
+		if (dataIds.isEmpty()) {
+			return;
+		}
+		
+		logger.debug("reserving " + dataIds.size() + " new urls");
+		
+		removeExpiredReservedUrls();
+		
+		UrlListMessageListener replyListener = new UrlListMessageListener();  
+		List<URL> urls;
+		try {
+			CommandMessage urlRequestMessage = new CommandMessage(CommandMessage.COMMAND_NEW_URL_LIST_REQUEST);
+			urlRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+			urlRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_AREA, area.toString());
+			urlRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST, Strings.delimit(contentLengths, "\t"));
+	
+			if (useCompression) {
+				urlRequestMessage.addParameter(ParameterMessage.PARAMETER_USE_COMPRESSION);
+			}
+			filebrokerTopic.sendReplyableMessage(urlRequestMessage, replyListener);
+			urls = replyListener.waitForReply(SPACE_REQUEST_TIMEOUT, TimeUnit.SECONDS);
+		} catch (QuotaExceededException e) {
+			throw e;
+		} catch (FileBrokerException e) {
+			// not fatal, urls are asked one by one when needed
+			logger.warn("url list request failed: " + e.getMessage());
+			return;
+		} catch (JMSException | AuthCancelledException e) {
+			throw new FileBrokerException(e);
+		} finally {
+			replyListener.cleanUp();
+		}
+		
+		// not fatal, urls are asked one by one when needed
+		if (urls == null) {
+			logger.warn("did not get response for url list request");
+			return;
+		}
+		
+		if (urls.size() != dataIds.size()) {
+			logger.warn("expected " + dataIds.size() + " urls, but got " + urls.size());
+			return;
+		}
+
+		try {
+			Iterator<URL> urlIterator = urls.iterator();
+			for (String dataId : dataIds) {
+				URL url = applyOverridingFilebrokerIp(urlIterator.next());
+				reservedUrls.put(getReservedUrlKey(dataId, area), new ReservedUrl(url));
+			}
+		} catch (MalformedURLException e) {
+			throw new FileBrokerException(e);
+		}
+	}
+	
+	/**
+	 * Forget the reserved urls that weren't used in time, so that the map doesn't grow
+	 * when the uploads are cancelled.
+	 */
+	private void removeExpiredReservedUrls() {
+		Iterator<ReservedUrl> iterator = reservedUrls.values().iterator();
+		while (iterator.hasNext()) {
+			if (!iterator.next().isValid()) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	private String getReservedUrlKey(String dataId, FileBrokerArea area) {
+		return area + "/" + dataId;
+	}
 	
 	@Override
 	public boolean moveFromCacheToStorage(String dataId) throws FileBrokerException, AuthCancelledException {
@@ -349,6 +529,57 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		}
 	}
 	
+	@Override
+	public List<String> moveFromCacheToStorage(List<String> dataIds) throws FileBrokerException, AuthCancelledException {
+		
+		if (dataIds.isEmpty()) {
+			return new LinkedList<>();
+		}
+		
+		logger.debug("moving from cache to storage: " + dataIds.size() + " files");
+		
+		ReplyMessageListener replyListener = new ReplyMessageListener();  
+		try {
+			
+			// ask file broker to move them
+			CommandMessage moveRequestMessage = new CommandMessage(CommandMessage.COMMAND_MOVE_FROM_CACHE_TO_STORAGE_LIST);
+			moveRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+			filebrokerTopic.sendReplyableMessage(moveRequestMessage, replyListener);
+			
+			// wait
+			ParameterMessage reply = replyListener.waitForReply(MOVE_FROM_CACHE_TO_STORAGE_TIMEOUT, TimeUnit.HOURS);
+			
+			// check how it went
+			if (reply == null) {
+				throw new FileBrokerException("timeout while waiting for the filebroker");
+			}
+			
+			if (!(reply instanceof CommandMessage)) {
+				throw new FileBrokerException("failed to move files from cache to storage: " + reply);
+			}
+			
+			CommandMessage commandReply = (CommandMessage) reply;
+			if (commandReply.getParameters().contains(FileServer.ERROR_QUOTA_EXCEEDED)) {
+				throw new QuotaExceededException();
+			}
+			
+			if (!CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL.equals(commandReply.getCommand())) {
+				throw new FileBrokerException("failed to move files from cache to storage: " + reply);
+			}
+			
+			List<String> movedIds = new LinkedList<>();
+			for (String dataId : reply.getNamedParameterAsArray(ParameterMessage.PARAMETER_FILE_ID_LIST)) {
+				movedIds.add(dataId);
+			}
+			return movedIds;
+			
+		} catch (JMSException e) {
+			throw new FileBrokerException(e);
+		} finally {
+			replyListener.cleanUp();
+		}
+	}
+	
 	/**
 	 * @see fi.csc.microarray.filebroker.FileBrokerClient#getPublicFiles()
 	 */
@@ -535,6 +766,14 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	 * @throws MalformedURLException 
 	 */
 	private URL getNewURL(String dataId, boolean useCompression, FileBrokerArea area, long contentLength) throws FileBrokerException, MalformedURLException {
+		
+		// use the url reserved earlier, if it is still valid
+		ReservedUrl reservedUrl = reservedUrls.remove(getReservedUrlKey(dataId, area));
+		if (reservedUrl != null && reservedUrl.isValid() && useCompression == this.useCompression) {
+			logger.debug("using reserved url: " + reservedUrl.url);
+			return reservedUrl.url;
+		}
+		
 		logger.debug("getting new url");
 	
 		UrlMessageListener replyListener = new UrlMessageListener();  
@@ -588,6 +827,45 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		return url;
 	}
 
+	/**
+	 * Get URLs of several files with a single request.
+	 * 
+	 * @return urls in the same order with dataIds, an item is null if the file wasn't found
+	 */
+	private List<URL> getURLs(List<String> dataIds) throws FileBrokerException, MalformedURLException {
+		
+		logger.debug("getting urls for " + dataIds.size() + " dataIds");
+		
+		if (dataIds.isEmpty()) {
+			return new LinkedList<>();
+		}
+		
+		UrlListMessageListener replyListener = new UrlListMessageListener();  
+		List<URL> urls;
+		try {
+			CommandMessage getURLMessage = new CommandMessage(CommandMessage.COMMAND_GET_URL_LIST);
+			getURLMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+	
+			filebrokerTopic.sendReplyableMessage(getURLMessage, replyListener);
+			urls = replyListener.waitForReply(QUICK_POLL_OPERATION_TIMEOUT, TimeUnit.SECONDS);
+		} catch (JMSException | AuthCancelledException e) {
+			throw new FileBrokerException(e);
+		} finally {
+			replyListener.cleanUp();
+		}
+		
+		if (urls == null || urls.size() != dataIds.size()) {
+			throw new FileBrokerException("filebroker didn't respond to url list request");
+		}
+		
+		List<URL> overriddenUrls = new LinkedList<>();
+		for (URL url : urls) {
+			overriddenUrls.add(applyOverridingFilebrokerIp(url));
+		}
+		
+		return overriddenUrls;
+	}
+
 	private URL applyOverridingFilebrokerIp(URL url)
 			throws MalformedURLException {
 		if (url != null && overridingFilebrokerIp != null) {
@@ -69,6 +69,11 @@ public class SimpleFileBrokerClient implements FileBrokerClient {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public void getFiles(UUID sessionId, List<String> dataIds, List<File> destFiles) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public String addFile(UUID jobId, UUID sessionId, FileBrokerArea area, File file, CopyProgressListener progressListener, String datsetName) throws FileBrokerException, IOException {
 		throw new UnsupportedOperationException();
@@ -100,11 +105,26 @@ public class SimpleFileBrokerClient implements FileBrokerClient {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public List<String> getAvailable(List<String> dataIds, List<Long> contentLengths, List<String> checksums, FileBrokerArea area) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void reserveURLs(List<String> dataIds, List<Long> contentLengths, FileBrokerArea area) {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public boolean moveFromCacheToStorage(String dataId) {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public List<String> moveFromCacheToStorage(List<String> dataIds) {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public List<DbSession> listPublicRemoteSessions() throws FileBrokerException {
 		throw new UnsupportedOperationException();
@@ -0,0 +1,273 @@
+package fi.csc.microarray.jobmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.chipster.toolbox.ToolboxClientComp;
+import fi.csc.chipster.toolbox.ToolboxTool;
+import fi.csc.microarray.config.Configuration;
+import fi.csc.microarray.jobmanager.WaitingJobQueue.WaitingJob;
+
+/**
+ * Decides in which order the waiting jobs are sent to comps and which of them
+ * an available comp can run.
+ *
+ * Each user has an own virtual queue and inside it each tool module has its own queue.
+ * Within the user's queue, the jobs are ordered by their position in the module queue
+ * divided by the weight of the module. The priority of a job is then its position in
+ * the user's queue divided by the weight of the user. A job that has waited for the
+ * aging time gets the same boost as moving one step forward in the user's queue.
+ * Smallest value goes first and ties are resolved by the creation time, so with the
+ * default weights the jobs of different users are simply interleaved.
+ *
+ * This way a user submitting a large workflow doesn't block the interactive users,
+ * but the old jobs are still eventually run.
+ *
+ * The modules of the tools are fetched from the toolbox in a background thread, so
+ * that the scheduling doesn't block the message listener. Until the module is known,
+ * the tool is in the unknown module.
+ */
+public class FairShareScheduler {
+
+	private static final Logger logger = Logger.getLogger(FairShareScheduler.class);
+
+	public static final String UNKNOWN_MODULE = "unknown";
+
+	private Map<String, Double> userWeights;
+	private Map<String, Double> moduleWeights;
+	private int agingTime;
+
+	private ToolboxClientComp toolboxClient;
+	private HashMap<String, String> toolModules = new HashMap<>();
+	private ExecutorService toolboxExecutor = Executors.newSingleThreadExecutor();
+
+	public FairShareScheduler(Configuration configuration) {
+		this(parseWeights(configuration.getString("jobmanager", "fair-share-user-weights")),
+				parseWeights(configuration.getString("jobmanager", "fair-share-module-weights")),
+				configuration.getInt("jobmanager", "fair-share-aging-time"),
+				new ToolboxClientComp(configuration.getString("messaging", "toolbox-url")));
+	}
+
+	/**
+	 * @param userWeights weight of each user, default is 1
+	 * @param moduleWeights weight of each tool module, default is 1
+	 * @param agingTime seconds, 0 disables aging
+	 * @param toolboxClient for finding out the module of the tool, may be null
+	 */
+	public FairShareScheduler(Map<String, Double> userWeights, Map<String, Double> moduleWeights, int agingTime, ToolboxClientComp toolboxClient) {
+		this.userWeights = userWeights;
+		this.moduleWeights = moduleWeights;
+		this.agingTime = agingTime;
+		this.toolboxClient = toolboxClient;
+	}
+
+	/**
+	 * Order the jobs for sending to comps.
+	 *
+	 * @param jobs waiting jobs, oldest first
+	 * @return new list, the job that should run first is the first
+	 */
+	public List<WaitingJob> order(List<WaitingJob> jobs) {
+
+		final IdentityHashMap<WaitingJob, Integer> createdOrder = new IdentityHashMap<>();
+		LinkedHashMap<String, List<WaitingJob>> userQueues = new LinkedHashMap<>();
+
+		for (WaitingJob job : jobs) {
+			createdOrder.put(job, createdOrder.size());
+
+			String user = getUsername(job);
+			if (!userQueues.containsKey(user)) {
+				userQueues.put(user, new ArrayList<WaitingJob>());
+			}
+			userQueues.get(user).add(job);
+		}
+
+		long now = System.currentTimeMillis();
+		final IdentityHashMap<WaitingJob, Double> priorities = new IdentityHashMap<>();
+
+		for (String user : userQueues.keySet()) {
+
+			// module queues inside the user's queue
+			List<WaitingJob> userQueue = userQueues.get(user);
+			HashMap<String, Integer> moduleRanks = new HashMap<>();
+			for (WaitingJob job : userQueue) {
+				String module = getModule(job);
+				priorities.put(job, increment(moduleRanks, module) / getWeight(moduleWeights, module));
+			}
+			sort(userQueue, priorities, createdOrder);
+
+			// user queues
+			double userWeight = getWeight(userWeights, user);
+			for (int i = 0; i < userQueue.size(); i++) {
+				WaitingJob job = userQueue.get(i);
+				double priority = i / userWeight;
+				if (agingTime > 0) {
+					long waited = (now - job.getCreated().getTime()) / 1000;
+					priority -= (double)waited / agingTime;
+				}
+				priorities.put(job, priority);
+			}
+		}
+
+		List<WaitingJob> ordered = new ArrayList<>(jobs);
+		sort(ordered, priorities, createdOrder);
+
+		return ordered;
+	}
+
+	/**
+	 * Smallest priority value first, ties in the creation order.
+	 */
+	private static void sort(List<WaitingJob> jobs, final Map<WaitingJob, Double> priorities, final Map<WaitingJob, Integer> createdOrder) {
+		Collections.sort(jobs, new Comparator<WaitingJob>() {
+			@Override
+			public int compare(WaitingJob o1, WaitingJob o2) {
+				int c = Double.compare(priorities.get(o1), priorities.get(o2));
+				if (c != 0) {
+					return c;
+				}
+				return Integer.compare(createdOrder.get(o1), createdOrder.get(o2));
+			}
+		});
+	}
+
+	/**
+	 * @param jobs waiting jobs, oldest first
+	 * @return queue position of each job, starting from 1
+	 */
+	public Map<String, Integer> getQueuePositions(List<WaitingJob> jobs) {
+		HashMap<String, Integer> positions = new HashMap<>();
+		for (WaitingJob job : order(jobs)) {
+			positions.put(job.getJobId(), positions.size() + 1);
+		}
+		return positions;
+	}
+
+	private String getUsername(WaitingJob job) {
+		String username = job.getJobMessage().getUsername();
+		if (username == null) {
+			return "";
+		}
+		return username;
+	}
+
+	/**
+	 * Check the job against the module filter of a comp, see the comp configuration
+	 * entries module-filter-mode and module-filter-name. 
+	 * 
+	 * @param job
+	 * @param moduleFilterMode "include", "exclude" or null if the comp didn't tell its filter
+	 * @param moduleFilterName
+	 * @return false if the comp would ignore the job. Jobs in the unknown module are always accepted.
+	 */
+	public boolean isAccepted(WaitingJob job, String moduleFilterMode, String moduleFilterName) {
+		String module = getModule(job);
+		if (UNKNOWN_MODULE.equals(module)) {
+			return true;
+		}
+		if ("exclude".equals(moduleFilterMode)) {
+			return !module.equals(moduleFilterName);
+		}
+		if ("include".equals(moduleFilterMode)) {
+			return module.equals(moduleFilterName);
+		}
+		return true;
+	}
+
+	private String getModule(WaitingJob job) {
+		final String toolId = job.getJobMessage().getToolId();
+
+		synchronized (toolModules) {
+			String module = toolModules.get(toolId);
+			if (module != null) {
+				return module;
+			}
+			if (toolboxClient != null) {
+				// mark as pending, so that the tool is fetched only once
+				toolModules.put(toolId, UNKNOWN_MODULE);
+				toolboxExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						fetchModule(toolId);
+					}
+				});
+			}
+			return UNKNOWN_MODULE;
+		}
+	}
+
+	private void fetchModule(String toolId) {
+		String module = UNKNOWN_MODULE;
+		try {
+			ToolboxTool tool = toolboxClient.getTool(toolId);
+			if (tool != null && tool.getModule() != null) {
+				module = tool.getModule();
+			}
+		} catch (Exception e) {
+			logger.warn("could not get the module of the tool " + toolId + " from the toolbox", e);
+		}
+		// cache also the unknown ones, otherwise a broken toolbox would be asked on every round
+		synchronized (toolModules) {
+			toolModules.put(toolId, module);
+		}
+	}
+
+	private static int increment(HashMap<String, Integer> ranks, String key) {
+		Integer rank = ranks.get(key);
+		if (rank == null) {
+			rank = 0;
+		}
+		ranks.put(key, rank + 1);
+		return rank;
+	}
+
+	private static double getWeight(Map<String, Double> weights, String key) {
+		Double weight = weights.get(key);
+		if (weight == null) {
+			return 1.0;
+		}
+		return weight;
+	}
+
+	/**
+	 * Parse weights from a string like "user1=2, user2=0.5".
+	 *
+	 * @param value
+	 * @return
+	 */
+	static Map<String, Double> parseWeights(String value) {
+		HashMap<String, Double> weights = new HashMap<>();
+		if (value == null) {
+			return weights;
+		}
+		for (String item : value.split(",")) {
+			if (item.trim().isEmpty()) {
+				continue;
+			}
+			String[] keyAndValue = item.split("=");
+			try {
+				if (keyAndValue.length != 2) {
+					throw new NumberFormatException();
+				}
+				double weight = Double.parseDouble(keyAndValue[1].trim());
+				if (weight <= 0) {
+					throw new NumberFormatException();
+				}
+				weights.put(keyAndValue[0].trim(), weight);
+			} catch (NumberFormatException e) {
+				logger.warn("ignoring invalid fair share weight: " + item);
+			}
+		}
+		return weights;
+	}
+}
@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -16,6 +17,7 @@ import com.google.gson.Gson;
 import fi.csc.microarray.config.Configuration;
 import fi.csc.microarray.config.DirectoryLayout;
 import fi.csc.microarray.constants.ApplicationConstants;
+import fi.csc.microarray.jobmanager.WaitingJobQueue.WaitingJob;
 import fi.csc.microarray.jobmanager.model.Job;
 import fi.csc.microarray.jobmanager.model.JobManagerDB;
 import fi.csc.microarray.messaging.JMSMessagingEndpoint;
@@ -53,6 +55,8 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 	MessagingTopic compTopic;
 	
 	private JobManagerDB jobsDb;
+	private WaitingJobQueue waitingJobs = new WaitingJobQueue();
+	private FairShareScheduler scheduler;
 	
 	
 	private class ClientMessageListener implements MessagingListener {
@@ -89,13 +93,16 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 
 			// store in db, also stores the original replyTo
 			// when created, job is put to state waiting
-			if (jobsDb.addJob(msg)) {  
+			Job job = jobsDb.addJob(msg);
+			if (job != null) {  
 
 				// set replyTo to jobmanager
 				msg.setReplyTo(jobManagerTopic.getJMSTopic());
+				
+				waitingJobs.add(new WaitingJob(msg, clientReplyTo, job.getCreated()));
 
 				// if no other jobs in 'waiting queue' (state WAITING), send to comps 
-				if (jobsDb.getWaitingJobs().size() <= 1) { // that one is this job
+				if (waitingJobs.size() <= 1) { // that one is this job
 					// forward to comp, if this fails, job is left waiting, which is ok
 					compTopic.sendMessage(msg);
 				}
@@ -119,6 +126,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 				String jobId = msg.getNamedParameter(ParameterMessage.PARAMETER_JOB_ID);
 				
 				Job job = jobsDb.updateJobReplyTo(jobId, newClientReplyTo);
+				waitingJobs.updateClientReplyTo(jobId, newClientReplyTo);
 				
 				
 				ResultMessage resultMessage = null;
@@ -157,6 +165,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 			} else if (CommandMessage.COMMAND_CANCEL.equals(msg.getCommand())) {
 				String jobId = msg.getNamedParameter(ParameterMessage.PARAMETER_JOB_ID);
 				if (jobsDb.updateJobCancelled(jobsDb.getJob(jobId))) {
+					waitingJobs.remove(jobId);
 					compTopic.sendMessage(msg);
 				}
 				
@@ -206,18 +215,9 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 					return;
 				}
 
-				Job job = jobsDb.getJob(jobId);
-				if (job == null) {
-					logger.warn("offer for non-existent job " + jobId);
-					return;
-				}
-				
-				// decide whether to schedule
-				boolean scheduleJob = false;
-
-				if (job.getState() == JobState.WAITING) {
-					scheduleJob = true;
-				} 
+				// decide whether to schedule, only the first offer gets the job
+				WaitingJob waitingJob = waitingJobs.remove(jobId);
+				boolean scheduleJob = waitingJob != null;
 				
 				
 //				// job has never been reported by any analysis server
@@ -233,26 +233,44 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 				// schedule
 				if (scheduleJob) {
 					logger.info("scheduling job " + jobId);
-
-					// create accept message
-					CommandMessage acceptMessage = new CommandMessage(CommandMessage.COMMAND_ACCEPT_OFFER);
 					
-					acceptMessage.addNamedParameter(ParameterMessage.PARAMETER_JOB_ID, jobId);
-					acceptMessage.addNamedParameter(ParameterMessage.PARAMETER_AS_ID, compId);
-					acceptMessage.setUsername(job.getJobMessage().getUsername());
-					
-					// TODO this needed for what?
-					acceptMessage.setReplyTo(jobManagerTopic.getJMSTopic());
-
-					// send accept
-					compTopic.sendMessage(acceptMessage);
-
-					// update job state
-					jobsDb.updateJobScheduled(job, compId, compHost);
+					// the job is removed from the queue only when it is scheduled successfully 
+					boolean scheduled = false;
+					try {
+						Job job = jobsDb.getJob(jobId);
+						if (job == null) {
+							logger.warn("offer for non-existent job " + jobId);
+							return;
+						}
+
+						// create accept message
+						CommandMessage acceptMessage = new CommandMessage(CommandMessage.COMMAND_ACCEPT_OFFER);
+
+						acceptMessage.addNamedParameter(ParameterMessage.PARAMETER_JOB_ID, jobId);
+						acceptMessage.addNamedParameter(ParameterMessage.PARAMETER_AS_ID, compId);
+						acceptMessage.setUsername(waitingJob.getJobMessage().getUsername());
+
+						// TODO this needed for what?
+						acceptMessage.setReplyTo(jobManagerTopic.getJMSTopic());
+
+						// send accept
+						compTopic.sendMessage(acceptMessage);
+
+						// update job state
+						jobsDb.updateJobScheduled(job, compId, compHost);
+						scheduled = true;
+					} finally {
+						if (!scheduled) {
+							// still waiting in the db, try again on the next round
+							waitingJobs.add(waitingJob);
+							logger.warn("scheduling job " + jobId + " failed, job is waiting again");
+						}
+					}
 				}
 				
 			} else if (CommandMessage.COMMAND_COMP_AVAILABLE.equals(msg.getCommand())) {
-				scheduleWaitingJobs();
+				scheduleWaitingJobs(msg.getNamedParameter(ParameterMessage.PARAMETER_MODULE_FILTER_MODE), 
+						msg.getNamedParameter(ParameterMessage.PARAMETER_MODULE_FILTER_NAME));
 			}
 				
 			else {
@@ -269,6 +287,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 		}
 
 		private void handleJobLogMessage(JobLogMessage msg) {
+			waitingJobs.remove(msg.getJobId());
 			jobsDb.updateJobRunning(jobsDb.getJob(msg.getJobId()));
 		}
 
@@ -289,6 +308,11 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 			
 			JobState jobStateFromComp = msg.getState();
 			
+			if (jobStateFromComp != JobState.NEW && jobStateFromComp != JobState.COMP_BUSY) {
+				// comp has the job
+				waitingJobs.remove(jobId);
+			}
+			
 			if (jobStateFromComp == JobState.COMPLETED ||
 					jobStateFromComp == JobState.FAILED ||
 					jobStateFromComp == JobState.FAILED_USER_ERROR ||
@@ -338,6 +362,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 		logger.info("starting jobmanager service...");
 
 		jobMaxWaitTime = configuration.getInt("jobmanager", "job-max-wait-time");
+		scheduler = new FairShareScheduler(configuration);
 		
 		// initialize jobs db
 		this.jobsDb = new JobManagerDB(configuration);
@@ -355,6 +380,12 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 		jobManagerTopic.setListener(new CompMessageListener());
 		
 		compTopic = endpoint.createTopic(Topics.Name.AUTHORIZED_MANAGED_REQUEST_TOPIC, AccessMode.WRITE);
+		
+		// the db is read only once, after this the waiting jobs are kept in memory
+		for (Job job : jobsDb.getWaitingJobs()) {
+			waitingJobs.add(new WaitingJob(job, jobManagerTopic.getJMSTopic()));
+		}
+		logger.info("there are " + waitingJobs.size() + " waiting jobs");
 
 		// create keep-alive thread and register shutdown hook
 		KeepAliveShutdownHandler.init(this);
@@ -366,83 +397,79 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 	
 	
 
-	private void scheduleWaitingJobs() {
-		List<Job> waitingJobs = jobsDb.getWaitingJobs();
-		if (waitingJobs.size() > 0) {
-			logger.info("rescheduling " + waitingJobs.size() + " waiting jobs");
+	/**
+	 * Send waiting jobs to comps. Called when a comp tells that it's available. 
+	 * Uses only the in-memory queue, the db is updated only for the expired jobs.
+	 * 
+	 * Jobs are sent in the fair share order, so that the free comp offers first
+	 * for the job that should run next. Jobs excluded by the module filter of the 
+	 * comp are not sent, the other comps will ask for them when they are available.
+	 * 
+	 * @param moduleFilterMode module filter of the available comp, null if not known 
+	 * @param moduleFilterName
+	 */
+	private void scheduleWaitingJobs(String moduleFilterMode, String moduleFilterName) {
+		
+		// remove expired
+		List<WaitingJob> expiredJobs = waitingJobs.removeExpired(jobMaxWaitTime);
+		if (!expiredJobs.isEmpty()) {
+			expireJobs(expiredJobs);
 		}
 		
-		List<String> jobsToBeExpired = new LinkedList<String>(); // avoid removing during iteration 
-
-		// reschedule
-		for (Job job: waitingJobs) {
-			try {
-				if (!rescheduleJob(job.getJobId())) {
-					jobsToBeExpired.add(job.getJobId());
-				};
-			} catch (Exception e) {
-				logger.warn("could not reschedule job " + job.getJobId(), e);
+		List<WaitingJob> jobs = new LinkedList<>();
+		for (WaitingJob job : scheduler.order(waitingJobs.getJobs())) {
+			if (scheduler.isAccepted(job, moduleFilterMode, moduleFilterName)) {
+				jobs.add(job);
 			}
 		}
+		if (jobs.size() > 0) {
+			logger.info("rescheduling " + jobs.size() + " waiting jobs");
+		}
 
-		// remove expired (and non-existent)
-		for (String jobId: jobsToBeExpired) {
+		// reschedule
+		for (WaitingJob job : jobs) {
 			try {
-				jobsDb.updateJobMaxWaitTimeReached(jobId);
-
-				// inform client
-				Job job = jobsDb.getJob(jobId); 
-				if ( job != null) {
-					logger.warn("sending job wait expired for job " + jobId);
-					ResultMessage msg = new ResultMessage();
-					msg.setJobId(jobId);
-					msg.setState(JobState.FAILED);
-					msg.setErrorMessage("There was no computing server available to run this job, please try again later on");
-					try {
-						endpoint.sendMessageToClientReplyChannel(job.getReplyTo(), msg);
-					} catch (Exception e) {
-						// avoid unnecessary logging if client is not there
-					}
-				}
-			} catch (Exception e) {
-				logger.error(Exceptions.getStackTrace(e));
+				compTopic.sendMessage(job.getJobMessage());
+			} catch (JMSException e) {
+				// job has not expired so not removing, try again later
+				logger.error("send message failed when reschedulig job " + job.getJobId());
 			}
 		}
 	}
 	
 	/**
+	 * Update all expired jobs to db in one transaction and inform clients.
 	 * 
-	 * @param jobId
-	 * @return false if job should be removed (expired or non-existent)
+	 * @param expiredJobs
 	 */
-	private boolean rescheduleJob(String jobId) {
-		Job job = jobsDb.getJob(jobId);
+	private void expireJobs(List<WaitingJob> expiredJobs) {
 		
-		if (job == null) {
-			logger.warn("trying to reschedule non existing job " + jobId);
-			return false;
+		List<String> jobIds = new LinkedList<String>();
+		for (WaitingJob job : expiredJobs) {
+			logger.warn("max wait time reached for job " + job.getJobId());
+			jobIds.add(job.getJobId());
 		}
-
-		if (job.getSecondsSinceCreated() > jobMaxWaitTime) {
-			logger.warn("max wait time reached for job " + jobId);
-			return false;
-		}
-	
+		
 		try {
-			
-			JobMessage jobMessage = job.getJobMessage();
-			// set replyTo to jobmanager
-			jobMessage.setReplyTo(jobManagerTopic.getJMSTopic());
-			
-			compTopic.sendMessage(jobMessage);
-		} catch (JMSException e) {
-			logger.error("send message failed when reschedulig job " + jobId);
-			return true; // job has not expired so not removing, try again later
+			jobsDb.updateJobsMaxWaitTimeReached(jobIds);
+		} catch (Exception e) {
+			logger.error(Exceptions.getStackTrace(e));
 		}
-	
-		return true;
-	}
 
+		// inform clients
+		for (WaitingJob job : expiredJobs) {
+			logger.warn("sending job wait expired for job " + job.getJobId());
+			ResultMessage msg = new ResultMessage();
+			msg.setJobId(job.getJobId());
+			msg.setState(JobState.FAILED);
+			msg.setErrorMessage("There was no computing server available to run this job, please try again later on");
+			try {
+				endpoint.sendMessageToClientReplyChannel(job.getClientReplyTo(), msg);
+			} catch (Exception e) {
+				// avoid unnecessary logging if client is not there
+			}
+		}
+	}
 	
 	
 	@Override
@@ -463,6 +490,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 					logger.info(String.format("cancel request from admin web for job %s", jobId));
 					Job job = jobsDb.getJob(jobId);
 					if (jobsDb.updateJobCancelled(job)) {
+						waitingJobs.remove(jobId);
 						compTopic.sendMessage(commandMessage);
 						logger.info(String.format("sending cancel for job %s to comps", jobId));
 						// inform client
@@ -480,7 +508,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 
 					String report = "";
 					report += "JOBS\n\n" +
-							"waiting: " + jobsDb.getWaitingJobs().size() + "\n" +
+							"waiting: " + waitingJobs.size() + "\n" +
 							"running: " + jobsDb.getRunningJobs().size() + "\n" +
 							"all: " + jobsDb.getJobCount() + "\n" +
 							"\n";
@@ -507,13 +535,19 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 	private void handleListRunningJobs(CommandMessage commandMessage) throws JMSException {
 		ArrayList<HashMap<String, Object>> jobs = new ArrayList<>();
 		List<Job> runningJobs = jobsDb.getRunningJobs();
+		Map<String, Integer> queuePositions = scheduler.getQueuePositions(waitingJobs.getJobs());
 		for (Job job : runningJobs) {
 			JobMessage jobMessage = job.getJobMessage();
 			String host = job.getCompHost();
 			if (host == null || "".equals(host)) {
 				host = job.getCompId();
 			}
-			JobLogMessage jobLogMessage = new JobLogMessage(jobMessage.getToolId(), job.getState(), null, job.getJobId(), job.getCreated(), job.getFinished(), null, null, jobMessage.getUsername(), host);
+			String stateDetail = null;
+			Integer queuePosition = queuePositions.get(job.getJobId());
+			if (queuePosition != null) {
+				stateDetail = "queue position " + queuePosition + "/" + queuePositions.size();
+			}
+			JobLogMessage jobLogMessage = new JobLogMessage(jobMessage.getToolId(), job.getState(), stateDetail, job.getJobId(), job.getCreated(), job.getFinished(), null, null, jobMessage.getUsername(), host);
 			jobs.add(jobLogMessage.toMap());
 		}		
 		String json = new Gson().toJson(jobs);
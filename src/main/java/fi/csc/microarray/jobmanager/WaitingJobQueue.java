@@ -0,0 +1,156 @@
+package fi.csc.microarray.jobmanager;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.jms.Destination;
+
+import fi.csc.microarray.jobmanager.model.Job;
+import fi.csc.microarray.messaging.message.JobMessage;
+
+/**
+ * In-memory queue of the jobs in state WAITING, ordered by the creation time.
+ *
+ * The database is still updated on every state change, but rescheduling uses only
+ * this queue, so that the waiting jobs don't have to be queried and their job
+ * messages deserialised from the database again on every round.
+ */
+public class WaitingJobQueue {
+
+	public static class WaitingJob {
+		private String jobId;
+		private JobMessage jobMessage;
+		private Destination clientReplyTo;
+		private Date created;
+
+		/**
+		 * @param jobMessage with replyTo already set to jobmanager
+		 * @param clientReplyTo
+		 * @param created
+		 */
+		public WaitingJob(JobMessage jobMessage, Destination clientReplyTo, Date created) {
+			this.jobId = jobMessage.getJobId();
+			this.jobMessage = jobMessage;
+			this.clientReplyTo = clientReplyTo;
+			this.created = created;
+		}
+
+		/**
+		 * Create from a job loaded from the database. Job message is deserialised only here.
+		 *
+		 * @param job
+		 * @param jobmanagerReplyTo
+		 */
+		public WaitingJob(Job job, Destination jobmanagerReplyTo) {
+			this(job.getJobMessage(), job.getReplyTo(), job.getCreated());
+			this.jobMessage.setReplyTo(jobmanagerReplyTo);
+		}
+
+		public String getJobId() {
+			return jobId;
+		}
+
+		public JobMessage getJobMessage() {
+			return jobMessage;
+		}
+
+		public Destination getClientReplyTo() {
+			return clientReplyTo;
+		}
+
+		public Date getCreated() {
+			return created;
+		}
+
+		public long getSecondsSinceCreated() {
+			return (System.currentTimeMillis() - created.getTime()) / 1000;
+		}
+	}
+
+	private static final Comparator<WaitingJob> CREATED_ORDER = new Comparator<WaitingJob>() {
+		@Override
+		public int compare(WaitingJob o1, WaitingJob o2) {
+			int c = o1.getCreated().compareTo(o2.getCreated());
+			if (c != 0) {
+				return c;
+			}
+			return o1.getJobId().compareTo(o2.getJobId());
+		}
+	};
+
+	private TreeSet<WaitingJob> queue = new TreeSet<>(CREATED_ORDER);
+	private HashMap<String, WaitingJob> jobIdIndex = new HashMap<>();
+
+	public synchronized void add(WaitingJob job) {
+		remove(job.getJobId());
+		queue.add(job);
+		jobIdIndex.put(job.getJobId(), job);
+	}
+
+	/**
+	 * @param jobId
+	 * @return removed job or null if the job wasn't waiting
+	 */
+	public synchronized WaitingJob remove(String jobId) {
+		WaitingJob job = jobIdIndex.remove(jobId);
+		if (job != null) {
+			queue.remove(job);
+		}
+		return job;
+	}
+
+	public synchronized WaitingJob get(String jobId) {
+		return jobIdIndex.get(jobId);
+	}
+
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Update the reply channel of the client, when it reconnects.
+	 *
+	 * @param jobId
+	 * @param clientReplyTo
+	 */
+	public synchronized void updateClientReplyTo(String jobId, Destination clientReplyTo) {
+		WaitingJob job = jobIdIndex.get(jobId);
+		if (job != null) {
+			job.clientReplyTo = clientReplyTo;
+		}
+	}
+
+	/**
+	 * @return copy of the queue, oldest job first
+	 */
+	public synchronized List<WaitingJob> getJobs() {
+		return new LinkedList<>(queue);
+	}
+
+	/**
+	 * Remove jobs that have waited longer than the given time.
+	 *
+	 * @param maxWaitTime seconds
+	 * @return removed jobs
+	 */
+	public synchronized List<WaitingJob> removeExpired(int maxWaitTime) {
+		List<WaitingJob> expired = new LinkedList<>();
+		Iterator<WaitingJob> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			WaitingJob job = iterator.next();
+			// oldest first, so the rest are younger
+			if (job.getSecondsSinceCreated() <= maxWaitTime) {
+				break;
+			}
+			iterator.remove();
+			jobIdIndex.remove(job.getJobId());
+			expired.add(job);
+		}
+		return expired;
+	}
+}
@@ -1,8 +1,7 @@
 package fi.csc.microarray.jobmanager.model;
 
-import java.io.IOException;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Base64;
 import java.util.UUID;
 
 import javax.jms.Destination;
@@ -23,10 +22,10 @@ import org.apache.activemq.command.ActiveMQTopic;
 import org.apache.activemq.command.ConnectionId;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.internal.LinkedTreeMap;
 
 import fi.csc.microarray.messaging.JobState;
+import fi.csc.microarray.messaging.message.BinaryMessageFormat;
 import fi.csc.microarray.messaging.message.ChipsterMessage;
 import fi.csc.microarray.messaging.message.JobMessage;
 import fi.csc.microarray.messaging.message.ResultMessage;
@@ -35,6 +34,12 @@ import fi.csc.microarray.messaging.message.ResultMessage;
 @Table(indexes = @Index(name="created", columnList = "created"))
 public class Job {
 	
+	/**
+	 * Marks the messages that are stored in the binary format. Messages
+	 * without it are in the earlier json format.
+	 */
+	private static final String BINARY_FORMAT_PREFIX = "binary:";
+	
 	public Job() {
 		// for Hibernate
 	}
@@ -76,7 +81,7 @@ public class Job {
 	}
 
 	private void setJobMessage(JobMessage jobMessage) {
-		this.jobMessage = toJson(jobMessage);
+		this.jobMessage = serialize(jobMessage);
 	}
 
 	public String getJobId() {
@@ -99,6 +104,9 @@ public class Job {
 	}
 
 	public ResultMessage getResults() {				
+		if (results == null) {
+			return null;
+		}
 		MapMessage mapMessage = toMapMessage(results);
 		ResultMessage resultMessage = new ResultMessage();
 		try {
@@ -146,7 +154,7 @@ public class Job {
 	}
 
 	void setResults(ResultMessage results) {		
-		this.results = toJson(results);
+		this.results = serialize(results);
 	}
 
 	void setState(JobState state) {
@@ -181,32 +189,32 @@ public class Job {
 		this.seen = seen;
 	}
 
-	private String toJson(ChipsterMessage chipsterMessage) {
-		ActiveMQMapMessage msg = new ActiveMQMapMessage();
+	/**
+	 * Messages are stored in the binary format, Base64 encoded to fit in the 
+	 * existing text column and prefixed with the format marker.
+	 */
+	private String serialize(ChipsterMessage chipsterMessage) {
 		try {
-			chipsterMessage.marshal(msg);
-			HashMap<String, Object> msgMap = new HashMap<>();
-			HashMap<String, String> properties = new HashMap<>();
-			HashMap<String, String> content = new HashMap<>();
-			for (String name : msg.getProperties().keySet()) {
-				properties.put(name, msg.getStringProperty(name));
-			}
-			for (String name : msg.getContentMap().keySet()) {
-				content.put(name, msg.getString(name));
-			}
-			
-			msgMap.put("properties", properties);
-			msgMap.put("content", content);
-						
-			String json = new GsonBuilder().serializeNulls().create().toJson(msgMap);
-			return json;
-		} catch (JMSException | IOException e) {
+			return BINARY_FORMAT_PREFIX + Base64.getEncoder().encodeToString(BinaryMessageFormat.toBytes(chipsterMessage));
+		} catch (JMSException e) {
 			throw new IllegalArgumentException("unable to marshal chipster message", e);
 		}
 	}
 	
+	private ActiveMQMapMessage toMapMessage(String serialized) {
+		// jobs created before the binary format are in json
+		if (!serialized.startsWith(BINARY_FORMAT_PREFIX)) {
+			return fromJson(serialized);
+		}
+		try {
+			return BinaryMessageFormat.fromBytes(Base64.getDecoder().decode(serialized.substring(BINARY_FORMAT_PREFIX.length())));
+		} catch (JMSException | IllegalArgumentException e) {
+			throw new IllegalArgumentException("unable to unmarshal chipster message", e);
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
-	private ActiveMQMapMessage toMapMessage(String json) {
+	private ActiveMQMapMessage fromJson(String json) {
 		ActiveMQMapMessage msg = new ActiveMQMapMessage();
 		LinkedTreeMap<String, Object> msgMap = new Gson().fromJson(json, LinkedTreeMap.class);
 		LinkedTreeMap<String, String> properties = (LinkedTreeMap<String, String>) msgMap.get("properties");
@@ -71,17 +71,21 @@ public class JobManagerDB {
 	}
 
 
-	public boolean addJob(JobMessage jobMessage) {
+	/**
+	 * @param jobMessage
+	 * @return the new job or null if the job couldn't be added
+	 */
+	public Job addJob(JobMessage jobMessage) {
 
 		String jobId = jobMessage.getJobId();
 		if (jobId == null || jobId.isEmpty()) {
 			logger.warn("add job failed, jobId is: " + jobId);
-			return false;
+			return null;
 		}
 
 		if (getJob(jobId) != null) {
 			logger.warn("add job failed, job with id " + jobId + " already exists");
-			return false;
+			return null;
 		}
 
 		Job job = new Job(jobMessage);
@@ -92,7 +96,7 @@ public class JobManagerDB {
 			this.hibernate.session().save(job);
 			this.hibernate.commit();
 
-			return true;
+			return job;
 		} catch (Throwable e) {
 			this.hibernate.rollback();
 			throw e;
@@ -294,6 +298,45 @@ public class JobManagerDB {
 	}
 
 
+	/**
+	 * Expire several jobs in one transaction. Only jobs that are still waiting are updated.
+	 * 
+	 * @param jobIds
+	 * @return number of updated jobs
+	 */
+	public int updateJobsMaxWaitTimeReached(List<String> jobIds) {
+		if (jobIds.isEmpty()) {
+			return 0;
+		}
+		
+		List<UUID> uuids = new ArrayList<>();
+		for (String jobId : jobIds) {
+			uuids.add(UUID.fromString(jobId));
+		}
+		
+		this.hibernate.beginTransaction();
+		try {
+			int count = this.hibernate.session().createQuery(
+					"update Job "
+					+ "set state=:expired, finished=:date "
+					+ "where jobId in (:jobIds) "
+					+ "and state=:waiting")
+					.setParameter("expired", JobState.EXPIRED_WAITING)
+					.setParameter("date", new Date())
+					.setParameterList("jobIds", uuids)
+					.setParameter("waiting", JobState.WAITING)
+					.executeUpdate();
+			
+			this.hibernate.commit();
+			return count;
+			
+		} catch (Throwable e) {
+			this.hibernate.rollback();
+			throw e;
+		}
+	}
+
+
 	/**
 	 * Not used at the moment
 	 * 
@@ -0,0 +1,541 @@
+package fi.csc.microarray.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Writes job logs to the jobs table in batches.
+ *
+ * Job logs are put to a bounded queue and a writer thread inserts those
+ * with a JDBC batch when there are enough of them or when the oldest one
+ * has waited long enough. The job statistics are updated in the same
+ * transaction.
+ *
+ * If the database can't be reached, the batch is kept and retried until
+ * it succeeds. Meanwhile the queue fills up and {@link #add(JobLog)} blocks,
+ * leaving the rest of the messages to the message broker. If a batch
+ * has a duplicate job id, its rows are inserted one by one and only the
+ * rejected rows are skipped.
+ *
+ * The queue is kept only in memory. When the writer is closed while the
+ * database is unavailable, the job logs that weren't written are saved to
+ * a spill file, if one was given, and written first when the writer is
+ * started again. Without a spill file those are logged and dropped. The
+ * writer thread is a daemon, so {@link #close()} must be called before
+ * exiting or the queued job logs are lost.
+ *
+ */
+public class JobLogWriter {
+
+	private static final Logger logger = Logger.getLogger(JobLogWriter.class);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	private static final long FIRST_RETRY_DELAY = 1000;
+	private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+	private static final String INSERT_JOB =
+			"INSERT INTO jobs (id, operation, status, starttime, endtime, wallclockTime, " +
+			"errorMessage, outputText, username, compHost) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+	/**
+	 * One row of the jobs table
+	 */
+	public static class JobLog {
+
+		private String id;
+		private String operation;
+		private String status;
+		private Date startTime;
+		private Date endTime;
+		private String errorMessage;
+		private String outputText;
+		private String username;
+		private String compHost;
+
+		public JobLog(String id, String operation, String status, Date startTime, Date endTime,
+				String errorMessage, String outputText, String username, String compHost) {
+			this.id = id;
+			this.operation = operation;
+			this.status = status;
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.errorMessage = errorMessage;
+			this.outputText = outputText;
+			this.username = username;
+			this.compHost = compHost;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return wall clock time in seconds or null if either of the times is missing
+		 */
+		public Long getWallclockTime() {
+			if (startTime == null || endTime == null) {
+				return null;
+			}
+			return (endTime.getTime() - startTime.getTime()) / 1000;
+		}
+	}
+
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+	private JobStatsRollup jobStats;
+
+	private BlockingQueue<JobLog> queue;
+	private int batchSize;
+	private long flushInterval;
+
+	private Thread writerThread;
+	private volatile boolean closed = false;
+
+	private File spillFile;
+	// job logs read from the spill file and written before the queue
+	private List<JobLog> spilled = new ArrayList<JobLog>();
+	// job logs that couldn't be written when the writer was closed
+	private List<JobLog> unwritten = new ArrayList<JobLog>();
+
+	private AtomicLong written = new AtomicLong();
+	private AtomicLong integrityFailed = new AtomicLong();
+	private AtomicLong failed = new AtomicLong();
+	private AtomicLong retries = new AtomicLong();
+
+	public JobLogWriter(DataSource dataSource, JobStatsRollup jobStats) {
+		this(dataSource, jobStats, null);
+	}
+
+	/**
+	 * @param dataSource
+	 * @param jobStats statistics to update, must use the same data source
+	 * @param spillFile file for the job logs that couldn't be written before closing, or null
+	 */
+	public JobLogWriter(DataSource dataSource, JobStatsRollup jobStats, File spillFile) {
+		this(dataSource, jobStats, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, spillFile);
+	}
+
+	/**
+	 * @param dataSource
+	 * @param jobStats statistics to update, must use the same data source
+	 * @param queueCapacity
+	 * @param batchSize maximum number of rows in one insert
+	 * @param flushInterval maximum time in milliseconds to wait for a full batch
+	 */
+	public JobLogWriter(DataSource dataSource, JobStatsRollup jobStats, int queueCapacity, int batchSize, long flushInterval) {
+		this(dataSource, jobStats, queueCapacity, batchSize, flushInterval, null);
+	}
+
+	/**
+	 * @param dataSource
+	 * @param jobStats statistics to update, must use the same data source
+	 * @param queueCapacity
+	 * @param batchSize maximum number of rows in one insert
+	 * @param flushInterval maximum time in milliseconds to wait for a full batch
+	 * @param spillFile file for the job logs that couldn't be written before closing, or null
+	 */
+	public JobLogWriter(DataSource dataSource, JobStatsRollup jobStats, int queueCapacity, int batchSize, long flushInterval, File spillFile) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		this.jobStats = jobStats;
+		this.queue = new ArrayBlockingQueue<JobLog>(queueCapacity);
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.spillFile = spillFile;
+	}
+
+	/**
+	 * Start the writer thread. The job logs in the spill file are written first.
+	 */
+	public void start() {
+		if (spillFile != null && spillFile.exists()) {
+			try {
+				spilled = readSpillFile(spillFile);
+				logger.info("writing " + spilled.size() + " job logs from " + spillFile);
+			} catch (IOException e) {
+				// keep the file for manual recovery, but don't overwrite it later
+				File brokenFile = new File(spillFile.getPath() + "." + System.currentTimeMillis());
+				spillFile.renameTo(brokenFile);
+				logger.error("could not read job logs from " + spillFile + ", moved it to " + brokenFile, e);
+			}
+		}
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "chipster-manager-job-log-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queue a job log for writing. Blocks if the queue is full.
+	 *
+	 * @param jobLog
+	 * @throws InterruptedException
+	 */
+	public void add(JobLog jobLog) throws InterruptedException {
+		if (closed) {
+			throw new IllegalStateException("job log writer is closed");
+		}
+		queue.put(jobLog);
+	}
+
+	/**
+	 * Write the queued job logs and stop the writer thread. If the database
+	 * isn't available, the remaining job logs are saved to the spill file or 
+	 * logged as failed, if there is no spill file.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		if (writerThread != null) {
+			writerThread.join();
+		}
+	}
+
+	public int getQueueLength() {
+		return queue.size();
+	}
+
+	/**
+	 * @return number of job logs inserted to the database
+	 */
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * @return number of job logs rejected by the table constraints, usually because
+	 * the job id was already in the database
+	 */
+	public long getIntegrityFailedCount() {
+		return integrityFailed.get();
+	}
+
+	/**
+	 * @return number of job logs that couldn't be inserted
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * @return number of times a batch was retried because the database wasn't available
+	 */
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	private void writeLoop() {
+		List<JobLog> batch = new ArrayList<JobLog>(batchSize);
+		try {
+			while (!spilled.isEmpty()) {
+				List<JobLog> rows = spilled.subList(0, Math.min(batchSize, spilled.size()));
+				batch.addAll(rows);
+				rows.clear();
+				writeWithRetry(batch);
+				batch.clear();
+			}
+
+			while (!closed || !queue.isEmpty()) {
+
+				JobLog first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				// wait for a full batch, but not longer than the flush interval from the first row
+				long deadline = System.currentTimeMillis() + flushInterval;
+				while (batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long wait = deadline - System.currentTimeMillis();
+					if (batch.size() >= batchSize || wait <= 0 || closed) {
+						break;
+					}
+					JobLog next = queue.poll(wait, TimeUnit.MILLISECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+
+				writeWithRetry(batch);
+				batch.clear();
+
+				int queueLength = queue.size();
+				if (queueLength > queue.remainingCapacity()) {
+					logger.warn("job log queue is filling up, " + queueLength + " job logs waiting");
+				} else if (logger.isDebugEnabled()) {
+					logger.debug("job log queue length " + queueLength);
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("job log writer interrupted, " + (batch.size() + spilled.size() + queue.size()) + " job logs not written");
+			unwritten.addAll(batch);
+			unwritten.addAll(spilled);
+			queue.drainTo(unwritten);
+		}
+
+		spill();
+	}
+
+	/**
+	 * Save the unwritten job logs to the spill file or remove the old spill file,
+	 * if everything was written.
+	 */
+	private void spill() {
+		if (spillFile == null) {
+			failed.addAndGet(unwritten.size());
+			return;
+		}
+
+		if (unwritten.isEmpty()) {
+			if (spillFile.exists() && !spillFile.delete()) {
+				logger.error("could not delete " + spillFile + ", the job logs in it will be written again");
+			}
+			return;
+		}
+
+		File tmpFile = new File(spillFile.getPath() + ".tmp");
+		try {
+			writeSpillFile(tmpFile, unwritten);
+			if (spillFile.exists()) {
+				spillFile.delete();
+			}
+			if (!tmpFile.renameTo(spillFile)) {
+				throw new IOException("unable to rename " + tmpFile + " to " + spillFile);
+			}
+			logger.warn(unwritten.size() + " job logs saved to " + spillFile);
+
+		} catch (IOException e) {
+			failed.addAndGet(unwritten.size());
+			for (JobLog jobLog : unwritten) {
+				logger.error("could not save job log " + jobLog.getId());
+			}
+			logger.error("could not save " + unwritten.size() + " job logs to " + spillFile, e);
+		}
+	}
+
+	private static void writeSpillFile(File file, List<JobLog> jobLogs) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(jobLogs.size());
+			for (JobLog jobLog : jobLogs) {
+				writeString(out, jobLog.id);
+				writeString(out, jobLog.operation);
+				writeString(out, jobLog.status);
+				writeDate(out, jobLog.startTime);
+				writeDate(out, jobLog.endTime);
+				writeString(out, jobLog.errorMessage);
+				writeString(out, jobLog.outputText);
+				writeString(out, jobLog.username);
+				writeString(out, jobLog.compHost);
+			}
+		}
+	}
+
+	private static List<JobLog> readSpillFile(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int count = in.readInt();
+			List<JobLog> jobLogs = new ArrayList<JobLog>(count);
+			for (int i = 0; i < count; i++) {
+				jobLogs.add(new JobLog(readString(in), readString(in), readString(in), readDate(in), readDate(in),
+						readString(in), readString(in), readString(in), readString(in)));
+			}
+			return jobLogs;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeDate(DataOutputStream out, Date date) throws IOException {
+		out.writeBoolean(date != null);
+		if (date != null) {
+			out.writeLong(date.getTime());
+		}
+	}
+
+	private static Date readDate(DataInputStream in) throws IOException {
+		return in.readBoolean() ? new Date(in.readLong()) : null;
+	}
+
+	private void writeWithRetry(List<JobLog> batch) throws InterruptedException {
+		long delay = FIRST_RETRY_DELAY;
+		while (true) {
+			try {
+				write(batch);
+				return;
+			} catch (RuntimeException e) {
+				if (isRecoverable(e) && closed && spillFile != null) {
+					unwritten.addAll(batch);
+					logger.warn("could not insert " + batch.size() + " job logs before closing, saving them to " + spillFile, e);
+					return;
+				}
+				if (!isRecoverable(e) || closed) {
+					failed.addAndGet(batch.size());
+					for (JobLog jobLog : batch) {
+						logger.error("could not insert job log " + jobLog.getId());
+					}
+					logger.error("could not insert " + batch.size() + " job logs", e);
+					return;
+				}
+				retries.incrementAndGet();
+				logger.warn("could not insert " + batch.size() + " job logs, retrying in " + delay / 1000 + " seconds, " + queue.size() + " job logs waiting", e);
+				// wake up for the last try when closed
+				long wakeUp = System.currentTimeMillis() + delay;
+				while (!closed && System.currentTimeMillis() < wakeUp) {
+					Thread.sleep(Math.min(FIRST_RETRY_DELAY, Math.max(1, wakeUp - System.currentTimeMillis())));
+				}
+				delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+			}
+		}
+	}
+
+	private void write(List<JobLog> batch) {
+		try {
+			insert(batch);
+			written.addAndGet(batch.size());
+
+		} catch (RuntimeException e) {
+			if (isRecoverable(e)) {
+				throw e;
+			}
+
+			// the whole batch was rolled back, find out which rows caused the failure
+			for (int i = 0; i < batch.size(); i++) {
+				JobLog jobLog = batch.get(i);
+				try {
+					insert(Collections.singletonList(jobLog));
+					written.incrementAndGet();
+				} catch (DataIntegrityViolationException rowException) {
+					integrityFailed.incrementAndGet();
+					logger.warn("could not insert job log " + jobLog.getId() + ": " + rowException.getMessage());
+				} catch (RuntimeException rowException) {
+					if (isRecoverable(rowException)) {
+						// retry only the rows that weren't handled yet
+						batch.subList(0, i).clear();
+						throw rowException;
+					}
+					failed.incrementAndGet();
+					logger.error("could not insert job log " + jobLog.getId(), rowException);
+				}
+			}
+		}
+	}
+
+	private void insert(final List<JobLog> rows) {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+
+				jdbcTemplate.batchUpdate(INSERT_JOB, new BatchPreparedStatementSetter() {
+
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						JobLog row = rows.get(i);
+						Long wallclockTime = row.getWallclockTime();
+						ps.setString(1, row.id);
+						ps.setString(2, row.operation);
+						ps.setString(3, row.status);
+						ps.setTimestamp(4, toTimestamp(row.startTime));
+						ps.setTimestamp(5, toTimestamp(row.endTime));
+						if (wallclockTime != null) {
+							ps.setLong(6, wallclockTime);
+						} else {
+							ps.setNull(6, Types.INTEGER);
+						}
+						ps.setString(7, row.errorMessage);
+						ps.setString(8, row.outputText);
+						ps.setString(9, row.username);
+						ps.setString(10, row.compHost);
+					}
+
+					@Override
+					public int getBatchSize() {
+						return rows.size();
+					}
+				});
+
+				JobStatsRollup.Counts counts = new JobStatsRollup.Counts();
+				for (JobLog row : rows) {
+					counts.add(row.startTime, row.operation, row.username);
+				}
+				jobStats.addJobs(counts);
+			}
+		});
+	}
+
+	/**
+	 * @param e
+	 * @return true if the same insert could succeed later
+	 */
+	private static boolean isRecoverable(RuntimeException e) {
+		return e instanceof DataAccessResourceFailureException ||
+				e instanceof TransientDataAccessException ||
+				e instanceof RecoverableDataAccessException ||
+				e instanceof TransactionException;
+	}
+
+	private static Timestamp toTimestamp(Date date) {
+		return date != null ? new Timestamp(date.getTime()) : null;
+	}
+}
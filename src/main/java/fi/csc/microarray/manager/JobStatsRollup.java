@@ -0,0 +1,155 @@
+package fi.csc.microarray.manager;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Daily job counts per tool and user, for the statistics in the admin web.
+ *
+ * Counting the jobs from the jobs table takes minutes when there are years
+ * of job logs, so this table is updated every time a job log is inserted.
+ * Any date range can be counted by summing the days.
+ */
+public class JobStatsRollup {
+
+	private static final Logger logger = Logger.getLogger(JobStatsRollup.class);
+
+	private static final String CREATE_JOB_STATS_TABLE =
+			"CREATE TABLE IF NOT EXISTS job_stats (" +
+			"startDay DATE NOT NULL, " +
+			"operation VARCHAR(200) NOT NULL, " +
+			"username VARCHAR(200) NOT NULL, " +
+			"jobCount INT DEFAULT 0, " +
+			"PRIMARY KEY (startDay, operation, username)" +
+			");";
+
+	private static final String COUNT_JOB_STATS =
+			"SELECT COUNT(*) FROM job_stats;";
+
+	private static final String COUNT_JOBS =
+			"SELECT COUNT(*) FROM jobs;";
+
+	private static final String FILL_JOB_STATS =
+			"INSERT INTO job_stats (startDay, operation, username, jobCount) " +
+			"SELECT CAST(starttime AS DATE), COALESCE(operation, ''), COALESCE(username, ''), COUNT(*) " +
+			"FROM jobs WHERE starttime IS NOT NULL " +
+			"GROUP BY CAST(starttime AS DATE), COALESCE(operation, ''), COALESCE(username, '');";
+
+	private static final String INCREMENT_JOB_STATS =
+			"UPDATE job_stats SET jobCount = jobCount + ? " +
+			"WHERE startDay = ? AND operation = ? AND username = ?;";
+
+	private static final String INSERT_JOB_STATS =
+			"INSERT INTO job_stats (jobCount, startDay, operation, username) VALUES (?, ?, ?, ?);";
+
+	/**
+	 * Same as the clean-up of the old test jobs in the jobs table.
+	 */
+	private static final String REMOVE_OLD_TEST_JOB_STATS =
+			"DELETE FROM job_stats " +
+			"WHERE startDay < DATEADD('MONTH', -1, CURRENT_DATE()) " +
+			"AND username IN (SELECT username FROM accounts WHERE ignoreinstatistics=TRUE);";
+
+	/**
+	 * Job counts of a batch of jobs, summed per day, tool and user, so that a
+	 * batch of jobs is counted with one update per row of the table.
+	 */
+	public static class Counts {
+
+		private Map<List<Object>, Integer> counts = new HashMap<List<Object>, Integer>();
+
+		public void add(Date startTime, String operation, String username) {
+			if (startTime == null) {
+				return;
+			}
+			List<Object> key = Arrays.<Object>asList(toDay(startTime), nullToEmpty(operation), nullToEmpty(username));
+			Integer count = counts.get(key);
+			counts.put(key, count != null ? count + 1 : 1);
+		}
+
+		public boolean isEmpty() {
+			return counts.isEmpty();
+		}
+	}
+
+	private JdbcTemplate jdbcTemplate;
+
+	public JobStatsRollup(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * Create the table if it doesn't exist. A new table is filled from the jobs table,
+	 * which must already exist.
+	 */
+	public void init() {
+		jdbcTemplate.execute(CREATE_JOB_STATS_TABLE);
+
+		if (jdbcTemplate.queryForInt(COUNT_JOB_STATS) == 0 &&
+				jdbcTemplate.queryForInt(COUNT_JOBS) > 0) {
+
+			logger.info("filling job statistics from the job logs");
+			int rows = jdbcTemplate.update(FILL_JOB_STATS);
+			logger.info("job statistics filled, " + rows + " rows");
+		}
+	}
+
+	/**
+	 * Count one job. Call only after the job was inserted successfully to the jobs
+	 * table, so that the duplicate job logs aren't counted.
+	 *
+	 * @param startTime
+	 * @param operation
+	 * @param username
+	 */
+	public void addJob(Date startTime, String operation, String username) {
+		Counts counts = new Counts();
+		counts.add(startTime, operation, username);
+		addJobs(counts);
+	}
+
+	/**
+	 * Count a batch of jobs. Like {@link #addJob(Date, String, String)}, call only
+	 * after the jobs were inserted to the jobs table, preferably in the same transaction.
+	 *
+	 * @param counts
+	 */
+	public void addJobs(Counts counts) {
+		for (Entry<List<Object>, Integer> entry : counts.counts.entrySet()) {
+			List<Object> key = entry.getKey();
+			Object[] args = new Object[] { entry.getValue(), key.get(0), key.get(1), key.get(2) };
+
+			// only the job log writer thread updates the table, so there is no race between these
+			if (jdbcTemplate.update(INCREMENT_JOB_STATS, args) == 0) {
+				jdbcTemplate.update(INSERT_JOB_STATS, args);
+			}
+		}
+	}
+
+	public int removeOldTestJobs() {
+		return jdbcTemplate.update(REMOVE_OLD_TEST_JOB_STATS);
+	}
+
+	private static java.sql.Date toDay(Date time) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.setTime(time);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return new java.sql.Date(calendar.getTimeInMillis());
+	}
+
+	private static String nullToEmpty(String value) {
+		return value != null ? value : "";
+	}
+}
@@ -1,24 +1,29 @@
 package fi.csc.microarray.manager;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.jms.JMSException;
 
 import org.h2.tools.Server;
-import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
 import fi.csc.microarray.config.ConfigurationLoader.IllegalConfigurationException;
@@ -27,6 +32,10 @@ import fi.csc.microarray.exception.MicroarrayException;
 
 public class LogImport {
 
+		/**
+		 * Number of lines parsed in one task
+		 */
+		private static final int CHUNK_LINES = 10000;
 		
 		
 		/**
@@ -34,7 +43,7 @@ public class LogImport {
 		 */
 
 	    private JdbcTemplate jdbcTemplate;
-	    private SimpleJdbcInsert insertJobTemplate;
+	    private JobStatsRollup jobStats;
 
 		// TODO index, unique keys
 		private static final String CREATE_JOBS_TABLE = 
@@ -98,10 +107,11 @@ public class LogImport {
 			dataSource.setPassword(dbPassword);
 			
 	        this.jdbcTemplate = new JdbcTemplate(dataSource);
-		    this.insertJobTemplate = new SimpleJdbcInsert(dataSource).withTableName("jobs");
 
 		    // create tables if they do not exist
 		    jdbcTemplate.execute(CREATE_JOBS_TABLE);
+		    this.jobStats = new JobStatsRollup(jdbcTemplate);
+		    jobStats.init();
 			
 			// start web console
 			Server server;
@@ -111,126 +121,164 @@ public class LogImport {
 			}
 		}
 
-		public void importLog(File logFile) throws IOException, ParseException {
-			DateFormat df = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy");
-			LogParser parser = new LogParser();
-			Iterable<HashMap<String, String>> entries = parser.parse(logFile);
-			int success = 0;
-			int integrityFailed = 0;
-			int usernameFailed = 0;
-			int endtimeFailed = 0;
-			int failed = 0;
-			for (HashMap<String, String> entry: entries) {
-			    try {
-			    	// some sanity checks
-			    	Date startTime = df.parse(entry.get("starttime"));
-			    	Date endTime = df.parse(entry.get("endtime"));
-			    	
-			    	if (entry.get("username").equals("null")) {
-			    		usernameFailed++;
-			    		continue;
-			    	}
-			    	
-					Map<String, Object> parameters = new HashMap<String, Object>();
-				    parameters.put("id", UUID.randomUUID().toString());
-				    parameters.put("operation", entry.get("operation"));
-					parameters.put("status", entry.get("status")); 
-					parameters.put("starttime", startTime); 
-					parameters.put("endtime", endTime);
-					parameters.put("wallclockTime", (endTime.getTime() - startTime.getTime()) / 1000);
-					parameters.put("errorMessage", null);
-					parameters.put("outputText", null); 
-					parameters.put("username", entry.get("username"));
-					parameters.put("compHost", entry.get("compHost"));
-					
-					this.insertJobTemplate.execute(parameters);
-					success++;
-			    } catch (DataIntegrityViolationException dive) {
-			    	//System.out.println(dive.toString());
-			    	integrityFailed++;
-			    }
-			    
-			    catch (Exception e) {
-			    	System.out.println(e.toString());
-			    	failed++;
-			    	
-			    }
+	public void importLog(File logFile) throws IOException {
+		importLog(logFile, "EEE MMM dd HH:mm:ss z yyyy", null, false);
+	}
+
+	public void importOldLog(File logFile, String compHost) throws IOException {
+		importLog(logFile, "E MMM d H:m:s z yyyy", compHost, true);
+	}
+
+	/**
+	 * Parse the log file in parallel chunks and insert the entries in batches.
+	 * 
+	 * @param logFile
+	 * @param datePattern
+	 * @param compHost comp host of all entries or null to use the one in the log
+	 * @param endTimeOptional if true, the missing end time is set 5 seconds after the start time
+	 * @throws IOException
+	 */
+	private void importLog(File logFile, String datePattern, String compHost, boolean endTimeOptional) throws IOException {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LinkedList<Future<ParsedChunk>> chunks = new LinkedList<Future<ParsedChunk>>();
+		ParsedChunk total = new ParsedChunk();
+
+		JobLogWriter writer = new JobLogWriter(jdbcTemplate.getDataSource(), jobStats);
+		writer.start();
+
+		BufferedReader reader = new BufferedReader(new FileReader(logFile));
+		try {
+			List<String> lines = new ArrayList<String>(CHUNK_LINES);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				lines.add(line);
+				if (lines.size() == CHUNK_LINES) {
+					chunks.add(executor.submit(new ParseChunk(lines, datePattern, compHost, endTimeOptional)));
+					lines = new ArrayList<String>(CHUNK_LINES);
+				}
+				// limit the number of parsed lines in memory
+				while (chunks.size() >= threads * 2) {
+					total.add(chunks.removeFirst().get(), writer);
+				}
+			}
+			if (!lines.isEmpty()) {
+				chunks.add(executor.submit(new ParseChunk(lines, datePattern, compHost, endTimeOptional)));
+			}
+			while (!chunks.isEmpty()) {
+				total.add(chunks.removeFirst().get(), writer);
 			}
-			System.out.println("success: " + success + 
-					", integrity failed: " + integrityFailed + 
-					", username failed: " + usernameFailed +
-					", endtime failed: " + endtimeFailed +
-					", other failed: " + failed);
+			writer.close();
+
+		} catch (InterruptedException e) {
+			throw new IOException("log import interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			reader.close();
+			executor.shutdownNow();
 		}
 
+		System.out.println("success: " + writer.getWrittenCount() + 
+				", integrity failed: " + writer.getIntegrityFailedCount() + 
+				", username failed: " + total.usernameFailed +
+				", endtime failed: " + total.endtimeFailed +
+				", other failed: " + (total.failed + writer.getFailedCount()));
+	}
+
+	/**
+	 * Job logs and failure counts of one chunk of the log file
+	 */
+	private static class ParsedChunk {
 		
+		private List<JobLogWriter.JobLog> jobLogs = new ArrayList<JobLogWriter.JobLog>();
+		private int usernameFailed = 0;
+		private int endtimeFailed = 0;
+		private int failed = 0;
 		
+		/**
+		 * Queue the job logs of the chunk for writing and sum the counts.
+		 */
+		public void add(ParsedChunk chunk, JobLogWriter writer) throws InterruptedException {
+			for (JobLogWriter.JobLog jobLog : chunk.jobLogs) {
+				writer.add(jobLog);
+			}
+			usernameFailed += chunk.usernameFailed;
+			endtimeFailed += chunk.endtimeFailed;
+			failed += chunk.failed;
+		}
+	}
+	
+	private static class ParseChunk implements Callable<ParsedChunk> {
 
-	public void importOldLog(File logFile, String compHost) throws IOException, ParseException {
-		DateFormat df = new SimpleDateFormat("E MMM d H:m:s z yyyy");
-		LogParser parser = new LogParser();
-		Iterable<HashMap<String, String>> entries = parser.parse(logFile);
-		int success = 0;
-		int integrityFailed = 0;
-		int usernameFailed = 0;
-		int endtimeFailed = 0;
-		int failed = 0;
-		for (HashMap<String, String> entry: entries) {
-		    try {
-		    	// some sanity checks
-		    	Date startTime = df.parse(entry.get("starttime"));
-		    	Date endTime;
-		    	if (!entry.get("endtime").equals("null")) {
-		    		endTime = df.parse(entry.get("endtime"));
-		    	} else {
-		    		// if endtime missing set duration to 5 seconds
-		    		Calendar calendar = new GregorianCalendar();
-		    		calendar.setTime(startTime);
-		    		calendar.add(GregorianCalendar.SECOND, 5);
-		    		endTime = calendar.getTime();
-		    		endtimeFailed++;
-		    	}
-		    	
-		    	if (entry.get("username").equals("null")) {
-		    		usernameFailed++;
-		    		continue;
-		    	}
-		    	
-				Map<String, Object> parameters = new HashMap<String, Object>();
-			    parameters.put("id", UUID.randomUUID().toString());
-			    parameters.put("operation", entry.get("operation"));
-				parameters.put("status", entry.get("status")); 
-				parameters.put("starttime", startTime); 
-				parameters.put("endtime", endTime);
-				parameters.put("wallclockTime", (endTime.getTime() - startTime.getTime()) / 1000);
-				parameters.put("errorMessage", null);
-				parameters.put("outputText", null); 
-				parameters.put("username", entry.get("username"));
-				parameters.put("compHost", compHost);
-				
-				this.insertJobTemplate.execute(parameters);
-				success++;
-		    } catch (DataIntegrityViolationException dive) {
-		    	//System.out.println(dive.toString());
-		    	integrityFailed++;
-		    }
-		    
-		    catch (Exception e) {
-		    	System.out.println(e.toString());
-		    	failed++;
-		    	
-		    }
+		private List<String> lines;
+		private String datePattern;
+		private String compHost;
+		private boolean endTimeOptional;
+
+		public ParseChunk(List<String> lines, String datePattern, String compHost, boolean endTimeOptional) {
+			this.lines = lines;
+			this.datePattern = datePattern;
+			this.compHost = compHost;
+			this.endTimeOptional = endTimeOptional;
+		}
+
+		@Override
+		public ParsedChunk call() {
+			// SimpleDateFormat isn't thread safe
+			DateFormat df = new SimpleDateFormat(datePattern);
+			ParsedChunk chunk = new ParsedChunk();
+			
+			for (String line : lines) {
+				try {
+					String[] entry = LogParser.splitEntry(line);
+					
+					// some sanity checks
+					Date startTime = df.parse(entry[LogParser.STARTTIME]);
+					Date endTime;
+					if (endTimeOptional && entry[LogParser.ENDTIME].equals("null")) {
+						// if endtime missing set duration to 5 seconds
+						Calendar calendar = new GregorianCalendar();
+						calendar.setTime(startTime);
+						calendar.add(GregorianCalendar.SECOND, 5);
+						endTime = calendar.getTime();
+						chunk.endtimeFailed++;
+					} else {
+						endTime = df.parse(entry[LogParser.ENDTIME]);
+					}
+
+					if (entry[LogParser.USERNAME].equals("null")) {
+						chunk.usernameFailed++;
+						continue;
+					}
+
+					chunk.jobLogs.add(new JobLogWriter.JobLog(
+							UUID.randomUUID().toString(),
+							entry[LogParser.OPERATION],
+							entry[LogParser.STATUS],
+							startTime,
+							endTime,
+							null,
+							null,
+							entry[LogParser.USERNAME],
+							compHost != null ? compHost : entry[LogParser.COMP_HOST]));
+
+				} catch (Exception e) {
+					System.out.println(e.toString());
+					chunk.failed++;
+				}
+			}
+			return chunk;
 		}
-		System.out.println("success: " + success + 
-				", integrity failed: " + integrityFailed + 
-				", username failed: " + usernameFailed +
-				", endtime failed: " + endtimeFailed +
-				", other failed: " + failed);
 	}
 	
 	
 	
-	public static void main(String[] args) throws SQLException, IOException, IllegalConfigurationException, ParseException {
+	public static void main(String[] args) throws SQLException, IOException, IllegalConfigurationException {
 //		MicroarrayConfiguration.loadConfiguration();
 		LogImport logImport = new LogImport();
 		logImport.importLog(new File("logfile.log"));
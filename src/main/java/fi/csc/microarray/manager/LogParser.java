@@ -19,6 +19,18 @@ import java.util.Iterator;
  */
 public class LogParser {
 
+	/**
+	 * Column indexes of the entries returned by {@link #splitEntry(String)}
+	 */
+	public static final int ID = 0;
+	public static final int OPERATION = 1;
+	public static final int STATUS = 2;
+	public static final int USERNAME = 3;
+	public static final int STARTTIME = 4;
+	public static final int ENDTIME = 5;
+	public static final int COMP_HOST = 6;
+	
+	private static final int COLUMN_COUNT = 7;
 
 	public Iterable<HashMap<String, String>> parse(File file) throws IOException {
 		LogIterable iterable = new LogIterable(new FileInputStream(file)); 
@@ -30,23 +42,33 @@ public class LogParser {
 	private static HashMap<String, String> parseEntry(String entry) {
 		HashMap<String, String> result = new HashMap<String, String>();
 		
+		String[] tokens = splitEntry(entry);
+		
+		result.put("id", tokens[ID]);
+		result.put("operation", tokens[OPERATION]);
+		result.put("status", tokens[STATUS]);
+		result.put("username", tokens[USERNAME]);
+		result.put("starttime", tokens[STARTTIME]);
+		result.put("endtime", tokens[ENDTIME]);
+		result.put("compHost", tokens[COMP_HOST]);
+		return result;
+	}
+
+	/**
+	 * Split a log line to columns without creating a map for each entry.
+	 * 
+	 * @param entry
+	 * @return columns in the order of the column index constants
+	 */
+	public static String[] splitEntry(String entry) {
 		String[] tokens = entry.split(";");
 		
 		// check for old log files with , as delimiter, remove check
 		// after changing delimiter
-		if (tokens.length == 7) {
-			result.put("id", tokens[0]);
-			result.put("operation", tokens[0]);
-			result.put("operation", tokens[1]);
-			result.put("status", tokens[2]);
-			result.put("username", tokens[3]);
-			result.put("starttime", tokens[4]);
-			result.put("endtime", tokens[5]);
-			result.put("compHost", tokens[6]);
-		} else {
+		if (tokens.length != COLUMN_COUNT) {
 			throw new RuntimeException("Illegal number of tokens: " + tokens.length);
 		}
-		return result;
+		return tokens;
 	}
 
 	
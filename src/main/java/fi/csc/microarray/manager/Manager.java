@@ -56,7 +56,8 @@ import fi.csc.microarray.util.UrlTransferUtil;
 /**
  * Monitoring database and tool for Chipster server system.
  * 
- * Using JdbcTemplate this way for inserts is really slow.
+ * Job logs are written in batches by {@link JobLogWriter}, so that
+ * the message listener doesn't wait for the database.
  * 
  * @author Taavi Hupponen
  */
@@ -80,6 +81,8 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 			
 			int affectedRows = jdbcTemplate.update(REMOVE_OLD_TEST_JOBS);
 			logger.info("cleaned up " + affectedRows + " old test jobs from database");
+			affectedRows = jobStats.removeOldTestJobs();
+			logger.info("cleaned up " + affectedRows + " old test job statistics rows from database");
 			
 			int deletedFiles = backupRotation.rotate();
 			logger.info("cleaned up " + deletedFiles + " old database backup files");
@@ -93,8 +96,9 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 	private final Logger logger;
 
     private JdbcTemplate jdbcTemplate;
-    private SimpleJdbcInsert insertJobTemplate;
     private SimpleJdbcInsert insertAccountTemplate;
+    private JobStatsRollup jobStats;
+    private JobLogWriter jobLogWriter;
     private String feedbackEmail;
 
 	private static final String CREATE_JOBS_TABLE = 
@@ -176,13 +180,16 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		dataSource.setPassword(dbPassword);
 		
         this.jdbcTemplate = new JdbcTemplate(dataSource);
-	    this.insertJobTemplate = new SimpleJdbcInsert(dataSource).withTableName("jobs");
 	    this.insertAccountTemplate = new SimpleJdbcInsert(dataSource).withTableName("accounts");
 
 	    // create tables if they do not exist
 	    jdbcTemplate.execute(CREATE_JOBS_TABLE);
 	    jdbcTemplate.execute(CREATE_JOBS_INDEXES);
 	    jdbcTemplate.execute(CREATE_ACCOUNTS_TABLE);
+	    this.jobStats = new JobStatsRollup(jdbcTemplate);
+	    jobStats.init();
+	    this.jobLogWriter = new JobLogWriter(dataSource, jobStats, new File(DirectoryLayout.getInstance().getBaseDir(), "unwritten-job-logs"));
+	    jobLogWriter.start();
 		
 	    // schedule backups
 	    int backupInterval = configuration.getInt("manager", "backup-interval");
@@ -336,21 +343,17 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		    // log information about some job ran by a user
 	        JobLogMessage jobLogMessage = (JobLogMessage)chipsterMessage;
 	        try {
-	            Map<String, Object> parameters = new HashMap<String, Object>();
-	            parameters.put("id", jobLogMessage.getJobId());
-	            parameters.put("operation", jobLogMessage.getOperation());
-	            parameters.put("status", jobLogMessage.getState().toString()); 
-	            parameters.put("starttime", jobLogMessage.getStartTime()); 
-	            parameters.put("endtime", jobLogMessage.getEndTime());
-	            if (jobLogMessage.getEndTime() != null && jobLogMessage.getStartTime() != null) {
-	            	parameters.put("wallclockTime", (jobLogMessage.getEndTime().getTime() - jobLogMessage.getStartTime().getTime()) / 1000);
-	            }
-	            parameters.put("errorMessage", jobLogMessage.getErrorMessage());
-	            parameters.put("outputText", jobLogMessage.getOutputText()); 
-	            parameters.put("username", jobLogMessage.getUsername());
-	            parameters.put("compHost", jobLogMessage.getCompHost());
-	            
-	            this.insertJobTemplate.execute(parameters);
+	            // blocks only if the database has been unavailable for a long time 
+	            this.jobLogWriter.add(new JobLogWriter.JobLog(
+	            		jobLogMessage.getJobId(),
+	            		jobLogMessage.getOperation(),
+	            		jobLogMessage.getState().toString(),
+	            		jobLogMessage.getStartTime(),
+	            		jobLogMessage.getEndTime(),
+	            		jobLogMessage.getErrorMessage(),
+	            		jobLogMessage.getOutputText(),
+	            		jobLogMessage.getUsername(),
+	            		jobLogMessage.getCompHost()));
 	        } catch (Exception e) {
 	            logger.error("Could not insert log entry", e);
 	        }
@@ -403,6 +406,13 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		} catch (JMSException e) {
 			logger.error("closing messaging endpoint failed", e);
 		}
+		
+		// write the queued job logs
+		try {
+			this.jobLogWriter.close();
+		} catch (InterruptedException e) {
+			logger.error("writing job logs interrupted", e);
+		}
 
 		logger.info("shutting down");
 	}
@@ -13,7 +13,7 @@ import java.security.cert.CertificateException;
 import javax.jms.Connection;
 import javax.jms.Destination;
 import javax.jms.JMSException;
-import javax.jms.MapMessage;
+import javax.jms.Message;
 import javax.jms.Session;
 import javax.net.ssl.SSLHandshakeException;
 
@@ -29,6 +29,7 @@ import fi.csc.microarray.messaging.MessagingTopic.AccessMode;
 import fi.csc.microarray.messaging.MessagingTopic.Type;
 import fi.csc.microarray.messaging.auth.AuthenticatedTopic;
 import fi.csc.microarray.messaging.auth.AuthenticationRequestListener;
+import fi.csc.microarray.messaging.message.BinaryMessageFormat;
 import fi.csc.microarray.messaging.message.ChipsterMessage;
 import fi.csc.microarray.messaging.message.CommandMessage;
 import fi.csc.microarray.util.KeyAndTrustManager;
@@ -63,6 +64,12 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 	 * Is redialling enabled?
 	 */
 	private final boolean useReliable;
+	
+	/**
+	 * Send messages in the binary format? Enable only after all the nodes
+	 * have been updated to understand it.
+	 */
+	private final boolean useBinaryMessages;
 
 	private final String DEFAULT_REPLY_CHANNEL = Topics.MultiplexName.REPLY_TO.toString();
 	
@@ -112,6 +119,7 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 		
 		// set broker address
 		useReliable = configuration.getBoolean("messaging", "use-reliable");
+		useBinaryMessages = configuration.getBoolean("messaging", "use-binary-messages");
 		brokerUrl =  protocol + "://" + host + ":" + port;
 		
 		// setup keystore if needed
@@ -231,6 +239,13 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 		return reliableConnectionFactory;
 	}
 
+	/**
+	 * @return true if the messages of this endpoint are sent in the binary format
+	 */
+	boolean useBinaryMessages() {
+		return useBinaryMessages;
+	}
+
 	/* (non-Javadoc)
 	 * @see fi.csc.microarray.messaging.MessagingEndpointIntrfc#createTopic(fi.csc.microarray.messaging.Topics.Name, fi.csc.microarray.messaging.MessagingTopic.AccessMode)
 	 */
@@ -275,9 +290,8 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
     private void sendMessage(Destination replyToDest, ChipsterMessage message) throws JMSException {
 		Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
     	try {
-			MapMessage mapMessage = session.createMapMessage();
-	    	message.marshal(mapMessage);
-	    	session.createProducer(replyToDest).send(mapMessage);
+			Message jmsMessage = BinaryMessageFormat.createJMSMessage(session, message, useBinaryMessages);
+	    	session.createProducer(replyToDest).send(jmsMessage);
     	} finally {
     		session.close();
     	}
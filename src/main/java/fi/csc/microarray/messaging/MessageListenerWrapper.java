@@ -7,6 +7,7 @@ import javax.jms.MessageListener;
 
 import org.apache.log4j.Logger;
 
+import fi.csc.microarray.messaging.message.BinaryMessageFormat;
 import fi.csc.microarray.messaging.message.ChipsterMessage;
 import fi.csc.microarray.util.Exceptions;
 
@@ -35,7 +36,7 @@ public class MessageListenerWrapper implements MessageListener {
 		try {
 			msgClass = msg.getStringProperty(ChipsterMessage.KEY_CLASS);
 			logger.debug("message received, class is " + msgClass);
-			mapMessage = (MapMessage)msg;
+			mapMessage = BinaryMessageFormat.toMapMessage(msg);
 			ChipsterMessage chipsterMessage = (ChipsterMessage)Class.forName(msgClass).newInstance();
 			chipsterMessage.unmarshal(mapMessage);
 			actualListener.onChipsterMessage(chipsterMessage);
@@ -5,7 +5,7 @@
 package fi.csc.microarray.messaging;
 
 import javax.jms.JMSException;
-import javax.jms.MapMessage;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
@@ -14,6 +14,7 @@ import javax.jms.Topic;
 
 import org.apache.log4j.Logger;
 
+import fi.csc.microarray.messaging.message.BinaryMessageFormat;
 import fi.csc.microarray.messaging.message.ChipsterMessage;
 
 /**
@@ -103,6 +104,10 @@ public class MessagingTopic {
 		sendReplyableMessage(message, replyListener, null);
 	}
 	
+	private boolean useBinaryMessages() {
+		return endpoint instanceof JMSMessagingEndpoint && ((JMSMessagingEndpoint) endpoint).useBinaryMessages();
+	}
+	
 	/**
 	 * The basic message sending method. Sends a message without reply possibility.
 	 * Not multithread safe.
@@ -112,14 +117,13 @@ public class MessagingTopic {
 		// log
 		logger.debug("sending " + message);
 		
-		// marshal message to MapMessage
-		MapMessage mapMessage = session.createMapMessage();
-		message.marshal(mapMessage);
+		// marshal message to MapMessage or BytesMessage
+		Message jmsMessage = BinaryMessageFormat.createJMSMessage(session, message, useBinaryMessages());
 		
 		MessageProducer producer = null;
 		try {
 			producer = session.createProducer(topic);
-			producer.send(mapMessage);
+			producer.send(jmsMessage);
 		} finally {
 			try {
 				producer.close();
@@ -7,7 +7,12 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import fi.csc.microarray.filebroker.FileBrokerException;
+import fi.csc.microarray.filebroker.FileServer;
+import fi.csc.microarray.filebroker.QuotaExceededException;
 import fi.csc.microarray.messaging.message.ChipsterMessage;
+import fi.csc.microarray.messaging.message.CommandMessage;
+import fi.csc.microarray.messaging.message.SuccessMessage;
 import fi.csc.microarray.messaging.message.UrlListMessage;
 
 /**
@@ -19,6 +24,7 @@ public class UrlListMessageListener extends TempTopicMessagingListenerBase {
 	private static final Logger logger = Logger.getLogger(UrlListMessageListener.class);
 
 	private List<URL> urlList = null;
+	private FileBrokerException exception;
 	private CountDownLatch latch = new CountDownLatch(1);
 
 	private boolean cancelled = false;
@@ -29,16 +35,32 @@ public class UrlListMessageListener extends TempTopicMessagingListenerBase {
 			this.urlList = urlListMessage.getUrlList();
 			latch.countDown();
 		}
+		if (msg instanceof SuccessMessage) {
+			SuccessMessage successMessage = (SuccessMessage) msg;
+			if (FileServer.ERROR_QUOTA_EXCEEDED.equals(successMessage.getErrorMessage())) {
+				exception = new QuotaExceededException();
+			} else {
+				exception = new FileBrokerException(successMessage.getErrorMessage());
+			}
+			latch.countDown();
+		}
+		if (msg instanceof CommandMessage) {
+			CommandMessage commandMessage = (CommandMessage) msg;
+			// the following is most likely CommandMessage.COMMAND_FILE_OPERATION_DENIED
+			exception = new FileBrokerException(commandMessage.getCommand());  
+			latch.countDown();
+		}
 	}
 
 	/**
 	 * @param timeout in given units
 	 * @param unit unit of the timeout
 	 * @return 
+	 * @throws FileBrokerException if file operation failed
 	 * @throws AuthCancelledException 
 	 * @throws RuntimeException if interrupted
 	 */
-	public List<URL> waitForReply(long timeout, TimeUnit unit) throws AuthCancelledException {
+	public List<URL> waitForReply(long timeout, TimeUnit unit) throws FileBrokerException, AuthCancelledException {
 		try {
 			latch.await(timeout, unit);
 		} catch (InterruptedException e) {
@@ -52,6 +74,10 @@ public class UrlListMessageListener extends TempTopicMessagingListenerBase {
 			throw new AuthCancelledException();
 		}
 		
+		if (exception != null) {
+			throw exception;
+		}
+		
 		return this.urlList;
 	}
 	
@@ -0,0 +1,372 @@
+package fi.csc.microarray.messaging.message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.UUID;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQMapMessage;
+
+/**
+ * Compact binary encoding of ChipsterMessages.
+ *
+ * The messages are still marshalled to a MapMessage first, so the message classes
+ * don't have to know about this format. The properties and the map values of the
+ * MapMessage are then written to a byte array, which is sent in a JMS BytesMessage
+ * or stored in the jobmanager database.
+ *
+ * Format, version 1:
+ * <pre>
+ * magic byte, version byte
+ * property count, properties
+ * map value count, map values
+ * </pre>
+ * Counts and lengths are unsigned varints. Each property and map value is a key
+ * followed by a typed value. Keys found from the {@link #KEYS} table are written as
+ * their index, others as strings. Strings containing a UUID in canonical form (like
+ * payload ids) are written as 16 bytes.
+ *
+ * The format is identified by the version byte, so that the older versions can
+ * still be read after changes. Never reorder or remove {@link #KEYS} without
+ * incrementing the version.
+ */
+public class BinaryMessageFormat {
+
+	public static final int VERSION = 1;
+
+	private static final byte MAGIC = (byte) 0xC5;
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_UUID = 2;
+	private static final byte TYPE_INT = 3;
+	private static final byte TYPE_LONG = 4;
+	private static final byte TYPE_DOUBLE = 5;
+	private static final byte TYPE_TRUE = 6;
+	private static final byte TYPE_FALSE = 7;
+
+	/**
+	 * Frequently used keys of version 1, index 0 is reserved for literal keys.
+	 */
+	private static final String[] KEYS = new String[] {
+		null,
+		ChipsterMessage.KEY_MESSAGE_ID,
+		ChipsterMessage.KEY_CLASS,
+		ChipsterMessage.KEY_USERNAME,
+		ChipsterMessage.KEY_SESSION_ID,
+		ChipsterMessage.KEY_MULTIPLEX_CHANNEL,
+		"command",
+		"parameter",
+		"named-parameter-key",
+		"named-parameter-value",
+		"jobID",
+		"analysisID",
+		"jobId",
+		"exitState",
+		"stateDetail",
+		"errorMessage",
+		"outputText",
+		"sourceCode",
+		"url",
+		"url-list",
+		"json",
+		"boolean",
+		"success",
+		"details",
+		"exception",
+		"operation",
+		"startTime",
+		"endTime",
+		"compHost",
+	};
+
+	private static final HashMap<String, Integer> KEY_INDEX = new HashMap<>();
+
+	static {
+		for (int i = 1; i < KEYS.length; i++) {
+			KEY_INDEX.put(KEYS[i], i);
+		}
+	}
+
+	/**
+	 * Create a JMS message of the given ChipsterMessage.
+	 *
+	 * @param session
+	 * @param message
+	 * @param binary use the binary format, otherwise MapMessage
+	 * @return
+	 * @throws JMSException
+	 */
+	public static Message createJMSMessage(Session session, ChipsterMessage message, boolean binary) throws JMSException {
+		if (!binary) {
+			MapMessage mapMessage = session.createMapMessage();
+			message.marshal(mapMessage);
+			return mapMessage;
+		}
+
+		BytesMessage bytesMessage = session.createBytesMessage();
+		bytesMessage.writeBytes(toBytes(message));
+		// needed for dispatching and also useful in the logs
+		bytesMessage.setStringProperty(ChipsterMessage.KEY_CLASS, message.getClass().getCanonicalName());
+		bytesMessage.setJMSReplyTo(message.getReplyTo());
+		return bytesMessage;
+	}
+
+	/**
+	 * Convert the received JMS message to a MapMessage, which can be unmarshalled by
+	 * the ChipsterMessage. Both formats are accepted, so that servers and clients can
+	 * be updated one at a time.
+	 *
+	 * @param message
+	 * @return
+	 * @throws JMSException
+	 */
+	public static MapMessage toMapMessage(Message message) throws JMSException {
+		if (message instanceof MapMessage) {
+			return (MapMessage) message;
+		}
+
+		if (message instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) message;
+			byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(bytes);
+
+			ActiveMQMapMessage mapMessage = fromBytes(bytes);
+			mapMessage.setJMSReplyTo(bytesMessage.getJMSReplyTo());
+			mapMessage.setJMSMessageID(bytesMessage.getJMSMessageID());
+			return mapMessage;
+		}
+
+		throw new JMSException("unsupported message type " + message.getClass().getName());
+	}
+
+	public static byte[] toBytes(ChipsterMessage message) throws JMSException {
+		ActiveMQMapMessage mapMessage = new ActiveMQMapMessage();
+		message.marshal(mapMessage);
+		return toBytes(mapMessage);
+	}
+
+	public static byte[] toBytes(ActiveMQMapMessage mapMessage) throws JMSException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		out.write(MAGIC);
+		out.write(VERSION);
+
+		int count = 0;
+		for (Enumeration<?> names = mapMessage.getPropertyNames(); names.hasMoreElements(); names.nextElement()) {
+			count++;
+		}
+		writeVarInt(out, count);
+		for (Enumeration<?> names = mapMessage.getPropertyNames(); names.hasMoreElements(); ) {
+			String name = (String) names.nextElement();
+			writeKey(out, name);
+			writeValue(out, mapMessage.getObjectProperty(name));
+		}
+
+		writeVarInt(out, mapMessage.getContentMap().size());
+		for (Enumeration<String> names = mapMessage.getMapNames(); names.hasMoreElements(); ) {
+			String name = names.nextElement();
+			writeKey(out, name);
+			writeValue(out, mapMessage.getObject(name));
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Read the properties and map values. Strings are decoded directly from the
+	 * given array without intermediate buffers.
+	 *
+	 * @param bytes
+	 * @return
+	 * @throws JMSException if the bytes are not in a supported format
+	 */
+	public static ActiveMQMapMessage fromBytes(byte[] bytes) throws JMSException {
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+		ActiveMQMapMessage mapMessage = new ActiveMQMapMessage();
+
+		try {
+			if (in.get() != MAGIC) {
+				throw new JMSException("not a binary chipster message");
+			}
+			int version = in.get();
+			if (version != VERSION) {
+				throw new JMSException("unsupported binary message version " + version);
+			}
+
+			int propertyCount = readVarInt(in);
+			for (int i = 0; i < propertyCount; i++) {
+				String name = readKey(in);
+				mapMessage.setObjectProperty(name, readValue(in));
+			}
+
+			int valueCount = readVarInt(in);
+			for (int i = 0; i < valueCount; i++) {
+				String name = readKey(in);
+				mapMessage.setObject(name, readValue(in));
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new JMSException("malformed binary chipster message");
+		}
+
+		return mapMessage;
+	}
+
+	/**
+	 * @param bytes
+	 * @return true if the bytes start like a binary message
+	 */
+	public static boolean isBinaryMessage(byte[] bytes) {
+		return bytes.length >= 2 && bytes[0] == MAGIC;
+	}
+
+	private static void writeKey(ByteArrayOutputStream out, String key) {
+		Integer index = KEY_INDEX.get(key);
+		if (index != null) {
+			writeVarInt(out, index);
+		} else {
+			writeVarInt(out, 0);
+			writeString(out, key);
+		}
+	}
+
+	private static String readKey(ByteBuffer in) throws JMSException {
+		int index = readVarInt(in);
+		if (index == 0) {
+			return readString(in);
+		}
+		if (index >= KEYS.length) {
+			throw new JMSException("unknown key index " + index);
+		}
+		return KEYS[index];
+	}
+
+	private static void writeValue(ByteArrayOutputStream out, Object value) throws JMSException {
+		if (value == null) {
+			out.write(TYPE_NULL);
+
+		} else if (value instanceof String) {
+			String string = (String) value;
+			UUID uuid = parseCanonicalUuid(string);
+			if (uuid != null) {
+				out.write(TYPE_UUID);
+				writeLong(out, uuid.getMostSignificantBits());
+				writeLong(out, uuid.getLeastSignificantBits());
+			} else {
+				out.write(TYPE_STRING);
+				writeString(out, string);
+			}
+
+		} else if (value instanceof Integer) {
+			out.write(TYPE_INT);
+			writeVarInt(out, (Integer) value);
+
+		} else if (value instanceof Long) {
+			out.write(TYPE_LONG);
+			writeLong(out, (Long) value);
+
+		} else if (value instanceof Double) {
+			out.write(TYPE_DOUBLE);
+			writeLong(out, Double.doubleToLongBits((Double) value));
+
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+
+		} else {
+			throw new JMSException("unsupported value type " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(ByteBuffer in) throws JMSException {
+		byte type = in.get();
+		switch (type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_STRING:
+			return readString(in);
+		case TYPE_UUID:
+			return new UUID(in.getLong(), in.getLong()).toString();
+		case TYPE_INT:
+			return readVarInt(in);
+		case TYPE_LONG:
+			return in.getLong();
+		case TYPE_DOUBLE:
+			return Double.longBitsToDouble(in.getLong());
+		case TYPE_TRUE:
+			return true;
+		case TYPE_FALSE:
+			return false;
+		default:
+			throw new JMSException("unknown value type " + type);
+		}
+	}
+
+	/**
+	 * @param string
+	 * @return UUID or null if the string is not a UUID, which would be converted back exactly to the same string
+	 */
+	private static UUID parseCanonicalUuid(String string) {
+		if (string.length() != 36 || string.charAt(8) != '-') {
+			return null;
+		}
+		try {
+			UUID uuid = UUID.fromString(string);
+			if (uuid.toString().equals(string)) {
+				return uuid;
+			}
+		} catch (IllegalArgumentException e) {
+			// not a uuid
+		}
+		return null;
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String string) {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = readVarInt(in);
+		String string = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return string;
+	}
+
+	private static void writeLong(ByteArrayOutputStream out, long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			out.write((int) (value >>> shift));
+		}
+	}
+
+	/**
+	 * Unsigned varint, 7 bits in each byte. Negative values take 5 bytes.
+	 */
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("malformed varint");
+	}
+}
@@ -26,6 +26,8 @@ public class CommandMessage extends ParameterMessage {
 
 	public final static String COMMAND_NEW_URL_REQUEST ="new-url-request";
 	public final static String COMMAND_GET_URL ="get-url";
+	public final static String COMMAND_NEW_URL_LIST_REQUEST ="new-url-list-request";
+	public final static String COMMAND_GET_URL_LIST ="get-url-list";
 
 	@Deprecated
 	public final static String COMMAND_PUBLIC_URL_REQUEST ="public-url-request";
@@ -33,7 +35,9 @@ public class CommandMessage extends ParameterMessage {
 	public final static String COMMAND_DISK_SPACE_REQUEST ="disk-space-request";
 
 	public static final String COMMAND_MOVE_FROM_CACHE_TO_STORAGE = "move-from-cache-to-storage";
+	public static final String COMMAND_MOVE_FROM_CACHE_TO_STORAGE_LIST = "move-from-cache-to-storage-list";
 	public static final String COMMAND_IS_AVAILABLE = "is-available";
+	public static final String COMMAND_IS_AVAILABLE_LIST = "is-available-list";
 	public static final String COMMAND_STORE_SESSION = "store-session";
 	public static final String COMMAND_REMOVE_SESSION = "remove-session";
 	public static final String COMMAND_LIST_SESSIONS = "list-sessions";
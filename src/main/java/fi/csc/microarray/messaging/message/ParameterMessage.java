@@ -54,12 +54,15 @@ public abstract class ParameterMessage extends ChipsterMessage {
 	public static final String PARAMETER_FILE_ID_LIST = "file-id-list";	
 	public static final String PARAMETER_USERNAME_LIST = "username-list";
 	public static final String PARAMETER_SIZE_LIST = "size-list";
+	public static final String PARAMETER_CHECKSUM_LIST = "checksum-list";
 	public static final String PARAMETER_DATE_LIST = "date-list";
 	public static final String PARAMETER_STATUS_REPORT = "status-report";
 	public static final String PARAMETER_HOST = "host";
 	public static final String PARAMETER_JSON = "json";
 	public static final String PARAMETER_QUOTA = "quota";
 	public static final String PARAMETER_QUOTA_WARNING = "quota-warning";
+	public static final String PARAMETER_MODULE_FILTER_MODE = "module-filter-mode";
+	public static final String PARAMETER_MODULE_FILTER_NAME = "module-filter-name";
 	
 	private List<String> parameters = new LinkedList<String>();
 	private HashMap<String, String> namedParameters = new HashMap<String, String>();
@@ -24,6 +24,8 @@ public class UrlListMessage extends ChipsterMessage {
 	
 	/**
 	 * Create a new message with the supplied url list. Url items must be in <u>encoded</u> form. 
+	 * Items may be null, when the list is a reply to a request for several files and some of them 
+	 * were not available.
 	 * 
 	 * @param url
 	 */
@@ -41,12 +43,19 @@ public class UrlListMessage extends ChipsterMessage {
 		try {
 			
 			String messageString = from.getString(KEY_URL_LIST);
-			String[] urlArray = messageString.split(URL_DELIMITER);
+			
+			// every url is followed by a delimiter, so the last item is always empty
+			String[] urlArray = messageString.split(URL_DELIMITER, -1);
 			
 			urlList = new LinkedList<URL>();
 			
-			for (String urlString : urlArray) {			
-				urlList.add(new URL(urlString));
+			for (int i = 0; i < urlArray.length - 1; i++) {
+				// empty line means that the url wasn't available
+				if (urlArray[i].isEmpty()) {
+					urlList.add(null);
+				} else {
+					urlList.add(new URL(urlArray[i]));
+				}
 			}
 			
 		} catch (MalformedURLException e) {
@@ -57,12 +66,15 @@ public class UrlListMessage extends ChipsterMessage {
 	public void marshal(MapMessage mapMessage) throws JMSException {
 		super.marshal(mapMessage);
 		
-		String messageString = "";
+		StringBuilder messageString = new StringBuilder();
 		
 		for (URL url : urlList) {
-			messageString += (url.toString() + URL_DELIMITER);
+			if (url != null) {
+				messageString.append(url.toString());
+			}
+			messageString.append(URL_DELIMITER);
 		}
 		
-		mapMessage.setString(KEY_URL_LIST, messageString);
+		mapMessage.setString(KEY_URL_LIST, messageString.toString());
 	}
 }
@@ -8,6 +8,17 @@ package fi.csc.microarray.util;
  */
 public class LookaheadStringReader {
 
+	/**
+	 * Single character Strings of ASCII, so that reading them doesn't allocate.
+	 */
+	private static final String[] ASCII = new String[128];
+	
+	static {
+		for (char c = 0; c < ASCII.length; c++) {
+			ASCII[c] = String.valueOf(c).intern();
+		}
+	}
+	
 	private String string;
 	private int index = 0;
 	
@@ -28,7 +39,7 @@ public class LookaheadStringReader {
 	public String lookahead(int lookahead) {
 		int newIndex = index + lookahead - 1;
 		if (newIndex < string.length()) {
-			return new String(new char[] { string.charAt(newIndex) } );
+			return toString(string.charAt(newIndex));
 		} else {
 			return null;
 		}
@@ -44,16 +55,21 @@ public class LookaheadStringReader {
 	 * @see #readToSB(String...)
 	 */
 	public String readTo(String... delimeters) {
-		return readToSB(delimeters).toString();
+		int start = index;
+		skipTo(delimeters);
+		return string.substring(start, index);
 	}
 	
-	public StringBuffer readToSB(String... delimeters) {
-		StringBuffer sb = new StringBuffer();
-		while (!isAtEnd() && !anyEquals(lookahead(), delimeters)) {
-			sb.append(string.charAt(index));
+	private void skipTo(String[] delimeters) {
+		while (!isAtEnd() && !anyEquals(string.charAt(index), delimeters)) {
 			index++;
 		}
-		return sb;		
+	}
+	
+	public StringBuffer readToSB(String... delimeters) {
+		int start = index;
+		skipTo(delimeters);
+		return new StringBuffer(string.substring(start, index));
 	}
 
 	/**
@@ -66,26 +82,22 @@ public class LookaheadStringReader {
 	}
 	
 	public StringBuffer readToLastSB(String... delimeters) {
-		StringBuffer sb = new StringBuffer();
+		int start = index;
 		
 		// read to delimeters
-		while (!isAtEnd() && !anyEquals(lookahead(), delimeters)) {
-			sb.append(string.charAt(index));
-			index++;
-		}
+		skipTo(delimeters);
 
 		// read to last delimeter
-		while (!isAtEnd() && anyEquals(lookahead(2), delimeters)) {
-			sb.append(string.charAt(index));
+		while (index + 1 < string.length() && anyEquals(string.charAt(index + 1), delimeters)) {
 			index++;
 		}
 		
-		return sb;		
+		return new StringBuffer(string.substring(start, index));
 	}
 
-	private boolean anyEquals(String s, String[] delimeters) {
+	private boolean anyEquals(char c, String[] delimeters) {
 		for (String delimeter : delimeters) {
-			if (delimeter.equals(s)) {
+			if (delimeter.length() == 1 && delimeter.charAt(0) == c) {
 				return true;
 			}
 		}
@@ -94,14 +106,16 @@ public class LookaheadStringReader {
 
 	public String read() {
 		if (!isAtEnd()) {
-			String s = new String(new char[] { string.charAt(index) } );
-			index++;
-			return s;
+			return toString(string.charAt(index++));
 		} else {
 			return null;
 		}
 	}
 
+	private static String toString(char c) {
+		return c < ASCII.length ? ASCII[c] : String.valueOf(c);
+	}
+
 	public int getLocation() {
 		return index;
 	}
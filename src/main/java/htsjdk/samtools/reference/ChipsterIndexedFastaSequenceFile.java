@@ -27,7 +27,6 @@ package htsjdk.samtools.reference;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -37,7 +36,7 @@ import htsjdk.samtools.SAMException;
 
 /**
  * Copy of Picard class modified to support urls and 
- *  - smaller buffer size to avoid downloading useless extra bytes)
+ *  - single read of the exact byte range to avoid downloading useless extra bytes
  *  - access to FastaSequenceIndex
  */
 public class ChipsterIndexedFastaSequenceFile extends PicardIndexedFastaSequenceFile {
@@ -46,11 +45,6 @@ public class ChipsterIndexedFastaSequenceFile extends PicardIndexedFastaSequence
 
     private final htsjdk.samtools.reference.FastaSequenceIndex index;
     
-    /**
-     * Size of the read buffer.
-     */
-    protected static final int BUFFER_SIZE = 1 * 1024;
-
      public ChipsterIndexedFastaSequenceFile(final ByteDataSource file, final FastaSequenceIndex index) {
 
         super();
@@ -72,8 +66,19 @@ public class ChipsterIndexedFastaSequenceFile extends PicardIndexedFastaSequence
     	return contigs;
     }
 
+    /**
+     * @return number of bases in the contig
+     */
+    public long getContigLength(String contig) {
+        return index.getIndexEntry(contig).getSize();
+    }
+
     /**
      * Gets the subsequence of the contig in the range [start,stop]
+     * 
+     * The bytes of the whole range are read at once, so that a remote file is
+     * accessed with a single range request. 
+     * 
      * @param contig Contig whose subsequence to retrieve.
      * @param start inclusive, 1-based start of region.
      * @param stop inclusive, 1-based stop of region.
@@ -91,55 +96,35 @@ public class ChipsterIndexedFastaSequenceFile extends PicardIndexedFastaSequence
         int length = (int)(stop - start + 1);
 
         byte[] target = new byte[length];
-        ByteBuffer targetBuffer = ByteBuffer.wrap(target);
+        
+        if (length == 0) {
+        	return new ReferenceSequence( contig, indexEntry.getSequenceIndex(), target );
+        }
 
         final int basesPerLine = indexEntry.getBasesPerLine();
         final int bytesPerLine = indexEntry.getBytesPerLine();
-        final int terminatorLength = bytesPerLine - basesPerLine;
 
         long startOffset = ((start-1)/basesPerLine)*bytesPerLine + (start-1)%basesPerLine;
-        // Cast to long so the second argument cannot overflow a signed integer.
-        final long minBufferSize = Math.min((long) BUFFER_SIZE, (long)(length / basesPerLine + 2) * (long)bytesPerLine);
-        if (minBufferSize > Integer.MAX_VALUE) throw new SAMException("Buffer is too large: " +  minBufferSize);
-
-        // Allocate a buffer for reading in sequence data.
-        final ByteBuffer channelBuffer = ByteBuffer.allocate((int)minBufferSize);
-
-        while(targetBuffer.position() < length) {
-            // If the bufferOffset is currently within the eol characters in the string, push the bufferOffset forward to the next printable character.
-            startOffset += Math.max((int)(startOffset%bytesPerLine - basesPerLine + 1),0);
-
-            try {
-                //startOffset += readFromPosition(channel, channelBuffer, indexEntry.getLocation()+startOffset);
-            	byte[] bytes = channel.read(indexEntry.getLocation() + startOffset, channelBuffer.remaining());
-            	channelBuffer.put(bytes);
-            	startOffset += bytes.length;
-            }
-            catch(IOException ex) {
-                throw new SAMException("Unable to load " + contig + "(" + start + ", " + stop + ") from " + getAbsolutePath(), ex);
-            }
-
-            // Reset the buffer for outbound transfers.
-            channelBuffer.flip();
-
-            // Calculate the size of the next run of bases based on the contents we've already retrieved.
-            final int positionInContig = (int)start-1+targetBuffer.position();
-            final int nextBaseSpan = Math.min(basesPerLine-positionInContig%basesPerLine,length-targetBuffer.position());
-            // Cap the bytes to transfer by limiting the nextBaseSpan to the size of the channel buffer.
-            int bytesToTransfer = Math.min(nextBaseSpan,channelBuffer.capacity());
-
-            channelBuffer.limit(channelBuffer.position()+bytesToTransfer);
-
-            while(channelBuffer.hasRemaining()) {
-                targetBuffer.put(channelBuffer);
-
-                bytesToTransfer = Math.min(basesPerLine,length-targetBuffer.position());
-                channelBuffer.limit(Math.min(channelBuffer.position()+bytesToTransfer+terminatorLength,channelBuffer.capacity()));
-                channelBuffer.position(Math.min(channelBuffer.position()+terminatorLength,channelBuffer.capacity()));
-            }
-
-            // Reset the buffer for inbound transfers.
-            channelBuffer.flip();
+        long stopOffset = ((stop-1)/basesPerLine)*bytesPerLine + (stop-1)%basesPerLine;
+
+        byte[] bytes;
+        try {
+        	bytes = channel.read(indexEntry.getLocation() + startOffset, stopOffset - startOffset + 1);
+        }
+        catch(IOException ex) {
+        	throw new SAMException("Unable to load " + contig + "(" + start + ", " + stop + ") from " + getAbsolutePath(), ex);
+        }
+        
+        if (bytes == null) {
+        	throw new SAMException("Unable to load " + contig + "(" + start + ", " + stop + ") from " + getAbsolutePath());
+        }
+
+        // skip line terminators
+        int position = 0;
+        for (int i = 0; i < bytes.length && position < length; i++) {
+        	if ((startOffset + i) % bytesPerLine < basesPerLine) {
+        		target[position++] = bytes[i];
+        	}
         }
 
         return new ReferenceSequence( contig, indexEntry.getSequenceIndex(), target );
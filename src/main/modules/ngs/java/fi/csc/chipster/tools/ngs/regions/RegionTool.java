@@ -1,57 +1,161 @@
 package fi.csc.chipster.tools.ngs.regions;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.RegionOperations;
 import fi.csc.microarray.comp.java.JavaCompJobBase;
 import fi.csc.microarray.messaging.JobState;
 import fi.csc.microarray.util.Exceptions;
+import fi.csc.microarray.util.Files;
 import fi.csc.microarray.util.IOUtils;
 
+/**
+ * Base class for the tools that operate on region files. Regions of different
+ * chromosomes never overlap, so the inputs are split by chromosome and the 
+ * chromosomes are processed in parallel. Only the chromosomes under processing 
+ * are kept in memory. The sorted results of the chromosomes are written to 
+ * separate files, which are concatenated in chromosome order in the end.
+ */
 public abstract class RegionTool extends JavaCompJobBase {
 
+	/**
+	 * Called once for each chromosome, possibly from several threads at the same time.
+	 * 
+	 * @param inputs regions of one chromosome from each input file
+	 * @param parameters
+	 * @return result regions of the same chromosome in any order
+	 * @throws Exception
+	 */
 	protected abstract LinkedList<Feature> operate(LinkedList<List<Feature>> inputs, List<String> parameters) throws Exception;
 	
 	@Override
 	protected void execute() { 
+		File chromosomeDir = new File(jobDataDir, "chromosomes");
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		
 		try {
 			updateState(JobState.RUNNING, "preprocessing");
 
-			// Parse inputs
+			// Split inputs by chromosome
+			chromosomeDir.mkdir();
 			RegionOperations tool = new RegionOperations();
-			LinkedList<List<Feature>> inputs = new LinkedList<List<Feature>>();
+			List<TreeMap<Chromosome, File>> inputs = new ArrayList<TreeMap<Chromosome, File>>();
+			TreeSet<Chromosome> chromosomes = new TreeSet<Chromosome>();
 			for (int i = 0; i < toolDescription.getInputFiles().size(); i++) {
 				File inputFile = new File(jobDataDir, toolDescription.getInputFiles().get(i).getFileName());
-				inputs.add(tool.loadFile(inputFile));
+				TreeMap<Chromosome, File> chromosomeFiles = tool.splitByChromosome(inputFile, chromosomeDir, "input" + i + "-");
+				inputs.add(chromosomeFiles);
+				chromosomes.addAll(chromosomeFiles.keySet());
 			}
 
-			// Delegate actual processing to subclasses
+			// Delegate actual processing of each chromosome to subclasses
 			List<String> parameters = inputMessage.getParameters(JAVA_PARAMETER_SECURITY_POLICY, toolDescription);
-			LinkedList<Feature> output = operate(inputs, parameters);
-			
-			// Sort result
-			new RegionOperations().sort(output);
+			List<Future<File>> outputs = new ArrayList<Future<File>>();
+			int i = 0;
+			for (Chromosome chr : chromosomes) {
+				File outputFile = new File(chromosomeDir, "output-" + i++ + ".bed");
+				outputs.add(executor.submit(new ChromosomeTask(chr, inputs, parameters, outputFile)));
+			}
 			
-			// Write output
+			// Write output in chromosome order
 			FileOutputStream outputStream = null;
 			try {
 				outputStream = new FileOutputStream(new File(jobDataDir, toolDescription.getOutputFiles().get(0).getFileName().getID())); 
-				tool.print(output, outputStream);
+				for (Future<File> output : outputs) {
+					File outputFile = output.get();
+					FileInputStream inputStream = new FileInputStream(outputFile);
+					try {
+						IOUtils.copy(inputStream, outputStream);
+					} finally {
+						IOUtils.closeIfPossible(inputStream);
+					}
+					outputFile.delete();
+				}
 
 			} finally {
 				IOUtils.closeIfPossible(outputStream);
 			}
 			
 		} catch (Exception e) {
-			this.setOutputText(Exceptions.getStackTrace(e));
-			updateState(JobState.FAILED, e.getMessage());
+			Throwable cause = e;
+			if (e instanceof ExecutionException && e.getCause() != null) {
+				cause = e.getCause();
+			}
+			this.setOutputText(Exceptions.getStackTrace(cause));
+			updateState(JobState.FAILED, cause.getMessage());
 			return;
+			
+		} finally {
+			executor.shutdownNow();
+			try {
+				Files.delTree(chromosomeDir);
+			} catch (IOException e) {
+				// the whole job directory is removed later anyway
+			}
 		}
 		updateState(JobState.RUNNING, "preprocessing finished");
 	}
 
+	private class ChromosomeTask implements Callable<File> {
+
+		private Chromosome chr;
+		private List<TreeMap<Chromosome, File>> inputs;
+		private List<String> parameters;
+		private File outputFile;
+
+		public ChromosomeTask(Chromosome chr, List<TreeMap<Chromosome, File>> inputs, List<String> parameters, File outputFile) {
+			this.chr = chr;
+			this.inputs = inputs;
+			this.parameters = parameters;
+			this.outputFile = outputFile;
+		}
+
+		@Override
+		public File call() throws Exception {
+
+			// Parse inputs of this chromosome
+			RegionOperations tool = new RegionOperations();
+			LinkedList<List<Feature>> chromosomeInputs = new LinkedList<List<Feature>>();
+			for (TreeMap<Chromosome, File> input : inputs) {
+				File inputFile = input.get(chr);
+				if (inputFile != null) {
+					chromosomeInputs.add(tool.loadFile(inputFile));
+				} else {
+					chromosomeInputs.add(new LinkedList<Feature>());
+				}
+			}
+
+			LinkedList<Feature> output = operate(chromosomeInputs, parameters);
+
+			// Sort result
+			tool.sort(output);
+
+			// Write output
+			FileOutputStream outputStream = null;
+			try {
+				outputStream = new FileOutputStream(outputFile);
+				tool.print(output, outputStream);
+
+			} finally {
+				IOUtils.closeIfPossible(outputStream);
+			}
+
+			return outputFile;
+		}
+	}
 }
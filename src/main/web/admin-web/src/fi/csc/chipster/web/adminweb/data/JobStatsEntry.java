@@ -0,0 +1,94 @@
+package fi.csc.chipster.web.adminweb.data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Daily job count of one tool and user. The table is maintained by the manager.
+ */
+@Entity
+@Table(name="job_stats")
+public class JobStatsEntry implements Serializable {
+	/*
+	private static final String CREATE_JOB_STATS_TABLE =
+			"CREATE TABLE IF NOT EXISTS job_stats (" +
+			"startDay DATE NOT NULL, " +
+			"operation VARCHAR(200) NOT NULL, " +
+			"username VARCHAR(200) NOT NULL, " +
+			"jobCount INT DEFAULT 0, " +
+			"PRIMARY KEY (startDay, operation, username)" +
+			");";
+	 */
+
+	public static final String START_DAY = "startDay";
+	public static final String JOB_COUNT = "jobCount";
+
+	//Only database reading is needed
+	@Id
+	@Temporal(TemporalType.DATE)
+	@Column(name=START_DAY)
+	private Date startDay;
+	@Id
+	@Column(name=JobLogContainer.OPERATION)
+	private String operation;
+	@Id
+	@Column(name=JobLogContainer.USERNAME)
+	private String username;
+	@Column(name=JOB_COUNT)
+	private Integer jobCount;
+
+	public JobStatsEntry() {};
+
+	public Date getStartDay() {
+		return startDay;
+	}
+	public void setStartDay(Date startDay) {
+		this.startDay = startDay;
+	}
+	public String getOperation() {
+		return operation;
+	}
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+	public String getUsername() {
+		return username;
+	}
+	public void setUsername(String username) {
+		this.username = username;
+	}
+	public Integer getJobCount() {
+		return jobCount;
+	}
+	public void setJobCount(Integer jobCount) {
+		this.jobCount = jobCount;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof JobStatsEntry)) {
+			return false;
+		}
+		JobStatsEntry other = (JobStatsEntry) obj;
+		return equals(startDay, other.startDay) && equals(operation, other.operation) && equals(username, other.username);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = startDay != null ? startDay.hashCode() : 0;
+		hash = 31 * hash + (operation != null ? operation.hashCode() : 0);
+		hash = 31 * hash + (username != null ? username.hashCode() : 0);
+		return hash;
+	}
+
+	private static boolean equals(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+}
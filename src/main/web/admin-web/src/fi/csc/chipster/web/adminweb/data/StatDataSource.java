@@ -8,7 +8,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -20,7 +19,6 @@ import java.util.TreeMap;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.criterion.Order;
-import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.transform.Transformers;
@@ -82,96 +80,60 @@ public class StatDataSource {
 		return new Object[] { JobLogContainer.USERNAME, ROW_COUNT };
 	}
 
-	@SuppressWarnings("rawtypes")
-	private Map getJobDateRange(Session session, boolean ignoreTestAccounts) {
-		//Get min and max values of dates
-		Criteria rangeCriteria = session.createCriteria(JobLogEntry.class);
-		testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, rangeCriteria);
-		ProjectionList projections = Projections.projectionList();
-		projections.add(Projections.min(JobLogContainer.START_TIME), "min");
-		projections.add(Projections.max(JobLogContainer.START_TIME), "max");
-		rangeCriteria.setProjection(projections);
-		rangeCriteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-
+	/**
+	 * Query the job counts from the daily statistics, which is much faster
+	 * than counting the jobs. 
+	 * 
+	 * @param session
+	 * @param ignoreTestAccounts
+	 * @param select HQL select clause 
+	 * @param groupBy HQL group by expressions, also used for ordering
+	 * @return
+	 */
+	private List<Object[]> queryJobStats(Session session, boolean ignoreTestAccounts, String select, String groupBy) {
+		String hql = select + " from " + JobStatsEntry.class.getSimpleName() + " " + 
+				testAccountFilter.getHqlForTestAccounts(session, ignoreTestAccounts) + 
+				"group by " + groupBy + " order by " + groupBy;
+		
 		@SuppressWarnings("unchecked")
-		List<Map> rangeList = rangeCriteria.list();
-
-		return rangeList.get(0);
+		List<Object[]> rows = session.createQuery(hql).list();
+		return rows;
 	}
 
 	public List<Map<Object, Object>> getMonthlyStats(Session session, boolean ignoreTestAccounts) {
 
-
-		@SuppressWarnings("rawtypes")
-		Map rangeMap = getJobDateRange(session, ignoreTestAccounts);
-
-		Date min = (Date) rangeMap.get("min");
-		Date max = (Date) rangeMap.get("max");
+		List<Object[]> rows = queryJobStats(session, ignoreTestAccounts, 
+				"select year(startDay), month(startDay), sum(jobCount), count(distinct username)", 
+				"year(startDay), month(startDay)");
 		
 		List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
 		
-		if (min != null || max != null) {
+		if (!rows.isEmpty()) {
 			
-			Calendar minDate = new GregorianCalendar();
-			Calendar maxDate = new GregorianCalendar();
-			minDate.setTime(min);
-			maxDate.setTime(max);
-
-
-			int minYear = minDate.get(Calendar.YEAR);
-			int maxYear = maxDate.get(Calendar.YEAR);
-			int minMonth = minDate.get(Calendar.MONTH) + 1;
-			int maxMonth = maxDate.get(Calendar.MONTH) + 1;
-
-
-			for (int year = minYear; year <= maxYear; year++) {
-
-				int month;
-
-				if (year == minYear) {
-					month = minMonth;
-				} else {
-					month = 1;
-				}
-
-				while (month <= 12) {
-
-					if (year == maxYear && month > maxMonth) {
-						break;
-					}
-
-					Calendar startDate = new GregorianCalendar();
-					startDate.set(year, month - 1, 1, 0, 0, 0);
-
-					Calendar endDate = (Calendar) startDate.clone();        		
-					endDate.add(Calendar.MONTH, 1);
-
-					Criteria criteria = session.createCriteria(JobLogEntry.class);		
-					testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
-
-					criteria.add(Restrictions.ge(JobLogContainer.START_TIME, startDate.getTime()));
-					criteria.add(Restrictions.lt(JobLogContainer.START_TIME, endDate.getTime()));
-
-					criteria.setProjection( Projections.projectionList()
-							.add(Projections.rowCount(), JOB_COUNT)
-							.add(Projections.countDistinct(JobLogContainer.USERNAME), UNIQUE_USERS)
-							);
-					criteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);        	
-
-
-					@SuppressWarnings({ "rawtypes", "unchecked" })
-					List<Map> resultList = criteria.list();
-
-					@SuppressWarnings("unchecked")
-					Map<Object, Object> resultMap = resultList.get(0);
-
-					resultMap.put(YEAR, year);
-					resultMap.put(MONTH, month);
-
-					results.add(resultMap);
+			Integer year = null;
+			Integer month = null;
+			
+			for (Object[] row : rows) {
+				int rowYear = ((Number) row[0]).intValue();
+				int rowMonth = ((Number) row[1]).intValue();
 
+				// add the months without jobs
+				if (year != null) {
 					month++;
+					while (year < rowYear || month < rowMonth) {
+						if (month > 12) {
+							year++;
+							month = 1;
+							continue;
+						}
+						results.add(createMonthlyStats(year, month, 0l, 0l));
+						month++;
+					}
 				}
+				year = rowYear;
+				month = rowMonth;
+				
+				results.add(createMonthlyStats(year, month, ((Number)row[2]).longValue(), ((Number)row[3]).longValue()));
 			}
 			
 		} else {
@@ -188,6 +150,15 @@ public class StatDataSource {
 		
 		return results;
 	}
+	
+	private Map<Object, Object> createMonthlyStats(int year, int month, long jobCount, long uniqueUsers) {
+		Map<Object, Object> resultMap = new HashMap<Object, Object>();
+		resultMap.put(YEAR, year);
+		resultMap.put(MONTH, month);
+		resultMap.put(JOB_COUNT, jobCount);
+		resultMap.put(UNIQUE_USERS, uniqueUsers);
+		return resultMap;
+	}
 
 	public Object[] getMonthlyStatsColumnOrder() {
 		return new Object[] { YEAR, MONTH, UNIQUE_USERS, JOB_COUNT};
@@ -195,51 +166,19 @@ public class StatDataSource {
 
 	public List<Map<Object, Object>> getYearlyStats(Session session, boolean ignoreTestAccounts) {
 
-		@SuppressWarnings("rawtypes")
-		Map rangeMap = getJobDateRange(session, ignoreTestAccounts);
-
-		Calendar minDate = new GregorianCalendar();
-		Calendar maxDate = new GregorianCalendar();
-		
-		Date min = (Date) rangeMap.get("min");
-		Date max = (Date) rangeMap.get("max");
+		List<Object[]> rows = queryJobStats(session, ignoreTestAccounts, 
+				"select year(startDay), sum(jobCount), count(distinct username)", 
+				"year(startDay)");
 		
 		List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
 		
-		if (min != null || max != null) {
+		if (!rows.isEmpty()) {
 			
-			minDate.setTime(min);
-			maxDate.setTime(max);
-
-			int minYear = minDate.get(Calendar.YEAR);
-			int maxYear = maxDate.get(Calendar.YEAR);
-
-			for (int year = minYear; year <= maxYear; year++) {
-
-				Calendar startDate = new GregorianCalendar();
-				startDate.set(year, 0, 1, 0, 0, 0);
-
-				Calendar endDate = (Calendar) startDate.clone();        		
-				endDate.add(Calendar.YEAR, 1);
-
-				Criteria criteria = session.createCriteria(JobLogEntry.class);		
-				testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
-
-				criteria.add(Restrictions.ge(JobLogContainer.START_TIME, startDate.getTime()));
-				criteria.add(Restrictions.lt(JobLogContainer.START_TIME, endDate.getTime()));
-
-				criteria.setProjection( Projections.projectionList()
-						.add(Projections.rowCount(), JOB_COUNT)
-						.add(Projections.countDistinct(JobLogContainer.USERNAME), UNIQUE_USERS)
-						);
-				criteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);        	
-
-				@SuppressWarnings({ "rawtypes", "unchecked" })
-				List<Map> resultList = criteria.list();
-
-				@SuppressWarnings("unchecked")
-				Map<Object, Object> resultMap = resultList.get(0);				
-				resultMap.put(YEAR, year);
+			for (Object[] row : rows) {
+				Map<Object, Object> resultMap = new HashMap<Object, Object>();
+				resultMap.put(YEAR, ((Number) row[0]).intValue());
+				resultMap.put(JOB_COUNT, ((Number) row[1]).longValue());
+				resultMap.put(UNIQUE_USERS, ((Number) row[2]).longValue());
 				results.add(resultMap);
 			}
 		} else {
@@ -335,60 +274,24 @@ public class StatDataSource {
 	
 	public List<Map<Object, Object>> getModuleUsage(Session session, boolean ignoreTestAccounts) {
 
-		//Get date of first and last job
-		@SuppressWarnings("rawtypes")
-		Map rangeMap = getJobDateRange(session, ignoreTestAccounts);
-
-		Calendar minDate = new GregorianCalendar();
-		Calendar maxDate = new GregorianCalendar();
-		
-		Date min = (Date) rangeMap.get("min");
-		Date max = (Date) rangeMap.get("max");
+		//Get a yearly job count for each tool
+		List<Object[]> rows = queryJobStats(session, ignoreTestAccounts, 
+				"select year(startDay), operation, sum(jobCount)", 
+				"year(startDay), operation");
 		
 		List<Map<Object, Object>> moduleResults = new LinkedList<Map<Object, Object>>();	
 		
-		if (min != null || max != null) {
+		if (!rows.isEmpty()) {
 			
-			minDate.setTime(min);
-			maxDate.setTime(max);
-		
-			int minYear = minDate.get(Calendar.YEAR);
-			int maxYear = maxDate.get(Calendar.YEAR);
-
 			List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
 			
-			//Get a yearly job count for each tool 		
-			for (int year = minYear; year <= maxYear; year++) {
-
-				Calendar startDate = new GregorianCalendar();
-				startDate.set(year, 0, 1, 0, 0, 0);
-
-				Calendar endDate = (Calendar) startDate.clone();        		
-				endDate.add(Calendar.YEAR, 1);
-
-				Criteria criteria = session.createCriteria(JobLogEntry.class);		
-				testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
-
-				criteria.add(Restrictions.ge(JobLogContainer.START_TIME, startDate.getTime()));
-				criteria.add(Restrictions.lt(JobLogContainer.START_TIME, endDate.getTime()));
-
-				criteria.setProjection( Projections.projectionList()
-						.add(Projections.rowCount(), ROW_COUNT)
-						.add(Projections.groupProperty(JobLogContainer.OPERATION), JobLogContainer.OPERATION)		        
-						);
-
-				criteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);        	
-
-				@SuppressWarnings({ "rawtypes", "unchecked" })
-				List<Map> resultList = criteria.list();
-
-				for (@SuppressWarnings("rawtypes") Map item : resultList) {
-					@SuppressWarnings("unchecked")
-					Map<Object, Object> toolCount = item;
-					toolCount.put(YEAR, year);
-					results.add(toolCount);
-				}
-			}	
+			for (Object[] row : rows) {
+				Map<Object, Object> toolCount = new HashMap<Object, Object>();
+				toolCount.put(YEAR, ((Number) row[0]).intValue());
+				toolCount.put(JobLogContainer.OPERATION, row[1]);
+				toolCount.put(ROW_COUNT, ((Number) row[2]).longValue());
+				results.add(toolCount);
+			}
 
 			String microarray = null;
 			String ngs = null;
@@ -11,6 +11,7 @@ import org.hibernate.service.ServiceRegistryBuilder;
 
 import fi.csc.chipster.web.adminweb.data.AccountEntry;
 import fi.csc.chipster.web.adminweb.data.JobLogEntry;
+import fi.csc.chipster.web.adminweb.data.JobStatsEntry;
 import fi.csc.microarray.messaging.admin.ManagerConfiguration;
 import fi.csc.microarray.util.Exceptions;
 
@@ -77,6 +78,7 @@ public class HibernateUtil {
 
     		hibernateConf.addAnnotatedClass(JobLogEntry.class);
     		hibernateConf.addAnnotatedClass(AccountEntry.class);
+    		hibernateConf.addAnnotatedClass(JobStatsEntry.class);
 			
 			final ServiceRegistryBuilder serviceRegistryBuilder = new ServiceRegistryBuilder();
 
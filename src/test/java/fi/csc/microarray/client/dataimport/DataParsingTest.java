@@ -1,7 +1,12 @@
 package fi.csc.microarray.client.dataimport;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -71,4 +76,60 @@ public class DataParsingTest {
 		System.out.println("===============================");
 		System.out.println("Parsing done. Total time: " + (System.currentTimeMillis() - start));
 	}
+	
+	@Test
+	public void testNumberParsing() {
+		String[] tokens = { "1", "-2.5", "+.5", "5.", "1e5", "1.5E-3", "NaN", "-Infinity", " 3", "4 ", "0x1p3", "2.5f", "1d",
+				"", "-", ".", "e5", "1e", "1e+", "1007_s_at", "abc", "1,5", "Fxyd", "1.2.3", "--1", " ", " abc", "Name", "Ix" };
+		
+		for (String token : tokens) {
+			Double expected;
+			try {
+				expected = Double.valueOf(token);
+			} catch (NumberFormatException e) {
+				expected = null;
+			}
+			Assert.assertEquals(token, expected, PreviewRows.parseDouble(token));
+		}
+	}
+	
+	@Test
+	public void testLineIndex() throws IOException {
+		File file = File.createTempFile("line-index-test", ".txt");
+		file.deleteOnExit();
+		
+		FileWriter writer = new FileWriter(file);
+		writer.write("first\r\n\r\nsecond,a\rthird,,\n\n");
+		for (int i = 0; i < 1000; i++) {
+			writer.write("line" + i + (i % 3 == 0 ? "\r\n" : "\n"));
+		}
+		writer.write("last;no;line;break");
+		writer.close();
+		
+		List<String> expected = new ArrayList<String>();
+		int lines = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines++;
+			if (!line.equals("")) {
+				expected.add(line);
+			}
+		}
+		reader.close();
+		
+		FileAnalyser analyser = new FileAnalyser(file);
+		analyser.startAnalysing();
+		LineIndex index = analyser.getLineIndex();
+		
+		Assert.assertEquals(lines, analyser.getLinesOnFile());
+		Assert.assertEquals(expected.size(), index.getLineCount());
+		Assert.assertEquals(expected, index.readLines(0, index.getLineCount()));
+		Assert.assertEquals(expected.subList(70, 75), index.readLines(70, 5));
+		Assert.assertEquals(expected.subList(expected.size() - 1, expected.size()), index.readLines(expected.size() - 1, 10));
+		
+		Assert.assertEquals(2, analyser.getColumnCount(Delimiter.COMMA));
+		Assert.assertEquals(4, analyser.getColumnCount(Delimiter.SEMICOLON));
+		Assert.assertEquals(-1, analyser.getColumnCount(Delimiter.stringToDelim("\\|")));
+	}
 }
@@ -0,0 +1,35 @@
+package fi.csc.microarray.client.selection;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdentifierIndexTest {
+
+	@Test
+	public void testRowsAndIdentifiers() {
+		IdentifierIndex index = new IdentifierIndex(Arrays.asList("a", "b", "c", "b", "d"));
+
+		Assert.assertEquals(5, index.getRowCount());
+		Assert.assertEquals("c", index.getIdentifier(2));
+		Assert.assertEquals(0, index.getRow("a"));
+		Assert.assertEquals(-1, index.getRow("e"));
+
+		// the last row of a duplicate identifier
+		Assert.assertEquals(3, index.getRow("b"));
+
+		BitSet rows = index.getRows(Arrays.asList("d", "a", "e"));
+		Assert.assertEquals(2, rows.cardinality());
+		Assert.assertTrue(rows.get(0));
+		Assert.assertTrue(rows.get(4));
+
+		rows.set(2);
+		Assert.assertEquals(Arrays.asList("a", "c", "d"), index.getIdentifiers(rows));
+
+		// rows beyond the table are ignored
+		rows.set(10);
+		Assert.assertEquals(3, index.getIdentifiers(rows).size());
+	}
+}
@@ -0,0 +1,88 @@
+package fi.csc.microarray.client.visualisation.methods;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.databeans.features.table.TableIndexTest;
+
+public class SpreadsheetTableModelTest {
+
+	private static final int ID = 0;
+	private static final int VALUE = 1;
+	private static final int NAME = 2;
+
+	/**
+	 * Rows with negative, equal and missing values. The row number is in the id.
+	 */
+	private static SpreadsheetTableModel createModel() throws IOException {
+		String[][] rows = new String[][] {
+				{ "row0", "3.5", "beta" },
+				{ "row1", "-2", "alpha" },
+				{ "row2", "NA", "gamma" },
+				{ "row3", "0", "beta" },
+				{ "row4", "-10.25", "Alpha" },
+				{ "row5", "3.5", "delta" },
+				{ "row6", "", "beta" },
+				{ "row7", "-2", "alpha" },
+				{ "row8", "1e3", "epsilon" },
+		};
+
+		StringBuilder content = new StringBuilder("id\tvalue\tname\n");
+		for (String[] row : rows) {
+			content.append(row[0] + "\t" + row[1] + "\t" + row[2] + "\n");
+		}
+
+		List<Boolean> linkableFlags = Arrays.asList(false, false, false);
+		return new SpreadsheetTableModel(TableIndexTest.createIndex(content.toString(), "id", "value", "name"), false, linkableFlags, null, null);
+	}
+
+	@Test
+	public void testTypes() throws IOException {
+		SpreadsheetTableModel model = createModel();
+
+		Assert.assertEquals(9, model.getRowCount());
+		Assert.assertFalse(model.isNumeric(ID));
+		Assert.assertTrue(model.isNumeric(VALUE));
+		Assert.assertFalse(model.isNumeric(NAME));
+	}
+
+	@Test
+	public void testSortByNumbers() throws IOException, InterruptedException {
+		SpreadsheetTableModel model = createModel();
+
+		// missing values are the biggest, equal values keep their order
+		Assert.assertArrayEquals(new int[] { 4, 1, 7, 3, 0, 5, 8, 2, 6 }, model.sortAndFilter(VALUE, true, null));
+		Assert.assertArrayEquals(new int[] { 2, 6, 8, 0, 5, 3, 1, 7, 4 }, model.sortAndFilter(VALUE, false, null));
+	}
+
+	@Test
+	public void testSortByText() throws IOException, InterruptedException {
+		SpreadsheetTableModel model = createModel();
+
+		// case sensitive order, capital letters first
+		Assert.assertArrayEquals(new int[] { 4, 1, 7, 0, 3, 6, 5, 8, 2 }, model.sortAndFilter(NAME, true, null));
+		Assert.assertArrayEquals(new int[] { 2, 8, 5, 0, 3, 6, 1, 7, 4 }, model.sortAndFilter(NAME, false, null));
+	}
+
+	@Test
+	public void testFilter() throws IOException, InterruptedException {
+		SpreadsheetTableModel model = createModel();
+
+		Assert.assertNull(model.sortAndFilter(-1, true, null));
+		Assert.assertNull(model.sortAndFilter(-1, true, ""));
+
+		// ignores case and keeps the original order without sorting
+		Assert.assertArrayEquals(new int[] { 1, 4, 7 }, model.sortAndFilter(-1, true, "ALPHA"));
+
+		// filter and sort together
+		Assert.assertArrayEquals(new int[] { 8, 5, 1, 7, 4 }, model.sortAndFilter(NAME, false, "l"));
+		Assert.assertArrayEquals(new int[] { 3, 0, 5, 6 }, model.sortAndFilter(VALUE, true, "ta"));
+		Assert.assertArrayEquals(new int[] { 6, 0, 5, 3 }, model.sortAndFilter(VALUE, false, "ta"));
+
+		Assert.assertEquals(0, model.sortAndFilter(VALUE, true, "no such text").length);
+	}
+}
@@ -0,0 +1,75 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Exon;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+
+public class GeneModelIndexTest {
+
+	private static final String[] LINES = new String[] {
+		"#!genome-build GRCh38",
+		// long transcript that covers the short ones
+		"1\tensembl\texon\t1000\t1200\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\"; exon_number \"1\"; gene_name \"LONG\";",
+		"1\tensembl\texon\t900000\t900100\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\"; exon_number \"2\"; gene_name \"LONG\";",
+		"1\tensembl\texon\t5000\t5100\t.\t-\t.\tgene_id \"G2\"; transcript_id \"T2\"; exon_number \"1\"; gene_name \"SHORT\";",
+		"1\tensembl\tCDS\t5010\t5100\t.\t-\t.\tgene_id \"G2\"; transcript_id \"T2\"; exon_number \"1\"; gene_name \"SHORT\";",
+		"1\tensembl\texon\t20000\t20100\t.\t+\t.\tgene_id \"G3\"; transcript_id \"T3\"; exon_number \"1\"; gene_name \"OTHER\";",
+		"1\tensembl\tstart_codon\t20000\t20002\t.\t+\t.\tgene_id \"G3\"; transcript_id \"T3\"; exon_number \"1\"; gene_name \"OTHER\";",
+		"2\tensembl\texon\t100\t200\t.\t+\t.\tgene_id \"G4\"; transcript_id \"T4\"; exon_number \"1\"; gene_name \"SHORT\";",
+	};
+
+	@Test
+	public void test() throws IOException {
+		File gtfFile = File.createTempFile("gene-model-index-test", ".gtf");
+		File indexFile = GeneModelIndex.getIndexFile(gtfFile);
+		try {
+			try (FileWriter writer = new FileWriter(gtfFile)) {
+				for (String line : LINES) {
+					writer.write(line + "\n");
+				}
+			}
+
+			Assert.assertFalse(GeneModelIndex.isUpToDate(gtfFile, indexFile));
+			GeneModelIndex index = GeneModelIndex.openOrCreate(gtfFile);
+			Assert.assertTrue(GeneModelIndex.isUpToDate(gtfFile, indexFile));
+
+			// inside the intron of the long transcript, which is returned completely
+			List<Exon> exons = index.getExons(new Region(300000l, 300100l, new Chromosome("chr1")));
+			Assert.assertEquals(2, exons.size());
+			Assert.assertEquals("T1", exons.get(0).getTranscriptId());
+			Assert.assertEquals(900100l, exons.get(1).getRegion().end.bp);
+			// the chromosome name of the gtf file is kept
+			Assert.assertEquals("1", exons.get(1).getRegion().start.chr.getOriginalName());
+
+			exons = index.getExons(new Region(5050l, 5060l, new Chromosome("1")));
+			Assert.assertEquals(4, exons.size());
+			Assert.assertEquals("T2", exons.get(2).getTranscriptId());
+			Assert.assertEquals(Exon.Feature.CDS, exons.get(3).getFeature());
+			Assert.assertEquals(Strand.REVERSE, exons.get(3).getRegion().getStrand());
+			Assert.assertEquals("SHORT", exons.get(3).getGeneName());
+
+			// start codons are not shown
+			exons = index.getExons(new Region(20000l, 20000l, new Chromosome("1")));
+			Assert.assertEquals(3, exons.size());
+			Assert.assertEquals("T3", exons.get(2).getTranscriptId());
+
+			Assert.assertTrue(index.getExons(new Region(300l, 400l, new Chromosome("2"))).isEmpty());
+			Assert.assertTrue(index.getExons(new Region(1l, 1000l, new Chromosome("3"))).isEmpty());
+
+			Assert.assertEquals(3, index.searchGene("short").size());
+			Assert.assertEquals(2, index.searchGene("g1").size());
+		} finally {
+			gtfFile.delete();
+			indexFile.delete();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex.ParallelCoverageCalculator.Coverage;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserSettings.CoverageType;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+public class ParallelCoverageCalculatorTest {
+
+	private static final SAMFileHeader HEADER = new SAMFileHeader();
+
+	private static SAMRecord createRecord(int start, String cigar, String sequence, boolean reverse) {
+		SAMRecord record = new SAMRecord(HEADER);
+		record.setReadName("read" + start);
+		record.setAlignmentStart(start);
+		record.setCigarString(cigar);
+		record.setReadString(sequence);
+		record.setReadNegativeStrandFlag(reverse);
+		return record;
+	}
+
+	@Test
+	public void testChunks() {
+		Coverage coverage = new Coverage(100, 199, true);
+
+		// crosses the chunk boundary at 150, deletion at 147-148
+		SAMRecord read1 = createRecord(145, "2M2D6M", "ACGTNA", false);
+		SAMRecord read2 = createRecord(146, "3M", "ccc", true);
+
+		coverage.count(Arrays.asList(read1, read2).iterator(), 100, 149, CoverageType.STRAND);
+		coverage.count(Arrays.asList(read1).iterator(), 150, 199, CoverageType.STRAND);
+
+		Assert.assertFalse(coverage.isCovered(0, 44));
+		Assert.assertEquals(1, coverage.getCoverage(0, 45));
+		Assert.assertFalse(coverage.isCovered(0, 47));
+		Assert.assertEquals(1, coverage.getCoverage(0, 49));
+		Assert.assertEquals(1, coverage.getCoverage(0, 52));
+
+		// N is aligned, but not counted in the coverage
+		Assert.assertTrue(coverage.isCovered(0, 53));
+		Assert.assertEquals(0, coverage.getCoverage(0, 53));
+		Assert.assertFalse(coverage.isCovered(0, 55));
+
+		Assert.assertArrayEquals(new int[] { 0, 1, 0, 0 }, coverage.getNucleotideCounts(0, 46));
+		Assert.assertArrayEquals(new int[] { 0, 0, 1, 0 }, coverage.getNucleotideCounts(0, 49));
+
+		Assert.assertEquals(1, coverage.getCoverage(1, 48));
+		Assert.assertArrayEquals(new int[] { 0, 1, 0, 0 }, coverage.getNucleotideCounts(1, 48));
+		Assert.assertFalse(coverage.isCovered(1, 49));
+	}
+
+	@Test
+	public void testMissingSequence() {
+		Coverage coverage = new Coverage(1, 10, false);
+
+		coverage.count(Arrays.asList(createRecord(1, "5M", "*", false)).iterator(), 1, 10, CoverageType.STRAND);
+
+		Assert.assertTrue(coverage.isCovered(0, 4));
+		Assert.assertEquals(0, coverage.getCoverage(0, 4));
+		Assert.assertNull(coverage.getNucleotideCounts(0, 4));
+	}
+}
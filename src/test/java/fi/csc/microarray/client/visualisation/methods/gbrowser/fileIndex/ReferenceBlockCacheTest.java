@@ -0,0 +1,48 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReferenceBlockCacheTest {
+
+	@Test
+	public void testBlock() {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			sequence.append("ACGTacgt");
+		}
+		sequence.append("NNNNNNNNNN");
+		sequence.append("GATTACA");
+		sequence.append("rY");
+
+		byte[] bases = sequence.toString().getBytes(StandardCharsets.US_ASCII);
+		ReferenceBlockCache.Block block = new ReferenceBlockCache.Block(bases);
+
+		byte[] all = new byte[bases.length];
+		block.getBases(0, bases.length, all, 0);
+		Assert.assertEquals(sequence.toString(), new String(all, StandardCharsets.US_ASCII));
+
+		byte[] part = new byte[12];
+		block.getBases(395, 405, part, 2);
+		Assert.assertEquals(sequence.substring(395, 405), new String(part, 2, 10, StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testEviction() {
+		ReferenceBlockCache cache = new ReferenceBlockCache(2);
+		ReferenceBlockCache.Block block = new ReferenceBlockCache.Block(new byte[] { 'A' });
+
+		cache.put("genome", "1", 0, block);
+		cache.put("genome", "1", 1, block);
+		Assert.assertNotNull(cache.get("genome", "1", 0));
+		cache.put("genome", "1", 2, block);
+
+		Assert.assertNull(cache.get("genome", "1", 1));
+		Assert.assertNotNull(cache.get("genome", "1", 0));
+		Assert.assertNull(cache.get("other", "1", 0));
+		Assert.assertEquals(2, cache.getBlockCount());
+		Assert.assertEquals(0.5, cache.getHitRate(), 0.0001);
+	}
+}
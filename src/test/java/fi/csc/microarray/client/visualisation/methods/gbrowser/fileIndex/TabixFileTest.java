@@ -0,0 +1,127 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.readers.TabixReader;
+
+public class TabixFileTest {
+
+	private static File createBedFile() throws IOException {
+		File file = File.createTempFile("tabix-file-test", ".bed.gz");
+		file.deleteOnExit();
+
+		// the index is built while writing, because it needs the virtual file pointers of the lines
+		TabixIndexCreator indexCreator = new TabixIndexCreator(TabixFormat.BED);
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(file);
+		try {
+			for (String chr : new String[] { "chr1", "chr2" }) {
+				for (int i = 0; i < 20000; i++) {
+					int start = i * 100;
+					indexCreator.addFeature(new SimpleFeature(chr, start + 1, start + 50), out.getFilePointer());
+					out.write((chr + "\t" + start + "\t" + (start + 50) + "\tfeature" + i + "\n").getBytes());
+				}
+			}
+			out.flush();
+			TabixIndex index = (TabixIndex) indexCreator.finalizeIndex(out.getFilePointer());
+
+			File indexFile = new File(file.getPath() + ".tbi");
+			indexFile.deleteOnExit();
+			index.write(indexFile);
+		} finally {
+			out.close();
+		}
+
+		return file;
+	}
+
+	private static List<String> queryWithoutCache(File file, String region) throws IOException {
+		TabixReader reader = new TabixReader(file.getPath());
+		try {
+			List<String> lines = new ArrayList<String>();
+			TabixReader.Iterator iter = reader.query(region);
+			String line;
+			while ((line = iter.next()) != null) {
+				lines.add(line);
+			}
+			return lines;
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentQueries() throws Exception {
+
+		final File bedFile = createBedFile();
+		final TabixFile tabixFile = TabixFile.open(bedFile.getPath());
+
+		// the same instance is shared
+		TabixFile other = TabixFile.open(bedFile.getPath());
+		Assert.assertSame(tabixFile, other);
+		other.close();
+
+		Assert.assertTrue(tabixFile.getChromosomes().contains("chr2"));
+		List<String> unknown = tabixFile.query("chr3:1-1000");
+		Assert.assertTrue(unknown == null || unknown.isEmpty());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+		for (int i = 0; i < 40; i++) {
+			final String region = "chr" + (i % 2 + 1) + ":" + (i * 40000 + 1) + "-" + (i * 40000 + 300000);
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					List<String> lines = tabixFile.query(region);
+					Assert.assertFalse(lines.isEmpty());
+					Assert.assertEquals(queryWithoutCache(bedFile, region), lines);
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			Assert.assertTrue(result.get());
+		}
+		executor.shutdown();
+
+		// the same region again comes from the cache
+		long misses = FileBlockCache.getInstance().getMissCount();
+		Assert.assertEquals(queryWithoutCache(bedFile, "chr1:1-300000"), tabixFile.query("chr1:1-300000"));
+		Assert.assertEquals(misses, FileBlockCache.getInstance().getMissCount());
+
+		tabixFile.close();
+		FileBlockCache.getInstance().remove(bedFile.getPath());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		File bedFile = createBedFile();
+		FileBlockCache cache = new FileBlockCache(2 * FileBlockCache.BLOCK_SIZE);
+
+		CachedSeekableStream stream = new CachedSeekableStream(bedFile.getPath(), cache);
+		byte[] buffer = new byte[(int) stream.length()];
+		stream.readFully(buffer);
+		Assert.assertTrue(stream.eof());
+
+		Assert.assertTrue(cache.getSize() <= 2 * FileBlockCache.BLOCK_SIZE);
+		Assert.assertEquals(0, cache.getHitCount());
+
+		Assert.assertEquals(-1, stream.read());
+		stream.close();
+	}
+}
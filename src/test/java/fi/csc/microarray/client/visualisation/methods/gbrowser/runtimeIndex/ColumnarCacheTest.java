@@ -0,0 +1,156 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.IndexKey;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.ColumnarCache.Block;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedDataException;
+
+public class ColumnarCacheTest {
+
+	private static File createBedFile(boolean sorted) throws IOException {
+		File file = File.createTempFile("columnar-cache-test", ".bed");
+		file.deleteOnExit();
+
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.println("track name=test");
+			for (String chr : new String[] { "chr1", "chr2" }) {
+				for (int i = 0; i < 3000; i++) {
+					int start = sorted ? i * 100 : (i * 7919) % 3000 * 100;
+					writer.println(chr + "\t" + start + "\t" + (start + 50) + "\tpeak" + (i % 10) + "\t" + (i * 0.25f) + "\t" + (i % 2 == 0 ? "+" : "-"));
+				}
+			}
+			// numbers that can't be stored as numbers without changing the text
+			writer.println("chr3\t10\t20\tname\t1e-5\t+\t01");
+			writer.println("chr3\t30\t40\tname\t-0.5\t-");
+		}
+		return file;
+	}
+
+	@Test
+	public void testValues() throws IOException, UnsortedDataException, URISyntaxException, GBrowserException {
+
+		File bedFile = createBedFile(true);
+		File cacheFile = ColumnarCache.getCacheFile(bedFile);
+		cacheFile.deleteOnExit();
+
+		ColumnarCache cache = ColumnarCache.openOrCreate(bedFile, new BedLineParser(true));
+		Assert.assertTrue(ColumnarCache.isUpToDate(bedFile, cacheFile));
+
+		BinarySearchIndex index = new BinarySearchIndex(new RandomAccessLineDataSource(new DataUrl(bedFile)), new BedLineParser(true));
+		BedLineParser parser = new BedLineParser(true);
+
+		for (Region region : Arrays.asList(
+				new Region(1000l, 120000l, new Chromosome("chr1")),
+				new Region(1l, 1000000l, new Chromosome("2")),
+				new Region(1l, 100l, new Chromosome("chr3")))) {
+
+			TreeMap<IndexKey, String> lines = index.getFileLines(region);
+			TreeMap<IndexKey, String[]> rows = new TreeMap<>();
+
+			for (Block block : cache.getBlocks(region)) {
+				for (int row = 0; row < block.getRowCount(); row++) {
+					BpCoord start = new BpCoord(block.getStart(row), block.getChromosome());
+					if (region.contains(start)) {
+						rows.put(new IndexKey(start, block.getLineId(row)), block.getValues(row));
+					}
+				}
+			}
+
+			Assert.assertEquals(lines.keySet(), rows.keySet());
+
+			for (Entry<IndexKey, String> entry : lines.entrySet()) {
+				String[] values = rows.get(entry.getKey());
+				Assert.assertArrayEquals(entry.getValue().split("\t"), values);
+			}
+		}
+
+		// numbers come from the cache and the text from the dictionary
+		Block block = cache.getBlocks(new Region(1l, 100l, new Chromosome("chr3"))).get(0);
+		parser.setRow(block, 1);
+		Assert.assertEquals(new Region(31l, 41l, new Chromosome("chr3")), parser.getRegion());
+		Assert.assertEquals(-0.5f, parser.getFloat(BedLineParser.Column.SCORE.ordinal()), 0.0001f);
+		Assert.assertEquals(6, parser.getColumnCount());
+		parser.setRow(block, 0);
+		Assert.assertEquals("01", parser.getString(6));
+		Assert.assertEquals(7, parser.getColumnCount());
+	}
+
+	@Test
+	public void testLineIds() throws IOException, UnsortedDataException, URISyntaxException, GBrowserException {
+
+		// multi-byte characters and windows line endings, line ids must still be byte positions
+		File bedFile = File.createTempFile("columnar-cache-test", ".bed");
+		bedFile.deleteOnExit();
+		File cacheFile = ColumnarCache.getCacheFile(bedFile);
+		cacheFile.deleteOnExit();
+
+		List<Long> positions = new ArrayList<>();
+		List<String[]> expected = new ArrayList<>();
+		long position = 0;
+
+		try (OutputStream out = new FileOutputStream(bedFile)) {
+			for (int i = 0; i < 2000; i++) {
+				String line = "chr1\t" + (i * 100) + "\t" + (i * 100 + 50) + "\tpeäk€" + i;
+				byte[] bytes = (line + (i % 3 == 0 ? "\n" : "\r\n")).getBytes(StandardCharsets.UTF_8);
+				out.write(bytes);
+				positions.add(position);
+				expected.add(line.split("\t"));
+				position += bytes.length;
+			}
+		}
+
+		ColumnarCache cache = ColumnarCache.openOrCreate(bedFile, new BedLineParser(true));
+		Region region = new Region(1l, 1000000l, new Chromosome("chr1"));
+
+		List<Long> ids = new ArrayList<>();
+		List<String[]> values = new ArrayList<>();
+		TreeSet<IndexKey> keys = new TreeSet<>();
+		for (Block block : cache.getBlocks(region)) {
+			for (int row = 0; row < block.getRowCount(); row++) {
+				ids.add(block.getLineId(row));
+				values.add(block.getValues(row));
+				keys.add(new IndexKey(new BpCoord(block.getStart(row), block.getChromosome()), block.getLineId(row)));
+			}
+		}
+
+		Assert.assertEquals(positions, ids);
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertArrayEquals(expected.get(i), values.get(i));
+		}
+
+		BinarySearchIndex index = new BinarySearchIndex(new RandomAccessLineDataSource(new DataUrl(bedFile)), new BedLineParser(true));
+		Assert.assertEquals(keys, index.getFileLines(region).keySet());
+	}
+
+	@Test(expected = UnsortedDataException.class)
+	public void testUnsorted() throws IOException, UnsortedDataException {
+		File bedFile = createBedFile(false);
+		File cacheFile = ColumnarCache.getCacheFile(bedFile);
+		try {
+			ColumnarCache.create(bedFile, cacheFile, new BedLineParser(true));
+		} finally {
+			Assert.assertFalse(cacheFile.exists());
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataStatus;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.FeatureBatch;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+
+public class ResultMailboxTest {
+
+	private static final Chromosome CHR = new Chromosome("1");
+
+	private static DataResult createResult(DataRequest request, int featureCount) {
+		LinkedList<Feature> features = new LinkedList<Feature>();
+		for (int i = 0; i < featureCount; i++) {
+			features.add(new Feature(new Region((long) i, (long) i, CHR)));
+		}
+		return new DataResult(request, features);
+	}
+
+	private static DataRequest createRequest(long start, long end) {
+		return new DataRequest(new Region(start, end, CHR), Arrays.asList(DataType.VALUE), new DataStatus());
+	}
+
+	@Test
+	public void testCapacity() throws InterruptedException {
+		ResultMailbox mailbox = new ResultMailbox(2);
+		DataRequest request = createRequest(1, 100);
+
+		Assert.assertTrue(mailbox.offer(createResult(request, 1), 0, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(mailbox.offer(createResult(request, 1), 0, TimeUnit.MILLISECONDS));
+		Assert.assertFalse(mailbox.offer(createResult(request, 1), 0, TimeUnit.MILLISECONDS));
+
+		Assert.assertEquals(2, mailbox.drain().size());
+		Assert.assertEquals(0, mailbox.size());
+		Assert.assertTrue(mailbox.offer(createResult(request, 1), 0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testCoalesce() {
+		DataRequest old = createRequest(1, 100);
+		DataRequest current = createRequest(1000, 1100);
+		DataRequest other = createRequest(1050, 1200);
+
+		List<DataResult> results = Arrays.asList(
+				createResult(old, 1),
+				createResult(current, 2),
+				createResult(current, 3),
+				createResult(other, 1),
+				createResult(current, 1));
+
+		List<DataResult> coalesced = ResultMailbox.coalesce(results, new Region(900l, 1150l, CHR));
+
+		Assert.assertEquals(3, coalesced.size());
+		Assert.assertSame(current, coalesced.get(0).getRequest());
+		Assert.assertEquals(5, coalesced.get(0).getFeatures().size());
+		Assert.assertSame(other, coalesced.get(1).getRequest());
+		Assert.assertEquals(1, coalesced.get(2).getFeatures().size());
+
+		// without a data region nothing is removed
+		Assert.assertEquals(4, ResultMailbox.coalesce(results, null).size());
+	}
+
+	@Test
+	public void testCoalesceBatches() {
+		DataRequest request = createRequest(1, 100);
+
+		FeatureBatch first = new FeatureBatch(Chromosome.valueOf("chr1"), DataType.COVERAGE_AVERAGE, 1);
+		for (int i = 0; i < 20; i++) {
+			first.add(i, i + 1, Strand.FORWARD, i);
+		}
+		FeatureBatch second = new FeatureBatch(CHR, DataType.COVERAGE_AVERAGE, 1);
+		second.add(30, 31, null, 0.5f);
+
+		List<DataResult> coalesced = ResultMailbox.coalesce(Arrays.asList(
+				new DataResult(request, first),
+				new DataResult(request, second),
+				createResult(request, 2)), null);
+
+		// batches are joined only with each other
+		Assert.assertEquals(2, coalesced.size());
+		FeatureBatch joined = coalesced.get(0).getFeatureBatch();
+		Assert.assertEquals(21, joined.getCount());
+		Assert.assertEquals(20, first.getCount());
+		Assert.assertEquals(30, joined.getStart(20));
+		Assert.assertNull(joined.getStrand(20));
+		Assert.assertEquals(Strand.FORWARD, joined.getStrand(19));
+
+		// old API
+		Feature feature = coalesced.get(0).getFeatures().get(19);
+		Assert.assertEquals(new Region(19l, 20l, CHR), feature.region);
+		Assert.assertEquals(19f, feature.values.get(DataType.COVERAGE_AVERAGE));
+		Assert.assertEquals(Strand.FORWARD, feature.values.get(DataType.STRAND));
+		Assert.assertFalse(coalesced.get(0).getFeatures().get(20).values.containsKey(DataType.STRAND));
+	}
+}
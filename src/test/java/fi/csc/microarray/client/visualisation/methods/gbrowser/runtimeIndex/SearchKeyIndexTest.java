@@ -0,0 +1,79 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+
+public class SearchKeyIndexTest {
+
+	private static SearchKeyIndex createIndex() throws IOException {
+		SearchKeyIndex.Builder builder = new SearchKeyIndex.Builder();
+		builder.addLine("13\t32315474\t32400266\tBRCA2");
+		builder.addLine("17\t43044295\t43125483\tBRCA1");
+		builder.addLine("17\t43125000\t43126000\tbrca1");
+		builder.addLine("X\t100\t200\tBRCA1P1");
+		builder.addLine("1\t10\t20\tBRAF");
+		builder.addLine("1\t30\t40\tTP53");
+		// enough keys for several blocks
+		for (int i = 0; i < 100; i++) {
+			builder.addLine("2\t" + i + "\t" + (i + 1) + "\tGENE" + i);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void testSearch() throws IOException {
+		SearchKeyIndex index = createIndex();
+		Assert.assertEquals(106, index.getKeyCount());
+
+		Region region = index.search("brca2");
+		Assert.assertEquals(new Chromosome("13"), region.start.chr);
+		Assert.assertEquals(32315474l, region.start.bp);
+		Assert.assertEquals(32400266l, region.end.bp);
+
+		Assert.assertNotNull(index.search("Tp53"));
+		Assert.assertNotNull(index.search("gene0"));
+		Assert.assertNotNull(index.search("gene99"));
+		Assert.assertEquals(57l, index.search("GENE57").start.bp);
+		Assert.assertNull(index.search("brca"));
+		Assert.assertNull(index.search("zzz"));
+		Assert.assertNull(index.search("a"));
+	}
+
+	@Test
+	public void testSuggestions() throws IOException {
+		SearchKeyIndex index = createIndex();
+
+		Assert.assertEquals(Arrays.asList("BRCA1", "BRCA1P1", "BRCA2"), index.getSuggestions("brc", 10));
+		Assert.assertEquals(Arrays.asList("BRAF", "BRCA1"), index.getSuggestions("BR", 2));
+		Assert.assertEquals(Arrays.asList("GENE5", "GENE50", "GENE51"), index.getSuggestions("gene5", 3));
+		Assert.assertTrue(index.getSuggestions("x", 10).isEmpty());
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		File source = File.createTempFile("search-key-index-test", ".tsv");
+		File indexFile = new File(source.getPath() + SearchKeyIndex.FILE_SUFFIX);
+		try {
+			try (FileWriter writer = new FileWriter(source)) {
+				writer.write("1\t10\t20\tBRAF\n");
+			}
+			SearchKeyIndex.Builder builder = new SearchKeyIndex.Builder();
+			builder.addLine("1\t10\t20\tBRAF");
+			builder.write(source, indexFile);
+
+			Assert.assertTrue(SearchKeyIndex.isUpToDate(source, indexFile));
+			Assert.assertEquals(10l, SearchKeyIndex.open(indexFile).search("braf").start.bp);
+		} finally {
+			source.delete();
+			indexFile.delete();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+
+public class TileCacheTest {
+
+	private static final Chromosome CHR = new Chromosome("1");
+
+	private static TileCache.TileKey key(long tile) {
+		return new TileCache.TileKey("source", Arrays.asList(DataType.SEQUENCE), CHR, tile, 1024);
+	}
+
+	private static List<Feature> features(int count) {
+		List<Feature> features = new LinkedList<Feature>();
+		for (int i = 0; i < count; i++) {
+			features.add(new Feature(new Region((long) i, (long) i + 1, CHR)));
+		}
+		return features;
+	}
+
+	@Test
+	public void testHitRate() {
+		TileCache cache = new TileCache(1024 * 1024);
+
+		Assert.assertNull(cache.get(key(0)));
+		cache.put(key(0), features(3));
+
+		Assert.assertEquals(3, cache.get(key(0)).size());
+		Assert.assertEquals(3, cache.get(new TileCache.TileKey("source", Arrays.asList(DataType.SEQUENCE), new Chromosome("chr1"), 0, 1024)).size());
+		Assert.assertNull(cache.get(new TileCache.TileKey("source", Arrays.asList(DataType.SEQUENCE), CHR, 0, 2048)));
+		Assert.assertNull(cache.get(new TileCache.TileKey("other", Arrays.asList(DataType.SEQUENCE), CHR, 0, 1024)));
+
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(3, cache.getMissCount());
+		Assert.assertEquals(0.4, cache.getHitRate(), 0.0001);
+	}
+
+	@Test
+	public void testEviction() {
+		long tileSize = TileCache.estimateSize(features(10));
+		TileCache cache = new TileCache(3 * tileSize);
+
+		cache.put(key(0), features(10));
+		cache.put(key(1), features(10));
+		cache.put(key(2), features(10));
+
+		// use the first tile, so that the second is the least recently used
+		Assert.assertNotNull(cache.get(key(0)));
+		cache.put(key(3), features(10));
+
+		Assert.assertTrue(cache.contains(key(0)));
+		Assert.assertFalse(cache.contains(key(1)));
+		Assert.assertTrue(cache.contains(key(2)));
+		Assert.assertTrue(cache.contains(key(3)));
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(3 * tileSize, cache.getSize());
+
+		cache.remove("source");
+		Assert.assertEquals(0, cache.getTileCount());
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testTileSize() {
+		Assert.assertEquals(TileCache.MIN_TILE_SIZE, TileCache.getTileSize(100));
+		Assert.assertEquals(16384, TileCache.getTileSize(100000));
+		// small changes of the view don't change the tiles
+		Assert.assertEquals(16384, TileCache.getTileSize(120000));
+	}
+}
@@ -0,0 +1,97 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.track;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.PackedReads;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.TextCigarCodec;
+
+public class ReadPileLayoutTest {
+
+	private static final Chromosome CHR = new Chromosome("1");
+
+	@Test
+	public void testSplitRead() {
+		PackedReads reads = new PackedReads(CHR, 1);
+		// 2 soft clipped, 5 aligned, 100 skipped, 3 aligned with an insertion
+		reads.add(100, 207, "read1", Strand.REVERSE, true, TextCigarCodec.decode("2S5M100N1M2I2M"), "AACCCCCGTTGG");
+
+		Assert.assertEquals(2, reads.size());
+
+		Assert.assertEquals(100, reads.getStart(0));
+		Assert.assertEquals(104, reads.getEnd(0));
+		Assert.assertEquals(2, reads.getCigarCount(0));
+		Assert.assertEquals(CigarOperator.S, reads.getCigarOperator(0, 0));
+		Assert.assertEquals(5, reads.getCigarLength(0, 1));
+		Assert.assertEquals(7, reads.getSequenceLength(0));
+
+		Assert.assertEquals(205, reads.getStart(1));
+		Assert.assertEquals(207, reads.getEnd(1));
+		Assert.assertEquals(3, reads.getCigarCount(1));
+		Assert.assertEquals(CigarOperator.I, reads.getCigarOperator(1, 1));
+		Assert.assertEquals(5, reads.getSequenceLength(1));
+		Assert.assertEquals('G', reads.getBase(1, 0));
+		Assert.assertEquals(Strand.REVERSE, reads.getStrand(1));
+		Assert.assertTrue(reads.isMultimapping(1));
+	}
+
+	@Test
+	public void testLayout() {
+		PackedReads batch1 = new PackedReads(CHR, 4);
+		batch1.add(300, 349, "c", Strand.FORWARD, false, null, null);
+		batch1.add(100, 149, "a", Strand.FORWARD, false, null, null);
+		batch1.add(120, 169, "b", Strand.FORWARD, false, null, null);
+		batch1.add(130, 179, "r", Strand.REVERSE, false, null, null);
+
+		Region request = new Region(1l, 1000l, CHR);
+		ReadPileLayout layout = ReadPileLayout.create(null, Arrays.asList(batch1), Strand.FORWARD, request, 10);
+
+		// sorted, reverse strand left out
+		Assert.assertEquals(3, layout.getReads().size());
+		Assert.assertEquals(100, layout.getReads().getStart(0));
+		Assert.assertEquals(0, layout.getLayer(0));
+		Assert.assertEquals(1, layout.getLayer(1));
+		Assert.assertEquals(0, layout.getLayer(2));
+
+		// same read again from an overlapping request
+		PackedReads batch2 = new PackedReads(CHR, 2);
+		batch2.add(120, 169, "b", Strand.FORWARD, false, null, null);
+		batch2.add(110, 159, "d", Strand.FORWARD, false, null, null);
+		layout = ReadPileLayout.create(layout, Arrays.asList(batch2), Strand.FORWARD, request, 10);
+
+		Assert.assertEquals(4, layout.getReads().size());
+		Assert.assertEquals(110, layout.getReads().getStart(1));
+		Assert.assertEquals(2, layout.getLayer(2));
+
+		// reads outside the request are removed
+		layout = ReadPileLayout.create(layout, Collections.<PackedReads>emptyList(), Strand.FORWARD, new Region(200l, 1000l, CHR), 10);
+		Assert.assertEquals(1, layout.getReads().size());
+	}
+
+	@Test
+	public void testHidden() {
+		PackedReads reads = new PackedReads(CHR, 10);
+		for (int i = 0; i < 10; i++) {
+			reads.add(100, 149, "read" + i, Strand.FORWARD, false, null, null);
+		}
+
+		ReadPileLayout layout = ReadPileLayout.create(null, Arrays.asList(reads), Strand.FORWARD, new Region(1l, 1000l, CHR), 3);
+
+		int hidden = 0;
+		for (int i = 0; i < layout.getReads().size(); i++) {
+			if (layout.getLayer(i) == ReadPileLayout.HIDDEN) {
+				hidden++;
+			}
+		}
+		// layers 0-3 are used, like in the original layout
+		Assert.assertEquals(6, hidden);
+		Assert.assertTrue(layout.isWarning(3));
+	}
+}
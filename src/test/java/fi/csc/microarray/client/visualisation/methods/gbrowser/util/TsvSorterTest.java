@@ -0,0 +1,168 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.BedLineParser;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.GtfLineParser;
+
+public class TsvSorterTest {
+
+	// chromosome names of the same chromosome with and without the prefix
+	private static final String[] CHROMOSOMES = new String[] { "chr1", "1", "chr2", "2", "10", "chr10", "chrM", "chrX", "MT" };
+
+	private static File createFile(List<String> header, List<String> lines) throws IOException {
+		File file = File.createTempFile("tsv-sorter-test", ".tsv");
+		file.deleteOnExit();
+
+		try (PrintWriter writer = new PrintWriter(file)) {
+			for (String line : header) {
+				writer.println(line);
+			}
+			for (String line : lines) {
+				writer.println(line);
+			}
+		}
+		return file;
+	}
+
+	private static List<String> sort(File in, int chrColumn, int startColumn, TsvSorter sorter) throws Exception {
+		File out = File.createTempFile("tsv-sorter-test", ".sorted");
+		out.deleteOnExit();
+
+		sorter.sort(in, out, chrColumn, startColumn);
+		return Files.readAllLines(out.toPath(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Stable in-memory sort of the lines in the same order as {@link TsvSorter}.
+	 */
+	private static List<String> referenceSort(List<String> lines, final int chrColumn, final int startColumn) {
+		List<String> sorted = new ArrayList<String>(lines);
+		Collections.sort(sorted, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				String[] columns1 = o1.split("\t");
+				String[] columns2 = o2.split("\t");
+				int chrComparison = Chromosome.valueOf(columns1[chrColumn]).compareTo(Chromosome.valueOf(columns2[chrColumn]));
+				if (chrComparison != 0) {
+					return chrComparison;
+				}
+				return Long.compare(Long.parseLong(columns1[startColumn]), Long.parseLong(columns2[startColumn]));
+			}
+		});
+		return sorted;
+	}
+
+	private static List<String> createBedLines(int count, int maxStart) {
+		Random random = new Random(1);
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			String chr = CHROMOSOMES[random.nextInt(CHROMOSOMES.length)];
+			int start = random.nextInt(maxStart);
+			// the name tells the original order of the equal rows
+			lines.add(chr + "\t" + start + "\t" + (start + 10) + "\trow" + i);
+		}
+		return lines;
+	}
+
+	@Test
+	public void testMultipleChunks() throws Exception {
+
+		// a lot of equal rows, which end up in different chunks
+		List<String> lines = createBedLines(5000, 20);
+		File in = createFile(new ArrayList<String>(), lines);
+
+		TsvSorter sorter = new TsvSorter();
+		sorter.setChunkChars(500);
+
+		Assert.assertEquals(referenceSort(lines, 0, 1), sort(in, 0, 1, sorter));
+	}
+
+	@Test
+	public void testSingleChunk() throws Exception {
+
+		List<String> lines = createBedLines(1000, 100000);
+		File in = createFile(new ArrayList<String>(), lines);
+
+		Assert.assertEquals(referenceSort(lines, 0, 1), sort(in, 0, 1, new TsvSorter()));
+	}
+
+	@Test
+	public void testEqualRowsKeepOrder() throws Exception {
+
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			lines.add((i % 2 == 0 ? "chr1" : "1") + "\t100\t200\trow" + i);
+		}
+		File in = createFile(new ArrayList<String>(), lines);
+
+		TsvSorter sorter = new TsvSorter();
+		sorter.setChunkChars(100);
+
+		Assert.assertEquals(lines, sort(in, 0, 1, sorter));
+	}
+
+	@Test
+	public void testHeader() throws Exception {
+
+		List<String> header = new ArrayList<String>();
+		header.add("track name=test description=\"sorter test\"");
+
+		List<String> lines = createBedLines(2000, 1000);
+		File in = createFile(header, lines);
+
+		TsvSorter sorter = new TsvSorter();
+		sorter.setChunkChars(1000);
+
+		List<String> expected = new ArrayList<String>(header);
+		expected.addAll(referenceSort(lines, 0, 1));
+
+		File out = File.createTempFile("tsv-sorter-test", ".sorted");
+		out.deleteOnExit();
+		sorter.sort(in, out, 0, 1, new BedLineParser(true));
+
+		Assert.assertEquals(expected, Files.readAllLines(out.toPath(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testComments() throws Exception {
+
+		List<String> header = new ArrayList<String>();
+		header.add("#!genome-build test");
+		header.add("#!genome-version test");
+
+		Random random = new Random(2);
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			String chr = CHROMOSOMES[random.nextInt(CHROMOSOMES.length)];
+			int start = random.nextInt(500);
+			lines.add(chr + "\ttest\texon\t" + start + "\t" + (start + 10) + "\t.\t+\t.\tgene_id \"gene" + i + "\";");
+		}
+		File in = createFile(header, lines);
+
+		TsvSorter sorter = new TsvSorter();
+		sorter.setChunkChars(2000);
+
+		List<String> expected = new ArrayList<String>(header);
+		expected.addAll(referenceSort(lines, 0, 3));
+
+		File out = File.createTempFile("tsv-sorter-test", ".sorted");
+		out.deleteOnExit();
+		sorter.sort(in, out, 0, 3, new GtfLineParser());
+
+		Assert.assertEquals(expected, Files.readAllLines(out.toPath(), StandardCharsets.UTF_8));
+	}
+}
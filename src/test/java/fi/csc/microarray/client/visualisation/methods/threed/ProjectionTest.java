@@ -0,0 +1,110 @@
+package fi.csc.microarray.client.visualisation.methods.threed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProjectionTest {
+
+	@Test
+	public void testSmallDataSet() {
+		testProjection(100);
+	}
+
+	/**
+	 * Large enough to be projected and sorted in parallel.
+	 */
+	@Test
+	public void testLargeDataSet() {
+		testProjection(50000);
+	}
+
+	/**
+	 * Time of one frame, which is the projection and the depth sort of all points. 
+	 * The limit is generous to tolerate slow test machines, a desktop computer 
+	 * should manage this in a few milliseconds.
+	 */
+	@Test
+	public void testFrameTime() {
+		DataModel dataModel = createDataModel(50000);
+		Projection projection = new Projection(dataModel);
+
+		// let the JIT compile the projection first
+		for (int i = 0; i < 20; i++) {
+			projection.setYAxisRotation(i * 0.1);
+			projection.doProjection();
+		}
+
+		int frames = 50;
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < frames; i++) {
+			projection.setYAxisRotation(i * 0.1);
+			projection.doProjection();
+		}
+		float frameTime = (float)(System.currentTimeMillis() - time) / frames;
+		
+		System.out.println("Projection of 50000 points: " + frameTime + " ms per frame");
+		Assert.assertTrue("projection took " + frameTime + " ms per frame", frameTime < 200);
+	}
+
+	private void testProjection(int size) {
+		DataModel dataModel = createDataModel(size);
+		Projection projection = new Projection(dataModel);
+		projection.setXAxisRotation(0.3);
+		projection.setYAxisRotation(1.2);
+
+		// second round reuses the arrays
+		projection.doProjection();
+		projection.setZAxisRotation(0.7);
+		int visibleCount = projection.doProjection();
+
+		int expectedCount = 0;
+		for (Drawable d : dataModel.getDataArray()) {
+			if (d.visualisationCoords[0][2] > -5 || (d.visualisationCoords.length > 1 && d.visualisationCoords[1][2] > -5)) {
+				expectedCount++;
+			}
+		}
+		Assert.assertEquals(expectedCount, visibleCount);
+
+		// farthest first
+		Drawable[] drawOrder = projection.getDrawOrder();
+		double previous = Double.MAX_VALUE;
+		for (int i = 0; i < visibleCount; i++) {
+			double distance = average(drawOrder[i].getDistanceFromCamera());
+			Assert.assertTrue(distance <= previous + 1e-5);
+			Assert.assertFalse(Double.isNaN(drawOrder[i].projectedCoords[0][0]));
+			previous = distance;
+		}
+	}
+
+	private static DataModel createDataModel(int size) {
+		Random random = new Random(1);
+		List<String> identifiers = new ArrayList<String>();
+		List<Float> x = new ArrayList<Float>();
+		List<Float> y = new ArrayList<Float>();
+		List<Float> z = new ArrayList<Float>();
+		List<Float> c = new ArrayList<Float>();
+		for (int i = 0; i < size; i++) {
+			identifiers.add("gene" + i);
+			x.add(random.nextFloat());
+			y.add(random.nextFloat());
+			z.add(random.nextFloat());
+			c.add(random.nextFloat());
+		}
+
+		DataModel dataModel = new DataModel();
+		dataModel.setData(identifiers, x, y, z, c);
+		return dataModel;
+	}
+
+	private static double average(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+}
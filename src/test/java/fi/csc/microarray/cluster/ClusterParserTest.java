@@ -1,5 +1,6 @@
 package fi.csc.microarray.cluster;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class ClusterParserTest {
@@ -27,6 +28,47 @@ public class ClusterParserTest {
 		new ClusterParser(geneNamesWithNumbers).getTree();
 	}
 	
+	@Test
+	public void testArrayTree() throws TreeParseException {
+		ClusterTree tree = new ClusterParser(basicTree).parse();
+		Assert.assertEquals(33, tree.getLeafCount());
+		Assert.assertEquals(65, tree.getNodeCount());
+		Assert.assertEquals("211357_s_at", tree.getGene(0));
+		Assert.assertEquals("221872_at", tree.getGene(32));
+		
+		int firstLeaf = tree.getLeftChild(tree.getLeftChild(tree.getLeftChild(tree.getRoot())));
+		Assert.assertEquals(0, tree.getLeafIndex(firstLeaf));
+		Assert.assertEquals(0.0085309292f, tree.getLength(firstLeaf), 0f);
+		Assert.assertEquals(3, tree.getDepths()[firstLeaf]);
+		Assert.assertEquals(ClusterTree.NONE, tree.getParent(tree.getRoot()));
+	}
+
+	/**
+	 * Completely unbalanced tree, which would overflow the stack if parsed recursively.
+	 */
+	@Test
+	public void testDeepTree() throws TreeParseException {
+		int leafCount = 100000;
+		StringBuilder tree = new StringBuilder();
+		for (int i = 0; i < leafCount - 1; i++) {
+			tree.append("(gene" + i + ":0.5,");
+		}
+		tree.append("gene" + (leafCount - 1) + ":0.5");
+		for (int i = 0; i < leafCount - 2; i++) {
+			tree.append("):0.5");
+		}
+		tree.append(");");
+		
+		ClusterTree parsed = new ClusterParser(tree.toString()).parse();
+		Assert.assertEquals(leafCount, parsed.getLeafCount());
+		Assert.assertEquals("gene" + (leafCount - 1), parsed.getGene(leafCount - 1));
+	}
+
+	@Test(expected = TreeParseException.class)
+	public void testUnclosed() throws TreeParseException {
+		new ClusterParser("((a:1,b:1):1,c:1;").parse();
+	}
+
 	public static void main(String[] args) throws TreeParseException {
 		new ClusterParserTest().test();
 		System.out.println("alles ok");
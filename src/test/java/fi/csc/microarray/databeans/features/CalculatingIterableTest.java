@@ -0,0 +1,54 @@
+package fi.csc.microarray.databeans.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.databeans.features.CalculatingIterable.CalcOperation;
+
+public class CalculatingIterableTest {
+
+	private static List<Float> asList(float[] array) {
+		List<Float> list = new ArrayList<Float>();
+		for (float value : array) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	@Test
+	public void testTwoOperands() {
+		float[] f1 = new float[] { 1f, 2f, 0f, -3f, Float.NaN, 1024f };
+		float[] f2 = new float[] { 4f, 0.5f, 0f, 3f, 1f };
+
+		for (CalcOperation operation : new CalcOperation[] { CalcOperation.ADD, CalcOperation.SUBTRACT, CalcOperation.MULTIPLY, CalcOperation.DIVIDE }) {
+			float[] expected = new float[f1.length];
+			int length = 0;
+			for (float value : new CalculatingIterable(asList(f1), asList(f2), operation)) {
+				expected[length++] = value;
+			}
+			expected = Arrays.copyOf(expected, length);
+
+			Assert.assertArrayEquals(operation.toString(), expected, CalculatingIterable.calculate(f1, f2, operation), 0.0001f);
+		}
+	}
+
+	@Test
+	public void testSingleOperand() {
+		float[] values = new float[] { 1f, 8f, 0.25f };
+
+		for (CalcOperation operation : new CalcOperation[] { CalcOperation.LOG_2, CalcOperation.NEGATE }) {
+			List<Float> expected = new ArrayList<Float>();
+			for (float value : new CalculatingIterable(asList(values), null, operation)) {
+				expected.add(value);
+			}
+			Assert.assertEquals(expected, asList(CalculatingIterable.calculate(values, null, operation)));
+		}
+
+		Assert.assertArrayEquals(new float[] { 0f, 3f, -2f }, CalculatingIterable.calculate(values, null, CalcOperation.LOG_2), 0.0001f);
+		Assert.assertArrayEquals(new float[] { -1f, -8f, -0.25f }, CalculatingIterable.calculate(values, null, CalcOperation.NEGATE), 0f);
+	}
+}
@@ -0,0 +1,97 @@
+package fi.csc.microarray.databeans.features.table;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.databeans.features.table.TableColumnProvider.MatrixParseSettings;
+
+public class TableIndexTest {
+
+	private static File createFile(String content) throws IOException {
+		File file = File.createTempFile("table-index-test", ".tsv");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+		return file;
+	}
+
+	private static MatrixParseSettings createSettings(String... columns) {
+		MatrixParseSettings settings = new MatrixParseSettings();
+		for (String column : columns) {
+			settings.addColumn(column);
+		}
+		return settings;
+	}
+
+	/**
+	 * Index of a table with a column name row, for the tests of the classes that read the index.
+	 */
+	public static TableIndex createIndex(String content, String... columns) throws IOException {
+		return new TableIndex(createFile(content), createSettings(columns));
+	}
+
+	@Test
+	public void testRows() throws IOException {
+		StringBuilder content = new StringBuilder("#comment\n#another\r\nid\tvalue\r\n");
+		for (int i = 0; i < 1000; i++) {
+			content.append("row" + i + "\t" + (i % 2 == 0 ? "EMPTY" : i) + "\r\n");
+		}
+		content.append("short\n");
+		content.append("  \n");
+		content.append("after\t1\n");
+
+		MatrixParseSettings settings = createSettings("id", "value");
+		settings.headerBytes = "#comment\n#another\n".length();
+
+		TableIndex index = new TableIndex(createFile(content.toString()), settings);
+
+		// the empty line ends the table
+		Assert.assertEquals(1001, index.getRowCount());
+
+		List<String[]> rows = index.readRows(0, 2);
+		Assert.assertArrayEquals(new String[] { "row0", "NaN" }, rows.get(0));
+		Assert.assertArrayEquals(new String[] { "row1", "1" }, rows.get(1));
+
+		// rows between the stored offsets
+		rows = index.readRows(TableIndex.SAMPLE_INTERVAL * 3 + 5, 3);
+		Assert.assertEquals(3, rows.size());
+		Assert.assertEquals("row" + (TableIndex.SAMPLE_INTERVAL * 3 + 5), rows.get(0)[0]);
+
+		// too short rows are stuffed with empty cells
+		rows = index.readRows(999, 10);
+		Assert.assertEquals(2, rows.size());
+		Assert.assertArrayEquals(new String[] { "short", "" }, rows.get(1));
+
+		Assert.assertEquals(0, index.readRows(1001, 10).size());
+	}
+
+	@Test
+	public void testHeaderEndsInTheMiddleOfLine() throws IOException {
+		MatrixParseSettings settings = createSettings("x", "y");
+		settings.headerBytes = "[CEL]\nCellHeader=".length();
+		settings.footerStarter = "[MASKS]";
+
+		String content = "[CEL]\nCellHeader=x\ty\n1\t2\n3\t4\n[MASKS]\n5\t6\n";
+		TableIndex index = new TableIndex(createFile(content), settings);
+
+		Assert.assertEquals(2, index.getRowCount());
+		Assert.assertArrayEquals(new String[] { "3", "4" }, index.readRows(1, 1).get(0));
+	}
+
+	@Test
+	public void testWithoutColumnNames() throws IOException {
+		MatrixParseSettings settings = createSettings("column0", "column1");
+		settings.hasColumnNames = false;
+
+		TableIndex index = new TableIndex(createFile("a\tb\nc\td"), settings);
+
+		Assert.assertEquals(2, index.getRowCount());
+		Assert.assertArrayEquals(new String[] { "c", "d" }, index.readRows(1, 1).get(0));
+	}
+}
@@ -1,12 +1,16 @@
 package fi.csc.microarray.gbrowser.intervals;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -17,6 +21,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.RegionOperations;
+import fi.csc.microarray.util.Files;
 
 public class RegionOperationsTest {
 
@@ -152,6 +157,39 @@ public class RegionOperationsTest {
 	}
 	
 	
+	@Test
+	public void testSplitByChromosome() throws Exception {
+		RegionOperations tool = new RegionOperations();
+
+		File dir = File.createTempFile("region-operations-test-", "");
+		dir.delete();
+		dir.mkdir();
+		File input = new File(dir, "input.bed");
+		
+		try {
+			FileWriter writer = new FileWriter(input);
+			writer.write(
+					"track name=test\n" +
+					"chr2\t100\t200\tcloneA\n" +
+					"chr10\t100\t200\tcloneB\n" +
+					"chr1\t300\t400\tcloneC\n" +
+					"chr2\t50\t60\tcloneD\n" +
+					"1\t100\t200\tcloneE\n");
+			writer.close();
+
+			TreeMap<Chromosome, File> files = tool.splitByChromosome(input, dir, "split-");
+
+			// Chromosomes are in the sort order and chromosome names with and without prefix are equal
+			Assert.assertEquals(Arrays.asList(new Chromosome("1"), new Chromosome("2"), new Chromosome("10")), new LinkedList<Chromosome>(files.keySet()));
+			Assert.assertEquals("chr1\t300\t400\tcloneC\n1\t100\t200\tcloneE\n", Files.fileToString(files.get(new Chromosome("1"))));
+			Assert.assertEquals("chr2\t100\t200\tcloneA\nchr2\t50\t60\tcloneD\n", Files.fileToString(files.get(new Chromosome("2"))));
+			Assert.assertEquals(1, tool.loadFile(files.get(new Chromosome("10"))).size());
+
+		} finally {
+			Files.delTree(dir);
+		}
+	}
+	
 	public static void main(String[] args) throws Exception {
 		new RegionOperationsTest().test();
 		new RegionOperationsTest().testSort();
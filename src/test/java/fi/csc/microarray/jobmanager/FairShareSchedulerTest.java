@@ -0,0 +1,96 @@
+package fi.csc.microarray.jobmanager;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.jobmanager.WaitingJobQueue.WaitingJob;
+import fi.csc.microarray.messaging.message.JobMessage;
+
+public class FairShareSchedulerTest {
+
+	private long now = System.currentTimeMillis();
+
+	@Test
+	public void testUsersAreInterleaved() {
+		List<WaitingJob> jobs = Arrays.asList(new WaitingJob[] {
+				job("a1", "alice", 0),
+				job("a2", "alice", 0),
+				job("a3", "alice", 0),
+				job("b1", "bob", 0),
+				job("b2", "bob", 0),
+		});
+
+		FairShareScheduler scheduler = new FairShareScheduler(new HashMap<String, Double>(), new HashMap<String, Double>(), 0, null);
+		Assert.assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3"), ids(scheduler.order(jobs)));
+	}
+
+	@Test
+	public void testUserWeights() {
+		List<WaitingJob> jobs = Arrays.asList(new WaitingJob[] {
+				job("a1", "alice", 0),
+				job("a2", "alice", 0),
+				job("a3", "alice", 0),
+				job("a4", "alice", 0),
+				job("b1", "bob", 0),
+				job("b2", "bob", 0),
+		});
+
+		FairShareScheduler scheduler = new FairShareScheduler(FairShareScheduler.parseWeights("alice=2, bob=1"), new HashMap<String, Double>(), 0, null);
+		Assert.assertEquals(Arrays.asList("a1", "b1", "a2", "a3", "b2", "a4"), ids(scheduler.order(jobs)));
+	}
+
+	@Test
+	public void testAging() {
+		List<WaitingJob> jobs = Arrays.asList(new WaitingJob[] {
+				job("a1", "alice", 3000),
+				job("a2", "alice", 3000),
+				job("a3", "alice", 3000),
+				job("b1", "bob", 0),
+		});
+
+		// alice's jobs have waited for 5 aging periods
+		FairShareScheduler scheduler = new FairShareScheduler(new HashMap<String, Double>(), new HashMap<String, Double>(), 600, null);
+		Assert.assertEquals(Arrays.asList("a1", "a2", "a3", "b1"), ids(scheduler.order(jobs)));
+
+		Map<String, Integer> positions = scheduler.getQueuePositions(jobs);
+		Assert.assertEquals(Integer.valueOf(1), positions.get("a1"));
+		Assert.assertEquals(Integer.valueOf(4), positions.get("b1"));
+	}
+
+	@Test
+	public void testUnknownModuleIsAccepted() {
+		// without the toolbox the module isn't known, so the comp decides itself
+		FairShareScheduler scheduler = new FairShareScheduler(new HashMap<String, Double>(), new HashMap<String, Double>(), 0, null);
+		Assert.assertTrue(scheduler.isAccepted(job("a1", "alice", 0), "include", "other"));
+		Assert.assertTrue(scheduler.isAccepted(job("a1", "alice", 0), null, null));
+	}
+
+	@Test
+	public void testParseWeights() {
+		Map<String, Double> weights = FairShareScheduler.parseWeights(" alice=2,bob=0.5, broken, negative=-1,");
+		Assert.assertEquals(2, weights.size());
+		Assert.assertEquals(2.0, weights.get("alice"), 0);
+		Assert.assertEquals(0.5, weights.get("bob"), 0);
+	}
+
+	private WaitingJob job(String jobId, String username, int waitedSeconds) {
+		JobMessage msg = new JobMessage(jobId, "tool.R", new LinkedList<String>());
+		msg.setUsername(username);
+		return new WaitingJob(msg, null, new Date(now - waitedSeconds * 1000l));
+	}
+
+	private List<String> ids(List<WaitingJob> jobs) {
+		List<String> ids = new LinkedList<>();
+		for (WaitingJob job : jobs) {
+			ids.add(job.getJobId());
+		}
+		return ids;
+	}
+}
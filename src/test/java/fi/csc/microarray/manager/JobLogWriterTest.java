@@ -0,0 +1,114 @@
+package fi.csc.microarray.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+public class JobLogWriterTest {
+
+	private static final String CREATE_JOBS_TABLE =
+			"CREATE TABLE IF NOT EXISTS jobs (" +
+			"id VARCHAR(100) PRIMARY KEY, " +
+			"operation VARCHAR(200), " +
+			"status VARCHAR(200), " +
+			"starttime DATETIME DEFAULT NULL, " +
+			"endtime DATETIME DEFAULT NULL, " +
+			"wallclockTime INT DEFAULT NULL, " +
+			"errorMessage TEXT DEFAULT NULL, " +
+			"outputText TEXT DEFAULT NULL, " +
+			"username VARCHAR(200), " +
+			"compHost VARCHAR(500)" +
+			");";
+
+	private static DriverManagerDataSource createDataSource(String url) {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource();
+		dataSource.setDriverClassName("org.h2.Driver");
+		dataSource.setUrl(url);
+		dataSource.setUsername("sa");
+		dataSource.setPassword("");
+		return dataSource;
+	}
+
+	@Test
+	public void testBatches() throws InterruptedException {
+
+		DriverManagerDataSource dataSource = createDataSource("jdbc:h2:mem:job-log-writer-test;DB_CLOSE_DELAY=-1");
+
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute(CREATE_JOBS_TABLE);
+		JobStatsRollup jobStats = new JobStatsRollup(jdbcTemplate);
+		jobStats.init();
+
+		JobLogWriter writer = new JobLogWriter(dataSource, jobStats, 100, 64, 50);
+		writer.start();
+
+		Date start = new Date(1400000000000l);
+		Date end = new Date(start.getTime() + 90 * 1000);
+
+		for (int i = 0; i < 1000; i++) {
+			writer.add(new JobLogWriter.JobLog("job" + i, "tool" + (i % 3), "COMPLETED", start, end, null, null, "user", "comp"));
+		}
+		// duplicate id is skipped, but the rest of its batch is inserted
+		writer.add(new JobLogWriter.JobLog("job0", "tool0", "COMPLETED", start, end, null, null, "user", "comp"));
+		writer.add(new JobLogWriter.JobLog("job1000", "tool0", "FAILED", start, null, "error", null, "user", "comp"));
+		writer.close();
+
+		Assert.assertEquals(1001, writer.getWrittenCount());
+		Assert.assertEquals(1, writer.getIntegrityFailedCount());
+		Assert.assertEquals(0, writer.getFailedCount());
+		Assert.assertEquals(0, writer.getQueueLength());
+
+		Assert.assertEquals(1001, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs"));
+		Assert.assertEquals(1001, jdbcTemplate.queryForInt("SELECT SUM(jobCount) FROM job_stats"));
+		Assert.assertEquals(335, jdbcTemplate.queryForInt("SELECT jobCount FROM job_stats WHERE operation = 'tool0'"));
+		Assert.assertEquals(90, jdbcTemplate.queryForInt("SELECT wallclockTime FROM jobs WHERE id = 'job999'"));
+		Assert.assertEquals(1, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs WHERE id = 'job1000' AND wallclockTime IS NULL AND endtime IS NULL"));
+	}
+
+	@Test
+	public void testSpillFile() throws InterruptedException, IOException {
+
+		File spillFile = File.createTempFile("job-log-writer-test", ".spill");
+		spillFile.delete();
+		spillFile.deleteOnExit();
+
+		Date start = new Date(1400000000000l);
+		Date end = new Date(start.getTime() + 90 * 1000);
+
+		// database is down, so the job logs are saved when the writer is closed
+		DriverManagerDataSource unavailable = createDataSource("jdbc:h2:tcp://localhost:1/job-log-writer-test");
+		JobLogWriter writer = new JobLogWriter(unavailable, null, 100, 64, 50, spillFile);
+		writer.start();
+		for (int i = 0; i < 100; i++) {
+			writer.add(new JobLogWriter.JobLog("job" + i, "tool", "COMPLETED", start, i % 2 == 0 ? end : null, null, "output\n\tä", "user", "comp"));
+		}
+		writer.close();
+
+		Assert.assertEquals(0, writer.getWrittenCount());
+		Assert.assertEquals(0, writer.getFailedCount());
+		Assert.assertTrue(spillFile.exists());
+
+		// saved job logs are written when the database is up again
+		DriverManagerDataSource dataSource = createDataSource("jdbc:h2:mem:job-log-writer-spill-test;DB_CLOSE_DELAY=-1");
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute(CREATE_JOBS_TABLE);
+		JobStatsRollup jobStats = new JobStatsRollup(jdbcTemplate);
+		jobStats.init();
+
+		writer = new JobLogWriter(dataSource, jobStats, 100, 64, 50, spillFile);
+		writer.start();
+		writer.add(new JobLogWriter.JobLog("job100", "tool", "COMPLETED", start, end, null, null, "user", "comp"));
+		writer.close();
+
+		Assert.assertEquals(101, writer.getWrittenCount());
+		Assert.assertFalse(spillFile.exists());
+		Assert.assertEquals(101, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs"));
+		Assert.assertEquals(50, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs WHERE endtime IS NULL"));
+		Assert.assertEquals("output\n\tä", jdbcTemplate.queryForObject("SELECT outputText FROM jobs WHERE id = 'job1'", String.class));
+	}
+}
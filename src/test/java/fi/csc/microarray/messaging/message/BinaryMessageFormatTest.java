@@ -0,0 +1,72 @@
+package fi.csc.microarray.messaging.message;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQMapMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.messaging.JobState;
+
+public class BinaryMessageFormatTest {
+
+	@Test
+	public void testJobMessage() throws JMSException {
+		String dataId = UUID.randomUUID().toString();
+		JobMessage original = new JobMessage(UUID.randomUUID().toString(), "norm-affy.R", Arrays.asList(new String[] {"RMA", "", "ä"}));
+		original.setUsername("chipster");
+		original.addPayload("input.tsv", dataId, "normalized.tsv");
+		original.addNamedParameter("not-a-uuid", "0123456789abcdef0123456789ABCDEF0123");
+
+		JobMessage copy = new JobMessage();
+		copy.unmarshal(BinaryMessageFormat.fromBytes(BinaryMessageFormat.toBytes(original)));
+
+		Assert.assertEquals(original.getMessageID(), copy.getMessageID());
+		Assert.assertEquals(original.getJobId(), copy.getJobId());
+		Assert.assertEquals(original.getToolId(), copy.getToolId());
+		Assert.assertEquals("chipster", copy.getUsername());
+		Assert.assertEquals(original.getParameters(), copy.getParameters());
+		Assert.assertEquals(dataId, copy.getId("input.tsv"));
+		Assert.assertEquals("normalized.tsv", copy.getName("input.tsv"));
+		Assert.assertEquals("0123456789abcdef0123456789ABCDEF0123", copy.getNamedParameter("not-a-uuid"));
+	}
+
+	@Test
+	public void testResultMessage() throws JMSException {
+		ResultMessage original = new ResultMessage();
+		original.setJobId(UUID.randomUUID().toString());
+		original.setState(JobState.COMPLETED);
+		original.setOutputText(new String(new char[100000]).replace('\0', 'x'));
+
+		ResultMessage copy = new ResultMessage();
+		copy.unmarshal(BinaryMessageFormat.fromBytes(BinaryMessageFormat.toBytes(original)));
+
+		Assert.assertEquals(original.getJobId(), copy.getJobId());
+		Assert.assertEquals(JobState.COMPLETED, copy.getState());
+		Assert.assertEquals(original.getOutputText(), copy.getOutputText());
+		Assert.assertNull(copy.getErrorMessage());
+	}
+
+	@Test
+	public void testSmallerThanMapMessage() throws JMSException {
+		JobMessage message = new JobMessage(UUID.randomUUID().toString(), "norm-affy.R", Arrays.asList(new String[] {"RMA"}));
+		for (int i = 0; i < 50; i++) {
+			message.addPayload("input" + i, UUID.randomUUID().toString(), "data" + i);
+		}
+
+		ActiveMQMapMessage mapMessage = new ActiveMQMapMessage();
+		message.marshal(mapMessage);
+		mapMessage.storeContent();
+
+		Assert.assertTrue(BinaryMessageFormat.toBytes(message).length < mapMessage.getContent().getLength());
+	}
+
+	@Test(expected = JMSException.class)
+	public void testTruncated() throws JMSException {
+		byte[] bytes = BinaryMessageFormat.toBytes(new CommandMessage(CommandMessage.COMMAND_GET_JOB));
+		BinaryMessageFormat.fromBytes(Arrays.copyOf(bytes, bytes.length - 3));
+	}
+}
@@ -0,0 +1,41 @@
+package fi.csc.microarray.messaging.message;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQMapMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UrlListMessageTest {
+
+	@Test
+	public void testMarshalling() throws JMSException, MalformedURLException {
+		List<URL> urls = Arrays.asList(new URL[] {
+				new URL("http://localhost:8080/cache/a"),
+				null,
+				new URL("http://localhost:8080/storage/b"),
+				null});
+
+		Assert.assertEquals(urls, roundTrip(urls));
+	}
+
+	@Test
+	public void testEmptyList() throws JMSException {
+		Assert.assertEquals(new LinkedList<URL>(), roundTrip(new LinkedList<URL>()));
+	}
+
+	private List<URL> roundTrip(List<URL> urls) throws JMSException {
+		ActiveMQMapMessage mapMessage = new ActiveMQMapMessage();
+		new UrlListMessage(urls).marshal(mapMessage);
+
+		UrlListMessage message = new UrlListMessage();
+		message.unmarshal(mapMessage);
+		return message.getUrlList();
+	}
+}